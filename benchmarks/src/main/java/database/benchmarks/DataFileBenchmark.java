@@ -0,0 +1,159 @@
+package database.benchmarks;
+
+import database.DataFile;
+import database.DataManager;
+import database.Index;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Whole file operations: inserting records through the indexes, building an index, and
+// saving and restoring files and indexes. Most of these take milliseconds, so the average
+// time of a call is reported together with sampled latency percentiles
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataFileBenchmark {
+
+	@Param({"SEQUENTIAL", "RANDOM", "ZIPFIAN", "DUPLICATES"})
+	public KeyDistribution distribution;
+
+	@Param({"10000", "100000"})
+	public int size;
+
+	@Param({"64"})
+	public int fanout;
+
+	// The directory the trial runs in, and the name and path of its file
+	private File directory;
+	private String fileName;
+
+	// The file, which has one index over its key column
+	private DataFile fileObj;
+
+	// The records inserted by insertRecord
+	private List<Map<String, String>> extraRecords;
+
+	// The position in extraRecords of the next insert
+	private int next;
+
+	// The record Ids of the records that dumpFile and dumpIndex change
+	private int[] changedIds;
+
+	// --------------------------------------------------------------------------------------
+	// Builds the file and its index once per trial
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = Datasets.newDirectory();
+		String[] keys = distribution.generate(size, 1);
+		String[] extraKeys = distribution.generate(size, 2);
+		extraRecords = new ArrayList<Map<String, String>>(size);
+		for(int i = 0; i < size; i++) {
+			extraRecords.add(Datasets.record(extraKeys[i]));
+		}
+
+		fileObj = Datasets.createFile(directory, "bench", keys);
+		fileName = fileObj.getFileName();
+		fileObj.createIndex("idx", Datasets.KEY_COLUMN, fanout);
+		DataManager.checkpoint();
+
+		changedIds = new int[Math.min(100, size)];
+		for(int i = 0; i < changedIds.length; i++) {
+			changedIds[i] = i;
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Datasets.close(directory);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Inserts a record into the file and its index. The file grows with every call
+
+	@Benchmark
+	@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public int insertRecord() {
+		Map<String, String> record = extraRecords.get(next);
+		next = next + 1 == size ? 0 : next + 1;
+		return fileObj.insertRecord(record);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Builds a second index over the records of the file, then drops it again
+
+	@Benchmark
+	public Index createIndex() throws IOException {
+		Index indexObj = fileObj.createIndex("built", Datasets.KEY_COLUMN, fanout);
+		fileObj.dropIndex("built");
+		return indexObj;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Changes a hundred records and saves the file, which writes only the parts of the file
+	// that changed
+
+	@Benchmark
+	public void dumpFile() throws IOException {
+		changeRecords();
+		fileObj.dumpFile();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Changes a hundred entries and saves the index, which writes only the pages that changed
+
+	@Benchmark
+	public void dumpIndex() throws IOException {
+		changeRecords();
+		fileObj.getIndex("idx").dumpIndex();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Saves and closes everything, then restores the file and its index and reads every
+	// record through the index, so that all of it is read back from disk
+
+	@Benchmark
+	public void restoreFileAndIndex(Blackhole blackhole) throws IOException {
+		DataManager.exit();
+		fileObj = DataManager.restoreFile(fileName);
+		Index indexObj = fileObj.restoreIndex("idx");
+		Iterator<Integer> it = indexObj.iterator(null, null, true, true);
+		while(it.hasNext()) {
+			blackhole.consume(fileObj.getRecord(it.next()));
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Deletes a hundred records and inserts them again, under new record Ids
+
+	private void changeRecords() {
+		for(int i = 0; i < changedIds.length; i++) {
+			Map<String, String> record = fileObj.getRecord(changedIds[i]);
+			fileObj.deleteRecord(changedIds[i]);
+			changedIds[i] = fileObj.insertRecord(record);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package database.benchmarks;
+
+import database.DataFile;
+import database.DataManager;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+// Builds the files the benchmarks run against, in a directory of their own
+public final class Datasets {
+
+	// The column that the benchmark keys are stored in
+	public static final String KEY_COLUMN = "key";
+
+	// A second column, so that records are not made of the key alone
+	public static final String VALUE_COLUMN = "value";
+
+	private Datasets() {
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates an empty directory for the files of one benchmark trial
+
+	public static File newDirectory() throws IOException {
+		return Files.createTempDirectory("record-manager-bench").toFile();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the descriptor of the files the benchmarks create
+
+	public static Map<String, Integer> descriptor() {
+		Map<String, Integer> descriptor = new HashMap<String, Integer>();
+		descriptor.put(KEY_COLUMN, KeyDistribution.KEY_WIDTH);
+		descriptor.put(VALUE_COLUMN, 20);
+		return descriptor;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a record holding the given key
+
+	public static Map<String, String> record(String key) {
+		Map<String, String> record = new HashMap<String, String>();
+		record.put(KEY_COLUMN, key);
+		record.put(VALUE_COLUMN, "value-" + key);
+		return record;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a file in the directory holding one record for every key
+
+	public static DataFile createFile(File directory, String name, String[] keys) throws IOException {
+		DataFile fileObj = DataManager.createFile(new File(directory, name).getPath(), descriptor());
+		for(int i = 0; i < keys.length; i++) {
+			fileObj.insertRecord(record(keys[i]));
+		}
+		return fileObj;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Saves and closes every open file, and removes the directory with everything in it
+
+	public static void close(File directory) throws IOException {
+		DataManager.exit();
+		File[] files = directory.listFiles();
+		if(files != null) {
+			for(int i = 0; i < files.length; i++) {
+				files[i].delete();
+			}
+		}
+		directory.delete();
+	}
+}
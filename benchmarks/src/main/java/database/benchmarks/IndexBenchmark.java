@@ -0,0 +1,127 @@
+package database.benchmarks;
+
+import database.DataFile;
+import database.Index;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Single entry operations on an index that already holds size entries. Throughput and
+// sampled latency are both reported, the latter with its percentiles
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+
+	@Param({"SEQUENTIAL", "RANDOM", "ZIPFIAN", "DUPLICATES"})
+	public KeyDistribution distribution;
+
+	@Param({"10000", "1000000"})
+	public int size;
+
+	@Param({"8", "64", "256"})
+	public int fanout;
+
+	// The directory the trial runs in, the file and the index over its key column
+	private File directory;
+	private DataFile fileObj;
+	private Index index;
+
+	// The keys of the records in the file, and more keys from the same distribution that
+	// are inserted and deleted by the benchmarks
+	private String[] keys;
+	private String[] extraKeys;
+
+	// The position in keys and extraKeys of the next operation, and the number of entries
+	// inserted by insertIntoIndex in the current iteration
+	private int next;
+	private int numInserted;
+
+	// --------------------------------------------------------------------------------------
+	// Builds the file and its index once per trial
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = Datasets.newDirectory();
+		keys = distribution.generate(size, 1);
+		extraKeys = distribution.generate(size, 2);
+		fileObj = Datasets.createFile(directory, "bench", keys);
+		index = fileObj.createIndex("idx", Datasets.KEY_COLUMN, fanout);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Datasets.close(directory);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Takes the entries inserted during an iteration out again, so that every iteration
+	// starts from an index of the same size
+
+	@TearDown(Level.Iteration)
+	public void removeInserted() {
+		for(int i = 0; i < numInserted; i++) {
+			index.deleteFromIndex(extraKeys[i % size], size + i);
+		}
+		numInserted = 0;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Looks up a key that is in the index and reads every record Id stored for it
+
+	@Benchmark
+	public void lookup(Blackhole blackhole) {
+		Iterator<Integer> it = index.iterator(keys[nextPosition()]);
+		while(it.hasNext()) {
+			blackhole.consume(it.next());
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Inserts a new entry. The index grows by one entry with every call, until the end of
+	// the iteration
+
+	@Benchmark
+	public void insertIntoIndex() {
+		index.insertIntoIndex(extraKeys[numInserted % size], size + numInserted);
+		numInserted++;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Deletes an entry that is in the index and puts it back, so that the index keeps its
+	// size. Compare with insertIntoIndex to get the cost of the delete
+
+	@Benchmark
+	public void deleteFromIndex() {
+		int position = nextPosition();
+		index.deleteFromIndex(keys[position], position);
+		index.insertIntoIndex(keys[position], position);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the position of the next key to use, going round the keys
+
+	private int nextPosition() {
+		int position = next;
+		next = position + 1 == size ? 0 : position + 1;
+		return position;
+	}
+}
@@ -0,0 +1,93 @@
+package database.benchmarks;
+
+import java.util.Random;
+
+// The ways the keys of a benchmark are spread over the key space
+public enum KeyDistribution {
+
+	// Keys in increasing order, each one once
+	SEQUENTIAL,
+
+	// Keys drawn uniformly from ten times as many values as there are keys
+	RANDOM,
+
+	// Keys drawn from as many values as there are keys, the value of rank r drawn with a
+	// probability proportional to 1 / r
+	ZIPFIAN,
+
+	// Keys drawn uniformly from one value for every hundred keys
+	DUPLICATES;
+
+	// The width every key is padded to, which is also the column width the benchmarks use
+	public static final int KEY_WIDTH = 10;
+
+	// --------------------------------------------------------------------------------------
+	// Returns numOfKeys keys following this distribution. The same seed gives the same keys
+
+	public String[] generate(int numOfKeys, long seed) {
+		Random random = new Random(seed);
+		String[] keys = new String[numOfKeys];
+
+		double[] cumulative = null;
+		if(this == ZIPFIAN) {
+			cumulative = new double[numOfKeys];
+			double sum = 0;
+			for(int i = 0; i < numOfKeys; i++) {
+				sum += 1.0 / (i + 1);
+				cumulative[i] = sum;
+			}
+		}
+
+		for(int i = 0; i < numOfKeys; i++) {
+			long value;
+			switch(this) {
+			case SEQUENTIAL:
+				value = i;
+				break;
+			case RANDOM:
+				value = (long) (random.nextDouble() * numOfKeys * 10L);
+				break;
+			case ZIPFIAN:
+				value = rank(cumulative, random.nextDouble() * cumulative[numOfKeys - 1]);
+				// Spread the popular values over the key space, so that they do not all sit
+				// at the left edge of the tree
+				value = (value * 2654435761L) % (numOfKeys * 10L);
+				break;
+			default:
+				value = random.nextInt(Math.max(1, numOfKeys / 100));
+			}
+			keys[i] = pad(value);
+		}
+		return keys;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the first rank whose cumulative weight reaches target
+
+	private static int rank(double[] cumulative, double target) {
+		int low = 0;
+		int high = cumulative.length - 1;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(cumulative[mid] < target) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Pads a value with zeros to KEY_WIDTH digits, so that keys sort as their values do
+
+	private static String pad(long value) {
+		String digits = Long.toString(value);
+		StringBuilder key = new StringBuilder(KEY_WIDTH);
+		for(int i = digits.length(); i < KEY_WIDTH; i++) {
+			key.append('0');
+		}
+		return key.append(digits).toString();
+	}
+}
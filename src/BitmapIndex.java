@@ -0,0 +1,353 @@
+package database;
+
+import database.helperClasses.Bitmap;
+import database.helperClasses.PageFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// An index that keeps, for every distinct value of a column, a compressed bitmap of the
+// records holding it. It suits columns with few distinct values, whose bitmaps can be
+// combined with those of other bitmap indexes over the same file instead of walking the
+// records of each value
+public class BitmapIndex {
+
+	// A number written at the start of the index file to recognise bitmap index files
+	private static final int MAGIC = 0x424d4958;
+
+	// The number of bytes buffered when the index file is read or written
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// The name of the index, the column it is built over and the file it belongs to
+	private String indexName;
+	private String column;
+	private String fileName;
+
+	// The records holding each value of the column
+	private Map<String, Bitmap> bitmaps;
+
+	// The records holding any value of the column
+	private Bitmap allRecords;
+
+	// Set when a record is added or removed, and cleared when the index is dumped
+	private volatile boolean dirty;
+
+	// Lookups hold this latch shared and changes hold it exclusively
+	private ReentrantReadWriteLock latch;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the BitmapIndex class
+	// This constructor is called when creating a new index
+
+	public BitmapIndex(String indexName, String column, String fileName) {
+		this.indexName = indexName;
+		this.column = column;
+		this.fileName = fileName;
+		bitmaps = new HashMap<String, Bitmap>();
+		allRecords = new Bitmap();
+		dirty = true;
+		latch = new ReentrantReadWriteLock();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the file specified by path is a bitmap index file
+
+	public static boolean isBitmapIndexFile(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			return file.length() >= 4 && file.readInt() == MAGIC;
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Restores the index specified by indexName over the file specified by fileName from
+	// disk. Every bitmap is read into memory
+
+	public static BitmapIndex open(String indexName, String fileName) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(Paths.get(fileName + indexName)), BUFFER_SIZE));
+		try {
+			if(in.readInt() != MAGIC) {
+				throw new IllegalArgumentException("The file \"" + fileName + indexName +
+						"\" is not a bitmap index file");
+			}
+
+			BitmapIndex indexObj = new BitmapIndex(indexName, in.readUTF(), fileName);
+			int numOfValues = in.readInt();
+			for(int i = 0; i < numOfValues; i++) {
+				String key = in.readUTF();
+				Bitmap bitmap = Bitmap.readFrom(in);
+				indexObj.bitmaps.put(key, bitmap);
+				indexObj.allRecords = indexObj.allRecords.or(bitmap);
+			}
+			indexObj.dirty = false;
+			return indexObj;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for indexName
+
+	public String getIndexName() {
+		return indexName;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for column
+
+	public String getColumn() {
+		return column;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for fileName
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of distinct values of the column
+
+	public int getValueCount() {
+		latch.readLock().lock();
+		try {
+			return bitmaps.size();
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of records whose column value is 'key', without copying their bitmap
+
+	public int getRecordCount(String key) {
+		latch.readLock().lock();
+		try {
+			Bitmap bitmap = bitmaps.get(key);
+			return bitmap == null ? 0 : bitmap.cardinality();
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Adds the record to the bitmap of its value
+
+	public void insertIntoIndex(String key, int value) {
+		latch.writeLock().lock();
+		try {
+			add(key, value);
+		}
+		finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Adds a batch of records to the bitmaps of their values under a single latch
+
+	public void insertBatch(String[] keys, int[] values, int numOfEntries) {
+		latch.writeLock().lock();
+		try {
+			for(int i = 0; i < numOfEntries; i++) {
+				add(keys[i], values[i]);
+			}
+		}
+		finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Removes the record from the bitmap of its value. A value left without records is
+	// dropped from the index
+
+	public void deleteFromIndex(String key, int value) {
+		latch.writeLock().lock();
+		try {
+			Bitmap bitmap = bitmaps.get(key);
+			if(bitmap == null || bitmap.remove(value) == false) {
+				return;
+			}
+			if(bitmap.isEmpty()) {
+				bitmaps.remove(key);
+			}
+			allRecords.remove(value);
+			dirty = true;
+		}
+		finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a copy of the bitmap of the records whose column value is 'key'. The copy does
+	// not change with the index, and can be combined with the bitmaps of other indexes
+
+	public Bitmap get(String key) {
+		latch.readLock().lock();
+		try {
+			Bitmap bitmap = bitmaps.get(key);
+			return bitmap == null ? new Bitmap() : bitmap.copy();
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a bitmap of the records whose column value is other than 'key'. Records without
+	// a value for the column are not in any bitmap of the index, so they are left out
+
+	public Bitmap not(String key) {
+		latch.readLock().lock();
+		try {
+			Bitmap bitmap = bitmaps.get(key);
+			return bitmap == null ? allRecords.copy() : allRecords.andNot(bitmap);
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns an iterator over the records that have this index's column attribute with the
+	// value set to the parameter 'key', in ascending order of record Id
+
+	public Iterator<Integer> iterator(String key) {
+		return DataManager.getDataFile(fileName).iterator(get(key));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Dump the index to disk. The whole index is written to a new file, which then replaces
+	// the old one. Nothing is written if no record has changed since the last dump. The
+	// bitmaps are copied under the latch and written from the copies, so records can be
+	// added and removed while the file is written
+
+	public synchronized void dumpIndex() throws IOException {
+		String[] dumpKeys;
+		Bitmap[] dumpBitmaps;
+		latch.readLock().lock();
+		try {
+			if(dirty == false) {
+				return;
+			}
+			dumpKeys = new String[bitmaps.size()];
+			dumpBitmaps = new Bitmap[bitmaps.size()];
+			int i = 0;
+			Iterator<Map.Entry<String, Bitmap>> it = bitmaps.entrySet().iterator();
+			while(it.hasNext()) {
+				Map.Entry<String, Bitmap> entry = it.next();
+				dumpKeys[i] = entry.getKey();
+				dumpBitmaps[i] = entry.getValue().copy();
+				i++;
+			}
+			dirty = false;
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+
+		boolean written = false;
+		try {
+			Path path = Paths.get(fileName + indexName);
+			Path tempPath = Paths.get(fileName + indexName + ".tmp");
+			FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+						Channels.newOutputStream(channel), BUFFER_SIZE));
+				out.writeInt(MAGIC);
+				out.writeUTF(column);
+				out.writeInt(dumpKeys.length);
+				for(int i = 0; i < dumpKeys.length; i++) {
+					out.writeUTF(dumpKeys[i]);
+					dumpBitmaps[i].writeTo(out);
+				}
+				out.flush();
+				channel.force(true);
+			}
+			finally {
+				channel.close();
+			}
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			PageFile.syncDirectory(path);
+			written = true;
+		}
+		finally {
+			// The changes in the copies have still to be written
+			if(written == false) {
+				dirty = true;
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Closes the index. The bitmaps are only held in memory, so there is no file to close
+
+	public void close() throws IOException {
+	}
+
+	// --------------------------------------------------------------------------------------
+	// View every value of the index in order, with the number of records holding it
+
+	public String viewIndex() {
+		StringBuilder printString = new StringBuilder();
+		latch.readLock().lock();
+		try {
+			Iterator<Map.Entry<String, Bitmap>> it =
+				new TreeMap<String, Bitmap>(bitmaps).entrySet().iterator();
+			while(it.hasNext()) {
+				Map.Entry<String, Bitmap> entry = it.next();
+				printString.append(entry.getKey()).append(' ')
+						.append(entry.getValue().cardinality()).append('\n');
+			}
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+		System.out.print(printString);
+		return printString.toString();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Adds the record to the bitmap of its value. The caller holds the latch exclusively
+
+	private void add(String key, int value) {
+		Bitmap bitmap = bitmaps.get(key);
+		if(bitmap == null) {
+			bitmap = new Bitmap();
+			bitmaps.put(key, bitmap);
+		}
+		if(bitmap.add(value)) {
+			allRecords.add(value);
+			dirty = true;
+		}
+	}
+}
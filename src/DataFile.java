@@ -1,68 +1,149 @@
 package database;
 
-import database.helperClasses.Node;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import database.helperClasses.Bitmap;
+import database.helperClasses.Catalog;
+import database.helperClasses.ColumnStatistics;
+import database.helperClasses.ColumnarRecordStore;
+import database.helperClasses.DelimitedReader;
+import database.helperClasses.DelimitedWriter;
+import database.helperClasses.LogRecord;
+import database.helperClasses.MappedRecordStore;
+import database.helperClasses.Metrics;
+import database.helperClasses.PageFile;
+import database.helperClasses.RecordStore;
+import database.helperClasses.WriteAheadLog;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
 
 public class DataFile {
 
-	// This is a collection that will contain the mapping between recordIds and their corresponding records
-	private Map<Integer, Map<String, String>> recordCollection;
+	// The records, kept by record Id in the layout the file was created with
+	private RecordStore recordStore;
 
 	// A map that contains the set of column names and their maximum permissible character length
 	private Map<String, Integer> descriptor;
 
-	// This is a collection of indexes over this file
-	private ArrayList<Index> indexCollection;
+	// The indexes over this file, keyed by index name. Indexes are only added or removed with
+	// fileLatch held exclusively, so inserts and deletes see a fixed set of indexes
+	private Catalog<Index> indexCollection;
+
+	// The bitmap indexes over this file, keyed by index name. An index name is used by at
+	// most one index of any kind
+	private Catalog<BitmapIndex> bitmapIndexCollection;
+
+	// The hash indexes over this file, keyed by index name
+	private Catalog<HashIndex> hashIndexCollection;
 
 	// A string that contains the name of the DataFile object
 	private String fileName;
 	
 	// A variable to keep track of the maximum record Id
-	private int maxRecId;
+	private AtomicInteger maxRecId;
+
+	// Record inserts and deletes hold this latch shared. Building or restoring an index holds
+	// it exclusively, so that the index does not miss records changed in the meantime
+	private ReentrantReadWriteLock fileLatch;
+
+	// The number of locks that the records are spread over
+	private static final int NUM_RECORD_LOCKS = 64;
+
+	// Locks that keep a record from being deleted while it is still being added to the
+	// indexes. A record uses the lock given by its record Id modulo NUM_RECORD_LOCKS
+	private ReentrantLock[] recordLocks;
+
+	// The number of records that an import inserts at a time
+	private static final int IMPORT_BATCH_SIZE = 10000;
+
+	// The statistics of the columns gathered by analyze, keyed by column name
+	private Map<String, ColumnStatistics> statistics;
 
-	// Booleans that tell if there are multiple index
-	// iterators for this file
-	public boolean iteratorExists;
-	public boolean fileModified;
-	public boolean excp;
+	// The number of records inserted or deleted since the file was opened
+	private LongAdder changeCount;
+
+	// The statistics of a column are no longer used once this many records have changed
+	// since they were gathered, or this share of the records if that is more
+	private static final int STATISTICS_MIN_CHANGES = 1000;
+	private static final double STATISTICS_STALE_FRACTION = 0.2;
+
+	// The fewest record Ids a spliterator over the file splits into two
+	static final int SPLIT_SIZE = 1024;
 
 	// --------------------------------------------------------------------------------------
 	// The constructor method for the DataFile class
 	// This constructor is called when creating a new DataFile object
 
-	public DataFile(String fileName, Map<String, Integer> descriptor) {
-		recordCollection = new HashMap<Integer, Map<String, String>>();
-		indexCollection = new ArrayList<Index>();
+	public DataFile(String fileName, Map<String, Integer> descriptor) throws IOException {
+		this(fileName, descriptor, RecordStore.Layout.ROW);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new DataFile object whose records are laid out as given
+
+	public DataFile(String fileName, Map<String, Integer> descriptor, RecordStore.Layout layout)
+	throws IOException {
+		if(layout == RecordStore.Layout.COLUMNAR) {
+			recordStore = ColumnarRecordStore.create(fileName, descriptor);
+		}
+		else {
+			recordStore = MappedRecordStore.create(fileName, descriptor);
+		}
+		indexCollection = new Catalog<Index>();
+		bitmapIndexCollection = new Catalog<BitmapIndex>();
+		hashIndexCollection = new Catalog<HashIndex>();
 		this.descriptor = descriptor;
 		this.fileName = fileName;
-		iteratorExists = false;
-		fileModified = false;
-		excp = false;
-		maxRecId = -1;
+		maxRecId = new AtomicInteger(-1);
+		fileLatch = new ReentrantReadWriteLock();
+		recordLocks = newRecordLocks();
+		statistics = new ConcurrentHashMap<String, ColumnStatistics>();
+		changeCount = new LongAdder();
 	}
 
 	// --------------------------------------------------------------------------------------
 	// Another constructor for the DataFile class
 	// This constructor is called when restoring a DataFile object
 
-	public DataFile(String fileName, Map<String, Integer> descriptor,
-			Map<Integer, Map<String, String>> recordCollection, int maxRecId) {
+	public DataFile(String fileName, RecordStore recordStore) {
 		this.fileName = fileName;
-		this.descriptor = descriptor;
-		this.recordCollection = recordCollection;
-		this.maxRecId = maxRecId;
+		this.recordStore = recordStore;
+		descriptor = recordStore.getDescriptor();
+		maxRecId = new AtomicInteger(recordStore.getMaxRecId());
+		indexCollection = new Catalog<Index>();
+		bitmapIndexCollection = new Catalog<BitmapIndex>();
+		hashIndexCollection = new Catalog<HashIndex>();
+		fileLatch = new ReentrantReadWriteLock();
+		recordLocks = newRecordLocks();
+		statistics = new ConcurrentHashMap<String, ColumnStatistics>();
+		changeCount = new LongAdder();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates the locks that the records are spread over
+
+	private static ReentrantLock[] newRecordLocks() {
+		ReentrantLock[] locks = new ReentrantLock[NUM_RECORD_LOCKS];
+		for(int i = 0; i < NUM_RECORD_LOCKS; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		return locks;
 	}
 
 	// --------------------------------------------------------------------------------------
@@ -75,29 +156,144 @@ public class DataFile {
 	// --------------------------------------------------------------------------------------
 	// Getter for indexCollection
 
-	public ArrayList<Index> getIndexCollection() {
-		return indexCollection;
+	public Collection<Index> getIndexCollection() {
+		Catalog<Index> indexes = indexCollection;
+		return indexes == null ? null : indexes.values();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for bitmapIndexCollection
+
+	public Collection<BitmapIndex> getBitmapIndexCollection() {
+		Catalog<BitmapIndex> indexes = bitmapIndexCollection;
+		return indexes == null ? null : indexes.values();
 	}
 
 	// --------------------------------------------------------------------------------------
-	// Getter for recordCollection
+	// Getter for hashIndexCollection
 
-	public Map<Integer, Map<String, String>> getRecordCollection() {
-		return recordCollection;
+	public Collection<HashIndex> getHashIndexCollection() {
+		Catalog<HashIndex> indexes = hashIndexCollection;
+		return indexes == null ? null : indexes.values();
 	}
 
 	// --------------------------------------------------------------------------------------
-	// Getter for retrieving a record from recordCollection
+	// Returns the layout of the records
+
+	public RecordStore.Layout getLayout() {
+		return recordStore.getLayout();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for retrieving a record from the record store
 
 	public Map<String, String> getRecord(int recordId) {
-		return recordCollection.get(recordId);
+		return recordStore.get(recordId);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the value of one column of a record, or null if there is no such record or it
+	// has no value for the column. Cheaper than getRecord when only one column is needed
+
+	public String getValue(int recordId, String column) {
+		return recordStore.getValue(recordId, column);
 	}
 
 	// --------------------------------------------------------------------------------------
-	// Delete the record with the specified key from the record collection
+	// Returns the number of records in the file
+
+	public int getRecordCount() {
+		RecordStore store = recordStore;
+		return store == null ? 0 : store.size();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Delete the record with the specified key from every index and from the record store.
+	// Nothing happens if another thread has already deleted it
 
 	public void deleteRecord(int key) {
-		recordCollection.remove(Integer.valueOf(key));
+		if(key < 0) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		WriteAheadLog log = DataManager.beginChange();
+		long lsn;
+		try {
+			fileLatch.readLock().lock();
+			ReentrantLock recordLock = recordLocks[key % NUM_RECORD_LOCKS];
+			recordLock.lock();
+			try {
+				Map<String, String> record = recordStore.get(key);
+				if(record == null) {
+					return;
+				}
+
+				lsn = DataManager.logChange(log, LogRecord.delete(fileName, key, record));
+				Iterator<Index> indexIt = indexCollection.values().iterator();
+				while(indexIt.hasNext()) {
+					Index indexObj = indexIt.next();
+					// Records without a value for the column are not in the index
+					String indexKey = indexObj.keyOf(record);
+					if(indexKey != null) {
+						indexObj.deleteFromIndex(indexKey, key);
+					}
+				}
+				deleteFromValueIndexes(record, key);
+				recordStore.remove(key);
+				changeCount.increment();
+			}
+			finally {
+				recordLock.unlock();
+				fileLatch.readLock().unlock();
+			}
+		}
+		finally {
+			DataManager.endChange(log);
+		}
+		DataManager.commitChange(log, lsn);
+		Metrics.DELETE.recordSince(start);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Inserts a record read back from the log with the record Id it was given before. The
+	// record may already be in the record store and in some of the indexes, so it is taken
+	// out of each index before it is put in again
+
+	void redoInsert(int recordId, Map<String, String> record) {
+		int max = maxRecId.get();
+		while(recordId > max && maxRecId.compareAndSet(max, recordId) == false) {
+			max = maxRecId.get();
+		}
+
+		recordStore.put(recordId, record);
+		Iterator<Index> indexIt = indexCollection.values().iterator();
+		while(indexIt.hasNext()) {
+			Index indexObj = indexIt.next();
+			String key = indexObj.keyOf(record);
+			if(key != null) {
+				indexObj.deleteFromIndex(key, recordId);
+				indexObj.insertIntoIndex(key, recordId, indexObj.includedOf(record));
+			}
+		}
+		insertIntoValueIndexes(record, recordId);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Deletes a record read back from the log. The record may already be gone from the record
+	// store and from some of the indexes
+
+	void redoDelete(int recordId, Map<String, String> record) {
+		Iterator<Index> indexIt = indexCollection.values().iterator();
+		while(indexIt.hasNext()) {
+			Index indexObj = indexIt.next();
+			String key = indexObj.keyOf(record);
+			if(key != null) {
+				indexObj.deleteFromIndex(key, recordId);
+			}
+		}
+		deleteFromValueIndexes(record, recordId);
+		recordStore.remove(recordId);
 	}
 
 	// --------------------------------------------------------------------------------------
@@ -105,59 +301,476 @@ public class DataFile {
 	// null is returned
 
 	public Index getIndex(String indexName) {
-		if(indexCollection != null) {
-			Iterator<Index> indexIt = indexCollection.iterator();
-			while(indexIt.hasNext()) {
-				Index indexObj = indexIt.next();
-				if(indexObj.getIndexName().compareTo(indexName) == 0) {
-					return indexObj;
-				}
-			}
+		Catalog<Index> indexes = indexCollection;
+		if(indexes != null) {
+			return indexes.get(indexName);
 		}
 		return null;
 	}
 
+	// --------------------------------------------------------------------------------------
+	// Returns the BitmapIndex object specified by indexName if there exists one. If not, null
+	// is returned
+
+	public BitmapIndex getBitmapIndex(String indexName) {
+		Catalog<BitmapIndex> indexes = bitmapIndexCollection;
+		if(indexes != null) {
+			return indexes.get(indexName);
+		}
+		return null;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the HashIndex object specified by indexName if there exists one. If not, null
+	// is returned
+
+	public HashIndex getHashIndex(String indexName) {
+		Catalog<HashIndex> indexes = hashIndexCollection;
+		if(indexes != null) {
+			return indexes.get(indexName);
+		}
+		return null;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if there is an index of any kind named indexName in memory
+
+	boolean hasIndex(String indexName) {
+		return getIndex(indexName) != null || getBitmapIndex(indexName) != null ||
+				getHashIndex(indexName) != null;
+	}
+
 	// --------------------------------------------------------------------------------------
 	// This is the method for creating a new index for the file over the specified column
 
 	public Index createIndex(String indexName, String column) {
-		// Check if the column name is valid
+		return createIndex(indexName, column, Index.DEFAULT_FANOUT, Index.DEFAULT_FILL_FACTOR);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new index over the specified column whose pages are sized for fanout keys
+
+	public Index createIndex(String indexName, String column, int fanout) {
+		return createIndex(indexName, column, fanout, Index.DEFAULT_FILL_FACTOR);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new index over the specified column whose pages are sized for fanout keys. The
+	// existing records are bulk loaded, filling each node to the given fill factor
+
+	public Index createIndex(String indexName, String column, int fanout, double fillFactor) {
+		return createIndex(indexName, Collections.singletonList(column), fanout, fillFactor);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a composite index over the specified columns. Its keys sort by the first
+	// column, then by the second and so on, so it can be searched on the whole key or on
+	// its leading columns. Records without a value for one of the columns are not in it
+
+	public Index createIndex(String indexName, List<String> columns) {
+		return createIndex(indexName, columns, Index.DEFAULT_FANOUT, Index.DEFAULT_FILL_FACTOR);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new index over the specified columns whose pages are sized for fanout keys. The
+	// existing records are bulk loaded, filling each node to the given fill factor
+
+	public Index createIndex(String indexName, List<String> columns, int fanout, double fillFactor) {
+		return createIndex(indexName, columns, Collections.<String>emptyList(), fanout, fillFactor);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a covering index over the specified columns. Its leaf entries also carry the
+	// values of the included columns, so a projection scan returns them without reading the
+	// records. The columns and included columns together can be at most Index.MAX_COLUMNS
+
+	public Index createIndex(String indexName, List<String> columns, List<String> includedColumns,
+			int fanout, double fillFactor) {
+		if(columns.isEmpty() || columns.size() + includedColumns.size() > Index.MAX_COLUMNS) {
+			throw new IllegalArgumentException("An index needs between 1 and " +
+					Index.MAX_COLUMNS + " columns, including its included columns");
+		}
+		List<String> allColumns = new ArrayList<String>(columns);
+		allColumns.addAll(includedColumns);
+		for(int i = 0; i < allColumns.size(); i++) {
+			String column = allColumns.get(i);
+			// Check if the column name is valid
+			if(descriptor.containsKey(column) == false) {
+				throw new IllegalArgumentException("There is no column named \"" +
+						column + "\" in the file \"" + fileName + "\"");
+			}
+
+			// Check if the column length is less than 25 characters
+			if(column.length() > 25) {
+				throw new IllegalArgumentException("The column name needs to be " +
+				"less than 25 characters");
+			}
+
+			if(allColumns.indexOf(column) != i) {
+				throw new IllegalArgumentException("The column \"" + column +
+						"\" is named more than once");
+			}
+		}
+
+		WriteAheadLog log = DataManager.beginChange();
+		long lsn;
+		Index indexObj;
+		fileLatch.writeLock().lock();
+		try {
+			// Check if the index already exists
+			if(hasIndex(indexName)) {
+				throw new IllegalArgumentException("Index \"" + indexName +
+				"\" already exists in memory");
+			}
+
+			indexObj = buildIndex(indexName, columns, includedColumns, fanout, fillFactor);
+
+			lsn = DataManager.logChange(log, LogRecord.createIndex(fileName, indexName, columns,
+					includedColumns, fanout, fillFactor));
+			indexCollection.register(indexName, indexObj);
+		}
+		finally {
+			fileLatch.writeLock().unlock();
+			DataManager.endChange(log);
+		}
+		DataManager.commitChange(log, lsn);
+		return indexObj;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Makes a new index over the columns and bulk loads the records into it, with the values
+	// of the included columns. The caller holds fileLatch exclusively
+
+	private Index buildIndex(String indexName, List<String> columns, List<String> includedColumns,
+			int fanout, double fillFactor) {
+		List<Integer> widths = new ArrayList<Integer>();
+		for(int i = 0; i < columns.size(); i++) {
+			widths.add(descriptor.get(columns.get(i)));
+		}
+		List<Integer> includedWidths = new ArrayList<Integer>();
+		for(int i = 0; i < includedColumns.size(); i++) {
+			includedWidths.add(descriptor.get(includedColumns.get(i)));
+		}
+		Index indexObj = new Index(indexName, columns, includedColumns, fileName,
+				Index.keyWidth(widths), Index.includedWidth(includedWidths), fanout);
+		String[] keys = new String[recordStore.size()];
+		int[] values = new int[recordStore.size()];
+		String[] included = includedColumns.isEmpty() ? null : new String[recordStore.size()];
+		int numOfEntries = 0;
+
+		RecordCursor cursor = cursor();
+		int recordId;
+		while((recordId = cursor.nextRecordId()) != RecordCursor.END) {
+			String key = indexObj.keyOf(recordStore, recordId);
+			// Records without a value for the column cannot be looked up by it
+			if(key != null) {
+				keys[numOfEntries] = key;
+				values[numOfEntries] = recordId;
+				if(included != null) {
+					included[numOfEntries] = indexObj.includedOf(recordStore, recordId);
+				}
+				numOfEntries++;
+			}
+		}
+		indexObj.bulkLoad(keys, values, included, numOfEntries, fillFactor);
+		return indexObj;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new bitmap index over the specified column. It keeps a bitmap of the records
+	// holding each distinct value, so it suits columns with few distinct values
+
+	public BitmapIndex createBitmapIndex(String indexName, String column) {
 		if(descriptor.containsKey(column) == false) {
 			throw new IllegalArgumentException("There is no column named \"" +
 					column + "\" in the file \"" + fileName + "\"");
 		}
 
-		// Check if the column length is less than 25 characters
-		if(column.length() > 25) {
-			throw new IllegalArgumentException("The column name needs to be " +
-			"less than 25 characters");
-		}
+		WriteAheadLog log = DataManager.beginChange();
+		long lsn;
+		BitmapIndex indexObj;
+		fileLatch.writeLock().lock();
+		try {
+			if(hasIndex(indexName)) {
+				throw new IllegalArgumentException("Index \"" + indexName +
+				"\" already exists in memory");
+			}
+
+			indexObj = buildBitmapIndex(indexName, column);
 
-		// Check if the index already exists
-		if(getIndex(indexName) != null) {
-			throw new IllegalArgumentException("Index \"" + indexName +
-			"\" already exists in memory");
+			lsn = DataManager.logChange(log,
+					LogRecord.createBitmapIndex(fileName, indexName, column));
+			bitmapIndexCollection.register(indexName, indexObj);
 		}
+		finally {
+			fileLatch.writeLock().unlock();
+			DataManager.endChange(log);
+		}
+		DataManager.commitChange(log, lsn);
+		return indexObj;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Makes a new bitmap index over the column and adds the records to it in record Id
+	// order. The caller holds fileLatch exclusively
+
+	private BitmapIndex buildBitmapIndex(String indexName, String column) {
+		BitmapIndex indexObj = new BitmapIndex(indexName, column, fileName);
+		String[] keys = new String[recordStore.size()];
+		int[] values = new int[recordStore.size()];
+		int numOfEntries = fileEntries(column, keys, values);
+		indexObj.insertBatch(keys, values, numOfEntries);
+		return indexObj;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new hash index over the specified column. It finds the records holding a
+	// value in one bucket read, but cannot answer range or prefix lookups
 
-		Index indexObj = new Index(indexName, column, fileName);
-		FileIterator fit = new FileIterator();
-		while(fit.hasNext()) {
-			Map<String, String> record = recordCollection.get(fit.next());
-			indexObj.insertIntoIndex(record.get(column), fit.next());
+	public HashIndex createHashIndex(String indexName, String column) {
+		if(descriptor.containsKey(column) == false) {
+			throw new IllegalArgumentException("There is no column named \"" +
+					column + "\" in the file \"" + fileName + "\"");
 		}
 
-		if(indexCollection == null) {
-			indexCollection = new ArrayList<Index>();
+		WriteAheadLog log = DataManager.beginChange();
+		long lsn;
+		HashIndex indexObj;
+		fileLatch.writeLock().lock();
+		try {
+			if(hasIndex(indexName)) {
+				throw new IllegalArgumentException("Index \"" + indexName +
+				"\" already exists in memory");
+			}
+
+			indexObj = new HashIndex(indexName, column, fileName);
+			String[] keys = new String[recordStore.size()];
+			int[] values = new int[recordStore.size()];
+			int numOfEntries = fileEntries(column, keys, values);
+			indexObj.insertBatch(keys, values, numOfEntries);
+
+			lsn = DataManager.logChange(log,
+					LogRecord.createHashIndex(fileName, indexName, column));
+			hashIndexCollection.register(indexName, indexObj);
+		}
+		finally {
+			fileLatch.writeLock().unlock();
+			DataManager.endChange(log);
 		}
-		indexCollection.add(indexObj);
+		DataManager.commitChange(log, lsn);
 		return indexObj;
 	}
 
+	// --------------------------------------------------------------------------------------
+	// Fills keys and values with the column value and record Id of every record that has a
+	// value for the column, in record Id order. Returns how many there are. The caller holds
+	// fileLatch exclusively
+
+	private int fileEntries(String column, String[] keys, int[] values) {
+		int numOfEntries = 0;
+		RecordCursor cursor = cursor();
+		while(cursor.nextRecordId() != RecordCursor.END) {
+			String key = cursor.getValue(column);
+			if(key != null) {
+				keys[numOfEntries] = key;
+				values[numOfEntries] = cursor.getRecordId();
+				numOfEntries++;
+			}
+		}
+		return numOfEntries;
+	}
+
 	// --------------------------------------------------------------------------------------
 	// This method inserts a new record into the file and then updates all the indexes over
 	// the record's columns
 
 	public int insertRecord(Map<String, String> record) {
+		long start = System.nanoTime();
+		validateRecord(record);
+
+		WriteAheadLog log = DataManager.beginChange();
+		long lsn;
+		int recordId;
+		try {
+			fileLatch.readLock().lock();
+			recordId = maxRecId.incrementAndGet();
+			ReentrantLock recordLock = recordLocks[recordId % NUM_RECORD_LOCKS];
+			recordLock.lock();
+			try {
+				lsn = DataManager.logChange(log, LogRecord.insert(fileName, recordId, record));
+				recordStore.put(recordId, record);
+				Iterator<Index> indexIt = indexCollection.values().iterator();
+				while(indexIt.hasNext()) {
+					Index indexObj = indexIt.next();
+					String key = indexObj.keyOf(record);
+					if(key != null) {
+						indexObj.insertIntoIndex(key, recordId, indexObj.includedOf(record));
+					}
+				}
+				insertIntoValueIndexes(record, recordId);
+				changeCount.increment();
+			}
+			finally {
+				recordLock.unlock();
+				fileLatch.readLock().unlock();
+			}
+		}
+		finally {
+			DataManager.endChange(log);
+		}
+		DataManager.commitChange(log, lsn);
+		Metrics.INSERT.recordSince(start);
+		return (recordId);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Inserts a batch of records and returns the record Id of the first one. The records get
+	// consecutive record Ids in the order of the list. Every record is checked before any is
+	// inserted, and each index takes the whole batch in one ordered pass instead of one
+	// descent per record
+
+	public int insertRecords(List<Map<String, String>> records) {
+		long start = System.nanoTime();
+		for(int i = 0; i < records.size(); i++) {
+			validateRecord(records.get(i));
+		}
+
+		WriteAheadLog log = DataManager.beginChange();
+		long lsn = 0;
+		int firstId;
+		try {
+			fileLatch.readLock().lock();
+			firstId = maxRecId.getAndAdd(records.size()) + 1;
+			// No record of the batch can be deleted before it is in every index
+			for(int i = 0; i < NUM_RECORD_LOCKS; i++) {
+				recordLocks[i].lock();
+			}
+			try {
+				for(int i = 0; i < records.size(); i++) {
+					lsn = DataManager.logChange(log, LogRecord.insert(fileName, firstId + i, records.get(i)));
+					recordStore.put(firstId + i, records.get(i));
+				}
+
+				String[] keys = new String[records.size()];
+				int[] values = new int[records.size()];
+				String[] included = null;
+				Iterator<Index> indexIt = indexCollection.values().iterator();
+				while(indexIt.hasNext()) {
+					Index indexObj = indexIt.next();
+					int numOfEntries = batchEntries(records, firstId, indexObj.getColumns(),
+							keys, values);
+					if(indexObj.getIncludedColumns().isEmpty()) {
+						indexObj.insertBatch(keys, values, numOfEntries);
+						continue;
+					}
+					if(included == null) {
+						included = new String[records.size()];
+					}
+					for(int i = 0; i < numOfEntries; i++) {
+						included[i] = indexObj.includedOf(records.get(values[i] - firstId));
+					}
+					indexObj.insertBatch(keys, values, included, numOfEntries);
+				}
+				Iterator<BitmapIndex> bitmapIt = bitmapIndexCollection.values().iterator();
+				while(bitmapIt.hasNext()) {
+					BitmapIndex indexObj = bitmapIt.next();
+					int numOfEntries = batchEntries(records, firstId,
+							Collections.singletonList(indexObj.getColumn()), keys, values);
+					indexObj.insertBatch(keys, values, numOfEntries);
+				}
+				Iterator<HashIndex> hashIt = hashIndexCollection.values().iterator();
+				while(hashIt.hasNext()) {
+					HashIndex indexObj = hashIt.next();
+					int numOfEntries = batchEntries(records, firstId,
+							Collections.singletonList(indexObj.getColumn()), keys, values);
+					indexObj.insertBatch(keys, values, numOfEntries);
+				}
+				changeCount.add(records.size());
+			}
+			finally {
+				for(int i = NUM_RECORD_LOCKS - 1; i >= 0; i--) {
+					recordLocks[i].unlock();
+				}
+				fileLatch.readLock().unlock();
+			}
+		}
+		finally {
+			DataManager.endChange(log);
+		}
+		// The records share one commit, so one force covers the whole batch
+		DataManager.commitChange(log, lsn);
+		Metrics.INSERT_BATCH.recordSince(start);
+		return firstId;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Fills keys and values with the key over the columns and the record Id of every record
+	// of a batch that has a value for each of them. Returns how many there are
+
+	private static int batchEntries(List<Map<String, String>> records, int firstId,
+			List<String> columns, String[] keys, int[] values) {
+		int numOfEntries = 0;
+		for(int i = 0; i < records.size(); i++) {
+			String key = Index.keyOf(columns, records.get(i));
+			if(key != null) {
+				keys[numOfEntries] = key;
+				values[numOfEntries] = firstId + i;
+				numOfEntries++;
+			}
+		}
+		return numOfEntries;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Adds the record to every bitmap and hash index. These hold a set of records for each
+	// value, so adding a record that is already there changes nothing
+
+	private void insertIntoValueIndexes(Map<String, String> record, int recordId) {
+		Iterator<BitmapIndex> bitmapIt = bitmapIndexCollection.values().iterator();
+		while(bitmapIt.hasNext()) {
+			BitmapIndex indexObj = bitmapIt.next();
+			String key = record.get(indexObj.getColumn());
+			if(key != null) {
+				indexObj.insertIntoIndex(key, recordId);
+			}
+		}
+		Iterator<HashIndex> hashIt = hashIndexCollection.values().iterator();
+		while(hashIt.hasNext()) {
+			HashIndex indexObj = hashIt.next();
+			String key = record.get(indexObj.getColumn());
+			if(key != null) {
+				indexObj.insertIntoIndex(key, recordId);
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Removes the record from every bitmap and hash index
+
+	private void deleteFromValueIndexes(Map<String, String> record, int recordId) {
+		Iterator<BitmapIndex> bitmapIt = bitmapIndexCollection.values().iterator();
+		while(bitmapIt.hasNext()) {
+			BitmapIndex indexObj = bitmapIt.next();
+			String key = record.get(indexObj.getColumn());
+			if(key != null) {
+				indexObj.deleteFromIndex(key, recordId);
+			}
+		}
+		Iterator<HashIndex> hashIt = hashIndexCollection.values().iterator();
+		while(hashIt.hasNext()) {
+			HashIndex indexObj = hashIt.next();
+			String key = record.get(indexObj.getColumn());
+			if(key != null) {
+				indexObj.deleteFromIndex(key, recordId);
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Checks that every column of the record is in the descriptor and that no value is wider
+	// than its column
+
+	private void validateRecord(Map<String, String> record) {
 		Iterator<String> it = record.keySet().iterator();
 		while(it.hasNext()) {
 			String columnName = it.next();
@@ -170,30 +783,136 @@ public class DataFile {
 						"\" is greater than the specified " + descriptor.get(columnName) + " characters");
 			}
 		}
-		recordCollection.put(++maxRecId, record);
-		Iterator<Index> indexIt = indexCollection.iterator();
-		while(indexIt.hasNext()) {
-			Index indexObj = indexIt.next();
-			indexObj.insertIntoIndex(record.get(indexObj.getColumn()), maxRecId);
-		}
-		return (maxRecId);
 	}
 
 	// --------------------------------------------------------------------------------------
-	// Dump the file contents to disk. If there is an existing file already, then overwrite
-	// the existing file with the current file contents
+	// Dump the file contents to disk. Only the records changed since the last dump are
+	// written
 
 	public void dumpFile() throws IOException {
-		ObjectOutputStream out = null;
+		long start = System.nanoTime();
+		recordStore.flush();
+		Metrics.DUMP.recordSince(start);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Close the record store. The file object cannot be used afterwards
+
+	public void closeFile() throws IOException {
+		recordStore.close();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Reads records from a delimited file, such as a comma or tab separated one, and inserts
+	// them in batches. The first row names the columns, which must all be in the descriptor.
+	// An empty field leaves its column out of the record, while a quoted empty field gives
+	// it an empty value. Empty lines are skipped, except in a file of one column, where an
+	// empty line is a record without a value. Only one batch is held in memory at a time,
+	// so a failing row leaves the batches before it inserted. Returns the number of records
+	// inserted
+
+	public long importFile(String path, char delimiter) throws IOException {
+		DelimitedReader reader = new DelimitedReader(path, delimiter);
 		try {
-			out = new ObjectOutputStream(new BufferedOutputStream(
-					new FileOutputStream(getFileName())));
-			out.writeObject(recordCollection);
-			out.writeObject(descriptor);
-			out.writeInt(maxRecId);
+			List<String> header = reader.readRow();
+			while(header != null && header.isEmpty()) {
+				header = reader.readRow();
+			}
+			if(header == null) {
+				return 0;
+			}
+			String[] columns = header.toArray(new String[header.size()]);
+			for(int i = 0; i < columns.length; i++) {
+				if(columns[i] == null || descriptor.containsKey(columns[i]) == false) {
+					throw new IllegalArgumentException("There is no column named \"" +
+							(columns[i] == null ? "" : columns[i]) + "\" in the file \"" + fileName + "\"");
+				}
+			}
+
+			List<Map<String, String>> batch = new ArrayList<Map<String, String>>(IMPORT_BATCH_SIZE);
+			long numOfRecords = 0;
+			while(true) {
+				long lineNumber = reader.getLineNumber();
+				List<String> row = reader.readRow();
+				if(row == null) {
+					break;
+				}
+				if(row.isEmpty()) {
+					if(columns.length > 1) {
+						continue;
+					}
+					row.add(null);
+				}
+				if(row.size() != columns.length) {
+					throw new IllegalArgumentException("Line " + lineNumber + ": expected " +
+							columns.length + " fields but found " + row.size());
+				}
+
+				Map<String, String> record = new HashMap<String, String>();
+				for(int i = 0; i < columns.length; i++) {
+					if(row.get(i) != null) {
+						record.put(columns[i], row.get(i));
+					}
+				}
+				try {
+					validateRecord(record);
+				}
+				catch(IllegalArgumentException ex) {
+					throw new IllegalArgumentException("Line " + lineNumber + ": " + ex.getMessage());
+				}
+
+				batch.add(record);
+				if(batch.size() == IMPORT_BATCH_SIZE) {
+					insertRecords(batch);
+					numOfRecords += batch.size();
+					batch.clear();
+				}
+			}
+			if(batch.isEmpty() == false) {
+				insertRecords(batch);
+				numOfRecords += batch.size();
+			}
+			return numOfRecords;
 		}
 		finally {
-			out.close();
+			reader.close();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes every record to a delimited file, one row per record after a row that names the
+	// columns. A column missing from a record is written as an empty field, and an empty
+	// value as a quoted empty field, so that importFile reads both back. Records are read
+	// one at a time through a cursor, so memory use does not grow with the file. Returns the
+	// number of records written
+
+	public long exportFile(String path, char delimiter) throws IOException {
+		List<String> columns = new ArrayList<String>(new TreeSet<String>(descriptor.keySet()));
+		DelimitedWriter writer = new DelimitedWriter(path, delimiter);
+		try {
+			writer.writeRow(columns);
+
+			List<String> row = new ArrayList<String>(columns.size());
+			long numOfRecords = 0;
+			RecordCursor cursor = cursor();
+			while(cursor.nextRecordId() != RecordCursor.END) {
+				// The record is read whole, so one deleted since the cursor reached it is left
+				// out instead of being written as a row of empty fields
+				Map<String, String> record = cursor.getRecord();
+				if(record == null) {
+					continue;
+				}
+				row.clear();
+				for(int i = 0; i < columns.size(); i++) {
+					row.add(record.get(columns.get(i)));
+				}
+				writer.writeRow(row);
+				numOfRecords++;
+			}
+			return numOfRecords;
+		}
+		finally {
+			writer.close();
 		}
 	}
 
@@ -201,186 +920,518 @@ public class DataFile {
 	// View all the records that this file contains
 
 	public String viewFile() {
-		String printString = "";
-		FileIterator fit = new FileIterator();
-		while(fit.hasNext()) {
-			Map<String, String> record = recordCollection.get(fit.next());
+		StringBuilder printString = new StringBuilder();
+		RecordCursor cursor = cursor();
+		while(cursor.nextRecordId() != RecordCursor.END) {
+			Map<String, String> record = cursor.getRecord();
+			if(record == null) {
+				continue;
+			}
 			Iterator<String> mapIt = record.keySet().iterator();
-			System.out.println(fit.next() + ":");
-			printString = printString.concat(fit.next() + ":" + "\n");
+			printString.append(cursor.getRecordId()).append(":\n");
 
 			while(mapIt.hasNext()) {
 				String key = mapIt.next();
-				System.out.println("\t" + key + ": " + record.get(key));
-				printString = printString.concat("\t" + key + ": " + 
-						record.get(key) + "\n");
+				printString.append('\t').append(key).append(": ").append(record.get(key)).append('\n');
 			}
 		}
-		return printString;
+		System.out.print(printString);
+		return printString.toString();
 	}
 
 	// --------------------------------------------------------------------------------------
 	// Remove the file object and its contents from memory and if there is such a file on disk,
-	// then remove from disk too
+	// then remove from disk too. The file lock of the DataManager is held, so a checkpoint
+	// never finds the file half dropped
 
-	public void dropFile() {
-		recordCollection = null;
-		descriptor = null;
+	public void dropFile() throws IOException {
+		synchronized(DataManager.fileLock) {
+			drop();
+		}
+	}
 
-		Iterator<Index> indexIt = indexCollection.iterator();
-		File fileObj = null;
+	// --------------------------------------------------------------------------------------
+	// Drops the file. The caller holds the file lock of the DataManager
 
-		while(indexIt.hasNext()) {
-			Index indexObj = indexIt.next();
-			String indexFile = indexObj.getFileName() + indexObj.getIndexName();
-			fileObj = new File(indexFile);
-			// Delete the index files from the disk if such a file exists. Else
-			// do nothing
-			if(fileObj.exists()) {
-				fileObj.delete();
+	private void drop() throws IOException {
+		WriteAheadLog log = DataManager.beginChange();
+		long lsn;
+		fileLatch.writeLock().lock();
+		try {
+			lsn = DataManager.logChange(log, LogRecord.dropFile(fileName));
+			recordStore.delete();
+			recordStore = null;
+			descriptor = null;
+
+			Iterator<Index> indexIt = indexCollection.values().iterator();
+			File fileObj = null;
+
+			while(indexIt.hasNext()) {
+				Index indexObj = indexIt.next();
+				indexObj.close();
+				String indexFile = indexObj.getFileName() + indexObj.getIndexName();
+				fileObj = new File(indexFile);
+				// Delete the index files from the disk if such a file exists. Else
+				// do nothing
+				if(fileObj.exists()) {
+					fileObj.delete();
+				}
+				indexObj = null;
 			}
-			indexObj = null;
-		}
 
-		indexCollection = null;
+			indexCollection = null;
 
-		fileObj = new File(fileName);
-		if(fileObj.exists()) {
-			fileObj.delete();
-		}
+			Iterator<BitmapIndex> bitmapIt = bitmapIndexCollection.values().iterator();
+			while(bitmapIt.hasNext()) {
+				BitmapIndex indexObj = bitmapIt.next();
+				indexObj.close();
+				new File(indexObj.getFileName() + indexObj.getIndexName()).delete();
+			}
+			bitmapIndexCollection = null;
+
+			Iterator<HashIndex> hashIt = hashIndexCollection.values().iterator();
+			while(hashIt.hasNext()) {
+				HashIndex indexObj = hashIt.next();
+				indexObj.close();
+				new File(indexObj.getFileName() + indexObj.getIndexName()).delete();
+			}
+			hashIndexCollection = null;
+			fileObj = null;
 
-		DataManager.setFileCollection(fileName);
+			DataManager.setFileCollection(fileName);
+		}
+		finally {
+			fileLatch.writeLock().unlock();
+			DataManager.endChange(log);
+		}
+		DataManager.commitChange(log, lsn);
 		fileName = null;
-		fileObj = null;
 	}
 
 	// --------------------------------------------------------------------------------------
-	// Restore the file's index specified by indexName from the disk
+	// Restore the file's index specified by indexName from the disk. Only the header page of
+	// the index file is read here. An index file written before equal keys were kept in
+	// record Id order is rebuilt from the records instead, and replaced at its next dump
+
+	public Index restoreIndex(String indexName) throws IOException {
+		long start = System.nanoTime();
+		WriteAheadLog log = DataManager.beginChange();
+		long lsn;
+		Index indexObj;
+		fileLatch.writeLock().lock();
+		try {
+			//Check if the index exists in memory
+			if(hasIndex(indexName)) {
+				throw new IllegalArgumentException("Index \"" + indexName +
+				"\" already exists in memory");			
+			}
 
-	public Index restoreIndex(String indexName) throws IOException, ClassNotFoundException {
-		//Check if the index exists in memory
-		if(getIndex(indexName) != null) {
-			throw new IllegalArgumentException("Index \"" + indexName +
-			"\" already exists in memory");			
-		}
+			if(new File(fileName + indexName).exists() == false) {
+				throw new IllegalArgumentException("There is no such file named \"" +
+						indexName + "\" on disk");
+			}
 
-		if(new File(fileName + indexName).exists() == false) {
-			throw new IllegalArgumentException("There is no such file named \"" +
-					indexName + "\" on disk");
-		}
+			PageFile pageFile = PageFile.open(fileName + indexName);
+			if(pageFile.formatVersion == PageFile.FORMAT_VERSION) {
+				indexObj = new Index(indexName, fileName, pageFile);
+			}
+			else {
+				pageFile.close();
+				indexObj = buildIndex(indexName, pageFile.columns, pageFile.includedColumns,
+						pageFile.maxNumOfKeys, Index.DEFAULT_FILL_FACTOR);
+			}
 
-		ObjectInputStream in = null;
-		Index indexObj = null;
+			lsn = DataManager.logChange(log, LogRecord.restoreIndex(fileName, indexName));
+			indexCollection.register(indexName, indexObj);
+		}
+		finally {
+			fileLatch.writeLock().unlock();
+			DataManager.endChange(log);
+		}
+		DataManager.commitChange(log, lsn);
+		Metrics.RESTORE.recordSince(start);
+		return indexObj;
+	}
 
+	// --------------------------------------------------------------------------------------
+	// Restore the file's bitmap index specified by indexName from the disk. Every bitmap is
+	// read into memory
+
+	public BitmapIndex restoreBitmapIndex(String indexName) throws IOException {
+		long start = System.nanoTime();
+		WriteAheadLog log = DataManager.beginChange();
+		long lsn;
+		BitmapIndex indexObj;
+		fileLatch.writeLock().lock();
 		try {
-			in = new ObjectInputStream(new BufferedInputStream(
-					new FileInputStream(fileName + indexName)));
-			Node root = (Node) in.readObject();
-			String column = in.readUTF();
-			@SuppressWarnings("unchecked")
-			ArrayList<Node> nodeCollection = (ArrayList<Node>) in.readObject();
+			if(hasIndex(indexName)) {
+				throw new IllegalArgumentException("Index \"" + indexName +
+				"\" already exists in memory");
+			}
 
-			indexObj = new Index(indexName, column, fileName,
-					root, nodeCollection);
+			if(new File(fileName + indexName).exists() == false) {
+				throw new IllegalArgumentException("There is no such file named \"" +
+						indexName + "\" on disk");
+			}
+
+			indexObj = BitmapIndex.open(indexName, fileName);
+			lsn = DataManager.logChange(log, LogRecord.restoreIndex(fileName, indexName));
+			bitmapIndexCollection.register(indexName, indexObj);
+		}
+		finally {
+			fileLatch.writeLock().unlock();
+			DataManager.endChange(log);
+		}
+		DataManager.commitChange(log, lsn);
+		Metrics.RESTORE.recordSince(start);
+		return indexObj;
+	}
 
-			if(indexCollection == null) {
-				indexCollection = new ArrayList<Index>();
+	// --------------------------------------------------------------------------------------
+	// Restore the file's hash index specified by indexName from the disk. Every key is read
+	// into memory
+
+	public HashIndex restoreHashIndex(String indexName) throws IOException {
+		long start = System.nanoTime();
+		WriteAheadLog log = DataManager.beginChange();
+		long lsn;
+		HashIndex indexObj;
+		fileLatch.writeLock().lock();
+		try {
+			if(hasIndex(indexName)) {
+				throw new IllegalArgumentException("Index \"" + indexName +
+				"\" already exists in memory");
+			}
+
+			if(new File(fileName + indexName).exists() == false) {
+				throw new IllegalArgumentException("There is no such file named \"" +
+						indexName + "\" on disk");
 			}
 
-			indexCollection.add(indexObj);
+			indexObj = HashIndex.open(indexName, fileName);
+			lsn = DataManager.logChange(log, LogRecord.restoreIndex(fileName, indexName));
+			hashIndexCollection.register(indexName, indexObj);
 		}
 		finally {
-			in.close();
-		}	
+			fileLatch.writeLock().unlock();
+			DataManager.endChange(log);
+		}
+		DataManager.commitChange(log, lsn);
+		Metrics.RESTORE.recordSince(start);
 		return indexObj;
 	}
 
 	// --------------------------------------------------------------------------------------
-	// Drop the index over the file specified by indexName
+	// Drop the index over the file specified by indexName. It may be of any kind
 
-	public void dropIndex(String indexName) {
+	public void dropIndex(String indexName) throws IOException {
 		// Check if there exists such an index in memory and if yes, 
 		// remove from indexCollection
-		Index indexObj = getIndex(indexName);
-		if(indexObj != null) {
-			indexCollection.remove(indexObj);
+		WriteAheadLog log = DataManager.beginChange();
+		long lsn;
+		Index indexObj;
+		fileLatch.writeLock().lock();
+		try {
+			lsn = DataManager.logChange(log, LogRecord.dropIndex(fileName, indexName));
+			indexObj = getIndex(indexName);
+			if(indexObj != null) {
+				indexCollection.remove(indexName, indexObj);
+				indexObj.close();
+			}
+			BitmapIndex bitmapObj = bitmapIndexCollection.remove(indexName);
+			if(bitmapObj != null) {
+				bitmapObj.close();
+			}
+			HashIndex hashObj = hashIndexCollection.remove(indexName);
+			if(hashObj != null) {
+				hashObj.close();
+			}
+
+			// Check if there exists a file on disk for the given index. If yes.
+			// delete the file
+			File fileObj = new File(fileName + indexName);
+
+			if(fileObj.exists()) {
+				fileObj.delete();
+			}
+
+			fileObj = null;
 		}
+		finally {
+			fileLatch.writeLock().unlock();
+			DataManager.endChange(log);
+		}
+		DataManager.commitChange(log, lsn);
+		indexObj = null;
+	}
 
-		// Check if there exists a file on disk for the given index. If yes.
-		// delete the file
-		File fileObj = new File(fileName + indexName);
+	// --------------------------------------------------------------------------------------
+	// Returns a query for the records that match every one of the predicates. The indexes
+	// to find them with are chosen when the query is made, from the indexes themselves and
+	// the statistics gathered by analyze
 
-		if(fileObj.exists()) {
-			fileObj.delete();
+	public Query query(Predicate... predicates) {
+		for(int i = 0; i < predicates.length; i++) {
+			checkColumn(predicates[i].getColumn());
 		}
+		return new Query(this, Arrays.asList(predicates));
+	}
 
-		fileObj = null;
-		indexObj = null;
+	// --------------------------------------------------------------------------------------
+	// Returns the statistics of the column gathered by the last call to analyze, or null if
+	// it gathered none or enough records have changed since. Nothing is read from the
+	// records here, so making a query stays cheap
+
+	public ColumnStatistics getStatistics(String column) {
+		checkColumn(column);
+		ColumnStatistics columnStatistics = statistics.get(column);
+		if(columnStatistics == null || changeCount.sum() - columnStatistics.getChangeCount() >
+				Math.max(STATISTICS_MIN_CHANGES,
+						columnStatistics.getRecordCount() * STATISTICS_STALE_FRACTION)) {
+			return null;
+		}
+		return columnStatistics;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Throws an IllegalArgumentException if the file has no such column
+
+	void checkColumn(String column) {
+		if(descriptor.containsKey(column) == false) {
+			throw new IllegalArgumentException("There is no column named \"" + column + "\"");
+		}
 	}
 
 	// --------------------------------------------------------------------------------------
-	// Return an iterator over the recordCollection for this DataFile object
+	// Gathers the statistics of every column that an index is built over again, and drops
+	// those of other columns
+
+	public void analyze() {
+		List<String> columns = new ArrayList<String>();
+		Iterator<Index> indexIt = indexCollection.values().iterator();
+		while(indexIt.hasNext()) {
+			columns.addAll(indexIt.next().getColumns());
+		}
+		Iterator<BitmapIndex> bitmapIt = bitmapIndexCollection.values().iterator();
+		while(bitmapIt.hasNext()) {
+			columns.add(bitmapIt.next().getColumn());
+		}
+		Iterator<HashIndex> hashIt = hashIndexCollection.values().iterator();
+		while(hashIt.hasNext()) {
+			columns.add(hashIt.next().getColumn());
+		}
+
+		statistics.keySet().retainAll(columns);
+		long changes = changeCount.sum();
+		for(int i = 0; i < columns.size(); i++) {
+			if(i == columns.indexOf(columns.get(i))) {
+				gatherStatistics(columns.get(i), changes);
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Reads the column value of every record and keeps the statistics of the values. Records
+	// changed while they are read may or may not be counted
+
+	private void gatherStatistics(String column, long changes) {
+		RecordCursor cursor = cursor();
+		String[] values = new String[recordStore.size()];
+		int numOfValues = 0;
+		int numOfRecords = 0;
+		while(cursor.nextRecordId() != RecordCursor.END) {
+			numOfRecords++;
+			String value = cursor.getValue(column);
+			if(value != null) {
+				// Records inserted since the walk began may not fit
+				if(numOfValues == values.length) {
+					values = Arrays.copyOf(values, values.length * 2 + 1);
+				}
+				values[numOfValues++] = value;
+			}
+		}
+		statistics.put(column, ColumnStatistics.build(values, numOfValues, numOfRecords, changes));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Return an iterator over the records of this DataFile object
 
 	public Iterator<Integer> iterator() {
 		return new FileIterator();
 	}
 
 	// --------------------------------------------------------------------------------------
-	// A private class that implements the iterator methods to iterate over the file's records
+	// Returns a cursor over the records of this DataFile object, in ascending order of record
+	// Id. Unlike iterator it hands out record Ids as ints and reads column values directly
 
-	private class FileIterator implements Iterator<Integer> {
+	public RecordCursor cursor() {
+		return new RecordCursor(this, recordStore);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns an iterator over the records in the bitmap, in ascending order of record Id.
+	// The bitmap is usually got from one or more bitmap indexes over this file, combined
+	// with and, or and andNot
+
+	public Iterator<Integer> iterator(Bitmap records) {
+		return new BitmapIterator(records.iterator());
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a spliterator over the record Ids of the file, in ascending order. It covers
+	// the record Ids up to the largest one in use when it is created, and splits them into
+	// halves, so that the records can be read by several threads, for instance through
+	// StreamSupport.intStream(spliterator(), true). Records inserted or deleted while it is
+	// in use may or may not be seen
+
+	public Spliterator.OfInt spliterator() {
+		return new RecordSpliterator(0, recordStore.getMaxRecId() + 1);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a scan of every record of the file, which filters, projects and counts the
+	// records on several threads at once
+
+	public Scan scan() {
+		return new Scan(this);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class that implements the spliterator methods over a range of record Ids.
+	// A record Id is passed on only if a record has it when the spliterator reaches it. The
+	// record store finds the next live record Id, skipping runs of deleted records at once
+
+	private class RecordSpliterator implements Spliterator.OfInt {
 
-		private int numRecords;
 		private int nextRecordId;
-		int[] keys = new int[recordCollection.size()];
-		int keyCount;
-		int flag;
+		private int end;
 
-		public FileIterator() {
-			for (int i : recordCollection.keySet()) {
-				keys[keyCount++] = i;
-			}
-			nextRecordId = -1;
+		public RecordSpliterator(int nextRecordId, int end) {
+			this.nextRecordId = nextRecordId;
+			this.end = end;
 		}
 
-		public boolean hasNext() {
-			if (numRecords < recordCollection.size()) {
-				nextRecordId = nextRecordId + 1;
-				numRecords = numRecords + 1;
-				return true;
+		// Hands the lower half of the range to a new spliterator
+		public Spliterator.OfInt trySplit() {
+			int middle = (nextRecordId + end) >>> 1;
+			if(middle - nextRecordId < SPLIT_SIZE) {
+				return null;
 			}
-			else {
+			RecordSpliterator lowerHalf = new RecordSpliterator(nextRecordId, middle);
+			nextRecordId = middle;
+			return lowerHalf;
+		}
+
+		public boolean tryAdvance(IntConsumer action) {
+			int recordId = nextRecordId < end ? recordStore.nextRecordId(nextRecordId) : -1;
+			if(recordId < 0 || recordId >= end) {
+				nextRecordId = end;
 				return false;
 			}
+			nextRecordId = recordId + 1;
+			action.accept(recordId);
+			return true;
 		}
 
-		public Integer next() {
-			try {
-				flag = 0;
-				return keys[nextRecordId];
+		public void forEachRemaining(IntConsumer action) {
+			int last = end;
+			int recordId = nextRecordId;
+			nextRecordId = last;
+			while(recordId < last && (recordId = recordStore.nextRecordId(recordId)) >= 0 &&
+					recordId < last) {
+				action.accept(recordId);
+				recordId++;
 			}
-			catch(Exception ex) {
+		}
+
+		// The number of record Ids left, some of which may have no record
+		public long estimateSize() {
+			return end - nextRecordId;
+		}
+
+		public int characteristics() {
+			return ORDERED | DISTINCT | SORTED | NONNULL;
+		}
+
+		// The record Ids are sorted in their natural order
+		public Comparator<? super Integer> getComparator() {
+			return null;
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class that implements the iterator methods to iterate over the file's records.
+	// It walks a cursor over the records, staying one record ahead of the caller so that
+	// hasNext can answer without moving
+
+	private class FileIterator implements Iterator<Integer> {
+
+		private RecordCursor cursor;
+		private int nextRecordId;
+		private int recordId;
+		private int flag;
+
+		public FileIterator() {
+			cursor = cursor();
+			nextRecordId = cursor.nextRecordId();
+			flag = -1;
+		}
+
+		public boolean hasNext() {
+			return nextRecordId != RecordCursor.END;
+		}
+
+		public Integer next() {
+			if (nextRecordId == RecordCursor.END) {
 				throw new NoSuchElementException();
 			}
+			recordId = nextRecordId;
+			nextRecordId = cursor.nextRecordId();
+			flag = 0;
+			return recordId;
 		}
 
-		//Get the record. Get the value for the column on which the index is built
+		//Delete the record from the indexes and the record store
 		public void remove() {
 			if (flag != -1) {
-				Map<String, String> record = recordCollection.get(keys[nextRecordId]);
-				Index indexObj = null;
+				deleteRecord(recordId);
+				flag = -1;
+			}
+			else {
+				throw new IllegalStateException();
+			}
+		}
+	}
 
-				for(int i = 0; i < indexCollection.size(); i++) {
-					indexObj = indexCollection.get(i);
-					String key = record.get(indexObj.getColumn());
-					indexObj.deleteFromIndex(key, keys[nextRecordId]);
-				}
+	// --------------------------------------------------------------------------------------
+	// A private class that iterates over the record Ids of a bitmap. Removing a record
+	// deletes it from the file
 
-				indexObj = null;
-				recordCollection.remove(keys[nextRecordId]);
+	private class BitmapIterator implements Iterator<Integer> {
+
+		private Iterator<Integer> bitmapIt;
+		private int recordId;
+		private int flag;
+
+		public BitmapIterator(Iterator<Integer> bitmapIt) {
+			this.bitmapIt = bitmapIt;
+			flag = -1;
+		}
+
+		public boolean hasNext() {
+			return bitmapIt.hasNext();
+		}
+
+		public Integer next() {
+			recordId = bitmapIt.next();
+			flag = 0;
+			return recordId;
+		}
 
+		public void remove() {
+			if (flag != -1) {
+				deleteRecord(recordId);
 				flag = -1;
-				numRecords = numRecords - 1;	
 			}
 			else {
 				throw new IllegalStateException();
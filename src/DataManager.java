@@ -1,110 +1,672 @@
 package database;
 
-import java.io.BufferedInputStream;
+import database.helperClasses.BufferPool;
+import database.helperClasses.Catalog;
+import database.helperClasses.ColumnarRecordStore;
+import database.helperClasses.LogRecord;
+import database.helperClasses.LatencyHistogram;
+import database.helperClasses.MappedRecordStore;
+import database.helperClasses.Metrics;
+import database.helperClasses.MetricsMXBean;
+import database.helperClasses.RecordStore;
+import database.helperClasses.WriteAheadLog;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class DataManager {
 
-	// An ArrayList collection of DataFile objects
-	private static ArrayList<DataFile> fileCollection = new ArrayList<DataFile>();
+	// The open DataFile objects keyed by file name. Lookups take no lock. Files are opened
+	// and closed while holding the lock of the DataManager class, so a name is checked and
+	// registered as one step
+	private static final Catalog<DataFile> fileCollection = new Catalog<DataFile>();
+
+	// How often a PERIODIC log is forced to disk when no interval is given
+	public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100;
+
+	// The size a log may grow to before it is checkpointed, when no size is given
+	public static final long DEFAULT_CHECKPOINT_BYTES = 64L * 1024 * 1024;
+
+	// The log that changes are written to before they are made. Will be null until openLog
+	// is called, in which case changes are only saved by checkpoint and exit
+	private static volatile WriteAheadLog log;
+
+	// Runs a checkpoint every checkpoint period once startCheckpointTimer is called
+	private static ScheduledExecutorService checkpointTimer;
+
+	// The error met by the last checkpoint run by the timer, reported by the next checkpoint.
+	// Either an IOException or a RuntimeException
+	private static volatile Exception checkpointFailure;
+
+	// Held while a file is created, restored or dropped, and while a checkpoint dumps the
+	// files, so that a checkpoint never meets a file half made or half dropped even when
+	// there is no log. It is taken after the lock of the DataManager class and before the
+	// log's checkpoint latch
+	static final Object fileLock = new Object();
+
+	// The buffer pool that holds the index nodes of every open index. Starts out at a quarter
+	// of the heap, and can be resized with setBufferPoolSize
+	private static final BufferPool bufferPool = new BufferPool(Runtime.getRuntime().maxMemory() / 4);
+
+	// Set while a checkpoint asked for by the buffer pool is waiting or running, so that a
+	// pool full of dirty nodes starts one checkpoint and not one per admitted node
+	private static final AtomicBoolean checkpointRequested = new AtomicBoolean();
+
+	// The name the metrics are registered under with the platform MBean server
+	public static final String METRICS_NAME = "database:type=Metrics";
+
+	static {
+		// Dirty nodes are only written by a checkpoint, so once they fill the buffer pool a
+		// checkpoint is run in the background to make them evictable again
+		bufferPool.setDirtyHandler(new Runnable() {
+			public void run() {
+				requestCheckpoint();
+			}
+		});
+
+		// The metrics are still available through getMetrics if JMX is not
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(),
+					new ObjectName(METRICS_NAME));
+		}
+		catch(JMException ex) {
+		}
+		catch(SecurityException ex) {
+		}
+	}
+
+	// Exposes the metrics returned by getMetrics through JMX
+	private static class MetricsBean implements MetricsMXBean {
+		public Map<String, Long> getCounters() {
+			return getMetrics().counters;
+		}
+
+		public Map<String, Double> getLatencyMicros() {
+			Map<String, Double> latencies = new LinkedHashMap<String, Double>();
+			Iterator<Map.Entry<String, LatencyHistogram.Snapshot>> latencyIt =
+					getMetrics().latencies.entrySet().iterator();
+			while(latencyIt.hasNext()) {
+				Map.Entry<String, LatencyHistogram.Snapshot> entry = latencyIt.next();
+				LatencyHistogram.Snapshot latency = entry.getValue();
+				latencies.put(entry.getKey() + ".mean", latency.mean() / 1000);
+				latencies.put(entry.getKey() + ".p50", latency.p50 / 1000.0);
+				latencies.put(entry.getKey() + ".p90", latency.p90 / 1000.0);
+				latencies.put(entry.getKey() + ".p99", latency.p99 / 1000.0);
+				latencies.put(entry.getKey() + ".p999", latency.p999 / 1000.0);
+				latencies.put(entry.getKey() + ".max", latency.max / 1000.0);
+			}
+			return latencies;
+		}
+
+		public Map<String, Double> getGauges() {
+			return getMetrics().gauges;
+		}
+
+		public void reset() {
+			Metrics.reset();
+		}
+	}
 
 	// --------------------------------------------------------------------------------------
-	// Removes the DataFile object specified by fileName from fileCollection
+	// Returns the buffer pool shared by all indexes
 
-	public static void setFileCollection(String fileName) {
-		Iterator<DataFile> fileIt = fileCollection.iterator();
+	public static BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Sets the number of bytes of index nodes that are kept in memory. Nodes that have not
+	// been used recently are dropped once the pool is over this size, and read from their
+	// index file again when they are next needed. Nodes changed since the last checkpoint
+	// stay in memory until it has saved them, and a checkpoint is started when they alone
+	// keep the pool over this size
+
+	public static void setBufferPoolSize(long bytes) {
+		bufferPool.setCapacity(bytes);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the operation counters and latencies recorded since the start or the last
+	// reset, together with gauges for the buffer pool and for every open file and index.
+	// The gauges of a file are named after the file, those of an index after the file and
+	// the index, as in "file.index.treeHeight"
+
+	public static synchronized Metrics.Snapshot getMetrics() {
+		Map<String, Double> gauges = new LinkedHashMap<String, Double>();
+		gauges.put("bufferPool.usedBytes", (double) bufferPool.getUsedBytes());
+		gauges.put("bufferPool.capacityBytes", (double) bufferPool.getCapacity());
+
+		Iterator<DataFile> fileIt = fileCollection.values().iterator();
 		while(fileIt.hasNext()) {
-			if(fileIt.next().getFileName().compareTo(fileName) == 0) {
-				fileIt.remove();
+			DataFile fileObj = fileIt.next();
+			Collection<Index> indexes = fileObj.getIndexCollection();
+			if(indexes == null) {
+				// The file has been dropped in the meantime
+				continue;
+			}
+			gauges.put(fileObj.getFileName() + ".recordCount", (double) fileObj.getRecordCount());
+
+			Iterator<Index> indexIt = indexes.iterator();
+			while(indexIt.hasNext()) {
+				Index indexObj = indexIt.next();
+				String prefix = fileObj.getFileName() + "." + indexObj.getIndexName();
+				gauges.put(prefix + ".treeHeight", (double) indexObj.getHeight());
+				gauges.put(prefix + ".cachedNodes", (double) indexObj.getCachedNodeCount());
+				gauges.put(prefix + ".fillFactor", indexObj.getFillFactor());
+			}
+
+			Collection<BitmapIndex> bitmapIndexes = fileObj.getBitmapIndexCollection();
+			if(bitmapIndexes == null) {
+				continue;
+			}
+			Iterator<BitmapIndex> bitmapIt = bitmapIndexes.iterator();
+			while(bitmapIt.hasNext()) {
+				BitmapIndex indexObj = bitmapIt.next();
+				String prefix = fileObj.getFileName() + "." + indexObj.getIndexName();
+				gauges.put(prefix + ".valueCount", (double) indexObj.getValueCount());
+			}
+
+			Collection<HashIndex> hashIndexes = fileObj.getHashIndexCollection();
+			if(hashIndexes == null) {
+				continue;
+			}
+			Iterator<HashIndex> hashIt = hashIndexes.iterator();
+			while(hashIt.hasNext()) {
+				HashIndex indexObj = hashIt.next();
+				String prefix = fileObj.getFileName() + "." + indexObj.getIndexName();
+				gauges.put(prefix + ".valueCount", (double) indexObj.getValueCount());
+				gauges.put(prefix + ".bucketCount", (double) indexObj.getBucketCount());
 			}
 		}
+		return Metrics.snapshot(gauges);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Removes the DataFile object specified by fileName from fileCollection
+
+	public static void setFileCollection(String fileName) {
+		fileCollection.remove(fileName);
 	}
 
 	// --------------------------------------------------------------------------------------
 	// Returns a DataFile object specified by fileName
 
 	public static DataFile getDataFile(String fileName) {
-		if(fileCollection != null) {
-			Iterator<DataFile> fileIt = fileCollection.iterator();
-			while(fileIt.hasNext()) {
-				DataFile fileObj = fileIt.next();
-				if(fileObj.getFileName().compareTo(fileName) == 0) {
-					return fileObj;
-				}
+		return fileCollection.get(fileName);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new DataFile object
+
+	public static DataFile createFile(String fileName, Map<String, Integer> descriptor)
+	throws IOException {
+		return createFile(fileName, descriptor, RecordStore.Layout.ROW);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new DataFile object whose records are laid out as given
+
+	public static synchronized DataFile createFile(String fileName, Map<String, Integer> descriptor,
+			RecordStore.Layout layout) throws IOException {
+		synchronized(fileLock) {
+			return newFile(fileName, descriptor, layout);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates the file. The caller holds fileLock
+
+	private static DataFile newFile(String fileName, Map<String, Integer> descriptor,
+			RecordStore.Layout layout) throws IOException {
+		WriteAheadLog current = beginChange();
+		long lsn;
+		DataFile fileObj;
+		try {
+			if (DataManager.getDataFile(fileName) != null) {
+				throw new IllegalArgumentException("File \"" + fileName + 
+				"\" already exists in memory");
 			}
+
+			fileObj = new DataFile(fileName, descriptor, layout);
+			lsn = logChange(current, LogRecord.createFile(fileName, descriptor, layout));
+			fileCollection.register(fileName, fileObj);
+		}
+		finally {
+			endChange(current);
 		}
-		return null;
+		commitChange(current, lsn);
+		return fileObj;
 	}
 
 	// --------------------------------------------------------------------------------------
-	// Creates a new DataFile object
+	// Restores a file specified by fileName from disk. For a row file only the header is
+	// read, the records are mapped into memory as they are reached. A columnar file is read
+	// into memory whole
 
-	public static DataFile createFile(String fileName, Map<String, Integer> descriptor) {
-		if (DataManager.getDataFile(fileName) != null) {
-			throw new IllegalArgumentException("File \"" + fileName + 
-			"\" already exists in memory");
+	public static synchronized DataFile restoreFile(String fileName) throws IOException {
+		synchronized(fileLock) {
+			return openFile(fileName);
 		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Restores the file. The caller holds fileLock
+
+	private static DataFile openFile(String fileName) throws IOException {
+		long start = System.nanoTime();
+		WriteAheadLog current = beginChange();
+		long lsn;
+		DataFile fileObj;
+		try {
+			//Check if the file exists in memory
+			if(getDataFile(fileName) != null) {
+				throw new IllegalArgumentException("File \"" + fileName + 
+				"\" already exists in memory");
+			}
 
-		DataFile fileObj = new DataFile(fileName, descriptor);
-		if(fileCollection == null) {
-			fileCollection = new ArrayList<DataFile>();
+			//Check if the file exists on the disk
+			if(new File(fileName).exists() == false) {
+				throw new IllegalArgumentException("There is no such file named \"" +
+						fileName + "\" on disk");
+			}
+
+			//Map the file from disk into a DataFile object
+			RecordStore recordStore;
+			if(ColumnarRecordStore.isColumnarFile(fileName)) {
+				recordStore = ColumnarRecordStore.open(fileName);
+			}
+			else {
+				recordStore = MappedRecordStore.open(fileName);
+			}
+			fileObj = new DataFile(fileName, recordStore);
+			lsn = logChange(current, LogRecord.restoreFile(fileName));
+			fileCollection.register(fileName, fileObj);
+		}
+		finally {
+			endChange(current);
 		}
-		fileCollection.add(fileObj);
+		commitChange(current, lsn);
+		Metrics.RESTORE.recordSince(start);
 		return fileObj;
 	}
 
 	// --------------------------------------------------------------------------------------
-	// Restores a file specified by fileName from disk
+	// Opens the write-ahead log specified by logName, with the default sync interval and
+	// checkpoint size
+
+	public static void openLog(String logName, WriteAheadLog.SyncPolicy policy)
+	throws IOException {
+		openLog(logName, policy, DEFAULT_SYNC_INTERVAL_MILLIS, DEFAULT_CHECKPOINT_BYTES);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Opens the write-ahead log specified by logName. Every change made to a file or index
+	// from now on is written to the log before it is made. If the log was left behind by a
+	// crash, the files and indexes that were open are restored and the changes in the log are
+	// made again. The log is then checkpointed, and again each time it grows past
+	// checkpointBytes
 
-	public static DataFile restoreFile(String fileName) 
-	throws IOException, ClassNotFoundException {
-		//Check if the file exists in memory
-		if(getDataFile(fileName) != null) {
-			throw new IllegalArgumentException("File \"" + fileName + 
-			"\" already exists in memory");
+	public static synchronized void openLog(String logName, WriteAheadLog.SyncPolicy policy,
+			long syncIntervalMillis, long checkpointBytes) throws IOException {
+		if(log != null) {
+			throw new IllegalArgumentException("A log is already open");
 		}
 
-		//Check if the file exists on the disk
-		if(new File(fileName).exists() == false) {
-			throw new IllegalArgumentException("There is no such file named \"" +
-					fileName + "\" on disk");
+		WriteAheadLog newLog = WriteAheadLog.open(logName, policy, syncIntervalMillis,
+				checkpointBytes);
+		Iterator<LogRecord> recordIt = newLog.readAll().iterator();
+		while(recordIt.hasNext()) {
+			redo(recordIt.next());
 		}
+		log = newLog;
+		checkpoint();
+	}
 
-		//Get the de-serialized file from disk into a DataFile object
-		ObjectInputStream in = null;
-		DataFile fileObj = null;
+	// --------------------------------------------------------------------------------------
+	// Makes a change read back from the log again. Every change can be made more than once,
+	// since the files may already hold some of the changes logged after the last checkpoint
 
-		try {
-			in = new ObjectInputStream(new BufferedInputStream(
-					new FileInputStream(fileName)));
+	private static void redo(LogRecord logRecord) throws IOException {
+		DataFile fileObj = logRecord.fileName == null ? null : getDataFile(logRecord.fileName);
 
-			@SuppressWarnings("unchecked")
-			Map<Integer, Map<String, String>> recordCollection =
-				(Map<Integer, Map<String,String>>) in.readObject();
+		switch(logRecord.type) {
+		case LogRecord.CHECKPOINT:
+			Iterator<Map.Entry<String, List<String>>> openIt =
+				logRecord.openIndexes.entrySet().iterator();
+			while(openIt.hasNext()) {
+				Map.Entry<String, List<String>> entry = openIt.next();
+				String fileName = entry.getKey();
+				if(getDataFile(fileName) == null && new File(fileName).exists()) {
+					restoreFile(fileName);
+				}
+				fileObj = getDataFile(fileName);
+				for(int i = 0; fileObj != null && i < entry.getValue().size(); i++) {
+					String indexName = entry.getValue().get(i);
+					if(fileObj.hasIndex(indexName) == false &&
+							new File(fileName + indexName).exists()) {
+						restoreIndex(fileObj, indexName);
+					}
+				}
+			}
+			break;
+		case LogRecord.CREATE_FILE:
+			if(fileObj != null) {
+				fileObj.dropFile();
+			}
+			createFile(logRecord.fileName, logRecord.descriptor, logRecord.layout);
+			break;
+		case LogRecord.RESTORE_FILE:
+			if(fileObj == null && new File(logRecord.fileName).exists()) {
+				restoreFile(logRecord.fileName);
+			}
+			break;
+		case LogRecord.DROP_FILE:
+			if(fileObj != null) {
+				fileObj.dropFile();
+			}
+			else if(new File(logRecord.fileName).exists() &&
+					ColumnarRecordStore.isColumnarFile(logRecord.fileName)) {
+				ColumnarRecordStore.deleteFiles(logRecord.fileName);
+			}
+			else {
+				new File(logRecord.fileName).delete();
+			}
+			break;
+		case LogRecord.INSERT:
+			if(fileObj != null) {
+				fileObj.redoInsert(logRecord.recordId, logRecord.record);
+			}
+			break;
+		case LogRecord.DELETE:
+			if(fileObj != null) {
+				fileObj.redoDelete(logRecord.recordId, logRecord.record);
+			}
+			break;
+		case LogRecord.CREATE_INDEX:
+			if(fileObj != null) {
+				if(fileObj.hasIndex(logRecord.indexName)) {
+					fileObj.dropIndex(logRecord.indexName);
+				}
+				fileObj.createIndex(logRecord.indexName, logRecord.columns,
+						logRecord.includedColumns, logRecord.fanout, logRecord.fillFactor);
+			}
+			break;
+		case LogRecord.CREATE_BITMAP_INDEX:
+			if(fileObj != null) {
+				if(fileObj.hasIndex(logRecord.indexName)) {
+					fileObj.dropIndex(logRecord.indexName);
+				}
+				fileObj.createBitmapIndex(logRecord.indexName, logRecord.column);
+			}
+			break;
+		case LogRecord.CREATE_HASH_INDEX:
+			if(fileObj != null) {
+				if(fileObj.hasIndex(logRecord.indexName)) {
+					fileObj.dropIndex(logRecord.indexName);
+				}
+				fileObj.createHashIndex(logRecord.indexName, logRecord.column);
+			}
+			break;
+		case LogRecord.RESTORE_INDEX:
+			if(fileObj != null && fileObj.hasIndex(logRecord.indexName) == false &&
+					new File(logRecord.fileName + logRecord.indexName).exists()) {
+				restoreIndex(fileObj, logRecord.indexName);
+			}
+			break;
+		case LogRecord.DROP_INDEX:
+			if(fileObj != null) {
+				fileObj.dropIndex(logRecord.indexName);
+			}
+			break;
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Restores an index of the file from disk, as a bitmap, hash or B+ tree index depending
+	// on what its file holds
+
+	private static void restoreIndex(DataFile fileObj, String indexName) throws IOException {
+		if(BitmapIndex.isBitmapIndexFile(fileObj.getFileName() + indexName)) {
+			fileObj.restoreBitmapIndex(indexName);
+		}
+		else if(HashIndex.isHashIndexFile(fileObj.getFileName() + indexName)) {
+			fileObj.restoreHashIndex(indexName);
+		}
+		else {
+			fileObj.restoreIndex(indexName);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Saves every open file and index to disk. Only the index pages and record segments
+	// changed since the last checkpoint are written. If a log is open, it is then truncated
+	// to a single record naming the files and indexes that are open
+
+	public static void checkpoint() throws IOException {
+		Exception failure = checkpointFailure;
+		if(failure != null) {
+			checkpointFailure = null;
+			if(failure instanceof IOException) {
+				throw (IOException) failure;
+			}
+			throw (RuntimeException) failure;
+		}
+		checkpoint(false);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Starts running a checkpoint every periodMillis milliseconds in the background, in place
+	// of any timer started before
+
+	public static synchronized void startCheckpointTimer(long periodMillis) {
+		if(periodMillis <= 0) {
+			throw new IllegalArgumentException("The checkpoint period needs to be positive");
+		}
+
+		stopCheckpointTimer();
+		checkpointTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "checkpoint");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		checkpointTimer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					checkpoint(false);
+				}
+				catch(IOException ex) {
+					checkpointFailure = ex;
+				}
+				// An exception thrown out of the task would cancel every later checkpoint
+				catch(RuntimeException ex) {
+					checkpointFailure = ex;
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Stops the background checkpoints, waiting for one that is running to finish
+
+	public static synchronized void stopCheckpointTimer() {
+		if(checkpointTimer != null) {
+			checkpointTimer.shutdown();
+			try {
+				checkpointTimer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+			catch(InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			checkpointTimer = null;
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Starts a checkpoint on a thread of its own, unless one asked for this way is already
+	// waiting or running. The checkpoint waits for the changes in progress to end, so it
+	// cannot be run by the thread that is making one. Its error is reported by the next
+	// call to checkpoint, as with the timer
+
+	private static void requestCheckpoint() {
+		if(checkpointRequested.compareAndSet(false, true) == false) {
+			return;
+		}
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					checkpoint(false);
+				}
+				catch(IOException ex) {
+					checkpointFailure = ex;
+				}
+				catch(RuntimeException ex) {
+					checkpointFailure = ex;
+				}
+				finally {
+					checkpointRequested.set(false);
+				}
+			}
+		}, "checkpoint");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Does the checkpoint. If onlyWhenNeeded is set, nothing is done unless the log has grown
+	// past its checkpoint size, since another thread may have just checkpointed it
+
+	private static void checkpoint(boolean onlyWhenNeeded) throws IOException {
+		synchronized(fileLock) {
+			dumpAll(onlyWhenNeeded);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Dumps every open file and index, then truncates the log. The caller holds fileLock
+
+	private static void dumpAll(boolean onlyWhenNeeded) throws IOException {
+		WriteAheadLog current = log;
+		if(current != null) {
+			current.checkpointLatch.writeLock().lock();
+		}
+		try {
+			if(onlyWhenNeeded && (current == null || current.needsCheckpoint() == false)) {
+				return;
+			}
+			// Whatever the dump writes has to be in the log on disk first, or a crash before
+			// the log is truncated could leave files ahead of the log they are replayed from
+			if(current != null) {
+				current.force();
+			}
 
-			@SuppressWarnings("unchecked")
-			Map<String, Integer> descriptor =
-				(Map<String, Integer>) in.readObject();
-			
-			int maxRecId = in.readInt();
+			Map<String, List<String>> openIndexes = new LinkedHashMap<String, List<String>>();
+			Iterator<DataFile> fileIt = fileCollection.values().iterator();
+			while(fileIt.hasNext()) {
+				DataFile fileObj = fileIt.next();
+				Collection<Index> indexes = fileObj.getIndexCollection();
+				if(indexes == null) {
+					// The file has been dropped in the meantime
+					continue;
+				}
+				List<String> indexNames = new ArrayList<String>();
+				Iterator<Index> indexIt = indexes.iterator();
+				while(indexIt.hasNext()) {
+					Index indexObj = indexIt.next();
+					indexObj.dumpIndex();
+					indexNames.add(indexObj.getIndexName());
+				}
+				Iterator<BitmapIndex> bitmapIt = fileObj.getBitmapIndexCollection().iterator();
+				while(bitmapIt.hasNext()) {
+					BitmapIndex indexObj = bitmapIt.next();
+					indexObj.dumpIndex();
+					indexNames.add(indexObj.getIndexName());
+				}
+				Iterator<HashIndex> hashIt = fileObj.getHashIndexCollection().iterator();
+				while(hashIt.hasNext()) {
+					HashIndex indexObj = hashIt.next();
+					indexObj.dumpIndex();
+					indexNames.add(indexObj.getIndexName());
+				}
+				fileObj.dumpFile();
+				openIndexes.put(fileObj.getFileName(), indexNames);
+			}
 
-			fileObj = new DataFile(fileName, descriptor, recordCollection, maxRecId);
-			if(fileCollection == null) {
-				fileCollection = new ArrayList<DataFile>();
+			if(current != null) {
+				current.truncate(LogRecord.checkpoint(openIndexes));
 			}
-			fileCollection.add(fileObj);
-			
 		}
 		finally {
-			in.close();
+			if(current != null) {
+				current.checkpointLatch.writeLock().unlock();
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Starts a change to a file or index. A checkpoint cannot start until endChange is called.
+	// Returns the log the change is written to, or null if there is none
+
+	static WriteAheadLog beginChange() {
+		WriteAheadLog current = log;
+		if(current != null) {
+			current.checkpointLatch.readLock().lock();
+		}
+		return current;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Appends the change to the log. Returns its log sequence number, or 0 if there is no log
+
+	static long logChange(WriteAheadLog current, LogRecord logRecord) {
+		if(current == null) {
+			return 0;
+		}
+		return current.append(logRecord);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Ends a change started by beginChange
+
+	static void endChange(WriteAheadLog current) {
+		if(current != null) {
+			current.checkpointLatch.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Waits until the logged change is as safe as the sync policy asks for, and checkpoints
+	// the log if it has grown too large
+
+	static void commitChange(WriteAheadLog current, long lsn) {
+		if(current == null) {
+			return;
+		}
+
+		try {
+			current.commit(lsn);
+			if(current.needsCheckpoint() && current == log) {
+				checkpoint(true);
+			}
+		}
+		catch(IOException ex) {
+			throw new UncheckedIOException(ex);
 		}
-		return fileObj;
 	}
 
 	// --------------------------------------------------------------------------------------
@@ -124,24 +686,73 @@ public class DataManager {
 	}
 
 	// --------------------------------------------------------------------------------------
-	// Exits the system after saving memory contents
-	public static void exit() throws IOException {
-    if(fileCollection != null) {
-        Iterator<DataFile> fileIt = fileCollection.iterator();
-        while(fileIt.hasNext()) {
-           DataFile fileObj = fileIt.next();
-           if(fileObj.getIndexCollection() != null) {
-              Iterator<Index> indexIt = fileObj.getIndexCollection().iterator();
-              while(indexIt.hasNext()) {
-                 Index indexObj = indexIt.next();
-                 indexObj.dumpIndex();
-                 indexObj = null;
-              }
-           }
-           fileObj.dumpFile();
-           fileObj = null;
-        }
-        fileCollection = null;
-    }
+	// Exits the system after saving memory contents. The log, if there is one, is emptied
+	// since nothing in it needs to be made again
+	public static synchronized void exit() throws IOException {
+		stopCheckpointTimer();
+		// A checkpoint asked for by the buffer pool may still be running
+		synchronized(fileLock) {
+			closeAll();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Dumps and closes every open file and index, then empties the log. The caller holds
+	// fileLock
+
+	private static void closeAll() throws IOException {
+		WriteAheadLog current = log;
+		if(current != null) {
+			current.checkpointLatch.writeLock().lock();
+		}
+		try {
+			if(current != null) {
+				current.force();
+			}
+			Iterator<DataFile> fileIt = fileCollection.values().iterator();
+			while(fileIt.hasNext()) {
+				DataFile fileObj = fileIt.next();
+				if(fileObj.getIndexCollection() != null) {
+					Iterator<Index> indexIt = fileObj.getIndexCollection().iterator();
+					while(indexIt.hasNext()) {
+						Index indexObj = indexIt.next();
+						indexObj.dumpIndex();
+						indexObj.close();
+						indexObj = null;
+					}
+				}
+				if(fileObj.getBitmapIndexCollection() != null) {
+					Iterator<BitmapIndex> bitmapIt = fileObj.getBitmapIndexCollection().iterator();
+					while(bitmapIt.hasNext()) {
+						BitmapIndex indexObj = bitmapIt.next();
+						indexObj.dumpIndex();
+						indexObj.close();
+					}
+				}
+				if(fileObj.getHashIndexCollection() != null) {
+					Iterator<HashIndex> hashIt = fileObj.getHashIndexCollection().iterator();
+					while(hashIt.hasNext()) {
+						HashIndex indexObj = hashIt.next();
+						indexObj.dumpIndex();
+						indexObj.close();
+					}
+				}
+				fileObj.dumpFile();
+				fileObj.closeFile();
+				fileObj = null;
+			}
+			fileCollection.clear();
+
+			if(current != null) {
+				current.truncate(LogRecord.checkpoint(new LinkedHashMap<String, List<String>>()));
+				current.close();
+				log = null;
+			}
+		}
+		finally {
+			if(current != null) {
+				current.checkpointLatch.writeLock().unlock();
+			}
+		}
 	}
 }
@@ -0,0 +1,567 @@
+package database;
+
+import database.helperClasses.PageFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// An index that finds the records holding a value of a column by hashing the value, so that
+// a lookup reads one bucket instead of descending a tree. It cannot answer range or prefix
+// lookups. The table grows by linear hashing: when it gets too full one bucket is split in
+// two, so it never has to be rehashed all at once
+public class HashIndex {
+
+	// A number written at the start of the index file to recognise hash index files
+	private static final int MAGIC = 0x48534958;
+
+	// The number of bytes buffered when the index file is read or written
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// The number of buckets the table starts with
+	private static final int INITIAL_BUCKETS = 16;
+
+	// A bucket is split once there are more keys than this for every bucket
+	private static final int MAX_LOAD = 2;
+
+	// The name of the index, the column it is built over and the file it belongs to
+	private String indexName;
+	private String column;
+	private String fileName;
+
+	// Every distinct key is an entry. The key, its hash, and the record Ids holding it in
+	// ascending order, by entry number. Entries of deleted keys are reused
+	private String[] keys;
+	private int[] hashes;
+	private int[][] recordIds;
+	private int[] idCounts;
+
+	// The number of entries in use, and the entry numbers free to be reused
+	private int numOfKeys;
+	private int[] freeEntries;
+	private int numOfFreeEntries;
+	private int entryCapacity;
+
+	// The entry numbers in each bucket, and how many there are
+	private int[][] buckets;
+	private int[] bucketSizes;
+
+	// The table has INITIAL_BUCKETS << level buckets plus the ones split so far in this round.
+	// Buckets before nextSplit have been split in this round
+	private int level;
+	private int nextSplit;
+
+	// Set when a record is added or removed, and cleared when the index is dumped
+	private volatile boolean dirty;
+
+	// Lookups hold this latch shared and changes hold it exclusively
+	private ReentrantReadWriteLock latch;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the HashIndex class
+	// This constructor is called when creating a new index
+
+	public HashIndex(String indexName, String column, String fileName) {
+		this.indexName = indexName;
+		this.column = column;
+		this.fileName = fileName;
+		entryCapacity = INITIAL_BUCKETS * MAX_LOAD;
+		keys = new String[entryCapacity];
+		hashes = new int[entryCapacity];
+		recordIds = new int[entryCapacity][];
+		idCounts = new int[entryCapacity];
+		freeEntries = new int[entryCapacity];
+		buckets = new int[INITIAL_BUCKETS * 2][];
+		bucketSizes = new int[INITIAL_BUCKETS * 2];
+		for(int i = 0; i < INITIAL_BUCKETS; i++) {
+			buckets[i] = new int[MAX_LOAD * 2];
+		}
+		dirty = true;
+		latch = new ReentrantReadWriteLock();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the file specified by path is a hash index file
+
+	public static boolean isHashIndexFile(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			return file.length() >= 4 && file.readInt() == MAGIC;
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Restores the index specified by indexName over the file specified by fileName from
+	// disk. Every key is read into memory and hashed again
+
+	public static HashIndex open(String indexName, String fileName) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(Paths.get(fileName + indexName)), BUFFER_SIZE));
+		try {
+			if(in.readInt() != MAGIC) {
+				throw new IllegalArgumentException("The file \"" + fileName + indexName +
+						"\" is not a hash index file");
+			}
+
+			HashIndex indexObj = new HashIndex(indexName, in.readUTF(), fileName);
+			int numOfKeys = in.readInt();
+			for(int i = 0; i < numOfKeys; i++) {
+				String key = in.readUTF();
+				int count = in.readInt();
+				int[] ids = new int[Math.max(count, 1)];
+				for(int j = 0; j < count; j++) {
+					ids[j] = in.readInt();
+				}
+				int entry = indexObj.newEntry(key, hash(key));
+				indexObj.recordIds[entry] = ids;
+				indexObj.idCounts[entry] = count;
+			}
+			indexObj.dirty = false;
+			return indexObj;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for indexName
+
+	public String getIndexName() {
+		return indexName;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for column
+
+	public String getColumn() {
+		return column;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for fileName
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of distinct values of the column
+
+	public int getValueCount() {
+		latch.readLock().lock();
+		try {
+			return numOfKeys;
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of records holding the value 'key', without copying their Ids
+
+	public int getRecordCount(String key) {
+		latch.readLock().lock();
+		try {
+			int hash = hash(key);
+			int bucket = bucketOf(hash);
+			int slot = findSlot(bucket, key, hash);
+			return slot < 0 ? 0 : idCounts[buckets[bucket][slot]];
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of buckets in the table
+
+	public int getBucketCount() {
+		latch.readLock().lock();
+		try {
+			return numOfBuckets();
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Adds the record to the record Ids of its key
+
+	public void insertIntoIndex(String key, int value) {
+		latch.writeLock().lock();
+		try {
+			add(key, value);
+		}
+		finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Adds a batch of records under a single latch
+
+	public void insertBatch(String[] keys, int[] values, int numOfEntries) {
+		latch.writeLock().lock();
+		try {
+			for(int i = 0; i < numOfEntries; i++) {
+				add(keys[i], values[i]);
+			}
+		}
+		finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Removes the record from the record Ids of its key. A key left without records is
+	// dropped from the table
+
+	public void deleteFromIndex(String key, int value) {
+		latch.writeLock().lock();
+		try {
+			int hash = hash(key);
+			int bucket = bucketOf(hash);
+			int slot = findSlot(bucket, key, hash);
+			if(slot < 0) {
+				return;
+			}
+			int entry = buckets[bucket][slot];
+			int[] ids = recordIds[entry];
+			int count = idCounts[entry];
+			int position = Arrays.binarySearch(ids, 0, count, value);
+			if(position < 0) {
+				return;
+			}
+			System.arraycopy(ids, position + 1, ids, position, count - position - 1);
+			idCounts[entry]--;
+			dirty = true;
+
+			if(idCounts[entry] == 0) {
+				bucketSizes[bucket]--;
+				buckets[bucket][slot] = buckets[bucket][bucketSizes[bucket]];
+				keys[entry] = null;
+				recordIds[entry] = null;
+				freeEntries[numOfFreeEntries++] = entry;
+				numOfKeys--;
+			}
+		}
+		finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the record Ids holding the value 'key' in ascending order, copied so that they
+	// do not change with the index
+
+	public int[] lookup(String key) {
+		latch.readLock().lock();
+		try {
+			int hash = hash(key);
+			int bucket = bucketOf(hash);
+			int slot = findSlot(bucket, key, hash);
+			if(slot < 0) {
+				return new int[0];
+			}
+			int entry = buckets[bucket][slot];
+			return Arrays.copyOf(recordIds[entry], idCounts[entry]);
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns an iterator over the records that have this index's column attribute with the
+	// value set to the parameter 'key', in ascending order of record Id
+
+	public Iterator<Integer> iterator(String key) {
+		return new HashIterator(lookup(key));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Dump the index to disk. Every key and its record Ids are written to a new file, which
+	// then replaces the old one. The buckets are not written, since the keys are hashed
+	// again when the index is restored. Nothing is written if no record has changed since
+	// the last dump. The keys and record Ids are copied under the latch and written from
+	// the copy, so records can be added and removed while the file is written
+
+	public synchronized void dumpIndex() throws IOException {
+		String[] dumpKeys;
+		int[][] dumpIds;
+		latch.readLock().lock();
+		try {
+			if(dirty == false) {
+				return;
+			}
+			dumpKeys = new String[numOfKeys];
+			dumpIds = new int[numOfKeys][];
+			int numOfEntries = 0;
+			for(int entry = 0; entry < entryCapacity; entry++) {
+				if(keys[entry] != null) {
+					dumpKeys[numOfEntries] = keys[entry];
+					dumpIds[numOfEntries] = Arrays.copyOf(recordIds[entry], idCounts[entry]);
+					numOfEntries++;
+				}
+			}
+			dirty = false;
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+
+		boolean written = false;
+		try {
+			Path path = Paths.get(fileName + indexName);
+			Path tempPath = Paths.get(fileName + indexName + ".tmp");
+			FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+						Channels.newOutputStream(channel), BUFFER_SIZE));
+				out.writeInt(MAGIC);
+				out.writeUTF(column);
+				out.writeInt(dumpKeys.length);
+				for(int i = 0; i < dumpKeys.length; i++) {
+					out.writeUTF(dumpKeys[i]);
+					out.writeInt(dumpIds[i].length);
+					for(int j = 0; j < dumpIds[i].length; j++) {
+						out.writeInt(dumpIds[i][j]);
+					}
+				}
+				out.flush();
+				channel.force(true);
+			}
+			finally {
+				channel.close();
+			}
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			PageFile.syncDirectory(path);
+			written = true;
+		}
+		finally {
+			// The changes in the copy have still to be written
+			if(written == false) {
+				dirty = true;
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Closes the index. The table is only held in memory, so there is no file to close
+
+	public void close() throws IOException {
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Adds the record to the record Ids of its key, making an entry for the key if it has
+	// none. The caller holds the latch exclusively
+
+	private void add(String key, int value) {
+		int hash = hash(key);
+		int bucket = bucketOf(hash);
+		int slot = findSlot(bucket, key, hash);
+		if(slot < 0) {
+			int entry = newEntry(key, hash);
+			recordIds[entry] = new int[] {value};
+			idCounts[entry] = 1;
+			dirty = true;
+			return;
+		}
+
+		int entry = buckets[bucket][slot];
+		int[] ids = recordIds[entry];
+		int count = idCounts[entry];
+		// Records are mostly added in ascending order of record Id
+		int position = count > 0 && ids[count - 1] < value ?
+				-count - 1 : Arrays.binarySearch(ids, 0, count, value);
+		if(position >= 0) {
+			return;
+		}
+		position = -position - 1;
+		if(count == ids.length) {
+			ids = Arrays.copyOf(ids, count * 2);
+			recordIds[entry] = ids;
+		}
+		System.arraycopy(ids, position, ids, position + 1, count - position);
+		ids[position] = value;
+		idCounts[entry]++;
+		dirty = true;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Makes an entry for a key that is not in the table and puts it in its bucket. A bucket
+	// is split first if the table is too full. Returns the entry number
+
+	private int newEntry(String key, int hash) {
+		if(numOfKeys >= numOfBuckets() * MAX_LOAD) {
+			splitBucket();
+		}
+
+		int entry;
+		if(numOfFreeEntries > 0) {
+			entry = freeEntries[--numOfFreeEntries];
+		}
+		else {
+			entry = numOfKeys;
+			if(entry == entryCapacity) {
+				entryCapacity *= 2;
+				keys = Arrays.copyOf(keys, entryCapacity);
+				hashes = Arrays.copyOf(hashes, entryCapacity);
+				recordIds = Arrays.copyOf(recordIds, entryCapacity);
+				idCounts = Arrays.copyOf(idCounts, entryCapacity);
+				freeEntries = Arrays.copyOf(freeEntries, entryCapacity);
+			}
+		}
+		keys[entry] = key;
+		hashes[entry] = hash;
+		numOfKeys++;
+		addToBucket(bucketOf(hash), entry);
+		return entry;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Splits the bucket at nextSplit. Its entries are shared between it and a new bucket at
+	// the end of the table, by one more bit of their hash
+
+	private void splitBucket() {
+		int roundSize = INITIAL_BUCKETS << level;
+		int newBucket = roundSize + nextSplit;
+		if(newBucket == buckets.length) {
+			buckets = Arrays.copyOf(buckets, buckets.length * 2);
+			bucketSizes = Arrays.copyOf(bucketSizes, bucketSizes.length * 2);
+		}
+		buckets[newBucket] = new int[MAX_LOAD * 2];
+
+		int[] entries = buckets[nextSplit];
+		int size = bucketSizes[nextSplit];
+		bucketSizes[nextSplit] = 0;
+		for(int i = 0; i < size; i++) {
+			int entry = entries[i];
+			addToBucket((hashes[entry] & roundSize) == 0 ? nextSplit : newBucket, entry);
+		}
+
+		nextSplit++;
+		if(nextSplit == roundSize) {
+			level++;
+			nextSplit = 0;
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of buckets in the table. The caller holds the latch
+
+	private int numOfBuckets() {
+		return (INITIAL_BUCKETS << level) + nextSplit;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Appends an entry number to a bucket
+
+	private void addToBucket(int bucket, int entry) {
+		if(bucketSizes[bucket] == buckets[bucket].length) {
+			buckets[bucket] = Arrays.copyOf(buckets[bucket], bucketSizes[bucket] * 2);
+		}
+		buckets[bucket][bucketSizes[bucket]++] = entry;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the bucket that a hash falls in. Buckets already split in this round are
+	// addressed by one more bit of the hash
+
+	private int bucketOf(int hash) {
+		int roundSize = INITIAL_BUCKETS << level;
+		int bucket = hash & (roundSize - 1);
+		if(bucket < nextSplit) {
+			bucket = hash & (roundSize * 2 - 1);
+		}
+		return bucket;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the slot of the key in the bucket, or -1 if it is not there. The stored hashes
+	// are compared first, so most other keys are passed over without comparing strings
+
+	private int findSlot(int bucket, String key, int hash) {
+		int[] entries = buckets[bucket];
+		for(int i = 0; i < bucketSizes[bucket]; i++) {
+			int entry = entries[i];
+			if(hashes[entry] == hash && keys[entry].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the hash of a key, with its bits spread so that the low bits used to address
+	// the buckets depend on all of them
+
+	private static int hash(String key) {
+		int hash = key.hashCode() * 0x9e3779b9;
+		return hash ^ (hash >>> 16);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class that iterates over the record Ids found by a lookup. Removing a record
+	// deletes it from the file
+
+	private class HashIterator implements Iterator<Integer> {
+
+		private int[] ids;
+		private int position;
+		private int flag;
+		private DataFile fileObj;
+
+		public HashIterator(int[] ids) {
+			this.ids = ids;
+			flag = -1;
+		}
+
+		public boolean hasNext() {
+			return position < ids.length;
+		}
+
+		public Integer next() {
+			if(hasNext() == false) {
+				throw new NoSuchElementException();
+			}
+			flag = 0;
+			return ids[position++];
+		}
+
+		public void remove() {
+			if (flag != -1) {
+				if(fileObj == null) {
+					fileObj = DataManager.getDataFile(fileName);
+				}
+				fileObj.deleteRecord(ids[position - 1]);
+				flag = -1;
+			}
+			else {
+				throw new IllegalStateException();
+			}
+		}
+	}
+}
@@ -1,58 +1,224 @@
 package database;
 
+import database.helperClasses.BufferPool;
+import database.helperClasses.LatencyHistogram;
+import database.helperClasses.Metrics;
 import database.helperClasses.Node;
+import database.helperClasses.PageFile;
+import database.helperClasses.RecordStore;
 
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Index {
 
-	// An object of the Node class which will be the root for this given index
-	private Node root;
+	// The number of keys in a node when no fanout is given
+	public static final int DEFAULT_FANOUT = 64;
+
+	// The fraction of a node that a bulk load fills when no fill factor is given
+	public static final double DEFAULT_FILL_FACTOR = 0.9;
+
+	// The share of keyWidth that a key is expected to take up once the prefix it shares with
+	// the other keys of its leaf node is left out. Leaf nodes are sized for it until a bulk
+	// load measures the keys themselves
+	private static final double EXPECTED_KEY_SHARE = 0.5;
+
+	// Bulk loads of at least this many entries are sorted in parallel
+	private static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+
+	// The most columns a composite index can be built over, so that their names fit in the
+	// header page of the index file
+	public static final int MAX_COLUMNS = 8;
+
+	// The key of a composite index holds the value of every column, each followed by this
+	// separator. A '\0' in a value is written as '\0' '\uffff', so the separator sorts before
+	// any character that can follow, and keys sort by their first column, then by their
+	// second and so on
+	private static final String KEY_SEPARATOR = "\0\1";
+	private static final char ESCAPED_ZERO = '\uffff';
+
+	// The values of the included columns of an entry are written like the values of a
+	// composite key, except that a record without a value for a column has this in its place
+	private static final String MISSING_VALUE = "\0\2";
+
+	// The page number of the node which will be the root for this given index
+	private volatile int rootPage;
 
 	// A variable to hold the index name
 	private String indexName;
 
-	// A variable which tells us which column name has been indexed
-	private String column;
+	// The columns that have been indexed, in key order. An index over a single column keeps
+	// the column value itself as the key, one over several columns a composite key
+	private List<String> columns;
+
+	// The columns whose values are kept in the leaf entries next to the key, so that a scan
+	// can return them without reading the records. Empty for most indexes
+	private List<String> includedColumns;
+
+	// The values of the included columns of an entry with none of them, and the maximum
+	// number of characters the values of an entry are encoded in
+	private String missingValues;
+	private int includedWidth;
 
 	// A variable to tell us what file this index belongs to
 	private String fileName;
 
-	// A collection of nodes
-	private ArrayList<Node> nodeCollection;
+	// The nodes of this index that are in the buffer pool, keyed by page number. Nodes that
+	// are not in it are read from the index file when they are reached
+	private ConcurrentHashMap<Integer, BufferPool.Frame> nodeCollection;
+
+	// The buffer pool shared by all indexes
+	private BufferPool bufferPool;
+
+	// The number of bytes in a page of the index file. Every node has to fit in one, and
+	// counts for this many bytes in the buffer pool
+	private int pageBytes;
 
-	// The maximum number of keys
-	private int maxNumOfKeys = 8;
+	// The most entries a leaf node holds. Leaf nodes are sized for keys that take up the
+	// expected number of characters once the prefix they share is left out, so they are
+	// also split as soon as their entries no longer fit in a page
+	private int maxNumOfKeys;
+
+	// The number of leaf entries that fit in a page even when nothing is left out of their
+	// keys. Leaf nodes with no more entries than this are never measured
+	private int uncompressedKeys;
+
+	// The most separators an internal node holds. Separators are short, so internal nodes
+	// are simply sized for keys of keyWidth characters
+	private int internalKeys;
+
+	// The maximum number of characters in a key
+	private int keyWidth;
+
+	// The file holding the index pages. Will be null until the index is first dumped
+	private volatile PageFile pageFile;
+
+	// The number of pages allocated so far, including the header page
+	private int pageCount;
+
+	// The first page of the chain of freed pages in the index file
+	private int freeListHead;
+
+	// Pages freed since the index was last dumped
+	private ArrayList<Integer> freePages;
+
+	// The pages of the nodes that have been created or changed since the index was last
+	// dumped. Only these are written by the next dump
+	private Set<Integer> dirtyPages;
+
+	// The latch over the whole tree. Lookups, and inserts and deletes that stay within one
+	// leaf node, hold it shared and latch only that leaf. Splits, merges and anything else
+	// that changes the internal nodes or the leaf chain hold it exclusively, so internal
+	// nodes are never latched on their own
+	private ReentrantReadWriteLock treeLatch;
 
 	// --------------------------------------------------------------------------------------
 	// The constructor for the Index class
 	// This constructor is called when creating a new index
-	public Index(String indexName, String column, String fileName) {
-		root = null;
+	public Index(String indexName, String column, String fileName, int keyWidth,
+			int fanout) {
+		this(indexName, Collections.singletonList(column), fileName, keyWidth, fanout);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new index over one or more columns. keyWidth is the number of characters of
+	// the widest key
+	public Index(String indexName, List<String> columns, String fileName, int keyWidth,
+			int fanout) {
+		this(indexName, columns, Collections.<String>emptyList(), fileName, keyWidth, 0,
+				fanout);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new index over one or more columns whose leaf entries also carry the values
+	// of the included columns. includedWidth is the number of characters the widest values
+	// of the included columns are encoded in. The pages are sized to hold fanout keys of
+	// keyWidth characters, and leaf nodes hold more when their keys share a prefix
+	public Index(String indexName, List<String> columns, List<String> includedColumns,
+			String fileName, int keyWidth, int includedWidth, int fanout) {
+		if(fanout < 3) {
+			throw new IllegalArgumentException("The fanout of an index needs to be " +
+					"at least 3 keys");
+		}
+
+		rootPage = Node.NO_PAGE;
 		this.indexName = indexName;
-		this.column = column;
+		this.columns = new ArrayList<String>(columns);
+		setIncludedColumns(includedColumns, includedWidth);
 		this.fileName = fileName;
-		nodeCollection = new ArrayList<Node>();
+		this.keyWidth = keyWidth;
+		nodeCollection = new ConcurrentHashMap<Integer, BufferPool.Frame>();
+		bufferPool = DataManager.getBufferPool();
+		pageBytes = PageFile.roundPageSize(Node.pageSize(fanout, keyWidth, includedWidth));
+		setCapacity(keyWidth * EXPECTED_KEY_SHARE);
+		pageCount = PageFile.HEADER_PAGE + 1;
+		freeListHead = Node.NO_PAGE;
+		freePages = new ArrayList<Integer>();
+		dirtyPages = ConcurrentHashMap.<Integer>newKeySet();
+		treeLatch = new ReentrantReadWriteLock();
 	}
 
 	// --------------------------------------------------------------------------------------
 	// Another overloaded constructor for the index class
-	// This constructor is called when restoring the index
-	public Index(String indexName, String column, String fileName,
-			Node root, ArrayList<Node> nodeCollection) {
+	// This constructor is called when restoring the index. Only the header page is read,
+	// nodes are read from the page file as lookups reach them
+	public Index(String indexName, String fileName, PageFile pageFile) {
 		this.indexName = indexName;
-		this.column = column;
 		this.fileName = fileName;
-		this.root = root;
-		this.nodeCollection = nodeCollection;
+		this.pageFile = pageFile;
+		columns = pageFile.columns;
+		setIncludedColumns(pageFile.includedColumns, pageFile.includedWidth);
+		keyWidth = pageFile.keyWidth;
+		rootPage = pageFile.rootPage;
+		pageCount = pageFile.pageCount;
+		freeListHead = pageFile.freeListHead;
+		nodeCollection = new ConcurrentHashMap<Integer, BufferPool.Frame>();
+		bufferPool = DataManager.getBufferPool();
+		pageBytes = pageFile.getPageSize();
+		maxNumOfKeys = pageFile.maxNumOfKeys;
+		uncompressedKeys = Math.min(maxNumOfKeys, Node.leafCapacity(pageBytes, keyWidth, includedWidth));
+		internalKeys = Math.min(maxNumOfKeys, Node.internalCapacity(pageBytes, keyWidth));
+		freePages = new ArrayList<Integer>();
+		dirtyPages = ConcurrentHashMap.<Integer>newKeySet();
+		treeLatch = new ReentrantReadWriteLock();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Sizes the nodes for keys that take up keyChars characters once the prefix they share
+	// is left out. Only called while the index is empty
+
+	private void setCapacity(double keyChars) {
+		uncompressedKeys = Node.leafCapacity(pageBytes, keyWidth, includedWidth);
+		internalKeys = Node.internalCapacity(pageBytes, keyWidth);
+		maxNumOfKeys = Math.max(internalKeys, Node.leafCapacity(pageBytes, keyChars, includedWidth));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Sets the included columns, and the values an entry with none of them carries
+
+	private void setIncludedColumns(List<String> includedColumns, int includedWidth) {
+		this.includedColumns = new ArrayList<String>(includedColumns);
+		this.includedWidth = includedWidth;
+		if(includedColumns.isEmpty() == false) {
+			StringBuilder values = new StringBuilder();
+			for(int i = 0; i < includedColumns.size(); i++) {
+				values.append(MISSING_VALUE);
+			}
+			missingValues = values.toString();
+		}
 	}
 
 	// --------------------------------------------------------------------------------------
@@ -63,10 +229,255 @@ public class Index {
 	}
 
 	// --------------------------------------------------------------------------------------
-	// Getter for column
+	// Returns the column of the index, or the first column of a composite index
 
 	public String getColumn() {
-		return column;
+		return columns.get(0);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the columns of the index in key order
+
+	public List<String> getColumns() {
+		return Collections.unmodifiableList(columns);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for includedColumns
+
+	public List<String> getIncludedColumns() {
+		return Collections.unmodifiableList(includedColumns);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the key and the included columns of the index hold every one of the
+	// given columns, so that a projection scan can return them without reading the records
+
+	public boolean covers(Collection<String> wanted) {
+		Iterator<String> it = wanted.iterator();
+		while(it.hasNext()) {
+			String column = it.next();
+			if(columns.contains(column) == false && includedColumns.contains(column) == false) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the index is built over more than one column
+
+	public boolean isComposite() {
+		return columns.size() > 1;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the key of the record in this index, or null if the record has no value for
+	// one of the columns. Such records are not in the index
+
+	String keyOf(Map<String, String> record) {
+		return keyOf(columns, record);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the key of the record with the given record Id, reading only the indexed
+	// columns from the record store
+
+	String keyOf(RecordStore recordStore, int recordId) {
+		if(columns.size() == 1) {
+			return recordStore.getValue(recordId, columns.get(0));
+		}
+		StringBuilder key = new StringBuilder();
+		for(int i = 0; i < columns.size(); i++) {
+			String value = recordStore.getValue(recordId, columns.get(i));
+			if(value == null) {
+				return null;
+			}
+			appendEscaped(key, value);
+			key.append(KEY_SEPARATOR);
+		}
+		return key.toString();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the key of the record in an index over the given columns, or null if the
+	// record has no value for one of them
+
+	static String keyOf(List<String> columns, Map<String, String> record) {
+		if(columns.size() == 1) {
+			return record.get(columns.get(0));
+		}
+		StringBuilder key = new StringBuilder();
+		for(int i = 0; i < columns.size(); i++) {
+			String value = record.get(columns.get(i));
+			if(value == null) {
+				return null;
+			}
+			appendEscaped(key, value);
+			key.append(KEY_SEPARATOR);
+		}
+		return key.toString();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of characters of the widest composite key over columns of the
+	// given widths, in which every character is a '\0'
+
+	static int keyWidth(List<Integer> widths) {
+		if(widths.size() == 1) {
+			return widths.get(0);
+		}
+		int keyWidth = 0;
+		for(int i = 0; i < widths.size(); i++) {
+			keyWidth += widths.get(i) * 2 + KEY_SEPARATOR.length();
+		}
+		return keyWidth;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of characters the widest values of included columns of the given
+	// widths are encoded in
+
+	static int includedWidth(List<Integer> widths) {
+		int includedWidth = 0;
+		for(int i = 0; i < widths.size(); i++) {
+			includedWidth += widths.get(i) * 2 + KEY_SEPARATOR.length();
+		}
+		return includedWidth;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the values of the record's included columns as they are kept in its entry, or
+	// null if the index has no included columns
+
+	String includedOf(Map<String, String> record) {
+		if(includedColumns.isEmpty()) {
+			return null;
+		}
+		StringBuilder values = new StringBuilder();
+		for(int i = 0; i < includedColumns.size(); i++) {
+			appendValue(values, record.get(includedColumns.get(i)));
+		}
+		return values.toString();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the values of the included columns of the record with the given record Id,
+	// reading only those columns from the record store
+
+	String includedOf(RecordStore recordStore, int recordId) {
+		if(includedColumns.isEmpty()) {
+			return null;
+		}
+		StringBuilder values = new StringBuilder();
+		for(int i = 0; i < includedColumns.size(); i++) {
+			appendValue(values, recordStore.getValue(recordId, includedColumns.get(i)));
+		}
+		return values.toString();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Appends the value of an included column, or MISSING_VALUE if there is none
+
+	private static void appendValue(StringBuilder values, String value) {
+		if(value == null) {
+			values.append(MISSING_VALUE);
+		}
+		else {
+			appendEscaped(values, value);
+			values.append(KEY_SEPARATOR);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the values of the included columns to keep in an entry. An index without
+	// included columns keeps none, and an entry inserted without them has none of them
+
+	private String entryValues(String includedValues) {
+		if(includedColumns.isEmpty()) {
+			return null;
+		}
+		return includedValues == null ? missingValues : includedValues;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Splits values written as in a composite key into the array, starting at the given
+	// position. A MISSING_VALUE is read as null
+
+	private static void decodeValues(String encoded, String[] values, int position) {
+		int start = 0;
+		while(start < encoded.length()) {
+			int end = encoded.indexOf('\0', start);
+			char marker = encoded.charAt(end + 1);
+			if(marker == ESCAPED_ZERO) {
+				// Only a value holding a '\0' is copied a character at a time
+				StringBuilder value = new StringBuilder();
+				while(marker == ESCAPED_ZERO) {
+					value.append(encoded, start, end).append('\0');
+					start = end + 2;
+					end = encoded.indexOf('\0', start);
+					marker = encoded.charAt(end + 1);
+				}
+				values[position++] = marker == KEY_SEPARATOR.charAt(1) ?
+					value.append(encoded, start, end).toString() : null;
+			}
+			else {
+				values[position++] = marker == KEY_SEPARATOR.charAt(1) ?
+					encoded.substring(start, end) : null;
+			}
+			start = end + 2;
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the values of the columns and the included columns of an entry, in that order
+
+	private String[] entryColumnValues(String key, String includedValues) {
+		String[] values = new String[columns.size() + includedColumns.size()];
+		if(isComposite()) {
+			decodeValues(key, values, 0);
+		}
+		else {
+			values[0] = key;
+		}
+		if(includedValues != null) {
+			decodeValues(includedValues, values, columns.size());
+		}
+		return values;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the composite key made of the values of the leading columns. It sorts before
+	// every key that starts with those values
+
+	private String compositeKey(List<String> values) {
+		if(values.isEmpty() || values.size() > columns.size()) {
+			throw new IllegalArgumentException("Expected between 1 and " + columns.size() +
+					" values for the index \"" + indexName + "\" but found " + values.size());
+		}
+		StringBuilder key = new StringBuilder();
+		for(int i = 0; i < values.size(); i++) {
+			if(values.get(i) == null) {
+				throw new IllegalArgumentException("The value of the column \"" +
+						columns.get(i) + "\" is missing");
+			}
+			appendEscaped(key, values.get(i));
+			key.append(KEY_SEPARATOR);
+		}
+		return key.toString();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Appends a value to a composite key, escaping every '\0' in it
+
+	private static void appendEscaped(StringBuilder key, String value) {
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			key.append(c);
+			if(c == '\0') {
+				key.append(ESCAPED_ZERO);
+			}
+		}
 	}
 
 	// --------------------------------------------------------------------------------------
@@ -77,424 +488,1021 @@ public class Index {
 	}
 
 	// --------------------------------------------------------------------------------------
-	// This method inserts a new key value pair to the B+ tree index
+	// Getter for maxNumOfKeys
+
+	public int getFanout() {
+		return maxNumOfKeys;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of levels of the tree, 0 if the index is empty
+
+	public int getHeight() {
+		int mark = bufferPool.pinMark();
+		treeLatch.readLock().lock();
+		try {
+			int height = 0;
+			Node node = getNode(rootPage);
+			while(node != null) {
+				height++;
+				node = node.isLeafNode ? null : getNode(node.pointer[0]);
+			}
+			return height;
+		}
+		finally {
+			treeLatch.readLock().unlock();
+			bufferPool.unpinTo(mark);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of nodes of this index that are in the buffer pool
+
+	public int getCachedNodeCount() {
+		return nodeCollection.size();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the average share of their keys that the nodes in the buffer pool are using.
+	// Only nodes already in memory are looked at, so that this never reads the index file.
+	// Nodes are read without latching them, so the result is approximate
+
+	public double getFillFactor() {
+		long numOfKeys = 0;
+		long numOfNodes = 0;
+		Iterator<BufferPool.Frame> frameIt = nodeCollection.values().iterator();
+		while(frameIt.hasNext()) {
+			numOfKeys += frameIt.next().node.numOfKeysPresent;
+			numOfNodes++;
+		}
+		return numOfNodes == 0 ? 0 : (double) numOfKeys / (numOfNodes * maxNumOfKeys);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the node stored in the page specified by pageNo, reading it from the index
+	// file if it is not in the buffer pool. The node stays pinned in the pool until the
+	// index operation that asked for it is over. When two readers load the same page, the
+	// node put into nodeCollection first is kept
+
+	private Node getNode(int pageNo) {
+		if(pageNo == Node.NO_PAGE) {
+			return null;
+		}
+
+		while(true) {
+			BufferPool.Frame frame = nodeCollection.get(pageNo);
+			if(frame != null) {
+				if(bufferPool.pin(frame)) {
+					return frame.node;
+				}
+				// The frame is being looked at by the clock hand, which either leaves it in the
+				// pool or takes it out of nodeCollection, after which the page is read again
+				Thread.yield();
+				continue;
+			}
+
+			Node node;
+			try {
+				node = Node.readFrom(pageNo, maxNumOfKeys, pageFile.readPage(pageNo));
+			}
+			catch(IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			frame = new BufferPool.Frame(node, pageBytes, nodeCollection, dirtyPages);
+			if(nodeCollection.putIfAbsent(pageNo, frame) == null) {
+				bufferPool.admit(frame);
+				return node;
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new node in a free page, or in a new page at the end of the index file
+
+	private Node newNode() {
+		int pageNo;
+		if(freePages.isEmpty() == false) {
+			pageNo = freePages.remove(freePages.size() - 1);
+		}
+		else if(freeListHead != Node.NO_PAGE) {
+			pageNo = freeListHead;
+			try {
+				ByteBuffer page = pageFile.readPage(pageNo);
+				page.get();
+				freeListHead = page.getInt();
+			}
+			catch(IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+		else {
+			pageNo = pageCount++;
+		}
+
+		Node node = new Node(pageNo, maxNumOfKeys, includedColumns.isEmpty() == false);
+		dirtyPages.add(pageNo);
+		BufferPool.Frame frame = new BufferPool.Frame(node, pageBytes, nodeCollection, dirtyPages);
+		nodeCollection.put(pageNo, frame);
+		bufferPool.admit(frame);
+		return node;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Removes a node from the index and frees its page for reuse
+
+	private void freeNode(Node node) {
+		BufferPool.Frame frame = nodeCollection.get(node.pageId);
+		if(frame != null) {
+			bufferPool.remove(frame);
+		}
+		dirtyPages.remove(node.pageId);
+		freePages.add(node.pageId);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Records that the node has changed, so that the next dump writes its page
+
+	private void markDirty(Node node) {
+		dirtyPages.add(node.pageId);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// This method inserts a new key value pair to the B+ tree index. If the leaf node has
+	// room for the key, only that leaf is latched. Otherwise the insert is done again with
+	// the whole tree latched, since the split reaches the parent nodes
 
 	public void insertIntoIndex(String key, int value) {
-		if(root == null) {
-			root = new Node();
-			nodeCollection.add(root);
-			insertIntoBTree(root, key, value);
+		insertIntoIndex(key, value, null);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Inserts a key value pair whose entry carries the values of the included columns, as
+	// given by includedOf
+
+	void insertIntoIndex(String key, int value, String includedValues) {
+		includedValues = entryValues(includedValues);
+		int mark = bufferPool.pinMark();
+		try {
+			treeLatch.readLock().lock();
+			try {
+				Node leafNode = findLeafNode(key, value);
+				if(leafNode != null) {
+					leafNode.latch.writeLock().lock();
+					try {
+						int position = leafNode.upperBound(key, value);
+						leafNode.insertEntry(position, key, value, includedValues);
+						if(overflows(leafNode) == false) {
+							markDirty(leafNode);
+							return;
+						}
+						// The leaf node has to be split, which is done with the tree latched
+						leafNode.removeEntry(position);
+					}
+					finally {
+						leafNode.latch.writeLock().unlock();
+					}
+				}
+			}
+			finally {
+				treeLatch.readLock().unlock();
+			}
+
+			treeLatch.writeLock().lock();
+			try {
+				if(rootPage == Node.NO_PAGE) {
+					Node root = newNode();
+					rootPage = root.pageId;
+					insertIntoBTree(root, key, value, includedValues);
+				}
+				else {
+					//Find the leaf node into which the key value needs to be inserted
+					Node leafNode = findLeafNode(key, value);
+					insertIntoBTree(leafNode, key, value, includedValues);
+				}
+			}
+			finally {
+				treeLatch.writeLock().unlock();
+			}
+		}
+		finally {
+			bufferPool.unpinTo(mark);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// This method finds the leaf node whose range holds the given key and record Id, which
+	// is where the pair is if it is in the index and where it goes if it is not. Entries are
+	// ordered by key and then by record Id, so every pair has exactly one place in the tree
+	// and the descent never has to look at the neighbouring leaf nodes
+
+	private Node findLeafNode(String key, int recordId) {
+		if(rootPage == Node.NO_PAGE) {
+			return null;
+		}
+
+		Node leafNode = getNode(rootPage);
+
+		while(leafNode.isLeafNode == false) {
+			leafNode = getNode(leafNode.pointer[leafNode.upperBound(key, recordId)]);
+		}
+		return leafNode;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// This method finds the leftmost or the rightmost leaf node of the tree
+
+	private Node findEdgeLeaf(boolean rightmost) {
+		if(rootPage == Node.NO_PAGE) {
+			return null;
+		}
+
+		Node leafNode = getNode(rootPage);
+
+		while(leafNode.isLeafNode == false) {
+			leafNode = getNode(leafNode.pointer[rightmost ? leafNode.numOfKeysPresent : 0]);
+		}
+		return leafNode;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// This method inserts new key value pairs into the B+ tree at the leaf level and calls
+	// recursive insert to ensure that the tree is balanced
+
+	private void insertIntoBTree(Node node, String key, int value, String includedValues) {
+		node.insertEntry(node.upperBound(key, value), key, value, includedValues);
+		markDirty(node);
+
+		if(overflows(node)) {
+			splitLeaf(node);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if a leaf node holds more entries than it has room for, or more than fit
+	// in its page once written
+
+	private boolean overflows(Node leafNode) {
+		int numOfEntries = leafNode.numOfKeysPresent;
+		return numOfEntries > maxNumOfKeys || (numOfEntries > uncompressedKeys &&
+				leafNode.encodedSize(0, numOfEntries) > pageBytes);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if a leaf node is less than half full, both in entries and in the bytes
+	// they take up
+
+	private boolean isUnderfull(Node leafNode) {
+		int numOfEntries = leafNode.numOfKeysPresent;
+		return numOfEntries < maxNumOfKeys/2 &&
+				leafNode.encodedSize(0, numOfEntries) < pageBytes/2;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Splits a leaf node that overflows in two. The entries are split where the two halves
+	// take up about as many bytes, so that both fit in their pages even when the keys of one
+	// half compress better than those of the other
+
+	private void splitLeaf(Node node) {
+		Metrics.NODE_SPLITS.increment();
+		Node newNode = newNode();
+		newNode.nextNodePointer = node.nextNodePointer;
+		newNode.prevNodePointer = node.pageId;
+		node.nextNodePointer = newNode.pageId;
+		if(newNode.nextNodePointer != Node.NO_PAGE) {
+			Node nextNode = getNode(newNode.nextNodePointer);
+			nextNode.prevNodePointer = newNode.pageId;
+			markDirty(nextNode);
+		}
+
+		int numOfEntries = node.numOfKeysPresent;
+		int splitPosition = node.balancedSplit(Math.max(1, numOfEntries - maxNumOfKeys),
+				Math.min(numOfEntries - 1, maxNumOfKeys));
+		int numToMove = numOfEntries - splitPosition;
+		node.copyEntries(splitPosition, newNode, 0, numToMove);
+		newNode.numOfKeysPresent = numToMove;
+		node.truncateEntries(splitPosition);
+
+		// Only as much of the new node's first key moves up as is needed to tell it apart
+		// from the last key left behind
+		String leftKey = node.key[splitPosition - 1];
+		String separator = Node.separator(leftKey, newNode.key[0]);
+		int separatorId = Node.separatorId(leftKey, newNode.key[0], newNode.recordId[0]);
+		if(node.pageId != rootPage) {
+			recursiveInsert(getNode(node.parent), node, separator, separatorId, newNode);
 		}
 		else {
-			//Find the leaf node into which the key value needs to be inserted
-			Node leafNode = findInsertionNode(key);
-			insertIntoBTree(leafNode, key, value);
+			newRoot(node, separator, separatorId, newNode);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// This method restores the tree's balance that is disturbed by a new insertion. The
+	// separator and the new right node are inserted just after the pointer to the node that
+	// was split
+
+	private void recursiveInsert(Node node, Node splitNode, String key, int id, Node pointer) {
+		node.insertChild(node.childIndex(splitNode.pageId), key, id, pointer.pageId);
+		pointer.parent = node.pageId;
+		markDirty(node);
+		markDirty(pointer);
+
+		if(node.numOfKeysPresent > internalKeys) {
+			Metrics.NODE_SPLITS.increment();
+			Node newNode = newNode();
+			newNode.isLeafNode = false;
+
+			// The middle key moves up, the keys and pointers after it move to the new node
+			int middle = node.numOfKeysPresent/2;
+			int numToMove = node.numOfKeysPresent - middle - 1;
+			System.arraycopy(node.key, middle + 1, newNode.key, 0, numToMove);
+			System.arraycopy(node.recordId, middle + 1, newNode.recordId, 0, numToMove);
+			System.arraycopy(node.pointer, middle + 1, newNode.pointer, 0, numToMove + 1);
+			newNode.numOfKeysPresent = numToMove;
+
+			key = node.key[middle];
+			id = node.recordId[middle];
+			Arrays.fill(node.key, middle, node.numOfKeysPresent, null);
+			node.numOfKeysPresent = middle;
+
+			for(int i = 0; i <= newNode.numOfKeysPresent; i++) {
+				Node child = getNode(newNode.pointer[i]);
+				child.parent = newNode.pageId;
+				markDirty(child);
+			}
+
+			if(node.pageId != rootPage) {
+				recursiveInsert(getNode(node.parent), node, key, id, newNode);
+			}
+
+			else {
+				newRoot(node, key, id, newNode);
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// This method grows the tree by one level when the root is split
+
+	private void newRoot(Node left, String key, int id, Node right) {
+		Node R = newNode();
+		R.isLeafNode = false;
+		R.key[0] = key;
+		R.recordId[0] = id;
+		R.pointer[0] = left.pageId;
+		R.pointer[1] = right.pageId;
+		R.numOfKeysPresent = 1;
+		left.parent = R.pageId;
+		right.parent = R.pageId;
+		markDirty(left);
+		markDirty(right);
+		rootPage = R.pageId;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// This method builds the B+ tree of an empty index from the given key value pairs in one
+	// pass. The pairs are sorted once, the leaves are filled to the fill factor from left to
+	// right, and every internal level is then built over the level below it. The number of
+	// nodes on every level is known from the number of pairs, so the new nodes are given
+	// pages at the end of the index file up front and each node is written to its page as
+	// soon as it is filled. The new tree is read back through the buffer pool like any
+	// other, instead of being held in memory until the next dump
+
+	public void bulkLoad(String[] keys, int[] values, int numOfEntries, double fillFactor) {
+		bulkLoad(keys, values, null, numOfEntries, fillFactor);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Bulk loads key value pairs whose entries carry the values of the included columns, as
+	// given by includedOf. included may be null if the index has no included columns
+
+	void bulkLoad(String[] keys, int[] values, String[] included, int numOfEntries,
+			double fillFactor) {
+		int mark = bufferPool.pinMark();
+		try {
+			treeLatch.writeLock().lock();
+			try {
+				bulkLoadTree(keys, values, included, numOfEntries, fillFactor);
+			}
+			finally {
+				treeLatch.writeLock().unlock();
+			}
+		}
+		finally {
+			bufferPool.unpinTo(mark);
+		}
+	}
+
+	private void bulkLoadTree(String[] keys, int[] values, String[] included, int numOfEntries,
+			double fillFactor) {
+		if(rootPage != Node.NO_PAGE) {
+			throw new IllegalStateException("Index \"" + indexName + "\" is not empty");
+		}
+
+		if(fillFactor < 0.5 || fillFactor > 1.0) {
+			throw new IllegalArgumentException("The fill factor needs to be between " +
+					"0.5 and 1.0");
+		}
+
+		if(numOfEntries == 0) {
+			return;
+		}
+
+		BulkEntry[] entries = sortEntries(keys, values, included, numOfEntries);
+
+		// The leaf nodes are sized for the keys being loaded rather than for the expected ones,
+		// so that keys sharing long prefixes give leaf nodes of many entries
+		setCapacity(compressedKeyChars(entries, numOfEntries));
+
+		// The sizes of the nodes of every level from the leaves up, and the page of the first
+		// node of each level. The nodes of a level take consecutive pages
+		int minKeys = internalKeys/2;
+		int targetKeys = Math.max(minKeys, (int) (internalKeys * fillFactor));
+		List<int[]> levelSizes = new ArrayList<int[]>();
+		int[] sizes = leafSizes(entries, numOfEntries, fillFactor);
+		levelSizes.add(sizes);
+		while(sizes.length > 1) {
+			sizes = nodeSizes(sizes.length, minKeys + 1, internalKeys + 1, targetKeys + 1);
+			levelSizes.add(sizes);
+		}
+		int[] firstPages = new int[levelSizes.size()];
+		for(int i = 0; i < firstPages.length; i++) {
+			firstPages[i] = pageCount;
+			pageCount += levelSizes.get(i).length;
+		}
+		if(pageFile == null) {
+			try {
+				pageFile = PageFile.create(fileName + indexName, pageBytes);
+			}
+			catch(IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+		ByteBuffer page = ByteBuffer.allocate(pageFile.getPageSize());
+
+		// Fill the leaves, chaining each one to its neighbours. Each entry is dropped once it
+		// is written, so the sorted entries shrink as the leaves are written
+		sizes = levelSizes.get(0);
+		int[] parents = parentPages(levelSizes, firstPages, 0);
+		String[] lowKeys = new String[sizes.length];
+		int[] lowIds = new int[sizes.length];
+		String lastKey = null;
+		int next = 0;
+		for(int i = 0; i < sizes.length; i++) {
+			Node leafNode = new Node(firstPages[0] + i, maxNumOfKeys, includedColumns.isEmpty() == false);
+			for(int j = 0; j < sizes[i]; j++) {
+				// Equal keys share one string, as they do once the page is read back
+				String key = entries[next].key;
+				leafNode.key[j] = j > 0 && key.equals(leafNode.key[j - 1]) ? leafNode.key[j - 1] : key;
+				leafNode.recordId[j] = entries[next].value;
+				if(leafNode.included != null) {
+					leafNode.included[j] = entryValues(entries[next].included);
+				}
+				entries[next++] = null;
+			}
+			leafNode.numOfKeysPresent = sizes[i];
+			leafNode.parent = parents[i];
+			if(i > 0) {
+				leafNode.prevNodePointer = leafNode.pageId - 1;
+				lowKeys[i] = Node.separator(lastKey, leafNode.key[0]);
+				lowIds[i] = Node.separatorId(lastKey, leafNode.key[0], leafNode.recordId[0]);
+			}
+			if(i < sizes.length - 1) {
+				leafNode.nextNodePointer = leafNode.pageId + 1;
+			}
+			lastKey = leafNode.key[sizes[i] - 1];
+			writeNode(leafNode, page);
+		}
+
+		// Build the internal levels until a single node is left. The separator before every
+		// child is the shortest key that tells the child's subtree apart from the one before it
+		for(int level = 1; level < levelSizes.size(); level++) {
+			sizes = levelSizes.get(level);
+			parents = parentPages(levelSizes, firstPages, level);
+			String[] parentLowKeys = new String[sizes.length];
+			int[] parentLowIds = new int[sizes.length];
+
+			next = 0;
+			for(int i = 0; i < sizes.length; i++) {
+				Node node = new Node(firstPages[level] + i, maxNumOfKeys);
+				node.isLeafNode = false;
+				parentLowKeys[i] = lowKeys[next];
+				parentLowIds[i] = lowIds[next];
+				for(int j = 0; j < sizes[i]; j++) {
+					if(j > 0) {
+						node.key[j - 1] = lowKeys[next];
+						node.recordId[j - 1] = lowIds[next];
+					}
+					node.pointer[j] = firstPages[level - 1] + next;
+					next++;
+				}
+				node.numOfKeysPresent = sizes[i] - 1;
+				node.parent = parents[i];
+				writeNode(node, page);
+			}
+			lowKeys = parentLowKeys;
+			lowIds = parentLowIds;
+		}
+		rootPage = firstPages[firstPages.length - 1];
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the average number of characters that the sorted keys take up once the prefix
+	// they share is left out, with the keys taken in runs as long as an uncompressed leaf
+	// node. Equal neighbouring keys are written once, so only the first of them counts
+
+	private double compressedKeyChars(BulkEntry[] entries, int numOfEntries) {
+		long keyChars = 0;
+		for(int first = 0; first < numOfEntries; first += uncompressedKeys) {
+			int last = Math.min(first + uncompressedKeys, numOfEntries) - 1;
+			int prefix = Node.commonPrefix(entries[first].key, entries[last].key);
+			for(int i = first; i <= last; i++) {
+				if(i == first || entries[i].key.equals(entries[i - 1].key) == false) {
+					keyChars += entries[i].key.length() - prefix;
+				}
+			}
+		}
+		return (double) keyChars / numOfEntries;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of entries of every leaf node of a bulk load. Each leaf node takes
+	// sorted entries until it holds the fill factor's share of maxNumOfKeys entries, or the
+	// next entry would take it past the fill factor's share of its page
+
+	private int[] leafSizes(BulkEntry[] entries, int numOfEntries, double fillFactor) {
+		int targetBytes = (int) (pageBytes * fillFactor);
+		int targetKeys = Math.max(1, (int) (maxNumOfKeys * fillFactor));
+		boolean hasIncluded = includedColumns.isEmpty() == false;
+		int[] sizes = new int[numOfEntries];
+		int numOfNodes = 0;
+
+		int first = 0;
+		while(first < numOfEntries) {
+			String firstKey = entries[first].key;
+			int distinctKeys = 1;
+			long keyChars = firstKey.length();
+			long includedChars = hasIncluded ? entryValues(entries[first].included).length() : 0;
+			int last = first;
+			while(last + 1 < numOfEntries && last + 1 - first < targetKeys) {
+				BulkEntry entry = entries[last + 1];
+				boolean sameKey = entry.key.equals(entries[last].key);
+				int nextDistinct = distinctKeys + (sameKey ? 0 : 1);
+				long nextKeyChars = keyChars + (sameKey ? 0 : entry.key.length());
+				long nextIncludedChars = includedChars +
+						(hasIncluded ? entryValues(entry.included).length() : 0);
+				// The keys are sorted, so the prefix of the first and last keys is the one
+				// the node is written with
+				int prefix = Node.commonPrefix(firstKey, entry.key);
+				if(Node.leafSize(last + 2 - first, prefix, nextDistinct, nextKeyChars,
+						nextIncludedChars, hasIncluded) > targetBytes) {
+					break;
+				}
+				distinctKeys = nextDistinct;
+				keyChars = nextKeyChars;
+				includedChars = nextIncludedChars;
+				last++;
+			}
+			sizes[numOfNodes++] = last + 1 - first;
+			first = last + 1;
+		}
+		return Arrays.copyOf(sizes, numOfNodes);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the page of the parent of every node of a level being bulk loaded, or NO_PAGE
+	// for the root
+
+	private static int[] parentPages(List<int[]> levelSizes, int[] firstPages, int level) {
+		int[] parents = new int[levelSizes.get(level).length];
+		if(level == levelSizes.size() - 1) {
+			Arrays.fill(parents, Node.NO_PAGE);
+			return parents;
+		}
+		int[] parentSizes = levelSizes.get(level + 1);
+		int child = 0;
+		for(int i = 0; i < parentSizes.length; i++) {
+			for(int j = 0; j < parentSizes[i]; j++) {
+				parents[child++] = firstPages[level + 1] + i;
+			}
+		}
+		return parents;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes a node built by a bulk load to its page. The page lies past every page the
+	// header of the index file knows of, so it is only reached once the next dump has
+	// written the header. The whole page is written, since the file is not extended to the
+	// new pages until then
+
+	private void writeNode(Node node, ByteBuffer page) {
+		Arrays.fill(page.array(), (byte) 0);
+		page.clear();
+		node.writeTo(page);
+		page.clear();
+		try {
+			pageFile.writePage(node.pageId, page);
+		}
+		catch(IOException ex) {
+			throw new UncheckedIOException(ex);
 		}
 	}
 
 	// --------------------------------------------------------------------------------------
-	// This method finds the leaf node where a new key value pair needs
-	// to be inserted
+	// Splits numOfItems items into nodes of about targetItems items each, with every node
+	// holding between minItems and maxItems items when there is more than one node
 
-	private Node findInsertionNode(String key) {
-		int loopCounter;
-		int tempCounter;
+	private static int[] nodeSizes(int numOfItems, int minItems, int maxItems, int targetItems) {
+		int numOfNodes = Math.max(numOfItems / targetItems, (numOfItems + maxItems - 1) / maxItems);
+		numOfNodes = Math.max(numOfNodes, 1);
 
-		if(root == null) {
-			return null;
+		int[] sizes = new int[numOfNodes];
+		for(int i = 0; i < numOfNodes; i++) {
+			sizes[i] = numOfItems / numOfNodes + (i < numOfItems % numOfNodes ? 1 : 0);
 		}
+		return sizes;
+	}
 
-		Node insertionNode = root;
+	// --------------------------------------------------------------------------------------
+	// A key value pair waiting to be bulk loaded, with the values of the included columns.
+	// Equal keys keep their record Id order
 
-		while(insertionNode.isLeafNode == false) {
-			tempCounter = insertionNode.numOfKeysPresent;
+	private static class BulkEntry implements Comparable<BulkEntry> {
 
-			for(loopCounter = 0; loopCounter < tempCounter; loopCounter++) {
-				if(insertionNode.key.get(loopCounter).compareTo(key) > 0) {
-					insertionNode = insertionNode.pointer.get(loopCounter);
-					break;
-				}
-			}
+		private String key;
+		private int value;
+		private String included;
+
+		public BulkEntry(String key, int value, String included) {
+			this.key = key;
+			this.value = value;
+			this.included = included;
+		}
 
-			if(loopCounter == tempCounter) {
-				insertionNode = insertionNode.pointer.get(loopCounter);
+		public int compareTo(BulkEntry other) {
+			int result = key.compareTo(other.key);
+			if(result == 0) {
+				result = value < other.value ? -1 : (value == other.value ? 0 : 1);
 			}
+			return result;
 		}
-		return insertionNode;
 	}
 
 	// --------------------------------------------------------------------------------------
-	// This method inserts new key value pairs into the B+ tree at the leaf level and calls
-	// recursive insert to ensure that the tree is balanced
-
-	private void insertIntoBTree(Node node, String key, int value) {
-		if(node.numOfKeysPresent < maxNumOfKeys) {
-			node.key.add(key);
-			Collections.sort(node.key);
-			node.numOfKeysPresent++;
-			int keyPosition = node.key.indexOf(key);
-			node.recordId.add(keyPosition, value);
+	// Sorts key value pairs by key, and pairs with equal keys by record Id. Equal keys are
+	// then made to share one string, as they do in the leaf nodes
+
+	private static BulkEntry[] sortEntries(String[] keys, int[] values, String[] included,
+			int numOfEntries) {
+		BulkEntry[] entries = new BulkEntry[numOfEntries];
+		for(int i = 0; i < numOfEntries; i++) {
+			entries[i] = new BulkEntry(keys[i], values[i], included == null ? null : included[i]);
+		}
+		if(numOfEntries >= PARALLEL_SORT_THRESHOLD) {
+			Arrays.parallelSort(entries);
 		}
 		else {
-			node.key.add(key);
-			Collections.sort(node.key);
-			node.numOfKeysPresent++;
-			int keyPosition = node.key.indexOf(key);
-			node.recordId.add(keyPosition, value);
-
-			Node newNode = new Node();
-			nodeCollection.add(newNode);
-			newNode.nextNodePointer = node.nextNodePointer;
-			newNode.prevNodePointer = node;
-			node.nextNodePointer = newNode;
-			if(newNode.nextNodePointer != null) {
-				newNode.nextNodePointer.prevNodePointer = newNode;
+			Arrays.sort(entries);
+		}
+		for(int i = 1; i < numOfEntries; i++) {
+			if(entries[i].key.equals(entries[i - 1].key)) {
+				entries[i].key = entries[i - 1].key;
 			}
+		}
+		return entries;
+	}
 
-			for(int i = maxNumOfKeys/2; i < node.numOfKeysPresent; i++) {
-				newNode.key.add(node.key.get(i));
-				newNode.recordId.add(node.recordId.get(i));
-				newNode.numOfKeysPresent++;
-			}
+	// --------------------------------------------------------------------------------------
+	// This method inserts a batch of key value pairs. The pairs are sorted and merged into
+	// the tree in one ordered pass: a leaf node found by one descent takes every following
+	// key that is below the separator to its right, so the tree is only descended again
+	// when the keys move past that separator or the leaf node has to be split. An empty
+	// index is bulk loaded instead. The whole tree is latched while the batch goes in
+
+	public void insertBatch(String[] keys, int[] values, int numOfEntries) {
+		insertBatch(keys, values, null, numOfEntries);
+	}
 
-			for(int i = 0; i < newNode.numOfKeysPresent; i++) {
-				node.key.remove(newNode.key.get(i));
-				node.recordId.remove(newNode.recordId.get(i));
-				node.numOfKeysPresent--;
-			}
+	// --------------------------------------------------------------------------------------
+	// Inserts a batch of key value pairs whose entries carry the values of the included
+	// columns, as given by includedOf. included may be null if the index has none
+
+	void insertBatch(String[] keys, int[] values, String[] included, int numOfEntries) {
+		if(numOfEntries == 0) {
+			return;
+		}
 
-			if(node != root) {
-				recursiveInsert(node.parent, newNode.key.get(0), newNode);
+		int mark = bufferPool.pinMark();
+		treeLatch.writeLock().lock();
+		try {
+			if(rootPage == Node.NO_PAGE) {
+				bulkLoadTree(keys, values, included, numOfEntries, DEFAULT_FILL_FACTOR);
+				return;
 			}
-			else {
-				Node R = new Node();
-				R.isLeafNode = false;
-				R.key.add(newNode.key.get(0));
-				node.parent = R;
-				newNode.parent = R;
-				R.pointer.add(node);
-				R.pointer.add(newNode);
-				R.numOfKeysPresent++;
-				root = R;
-				nodeCollection.add(root);
-			}
-		}
-	}
-
-	// --------------------------------------------------------------------------------------
-	// This method restores the tree's balance that is disturbed by a new insertion
-
-	private void recursiveInsert(Node node, String key, Node pointer) {
-		if(node.numOfKeysPresent < maxNumOfKeys) {
-			node.key.add(key);
-			Collections.sort(node.key);
-			node.numOfKeysPresent++;
-			int keyPosition = node.key.indexOf(key);
-			int insertionPosition = keyPosition;
-			if(keyPosition < node.numOfKeysPresent - 1) {
-				for(int i = keyPosition; i < node.numOfKeysPresent - 1; i++) {
-					if(node.key.get(i).compareTo(node.key.get(i + 1)) != 0) {
-						break;
+
+			BulkEntry[] entries = sortEntries(keys, values, included, numOfEntries);
+			Node leafNode = null;
+			// The separator to the right of leafNode, or null if it is the rightmost leaf node
+			BulkEntry upperFence = null;
+
+			for(int i = 0; i < numOfEntries; i++) {
+				String key = entries[i].key;
+				int value = entries[i].value;
+				String includedValues = entryValues(entries[i].included);
+				if(leafNode == null || (upperFence != null && entries[i].compareTo(upperFence) >= 0)) {
+					// Only the nodes on the path to the current leaf node stay pinned
+					bufferPool.unpinTo(mark);
+					upperFence = null;
+					leafNode = getNode(rootPage);
+					while(leafNode.isLeafNode == false) {
+						int child = leafNode.upperBound(key, value);
+						if(child < leafNode.numOfKeysPresent) {
+							upperFence = new BulkEntry(leafNode.key[child], leafNode.recordId[child], null);
+						}
+						leafNode = getNode(leafNode.pointer[child]);
 					}
-					insertionPosition++;
 				}
-			}
-			node.pointer.add(insertionPosition + 1, pointer);
-			pointer.parent = node;
-		}
-		else {
-			Node newNode = new Node();
-			newNode.isLeafNode = false;
-			nodeCollection.add(newNode);
-
-			node.key.add(key);
-			Collections.sort(node.key);
-			node.numOfKeysPresent++;
-			int keyPosition = node.key.indexOf(key);
-			int insertionPosition = keyPosition;
-			if(keyPosition < node.numOfKeysPresent - 1) {
-				for(int i = keyPosition; i < node.numOfKeysPresent - 1; i++) {
-					if(node.key.get(i).compareTo(node.key.get(i + 1)) != 0) {
-						break;
-					}
-					insertionPosition++;
+
+				leafNode.insertEntry(leafNode.upperBound(key, value), key, value, includedValues);
+				markDirty(leafNode);
+				if(overflows(leafNode)) {
+					// The split changes the separators, so the next key descends again
+					splitLeaf(leafNode);
+					leafNode = null;
 				}
 			}
-			node.pointer.add(insertionPosition + 1, pointer);
-			pointer.parent = node;
+		}
+		finally {
+			treeLatch.writeLock().unlock();
+			bufferPool.unpinTo(mark);
+		}
+	}
 
-			for(int i = maxNumOfKeys/2 + 1; i <= maxNumOfKeys; i++) {
-				newNode.key.add(node.key.get(i));
-				newNode.pointer.add(node.pointer.get(i));
-				newNode.numOfKeysPresent++;
-			}
-			newNode.pointer.add(node.pointer.get(maxNumOfKeys + 1));
+	// --------------------------------------------------------------------------------------
+	// This method deletes a key value pair from the B+ tree index
+	// and then reworks the tree balance. If the leaf node holding the pair stays at least
+	// half full, only that leaf is latched. Otherwise the delete is done again with the whole
+	// tree latched, since the leaf has to borrow from or merge with a sibling. The pair is
+	// found by one descent, however many other records share its key
 
-			for(int i = 0; i < maxNumOfKeys/2; i++) {
-				node.key.remove(newNode.key.get(i));
-				node.pointer.remove(newNode.pointer.get(i));
-				node.numOfKeysPresent--;
+	public void deleteFromIndex(String key, int value) {
+		int mark = bufferPool.pinMark();
+		try {
+			treeLatch.readLock().lock();
+			try {
+				Node leafNode = findLeafNode(key, value);
+				if(leafNode == null) {
+					return;
+				}
+				leafNode.latch.writeLock().lock();
+				try {
+					int position = leafNode.lowerBound(key, value);
+					if(position == leafNode.numOfKeysPresent || leafNode.compare(position, key, value) != 0) {
+						return;
+					}
+					String removedKey = leafNode.key[position];
+					String removedIncluded = leafNode.includedAt(position);
+					leafNode.removeEntry(position);
+					if(leafNode.pageId == rootPage || isUnderfull(leafNode) == false) {
+						markDirty(leafNode);
+						return;
+					}
+					// The leaf node has to borrow from or merge with a sibling, which is done
+					// with the tree latched
+					leafNode.insertEntry(position, removedKey, value, removedIncluded);
+				}
+				finally {
+					leafNode.latch.writeLock().unlock();
+				}
 			}
-			node.pointer.remove(newNode.pointer.get(maxNumOfKeys/2));
-
-			for(int i = 0; i <= maxNumOfKeys/2; i++) {
-				newNode.pointer.get(i).parent = newNode;
+			finally {
+				treeLatch.readLock().unlock();
 			}
 
-			key = node.key.get(maxNumOfKeys/2);
-			node.key.remove(key);
-			node.numOfKeysPresent--;
-
-			if(node != root) {
-				recursiveInsert(node.parent, key, newNode);
+			treeLatch.writeLock().lock();
+			try {
+				deleteEntry(key, value);
 			}
-
-			else {
-				Node R = new Node();
-				R.isLeafNode = false;
-				R.key.add(key);
-				node.parent = R;
-				newNode.parent = R;
-				R.pointer.add(node);
-				R.pointer.add(newNode);
-				R.numOfKeysPresent++;
-				root = R;
+			finally {
+				treeLatch.writeLock().unlock();
 			}
 		}
+		finally {
+			bufferPool.unpinTo(mark);
+		}
 	}
 
 	// --------------------------------------------------------------------------------------
-	// This method deletes a key value pair from the B+ tree index
-	// and then reworks the tree balance
+	// This method finds the key value pair in the leaf nodes and deletes it. The caller holds
+	// the tree latch exclusively
 
-	public void deleteFromIndex(String key, int value) {
-		Node leafNode = findInsertionNode(key);
-		try {
-			while(leafNode.recordId.contains(value) == false) {
-				// If this node does not contain the value, then reverse gear to the previous node
-				leafNode = leafNode.prevNodePointer;
-			}
-			deleteFromBTree(leafNode, key, value);
-		} catch (Exception ex) {
-			ex.printStackTrace();
+	private void deleteEntry(String key, int value) {
+		Node leafNode = findLeafNode(key, value);
+		if(leafNode == null) {
+			return;
+		}
+
+		int position = leafNode.lowerBound(key, value);
+		if(position < leafNode.numOfKeysPresent && leafNode.compare(position, key, value) == 0) {
+			deleteFromBTree(leafNode, position);
 		}
 	}
 
 	// --------------------------------------------------------------------------------------
-	// This method deletes the key value pair from the B+ tree index
+	// This method deletes the key value pair at the given position of a leaf node
 	// and then reworks the tree balance
 
-	public void deleteFromBTree(Node node, String key, int value) {
-		int keyPosition;
-		node.key.remove(key);
-		node.recordId.remove(Integer.valueOf(value));
-		node.numOfKeysPresent--;
+	private void deleteFromBTree(Node node, int position) {
+		node.removeEntry(position);
+		markDirty(node);
 
-		if(node == root) {
+		if(node.pageId == rootPage) {
 			return;
 		}
 
-		if(node.numOfKeysPresent < maxNumOfKeys/2) {
+		if(isUnderfull(node)) {
+			Node parent = getNode(node.parent);
+			int index = parent.childIndex(node.pageId);
 			Node nodeSibling = null;
-			String vPrime = null;
+			int keyPosition;
 
-			boolean isSiblingLeftNode = isSiblingLeft(node);
+			boolean isSiblingLeftNode = isSiblingLeft(parent, index);
 
 			if(isSiblingLeftNode == true) {
-				int indexOfSibling = node.parent.pointer.indexOf(node) - 1;
-				keyPosition = indexOfSibling;
-				nodeSibling = node.parent.pointer.get(indexOfSibling);
-				vPrime = node.parent.key.get(indexOfSibling);
+				keyPosition = index - 1;
+				nodeSibling = getNode(parent.pointer[index - 1]);
 			}
 			else {
-				int indexOfSibling = node.parent.pointer.indexOf(node) + 1;
-				keyPosition = indexOfSibling - 1;
-				nodeSibling = node.parent.pointer.get(indexOfSibling);
-				vPrime = node.parent.key.get(indexOfSibling - 1);
+				keyPosition = index;
+				nodeSibling = getNode(parent.pointer[index + 1]);
 			}
-
-			//Redistribution of keys
-			if(nodeSibling.numOfKeysPresent > maxNumOfKeys/2) {
-				if(isSiblingLeftNode == true) {
-					node.key.add(0, nodeSibling.key.get(nodeSibling.numOfKeysPresent - 1));
-					node.recordId.add(0, nodeSibling.recordId.get(nodeSibling.numOfKeysPresent - 1));
-					node.numOfKeysPresent++;
-
-					nodeSibling.key.remove(nodeSibling.numOfKeysPresent - 1);
-					nodeSibling.recordId.remove(nodeSibling.numOfKeysPresent - 1);
-					nodeSibling.numOfKeysPresent--;
-
-					node.parent.key.remove(keyPosition);
-					node.parent.key.add(keyPosition, node.key.get(0));
-				}
-				else {
-					node.key.add(nodeSibling.key.get(0));
-					node.recordId.add(nodeSibling.recordId.get(0));
-					node.numOfKeysPresent++;
-
-					nodeSibling.key.remove(0);
-					nodeSibling.recordId.remove(0);
-					nodeSibling.numOfKeysPresent--;
-
-					node.parent.key.remove(keyPosition);
-					node.parent.key.add(keyPosition, nodeSibling.key.get(0));
-				}
+			Node left = isSiblingLeftNode ? nodeSibling : node;
+			Node right = isSiblingLeftNode ? node : nodeSibling;
+
+			// The entries of both nodes, to find out whether they fit in one
+			int numOfEntries = left.numOfKeysPresent + right.numOfKeysPresent;
+			Node both = new Node(Node.NO_PAGE, numOfEntries, left.included != null);
+			left.copyEntries(0, both, 0, left.numOfKeysPresent);
+			right.copyEntries(0, both, left.numOfKeysPresent, right.numOfKeysPresent);
+			both.numOfKeysPresent = numOfEntries;
+
+			//Redistribution of keys. The entries are split again where the two nodes take up
+			//about as many bytes
+			if(numOfEntries > maxNumOfKeys || both.encodedSize(0, numOfEntries) > pageBytes) {
+				markDirty(nodeSibling);
+				markDirty(parent);
+				int splitPosition = both.balancedSplit(Math.max(1, numOfEntries - maxNumOfKeys),
+						Math.min(numOfEntries - 1, maxNumOfKeys));
+				left.truncateEntries(0);
+				both.copyEntries(0, left, 0, splitPosition);
+				left.numOfKeysPresent = splitPosition;
+				right.truncateEntries(0);
+				both.copyEntries(splitPosition, right, 0, numOfEntries - splitPosition);
+				right.numOfKeysPresent = numOfEntries - splitPosition;
+				setSeparator(parent, keyPosition, left, right);
 			}
-			//Merging of nodes
+			//Merging of nodes. The right node of the pair is merged into the left one
 			else {
-				if(isSiblingLeftNode == true) {
-					nodeSibling.nextNodePointer = node.nextNodePointer;
-					if(node.nextNodePointer != null) {
-						node.nextNodePointer.prevNodePointer = nodeSibling;
-					}
-					for(int i = 0; i < node.numOfKeysPresent; i++) {
-						nodeSibling.key.add(node.key.get(i));
-						nodeSibling.recordId.add(node.recordId.get(i));
-						nodeSibling.numOfKeysPresent++;
-					}
-					recursiveDelete(node.parent, vPrime, node);
-					nodeCollection.remove(node);
-					node = null;
-
-				}
-				else {
-					node.nextNodePointer = nodeSibling.nextNodePointer;
-					if(nodeSibling.nextNodePointer != null) {
-						nodeSibling.nextNodePointer.prevNodePointer = node;
-					}
-					for(int i = 0; i < nodeSibling.numOfKeysPresent; i++) {
-						node.key.add(nodeSibling.key.get(i));
-						node.recordId.add(nodeSibling.recordId.get(i));
-						node.numOfKeysPresent++;
-					}
-					recursiveDelete(node.parent, vPrime, nodeSibling);
-					nodeCollection.remove(nodeSibling);
-					nodeSibling = null;
+				Metrics.NODE_MERGES.increment();
+				right.copyEntries(0, left, left.numOfKeysPresent, right.numOfKeysPresent);
+				left.numOfKeysPresent += right.numOfKeysPresent;
+
+				left.nextNodePointer = right.nextNodePointer;
+				markDirty(left);
+				if(right.nextNodePointer != Node.NO_PAGE) {
+					Node nextNode = getNode(right.nextNodePointer);
+					nextNode.prevNodePointer = left.pageId;
+					markDirty(nextNode);
 				}
+				recursiveDelete(parent, keyPosition);
+				freeNode(right);
 			}
 		}
 	}
 
 	// --------------------------------------------------------------------------------------
-	// This method restores the tree's balance that is disturbed by the deletion
-
-	private void recursiveDelete(Node node, String key, Node pointer) {
-		node.key.remove(key);
-		node.pointer.remove(pointer);
-		node.numOfKeysPresent--;
-
-		if(node == root) {	
-			if(node.pointer.size() == 1) {
-				root = node.pointer.get(0);
-				nodeCollection.remove(node);
-				node = null;
-			}
-			else {
-				return;
+	// This method removes the key at keyPosition, and the pointer after it, from an internal
+	// node and restores the tree's balance that is disturbed by the deletion
+
+	private void recursiveDelete(Node node, int keyPosition) {
+		node.removeChild(keyPosition);
+		markDirty(node);
+
+		if(node.pageId == rootPage) {	
+			if(node.numOfKeysPresent == 0) {
+				rootPage = node.pointer[0];
+				Node root = getNode(rootPage);
+				root.parent = Node.NO_PAGE;
+				markDirty(root);
+				freeNode(node);
 			}
 		}
-		else if(node.numOfKeysPresent < maxNumOfKeys/2) {
+		else if(node.numOfKeysPresent < internalKeys/2) {
+			Node parent = getNode(node.parent);
+			int index = parent.childIndex(node.pageId);
 			Node nodeSibling = null;
-			String vPrime = null;
+			int vPrimePosition;
 
-			boolean isSiblingLeftNode = isSiblingLeft(node);
+			boolean isSiblingLeftNode = isSiblingLeft(parent, index);
 
 			if(isSiblingLeftNode == true) {
-				int indexOfSibling = node.parent.pointer.indexOf(node) - 1;
-				nodeSibling = node.parent.pointer.get(indexOfSibling);
-				vPrime = node.parent.key.get(indexOfSibling);
+				vPrimePosition = index - 1;
+				nodeSibling = getNode(parent.pointer[index - 1]);
 			}
 			else {
-				int indexOfSibling = node.parent.pointer.indexOf(node) + 1;
-				nodeSibling = node.parent.pointer.get(indexOfSibling);
-				vPrime = node.parent.key.get(indexOfSibling - 1);
+				vPrimePosition = index;
+				nodeSibling = getNode(parent.pointer[index + 1]);
 			}
-			if(nodeSibling.numOfKeysPresent > maxNumOfKeys/2) {
+			String vPrime = parent.key[vPrimePosition];
+			int vPrimeId = parent.recordId[vPrimePosition];
+
+			if(nodeSibling.numOfKeysPresent > internalKeys/2) {
+				markDirty(nodeSibling);
+				markDirty(parent);
 				if(isSiblingLeftNode == true) {
-					node.key.add(0, vPrime);
-					node.pointer.add(0, nodeSibling.pointer.get(nodeSibling.numOfKeysPresent));
-					nodeSibling.pointer.get(nodeSibling.numOfKeysPresent).parent = node;
+					int last = nodeSibling.numOfKeysPresent;
+					System.arraycopy(node.key, 0, node.key, 1, node.numOfKeysPresent);
+					System.arraycopy(node.recordId, 0, node.recordId, 1, node.numOfKeysPresent);
+					System.arraycopy(node.pointer, 0, node.pointer, 1, node.numOfKeysPresent + 1);
+					node.key[0] = vPrime;
+					node.recordId[0] = vPrimeId;
+					node.pointer[0] = nodeSibling.pointer[last];
 					node.numOfKeysPresent++;
+					Node child = getNode(node.pointer[0]);
+					child.parent = node.pageId;
+					markDirty(child);
 
-					int keyPosition = node.parent.key.indexOf(vPrime);
-					node.parent.key.remove(keyPosition);
-					node.parent.key.add(keyPosition, nodeSibling.key.get(nodeSibling.numOfKeysPresent - 1));
-
-					nodeSibling.key.remove(nodeSibling.numOfKeysPresent - 1);
-					nodeSibling.pointer.remove(nodeSibling.numOfKeysPresent);
+					parent.key[vPrimePosition] = nodeSibling.key[last - 1];
+					parent.recordId[vPrimePosition] = nodeSibling.recordId[last - 1];
+					nodeSibling.key[last - 1] = null;
 					nodeSibling.numOfKeysPresent--;
 				}
 				else {
-					node.key.add(vPrime);
-					node.pointer.add(nodeSibling.pointer.get(0));
-					nodeSibling.pointer.get(0).parent = node;
+					node.key[node.numOfKeysPresent] = vPrime;
+					node.recordId[node.numOfKeysPresent] = vPrimeId;
+					node.pointer[node.numOfKeysPresent + 1] = nodeSibling.pointer[0];
 					node.numOfKeysPresent++;
-
-					int keyPosition = node.parent.key.indexOf(vPrime);
-					node.parent.key.remove(keyPosition);
-					node.parent.key.add(keyPosition, nodeSibling.key.get(0));
-
-					nodeSibling.key.remove(0);
-					nodeSibling.pointer.remove(0);
+					Node child = getNode(nodeSibling.pointer[0]);
+					child.parent = node.pageId;
+					markDirty(child);
+
+					parent.key[vPrimePosition] = nodeSibling.key[0];
+					parent.recordId[vPrimePosition] = nodeSibling.recordId[0];
+					System.arraycopy(nodeSibling.key, 1, nodeSibling.key, 0, nodeSibling.numOfKeysPresent - 1);
+					System.arraycopy(nodeSibling.recordId, 1, nodeSibling.recordId, 0, nodeSibling.numOfKeysPresent - 1);
+					System.arraycopy(nodeSibling.pointer, 1, nodeSibling.pointer, 0, nodeSibling.numOfKeysPresent);
 					nodeSibling.numOfKeysPresent--;
+					nodeSibling.key[nodeSibling.numOfKeysPresent] = null;
 				}
 			}
 			else {
-				if(isSiblingLeftNode == true) {
-					nodeSibling.key.add(vPrime);
-					nodeSibling.numOfKeysPresent++;
-
-					for(int i = 0; i < node.numOfKeysPresent; i++) {
-						nodeSibling.key.add(node.key.get(i));
-						nodeSibling.numOfKeysPresent++;
-					}
-
-					for(int i = 0; i < node.pointer.size(); i++) {
-						nodeSibling.pointer.add(node.pointer.get(i));
-						node.pointer.get(i).parent = nodeSibling;
-					}
-					recursiveDelete(node.parent, vPrime, node);
-					nodeCollection.remove(node);
-					node = null;
+				// The right node of the pair is merged into the left one, with vPrime between them
+				Metrics.NODE_MERGES.increment();
+				Node left = isSiblingLeftNode ? nodeSibling : node;
+				Node right = isSiblingLeftNode ? node : nodeSibling;
+
+				left.key[left.numOfKeysPresent] = vPrime;
+				left.recordId[left.numOfKeysPresent] = vPrimeId;
+				System.arraycopy(right.key, 0, left.key, left.numOfKeysPresent + 1, right.numOfKeysPresent);
+				System.arraycopy(right.recordId, 0, left.recordId, left.numOfKeysPresent + 1, right.numOfKeysPresent);
+				System.arraycopy(right.pointer, 0, left.pointer, left.numOfKeysPresent + 1, right.numOfKeysPresent + 1);
+				for(int i = 0; i <= right.numOfKeysPresent; i++) {
+					Node child = getNode(right.pointer[i]);
+					child.parent = left.pageId;
+					markDirty(child);
 				}
-				else {
-					node.key.add(vPrime);
-					node.numOfKeysPresent++;
-
-					for(int i = 0; i < nodeSibling.numOfKeysPresent; i++) {
-						node.key.add(nodeSibling.key.get(i));
-						node.numOfKeysPresent++;
-					}
+				left.numOfKeysPresent += right.numOfKeysPresent + 1;
+				markDirty(left);
 
-					for(int i = 0; i < nodeSibling.pointer.size(); i++) {
-						node.pointer.add(nodeSibling.pointer.get(i));
-						nodeSibling.pointer.get(i).parent = node;
-					}
-					recursiveDelete(node.parent, vPrime, nodeSibling);
-					nodeCollection.remove(nodeSibling);
-					nodeSibling = null;
-				}
+				recursiveDelete(parent, vPrimePosition);
+				freeNode(right);
 			}
 		}
-
 	}
 
 	// --------------------------------------------------------------------------------------
-	// This method finds the sibling with more keys
+	// Sets the separator at the given position of an internal node to the shortest one that
+	// tells two neighbouring leaf nodes apart
+
+	private static void setSeparator(Node parent, int position, Node left, Node right) {
+		String leftKey = left.key[left.numOfKeysPresent - 1];
+		parent.key[position] = Node.separator(leftKey, right.key[0]);
+		parent.recordId[position] = Node.separatorId(leftKey, right.key[0], right.recordId[0]);
+	}
 
-	private boolean isSiblingLeft(Node node) {
-		int leftSiblingIndex = node.parent.pointer.indexOf(node) - 1;
-		int rightSiblingIndex = leftSiblingIndex + 2;
+	// --------------------------------------------------------------------------------------
+	// This method finds the sibling with more keys, given the position of the node among
+	// its parent's pointers
 
+	private boolean isSiblingLeft(Node parent, int index) {
 		int leftSiblingKeys = -1;
 		int rightSiblingKeys = -1;
 
-		if(leftSiblingIndex > -1) {
-			leftSiblingKeys = node.parent.pointer.get(leftSiblingIndex).numOfKeysPresent;
+		if(index > 0) {
+			leftSiblingKeys = getNode(parent.pointer[index - 1]).numOfKeysPresent;
 		}
 
-		if(rightSiblingIndex <= node.parent.numOfKeysPresent) {
-			rightSiblingKeys = node.parent.pointer.get(rightSiblingIndex).numOfKeysPresent;
+		if(index < parent.numOfKeysPresent) {
+			rightSiblingKeys = getNode(parent.pointer[index + 1]).numOfKeysPresent;
 		}
 
 		if(leftSiblingKeys > rightSiblingKeys) {
@@ -507,20 +1515,86 @@ public class Index {
 	}
 
 	// --------------------------------------------------------------------------------------
-	// This method writes the index contents to disk
+	// This method writes the index contents to disk. The nodes changed since the last dump
+	// are written to their pages, freed pages are chained into the free list and the header
+	// page is rewritten, all as one change to the page file
 
 	public void dumpIndex() throws IOException {
-		ObjectOutputStream out = null;
+		long start = System.nanoTime();
+		treeLatch.writeLock().lock();
+		try {
+			dumpTree();
+		}
+		finally {
+			treeLatch.writeLock().unlock();
+		}
+		Metrics.DUMP.recordSince(start);
+	}
+
+	private void dumpTree() throws IOException {
+		if(pageFile == null) {
+			pageFile = PageFile.create(fileName + indexName, pageBytes);
+		}
+
+		// Only the pages changed since the last dump are written, together with the header
+		// page, as one change to the page file
+		Map<Integer, ByteBuffer> pages = new TreeMap<Integer, ByteBuffer>();
+		Iterator<Integer> pageIt = dirtyPages.iterator();
+		while(pageIt.hasNext()) {
+			// Dirty nodes are never evicted, so every one of them is still in the buffer pool
+			BufferPool.Frame frame = nodeCollection.get(pageIt.next());
+			if(frame != null) {
+				ByteBuffer page = ByteBuffer.allocate(pageFile.getPageSize());
+				frame.node.writeTo(page);
+				page.flip();
+				pages.put(frame.pageId, page);
+			}
+		}
+
+		int listHead = freeListHead;
+		for(int i = 0; i < freePages.size(); i++) {
+			ByteBuffer page = ByteBuffer.allocate(5);
+			page.put(Node.FREE_PAGE);
+			page.putInt(listHead);
+			page.flip();
+			pages.put(freePages.get(i), page);
+			listHead = freePages.get(i);
+		}
+
+		pageFile.rootPage = rootPage;
+		pageFile.pageCount = pageCount;
+		pageFile.freeListHead = listHead;
+		pageFile.maxNumOfKeys = maxNumOfKeys;
+		pageFile.keyWidth = keyWidth;
+		pageFile.columns = columns;
+		pageFile.includedColumns = includedColumns;
+		pageFile.includedWidth = includedWidth;
+		pageFile.writePages(pages);
+
+		freeListHead = listHead;
+		dirtyPages.clear();
+		freePages.clear();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// This method closes the index file, if there is one
 
+	public void close() throws IOException {
+		treeLatch.writeLock().lock();
 		try {
-			out = new ObjectOutputStream(new BufferedOutputStream(
-					new FileOutputStream(fileName + indexName)));
-			out.writeObject(root);
-			out.writeUTF(column);
-			out.writeObject(nodeCollection);
+			Iterator<BufferPool.Frame> frameIt = nodeCollection.values().iterator();
+			while(frameIt.hasNext()) {
+				bufferPool.remove(frameIt.next());
+			}
+			// The nodes can no longer be read, so the index looks empty from now on
+			rootPage = Node.NO_PAGE;
+			if(pageFile != null) {
+				pageFile.close();
+				pageFile = null;
+			}
 		}
 		finally {
-			out.close();
+			treeLatch.writeLock().unlock();
 		}
 	}
 
@@ -529,8 +1603,20 @@ public class Index {
 
 	public String viewIndex() {
 		// The second parameter specifies the number of tabs needed to print
-		String printString = "Index " + indexName + " over column " + column + "\n\n";
-		printString = printString.concat(inorderTreeWalk(root, 0));
+		String printString = "Index " + indexName + " over column " + String.join(", ", columns) +
+				(includedColumns.isEmpty() ? "" : " including " + String.join(", ", includedColumns)) +
+				"\n\n";
+		int mark = bufferPool.pinMark();
+		treeLatch.readLock().lock();
+		try {
+			if(rootPage != Node.NO_PAGE) {
+				printString = printString.concat(inorderTreeWalk(getNode(rootPage), 0));
+			}
+		}
+		finally {
+			treeLatch.readLock().unlock();
+			bufferPool.unpinTo(mark);
+		}
 		return printString;
 	}
 
@@ -541,27 +1627,33 @@ public class Index {
 		if(node.isLeafNode == false) {
 			String printString = "";
 			for(int i = 0; i <= node.numOfKeysPresent; i++) {
-				printString = printString.concat(inorderTreeWalk(node.pointer.get(i), tabRepetition + 1));
+				printString = printString.concat(inorderTreeWalk(getNode(node.pointer[i]), tabRepetition + 1));
 				if(i < node.numOfKeysPresent) {
 					for(int j = 0; j < tabRepetition; j++) {
 						System.out.print("\t");
 						printString = printString.concat("\t");
 					}
-					System.out.println(node.key.get(i));
-					printString = printString.concat(node.key.get(i) + "\n");
+					System.out.println(node.key[i]);
+					printString = printString.concat(node.key[i] + "\n");
 				}
 			}
 			return printString;
 		}
 		else {
 			String printString = "";
-			for(int i = 0; i < node.numOfKeysPresent; i++) {
-				for(int j = 0; j < tabRepetition; j++) {
-					System.out.print("\t");
-					printString = printString.concat("\t");
+			node.latch.readLock().lock();
+			try {
+				for(int i = 0; i < node.numOfKeysPresent; i++) {
+					for(int j = 0; j < tabRepetition; j++) {
+						System.out.print("\t");
+						printString = printString.concat("\t");
+					}
+					System.out.println(node.key[i] + " " + node.recordId[i]);
+					printString = printString.concat(node.key[i] + " " + node.recordId[i] + "\n");
 				}
-				System.out.println(node.key.get(i) + " " + node.recordId.get(i));
-				printString = printString.concat(node.key.get(i) + " " + node.recordId.get(i) + "\n");
+			}
+			finally {
+				node.latch.readLock().unlock();
 			}
 			return printString;
 		}
@@ -569,104 +1661,363 @@ public class Index {
 
 	// --------------------------------------------------------------------------------------
 	// Returns an iterator over the records that have this index's column attribute with the
-	// value set to the parameter 'key'
+	// value set to the parameter 'key'. For a composite index, 'key' is the value of the
+	// first column
 
 	public Iterator<Integer> iterator(String key) {
 		if(key.isEmpty() == false) {
-			return new IndexIterator(key);
+			if(isComposite()) {
+				return compositeIterator(Collections.singletonList(key));
+			}
+			return new IndexIterator(key, key, true, true, false);
 		}
 		return null;
 	}
 
 	// --------------------------------------------------------------------------------------
-	// A private class that implements the iterator methods to iterate over the file's records
+	// Returns an iterator over the records whose column value lies between 'from' and 'to', in
+	// ascending order of the value. A null bound leaves that end of the range open. For a
+	// composite index, the bounds are values of the first column
+
+	public Iterator<Integer> iterator(String from, String to, boolean fromInclusive,
+			boolean toInclusive) {
+		if(isComposite()) {
+			return compositeIterator(from == null ? null : Collections.singletonList(from),
+					to == null ? null : Collections.singletonList(to), fromInclusive, toInclusive);
+		}
+		return new IndexIterator(from, to, fromInclusive, toInclusive, false);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns an iterator over the records whose column value lies between 'from' and 'to', in
+	// descending order of the value. A null bound leaves that end of the range open. For a
+	// composite index, the bounds are values of the first column
+
+	public Iterator<Integer> descendingIterator(String from, String to, boolean fromInclusive,
+			boolean toInclusive) {
+		if(isComposite()) {
+			return descendingCompositeIterator(
+					from == null ? null : Collections.singletonList(from),
+					to == null ? null : Collections.singletonList(to), fromInclusive, toInclusive);
+		}
+		return new IndexIterator(from, to, fromInclusive, toInclusive, true);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns an iterator over the records whose column value starts with 'prefix'. For a
+	// composite index, the value of the first column
+
+	public Iterator<Integer> prefixIterator(String prefix) {
+		if(isComposite()) {
+			// Escaping keeps the prefix a prefix of the keys whose first value starts with it
+			StringBuilder key = new StringBuilder();
+			appendEscaped(key, prefix);
+			prefix = key.toString();
+		}
+		return new IndexIterator(prefix, prefixUpperBound(prefix), true, false, false);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns an iterator over the records whose leading columns hold the given values, in
+	// key order. With a value for every column this is an exact match on the whole key
+
+	public Iterator<Integer> compositeIterator(List<String> values) {
+		return compositeIterator(values, values, true, true);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns an iterator over the records whose key lies between 'from' and 'to', in
+	// ascending key order. Each bound holds the values of one or more leading columns, and
+	// a key is compared with it on those columns only. A null bound leaves that end of the
+	// range open
+
+	public Iterator<Integer> compositeIterator(List<String> from, List<String> to,
+			boolean fromInclusive, boolean toInclusive) {
+		return boundedIterator(from, to, fromInclusive, toInclusive, false);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns an iterator over the records whose key lies between 'from' and 'to', in
+	// descending key order. The bounds are as for compositeIterator
+
+	public Iterator<Integer> descendingCompositeIterator(List<String> from, List<String> to,
+			boolean fromInclusive, boolean toInclusive) {
+		return boundedIterator(from, to, fromInclusive, toInclusive, true);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the values of the columns and included columns of the entries whose column
+	// value lies between 'from' and 'to', in ascending order of the value, without reading
+	// the records. A null bound leaves that end of the range open. For a composite index,
+	// the bounds are values of the first column
+
+	public Iterator<Projection> projectionIterator(String from, String to, boolean fromInclusive,
+			boolean toInclusive) {
+		return compositeProjectionIterator(from == null ? null : Collections.singletonList(from),
+				to == null ? null : Collections.singletonList(to), fromInclusive, toInclusive);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the values of the columns and included columns of the entries whose key lies
+	// between 'from' and 'to', in ascending key order, without reading the records. The
+	// bounds are as for compositeIterator
+
+	public Iterator<Projection> compositeProjectionIterator(List<String> from, List<String> to,
+			boolean fromInclusive, boolean toInclusive) {
+		return new ProjectionIterator(boundedIterator(from, to, fromInclusive, toInclusive, false));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Turns bounds on the leading columns into bounds on the keys. The keys that match a
+	// bound on its columns all start with the bound's composite key, so they lie from that
+	// key up to, but not including, the smallest key that does not start with it
+
+	private IndexIterator boundedIterator(List<String> from, List<String> to,
+			boolean fromInclusive, boolean toInclusive, boolean descending) {
+		if(isComposite() == false) {
+			if((from != null && from.size() != 1) || (to != null && to.size() != 1)) {
+				throw new IllegalArgumentException("Expected 1 value for the index \"" +
+						indexName + "\"");
+			}
+			return new IndexIterator(from == null ? null : from.get(0), to == null ? null : to.get(0),
+					fromInclusive, toInclusive, descending);
+		}
+
+		String fromKey = null;
+		if(from != null) {
+			fromKey = compositeKey(from);
+			if(fromInclusive == false) {
+				fromKey = prefixUpperBound(fromKey);
+			}
+		}
+		String toKey = null;
+		if(to != null) {
+			toKey = compositeKey(to);
+			if(toInclusive) {
+				toKey = prefixUpperBound(toKey);
+			}
+		}
+		return new IndexIterator(fromKey, toKey, true, false, descending);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the smallest string that is greater than every string starting with prefix, or
+	// null if there is none
+
+	static String prefixUpperBound(String prefix) {
+		int end = prefix.length();
+		while(end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+			end--;
+		}
+		if(end == 0) {
+			return null;
+		}
+		return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class that implements the iterator methods to iterate over the file's records.
+	// It walks the chain of leaf nodes in either direction between two bounds. The entries of
+	// one leaf node are copied at a time, and no latch is held between calls, so other threads
+	// can change the index while it is being iterated. Entries inserted or deleted by them
+	// may or may not be seen
 
 	private class IndexIterator implements Iterator<Integer> {
 
-		private Node leafNode =  null;
-		private boolean nextAlreadyCalled;
-		private String key;
-		private int begin;
+		private String from;
+		private String to;
+		private boolean fromInclusive;
+		private boolean toInclusive;
+		private boolean descending;
+
+		// The entries copied from the current leaf node, and the position of the next one
+		private String[] bufferKeys;
+		private int[] bufferIds;
+		private String[] bufferIncluded;
+		private int bufferSize;
+		private int bufferPos;
+
+		// Set once the end of the range has been copied into the buffer
+		private boolean exhausted;
 		private int flag;
 		private int recordId;
-		DataFile fileObj;
 
-		public IndexIterator(String key) {
-			leafNode = findInsertionNode(key);
-			begin = -1;
-			nextAlreadyCalled = true;
-			flag = -1;
-			this.key = key;
-			fileObj = DataManager.getDataFile(fileName);
+		// The key and record Id of the last entry returned. Used to find the position again in
+		// the next leaf node, since the tree may have been reshaped in the meantime
+		private String lastKey;
+		private int lastId;
 
-			if(fileObj.iteratorExists == false) {
-				fileObj.iteratorExists = true;
-			}
+		// The values of the included columns of the last entry returned
+		private String lastIncluded;
 
-			else if(fileObj.fileModified == true) {
-				fileObj.fileModified = false;
-			}
+		// The file the records belong to. Only looked up once a record is removed
+		DataFile fileObj;
 
+		// The histogram that the time taken by fill is recorded in
+		private LatencyHistogram latency;
+
+		public IndexIterator(String from, String to, boolean fromInclusive, boolean toInclusive,
+				boolean descending) {
+			flag = -1;
+			this.from = from;
+			this.to = to;
+			this.fromInclusive = fromInclusive;
+			this.toInclusive = toInclusive;
+			this.descending = descending;
+
+			if(from != null && from.equals(to) && fromInclusive && toInclusive) {
+				Metrics.LOOKUPS.increment();
+				latency = Metrics.LOOKUP;
+			}
 			else {
-				fileObj.excp = true;
+				Metrics.SCANS.increment();
+				latency = Metrics.SCAN;
 			}
+		}
+
+		// Copies the next entries of the range from one leaf node into the buffer. The first
+		// time it starts from the bounds, after that from the entry just past lastKey and
+		// lastId. A bound includes or leaves out every record Id of its key, so it is looked
+		// for with the lowest or highest record Id
+		private void fill() {
+			long start = System.nanoTime();
+			int mark = bufferPool.pinMark();
+			try {
+				bufferSize = 0;
+				bufferPos = 0;
+
+				treeLatch.readLock().lock();
+				try {
+					// The buffer holds a whole leaf node. The first bulk load into an empty
+					// index sizes its leaf nodes, so it is only made once the tree is latched
+					if(bufferKeys == null || bufferKeys.length < maxNumOfKeys + 1) {
+						bufferKeys = new String[maxNumOfKeys + 1];
+						bufferIds = new int[maxNumOfKeys + 1];
+						if(includedColumns.isEmpty() == false) {
+							bufferIncluded = new String[maxNumOfKeys + 1];
+						}
+					}
+
+					// The entry to start from, and whether it is included
+					String startKey;
+					int startId;
+					boolean inclusive;
+					if(lastKey != null) {
+						startKey = lastKey;
+						startId = lastId;
+						inclusive = false;
+					}
+					else if(descending) {
+						startKey = to;
+						startId = toInclusive ? Node.HIGHEST_ID : Node.LOWEST_ID;
+						inclusive = toInclusive;
+					}
+					else {
+						startKey = from;
+						startId = fromInclusive ? Node.LOWEST_ID : Node.HIGHEST_ID;
+						inclusive = fromInclusive;
+					}
+
+					Node leafNode = startKey == null ? findEdgeLeaf(descending) :
+						findLeafNode(startKey, startId);
+					if(leafNode == null) {
+						exhausted = true;
+						return;
+					}
+
+					leafNode.latch.readLock().lock();
+					int position;
+					if(startKey == null) {
+						position = descending ? leafNode.numOfKeysPresent - 1 : 0;
+					}
+					else if(descending) {
+						position = (inclusive ? leafNode.upperBound(startKey, startId) :
+							leafNode.lowerBound(startKey, startId)) - 1;
+					}
+					else {
+						position = inclusive ? leafNode.lowerBound(startKey, startId) :
+							leafNode.upperBound(startKey, startId);
+					}
 
-			while(true) {
-				Node temp = leafNode.prevNodePointer;
-				if(temp != null && 
-						temp.key.get(temp.numOfKeysPresent - 1).compareTo(key) == 0) {
-					leafNode = temp;
+					try {
+						// Move on to the neighbouring leaf node when the end of this one is reached.
+						// Only one leaf node is latched at a time
+						while(position < 0 || position == leafNode.numOfKeysPresent) {
+							int nextPage = descending ? leafNode.prevNodePointer : leafNode.nextNodePointer;
+							leafNode.latch.readLock().unlock();
+							leafNode = null;
+							leafNode = getNode(nextPage);
+							if(leafNode == null) {
+								exhausted = true;
+								return;
+							}
+							leafNode.latch.readLock().lock();
+							position = descending ? leafNode.numOfKeysPresent - 1 : 0;
+						}
+
+						while(position >= 0 && position < leafNode.numOfKeysPresent) {
+							if(inRange(leafNode.key[position]) == false) {
+								exhausted = true;
+								break;
+							}
+							bufferKeys[bufferSize] = leafNode.key[position];
+							bufferIds[bufferSize] = leafNode.recordId[position];
+							if(bufferIncluded != null) {
+								bufferIncluded[bufferSize] = leafNode.includedAt(position);
+							}
+							bufferSize++;
+							position = descending ? position - 1 : position + 1;
+						}
+					}
+					finally {
+						if(leafNode != null) {
+							leafNode.latch.readLock().unlock();
+						}
+					}
 				}
-				else {
-					break;
+				finally {
+					treeLatch.readLock().unlock();
 				}
 			}
+			finally {
+				bufferPool.unpinTo(mark);
+				latency.recordSince(start);
+			}
+		}
 
-			for(int i = 0; i < leafNode.numOfKeysPresent; i++) {
-				if(leafNode.key.get(i).compareTo(key) == 0) {
-					begin = i;
-					break;
+		// Returns false once the key has passed the end of the range
+		private boolean inRange(String key) {
+			if(descending) {
+				if(from != null) {
+					int result = key.compareTo(from);
+					return result > 0 || (result == 0 && fromInclusive);
 				}
 			}
+			else if(to != null) {
+				int result = key.compareTo(to);
+				return result < 0 || (result == 0 && toInclusive);
+			}
+			return true;
 		}
 
 		public boolean hasNext() {
-			if(nextAlreadyCalled == true) {
-				if(begin > -1) {
-					nextAlreadyCalled = false;
-					return true;
-				}
-				fileObj.iteratorExists = false;
-				fileObj.fileModified = false;
-				fileObj.excp = false;
-				return false;
-			}
-			else {
+			if(bufferPos < bufferSize) {
 				return true;
 			}
+			if(exhausted == false) {
+				fill();
+			}
+			return bufferPos < bufferSize;
 		}
 
 		public Integer next() {
-			if(begin != -1) {
-				fileObj.fileModified = false;
+			if(hasNext()) {
 				flag = 0;
-				recordId = leafNode.recordId.get(begin++);
-				if(begin == leafNode.numOfKeysPresent) {
-					leafNode = leafNode.nextNodePointer;
-					if(leafNode == null) {
-						begin = -1;
-					}
-					else if(leafNode.key.get(0).compareTo(key) != 0) {
-						begin = -1;
-					}
-					else {
-						begin = 0;
-					}
-				}
-				else if(leafNode.key.get(begin).compareTo(key) != 0) {
-					begin = -1;
-				}
-				nextAlreadyCalled = true;
+				lastKey = bufferKeys[bufferPos];
+				lastId = bufferIds[bufferPos];
+				lastIncluded = bufferIncluded == null ? null : bufferIncluded[bufferPos];
+				recordId = bufferIds[bufferPos];
+				bufferPos++;
 				return recordId;
 			}
 			else {
@@ -676,45 +2027,48 @@ public class Index {
 
 		public void remove() {
 			if (flag != -1) {
-				fileObj.fileModified = true;
-				ArrayList<Index> indexCollection = fileObj.getIndexCollection();
-				Index indexObj = null;
-
-				for(int i = 0; i < indexCollection.size(); i++) {
-					indexObj = indexCollection.get(i);
-					String keyToDelete = fileObj.getRecord(recordId).get(indexObj.getColumn());
-					indexObj.deleteFromIndex(keyToDelete, recordId);
-				}
-
-				leafNode = findInsertionNode(key);
-				while(true) {
-					Node temp = leafNode.prevNodePointer;
-					if(temp != null && 
-							temp.key.get(temp.numOfKeysPresent - 1).compareTo(key) == 0) {
-						leafNode = temp;
-					}
-					else {
-						break;
-					}
-				}
-				for(int i = 0; i < leafNode.numOfKeysPresent; i++) {
-					if(leafNode.key.get(i).compareTo(key) == 0) {
-						begin = i;
-						break;
-					}
+				if(fileObj == null) {
+					fileObj = DataManager.getDataFile(fileName);
 				}
 				fileObj.deleteRecord(recordId);
 				flag = -1;
-				indexObj = null;
-				indexCollection = null;
-				
-				if(fileObj.excp == true) {
-					throw new ConcurrentModificationException();
-				}
 			}
 			else {
 				throw new IllegalStateException();
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	// --------------------------------------------------------------------------------------
+	// A private class that turns the entries found by an IndexIterator into projections of
+	// their column values. Removing an entry deletes its record from the file
+
+	private class ProjectionIterator implements Iterator<Projection> {
+
+		private IndexIterator entryIt;
+
+		// The columns and included columns, shared by every projection
+		private List<String> projectionColumns;
+
+		public ProjectionIterator(IndexIterator entryIt) {
+			this.entryIt = entryIt;
+			projectionColumns = new ArrayList<String>(columns);
+			projectionColumns.addAll(includedColumns);
+			projectionColumns = Collections.unmodifiableList(projectionColumns);
+		}
+
+		public boolean hasNext() {
+			return entryIt.hasNext();
+		}
+
+		public Projection next() {
+			int recordId = entryIt.next();
+			return new Projection(projectionColumns,
+					entryColumnValues(entryIt.lastKey, entryIt.lastIncluded), recordId);
+		}
+
+		public void remove() {
+			entryIt.remove();
+		}
+	}
+}
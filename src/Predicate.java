@@ -0,0 +1,155 @@
+package database;
+
+// A condition on the value of one column of a record, used to query a DataFile. A record
+// without a value for the column never matches
+public class Predicate {
+
+	// The column the condition is on
+	private String column;
+
+	// The bounds of the values that match. An equality has the same inclusive bound at both
+	// ends, and a null bound leaves that end of a range open
+	private String from;
+	private String to;
+	private boolean fromInclusive;
+	private boolean toInclusive;
+
+	// Set if the condition is an equality
+	private boolean equality;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the Predicate class
+
+	private Predicate(String column, String from, String to, boolean fromInclusive,
+			boolean toInclusive, boolean equality) {
+		if(column == null) {
+			throw new IllegalArgumentException("A predicate needs a column");
+		}
+		this.column = column;
+		this.from = from;
+		this.to = to;
+		this.fromInclusive = fromInclusive;
+		this.toInclusive = toInclusive;
+		this.equality = equality;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a predicate that matches the records whose column value is 'value'
+
+	public static Predicate equal(String column, String value) {
+		if(value == null) {
+			throw new IllegalArgumentException("A null value cannot be compared");
+		}
+		return new Predicate(column, value, value, true, true, true);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a predicate that matches the records whose column value lies between 'from'
+	// and 'to', both included
+
+	public static Predicate between(String column, String from, String to) {
+		return range(column, from, to, true, true);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a predicate that matches the records whose column value lies between 'from'
+	// and 'to'. A null bound leaves that end of the range open
+
+	public static Predicate range(String column, String from, String to, boolean fromInclusive,
+			boolean toInclusive) {
+		return new Predicate(column, from, to, fromInclusive, toInclusive, false);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a predicate that matches the records whose column value starts with 'prefix'.
+	// It is the range of values from the prefix up to the first value that does not start
+	// with it
+
+	public static Predicate prefix(String column, String prefix) {
+		if(prefix == null) {
+			throw new IllegalArgumentException("A null prefix cannot be compared");
+		}
+		return new Predicate(column, prefix, Index.prefixUpperBound(prefix), true, false, false);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for column
+
+	public String getColumn() {
+		return column;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getters for the bounds of the values that match
+
+	public String getFrom() {
+		return from;
+	}
+
+	public String getTo() {
+		return to;
+	}
+
+	public boolean isFromInclusive() {
+		return fromInclusive;
+	}
+
+	public boolean isToInclusive() {
+		return toInclusive;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the predicate matches only one value
+
+	public boolean isEquality() {
+		return equality;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the column value matches the predicate
+
+	public boolean matches(String value) {
+		if(value == null) {
+			return false;
+		}
+		if(equality) {
+			return value.equals(from);
+		}
+		if(from != null) {
+			int cmp = value.compareTo(from);
+			if(cmp < 0 || (cmp == 0 && fromInclusive == false)) {
+				return false;
+			}
+		}
+		if(to != null) {
+			int cmp = value.compareTo(to);
+			if(cmp > 0 || (cmp == 0 && toInclusive == false)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the predicate written as a condition, as shown by Query.explain
+
+	public String toString() {
+		if(equality) {
+			return column + " = \"" + from + "\"";
+		}
+		StringBuilder text = new StringBuilder(column);
+		if(from != null) {
+			text.append(fromInclusive ? " >= \"" : " > \"").append(from).append('"');
+		}
+		if(to != null) {
+			if(from != null) {
+				text.append(" and ").append(column);
+			}
+			text.append(toInclusive ? " <= \"" : " < \"").append(to).append('"');
+		}
+		if(from == null && to == null) {
+			text.append(" has a value");
+		}
+		return text.toString();
+	}
+}
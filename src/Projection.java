@@ -0,0 +1,82 @@
+package database;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The values of some of the columns of one record, as read from the entry of an index that
+// holds them. It is got without reading the record itself
+public class Projection {
+
+	// The columns the values are of, shared by the projections of one scan
+	private List<String> columns;
+
+	// The value of each column, or null if the record has no value for it
+	private String[] values;
+
+	// The record the values belong to
+	private int recordId;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the Projection class
+
+	Projection(List<String> columns, String[] values, int recordId) {
+		this.columns = columns;
+		this.values = values;
+		this.recordId = recordId;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for recordId
+
+	public int getRecordId() {
+		return recordId;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for columns
+
+	public List<String> getColumns() {
+		return columns;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the value of the column, or null if the record has no value for it
+
+	public String get(String column) {
+		int position = columns.indexOf(column);
+		if(position < 0) {
+			throw new IllegalArgumentException("The column \"" + column +
+					"\" is not in the projection");
+		}
+		return values[position];
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the value of the column at the given position of getColumns
+
+	public String get(int position) {
+		return values[position];
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the columns that have a value, with their values, as getRecord would for the
+	// same columns
+
+	public Map<String, String> toMap() {
+		Map<String, String> record = new HashMap<String, String>();
+		for(int i = 0; i < values.length; i++) {
+			if(values[i] != null) {
+				record.put(columns.get(i), values[i]);
+			}
+		}
+		return record;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the record Id followed by the values
+
+	public String toString() {
+		return recordId + " " + toMap();
+	}
+}
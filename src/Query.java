@@ -0,0 +1,571 @@
+package database;
+
+import database.helperClasses.Bitmap;
+import database.helperClasses.ColumnStatistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// A query for the records of a DataFile that match every one of a list of predicates. The
+// way the records are found is chosen when the query is made. Starting from a scan of the
+// whole file, the index that lowers the estimated cost the most is added until no index
+// lowers it further. The record Ids found through several indexes are intersected, and the
+// predicates that no chosen index answers are checked on each record that is left
+public class Query {
+
+	// The estimated cost of reading the value of a column of a record and checking it
+	private static final double ROW_COST = 1.0;
+
+	// The estimated cost of reading one node of a B+ tree, and of reading one of its entries
+	private static final double NODE_COST = 4.0;
+	private static final double TREE_ENTRY_COST = 0.2;
+
+	// The estimated cost of a lookup in a hash index, and of reading one record Id it holds
+	private static final double HASH_LOOKUP_COST = 2.0;
+	private static final double HASH_ENTRY_COST = 0.05;
+
+	// The estimated cost of copying the bitmap of a value, and of reading one record Id in it
+	private static final double BITMAP_LOOKUP_COST = 2.0;
+	private static final double BITMAP_ENTRY_COST = 0.01;
+
+	// The estimated cost of adding a record Id found through an index to a bitmap, so that
+	// it can be intersected with those found through other indexes
+	private static final double INTERSECT_ENTRY_COST = 0.05;
+
+	// The share of the records taken to match an equality, and each bound of a range, when
+	// nothing better is known about the column
+	private static final double DEFAULT_EQUAL_SELECTIVITY = 0.005;
+	private static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3;
+
+	// The file the query is over, and the predicates its records have to match
+	private DataFile fileObj;
+	private List<Predicate> predicates;
+
+	// The number of records in the file when the query was made
+	private int recordCount;
+
+	// The estimated number of records matching each predicate, over the file's record count
+	private Map<Predicate, Double> selectivities;
+
+	// The indexes chosen to find the records, and the predicates left to check on each record
+	private List<AccessPath> paths;
+	private List<Predicate> residual;
+
+	// The estimated cost of the chosen plan and of a scan of the whole file
+	private double cost;
+	private double scanCost;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the Query class
+	// This constructor is called by DataFile.query, which has checked the predicates
+
+	Query(DataFile fileObj, List<Predicate> predicates) {
+		this.fileObj = fileObj;
+		this.predicates = new ArrayList<Predicate>(predicates);
+		recordCount = fileObj.getRecordCount();
+		selectivities = new IdentityHashMap<Predicate, Double>();
+		plan();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the estimated number of records the query will find
+
+	public double getEstimatedRows() {
+		return recordCount * selectivity(covered(paths));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the estimated cost of the chosen plan, in the same units as getScanCost
+
+	public double getCost() {
+		return cost;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the estimated cost of checking every record of the file instead
+
+	public double getScanCost() {
+		return scanCost;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the chosen plan, one step per line, with the estimated rows and cost of each
+
+	public String explain() {
+		StringBuilder printString = new StringBuilder();
+		if(paths.isEmpty()) {
+			printString.append("Scan file \"").append(fileObj.getFileName()).append("\" (")
+					.append(recordCount).append(" records)\n");
+		}
+		else {
+			if(paths.size() > 1) {
+				printString.append("Intersect record Ids\n");
+			}
+			for(int i = 0; i < paths.size(); i++) {
+				AccessPath path = paths.get(i);
+				if(paths.size() > 1) {
+					printString.append("  ");
+				}
+				printString.append(path.describe()).append(" on ").append(path.covered)
+						.append(String.format(" rows=%.0f cost=%.1f%n", path.rows, path.cost));
+			}
+		}
+		if(residual.isEmpty() == false) {
+			printString.append("Filter on ").append(residual).append('\n');
+		}
+		printString.append(String.format("Estimated rows=%.0f cost=%.1f scan cost=%.1f%n",
+				getEstimatedRows(), cost, scanCost));
+		return printString.toString();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns an iterator over the record Ids of the records that match every predicate.
+	// Removing a record deletes it from the file. Records changed while the query runs may
+	// or may not be seen
+
+	public Iterator<Integer> iterator() {
+		Iterator<Integer> source;
+		if(paths.isEmpty()) {
+			source = fileObj.iterator();
+		}
+		else if(paths.size() == 1) {
+			source = paths.get(0).open();
+		}
+		else {
+			// The smallest set of records is read first, so the intersection stays small
+			List<AccessPath> ordered = new ArrayList<AccessPath>(paths);
+			Collections.sort(ordered, new Comparator<AccessPath>() {
+				public int compare(AccessPath a, AccessPath b) {
+					return Double.compare(a.rows, b.rows);
+				}
+			});
+			Bitmap records = ordered.get(0).toBitmap();
+			for(int i = 1; i < ordered.size() && records.isEmpty() == false; i++) {
+				records = records.and(ordered.get(i).toBitmap());
+			}
+			source = records.iterator();
+		}
+		return new QueryIterator(source);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Chooses the indexes to find the records with. Each step adds the index that gives the
+	// lowest estimated cost, and the steps stop when no index lowers it
+
+	private void plan() {
+		List<AccessPath> candidates = candidatePaths();
+		paths = new ArrayList<AccessPath>();
+		scanCost = planCost(paths);
+		cost = scanCost;
+
+		while(candidates.isEmpty() == false) {
+			Set<Predicate> covered = covered(paths);
+			AccessPath best = null;
+			double bestCost = cost;
+			for(int i = 0; i < candidates.size(); i++) {
+				AccessPath candidate = candidates.get(i);
+				if(covered.containsAll(candidate.covered)) {
+					continue;
+				}
+				paths.add(candidate);
+				double candidateCost = planCost(paths);
+				paths.remove(paths.size() - 1);
+				if(candidateCost < bestCost) {
+					best = candidate;
+					bestCost = candidateCost;
+				}
+			}
+			if(best == null) {
+				break;
+			}
+			paths.add(best);
+			candidates.remove(best);
+			cost = bestCost;
+		}
+
+		Set<Predicate> covered = covered(paths);
+		residual = new ArrayList<Predicate>();
+		for(int i = 0; i < predicates.size(); i++) {
+			if(covered.contains(predicates.get(i)) == false) {
+				residual.add(predicates.get(i));
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the estimated cost of finding the records through the given indexes, or of a
+	// scan of the whole file if there are none
+
+	private double planCost(List<AccessPath> chosen) {
+		if(chosen.isEmpty()) {
+			return recordCount * ROW_COST;
+		}
+		double total = 0;
+		for(int i = 0; i < chosen.size(); i++) {
+			AccessPath path = chosen.get(i);
+			total += path.cost;
+			if(chosen.size() > 1 && path.bitmapIndex == null) {
+				total += path.rows * INTERSECT_ENTRY_COST;
+			}
+		}
+		Set<Predicate> covered = covered(chosen);
+		if(covered.size() < predicates.size()) {
+			total += recordCount * selectivity(covered) * ROW_COST;
+		}
+		return total;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the predicates answered by the given indexes
+
+	private static Set<Predicate> covered(List<AccessPath> chosen) {
+		Set<Predicate> covered = new HashSet<Predicate>();
+		for(int i = 0; i < chosen.size(); i++) {
+			covered.addAll(chosen.get(i).covered);
+		}
+		return covered;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the estimated share of the records matching every one of the predicates. The
+	// columns are taken to be independent of each other
+
+	private double selectivity(Iterable<Predicate> matched) {
+		double selectivity = 1.0;
+		Iterator<Predicate> it = matched.iterator();
+		while(it.hasNext()) {
+			selectivity *= selectivity(it.next());
+		}
+		return selectivity;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the estimated share of the records matching the predicate
+
+	private double selectivity(Predicate predicate) {
+		Double selectivity = selectivities.get(predicate);
+		if(selectivity == null) {
+			selectivity = recordCount == 0 ? 0.0 : Math.min(1.0, estimate(predicate));
+			selectivities.put(predicate, selectivity);
+		}
+		return selectivity;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Estimates the share of the records matching the predicate without reading them. An
+	// equality on a column with a hash or bitmap index is counted by the index. Otherwise
+	// the statistics gathered by DataFile.analyze are used while they are fresh, and fixed
+	// shares when there are none
+
+	private double estimate(Predicate predicate) {
+		String column = predicate.getColumn();
+		if(predicate.isEquality()) {
+			Iterator<HashIndex> hashIt = fileObj.getHashIndexCollection().iterator();
+			while(hashIt.hasNext()) {
+				HashIndex indexObj = hashIt.next();
+				if(indexObj.getColumn().equals(column)) {
+					return (double) indexObj.getRecordCount(predicate.getFrom()) / recordCount;
+				}
+			}
+			Iterator<BitmapIndex> bitmapIt = fileObj.getBitmapIndexCollection().iterator();
+			while(bitmapIt.hasNext()) {
+				BitmapIndex indexObj = bitmapIt.next();
+				if(indexObj.getColumn().equals(column)) {
+					return (double) indexObj.getRecordCount(predicate.getFrom()) / recordCount;
+				}
+			}
+		}
+
+		ColumnStatistics statistics = fileObj.getStatistics(column);
+		int numOfRecords = statistics == null ? 0 : statistics.getRecordCount();
+		if(numOfRecords > 0) {
+			if(predicate.isEquality()) {
+				return statistics.equalRows(predicate.getFrom()) / numOfRecords;
+			}
+			return statistics.rangeRows(predicate.getFrom(), predicate.getTo(),
+					predicate.isFromInclusive(), predicate.isToInclusive()) / numOfRecords;
+		}
+
+		if(predicate.isEquality()) {
+			return DEFAULT_EQUAL_SELECTIVITY;
+		}
+		double selectivity = 1.0;
+		if(predicate.getFrom() != null) {
+			selectivity *= DEFAULT_RANGE_SELECTIVITY;
+		}
+		if(predicate.getTo() != null) {
+			selectivity *= DEFAULT_RANGE_SELECTIVITY;
+		}
+		return selectivity;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns every way an index over the file can find records for the predicates
+
+	private List<AccessPath> candidatePaths() {
+		List<AccessPath> candidates = new ArrayList<AccessPath>();
+
+		Iterator<Index> indexIt = fileObj.getIndexCollection().iterator();
+		while(indexIt.hasNext()) {
+			AccessPath path = treePath(indexIt.next());
+			if(path != null) {
+				candidates.add(path);
+			}
+		}
+
+		Iterator<HashIndex> hashIt = fileObj.getHashIndexCollection().iterator();
+		while(hashIt.hasNext()) {
+			HashIndex indexObj = hashIt.next();
+			for(int i = 0; i < predicates.size(); i++) {
+				Predicate predicate = predicates.get(i);
+				if(predicate.isEquality() && predicate.getColumn().equals(indexObj.getColumn())) {
+					AccessPath path = new AccessPath(Collections.singletonList(predicate));
+					path.hashIndex = indexObj;
+					path.cost = HASH_LOOKUP_COST + path.rows * HASH_ENTRY_COST;
+					candidates.add(path);
+				}
+			}
+		}
+
+		Iterator<BitmapIndex> bitmapIt = fileObj.getBitmapIndexCollection().iterator();
+		while(bitmapIt.hasNext()) {
+			BitmapIndex indexObj = bitmapIt.next();
+			for(int i = 0; i < predicates.size(); i++) {
+				Predicate predicate = predicates.get(i);
+				if(predicate.isEquality() && predicate.getColumn().equals(indexObj.getColumn())) {
+					AccessPath path = new AccessPath(Collections.singletonList(predicate));
+					path.bitmapIndex = indexObj;
+					path.cost = BITMAP_LOOKUP_COST + path.rows * BITMAP_ENTRY_COST;
+					candidates.add(path);
+				}
+			}
+		}
+		return candidates;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the way a B+ tree index can find records for the predicates, or null if it
+	// cannot. The index answers equalities on its leading columns followed by at most one
+	// range. A record without a value for one of the columns of a composite index is not in
+	// it, so a composite index is only used when every one of its columns has a predicate
+
+	private AccessPath treePath(Index indexObj) {
+		List<String> columns = indexObj.getColumns();
+		for(int i = 0; i < columns.size(); i++) {
+			if(mostSelective(columns.get(i), false) == null) {
+				return null;
+			}
+		}
+
+		List<Predicate> covered = new ArrayList<Predicate>();
+		for(int i = 0; i < columns.size(); i++) {
+			Predicate predicate = mostSelective(columns.get(i), true);
+			if(predicate != null) {
+				covered.add(predicate);
+				continue;
+			}
+			covered.add(mostSelective(columns.get(i), false));
+			break;
+		}
+
+		AccessPath path = new AccessPath(covered);
+		path.index = indexObj;
+		path.cost = NODE_COST * indexObj.getHeight() + path.rows * TREE_ENTRY_COST;
+		return path;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the predicate on the column that matches the fewest records, among the
+	// equalities only if equalityOnly is set, or null if there is none
+
+	private Predicate mostSelective(String column, boolean equalityOnly) {
+		Predicate best = null;
+		for(int i = 0; i < predicates.size(); i++) {
+			Predicate predicate = predicates.get(i);
+			if(predicate.getColumn().equals(column) &&
+					(equalityOnly == false || predicate.isEquality()) &&
+					(best == null || selectivity(predicate) < selectivity(best))) {
+				best = predicate;
+			}
+		}
+		return best;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class for one way of finding records through an index. Exactly one of the
+	// index fields is set
+
+	private class AccessPath {
+
+		private Index index;
+		private HashIndex hashIndex;
+		private BitmapIndex bitmapIndex;
+
+		// The predicates the index answers, in the order of the index's columns
+		private List<Predicate> covered;
+
+		// The estimated number of records found and the estimated cost of finding them
+		private double rows;
+		private double cost;
+
+		public AccessPath(List<Predicate> covered) {
+			this.covered = covered;
+			rows = recordCount * selectivity(covered);
+		}
+
+		// Returns the kind and name of the index
+		public String describe() {
+			if(index != null) {
+				return "Index \"" + index.getIndexName() + "\"";
+			}
+			if(hashIndex != null) {
+				return "Hash index \"" + hashIndex.getIndexName() + "\"";
+			}
+			return "Bitmap index \"" + bitmapIndex.getIndexName() + "\"";
+		}
+
+		// Returns the record Ids found through the index
+		public Iterator<Integer> open() {
+			if(hashIndex != null) {
+				return new IdIterator(hashIndex.lookup(covered.get(0).getFrom()));
+			}
+			if(bitmapIndex != null) {
+				return bitmapIndex.get(covered.get(0).getFrom()).iterator();
+			}
+
+			Predicate last = covered.get(covered.size() - 1);
+			if(index.isComposite() == false) {
+				return index.iterator(last.getFrom(), last.getTo(), last.isFromInclusive(),
+						last.isToInclusive());
+			}
+			List<String> from = new ArrayList<String>();
+			for(int i = 0; i < covered.size() - 1; i++) {
+				from.add(covered.get(i).getFrom());
+			}
+			// An open end of the range leaves only the equalities on the leading columns
+			List<String> to = new ArrayList<String>(from);
+			boolean fromInclusive = true;
+			boolean toInclusive = true;
+			if(last.getFrom() != null) {
+				from.add(last.getFrom());
+				fromInclusive = last.isFromInclusive();
+			}
+			if(last.getTo() != null) {
+				to.add(last.getTo());
+				toInclusive = last.isToInclusive();
+			}
+			return index.compositeIterator(from.isEmpty() ? null : from,
+					to.isEmpty() ? null : to, fromInclusive, toInclusive);
+		}
+
+		// Returns the record Ids found through the index as a bitmap
+		public Bitmap toBitmap() {
+			if(bitmapIndex != null) {
+				return bitmapIndex.get(covered.get(0).getFrom());
+			}
+			Bitmap records = new Bitmap();
+			Iterator<Integer> it = open();
+			while(it.hasNext()) {
+				records.add(it.next());
+			}
+			return records;
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class that iterates over an array of record Ids
+
+	private static class IdIterator implements Iterator<Integer> {
+
+		private int[] ids;
+		private int position;
+
+		public IdIterator(int[] ids) {
+			this.ids = ids;
+		}
+
+		public boolean hasNext() {
+			return position < ids.length;
+		}
+
+		public Integer next() {
+			if(position >= ids.length) {
+				throw new NoSuchElementException();
+			}
+			return ids[position++];
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class that iterates over the records found by the chosen indexes, skipping
+	// those that do not match the predicates no index answered. Removing a record deletes
+	// it from the file
+
+	private class QueryIterator implements Iterator<Integer> {
+
+		private Iterator<Integer> source;
+		private int nextRecordId;
+		private int recordId;
+		private int flag;
+
+		public QueryIterator(Iterator<Integer> source) {
+			this.source = source;
+			nextRecordId = -1;
+			flag = -1;
+		}
+
+		public boolean hasNext() {
+			while(nextRecordId < 0 && source.hasNext()) {
+				int candidate = source.next();
+				if(matches(candidate)) {
+					nextRecordId = candidate;
+				}
+			}
+			return nextRecordId >= 0;
+		}
+
+		public Integer next() {
+			if(hasNext() == false) {
+				throw new NoSuchElementException();
+			}
+			recordId = nextRecordId;
+			nextRecordId = -1;
+			flag = 0;
+			return recordId;
+		}
+
+		public void remove() {
+			if (flag != -1) {
+				fileObj.deleteRecord(recordId);
+				flag = -1;
+			}
+			else {
+				throw new IllegalStateException();
+			}
+		}
+
+		// Returns true if the record matches every predicate no index answered. A record
+		// deleted since it was found has no values, so it does not match
+		private boolean matches(int candidate) {
+			for(int i = 0; i < residual.size(); i++) {
+				Predicate predicate = residual.get(i);
+				if(predicate.matches(fileObj.getValue(candidate, predicate.getColumn())) == false) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package database;
+
+import database.helperClasses.RecordStore;
+import java.util.Map;
+
+// A cursor over the records of a DataFile, in ascending order of record Id. It reads the
+// record store as it moves, so starting it costs nothing, and moving it and reading the
+// values of the current record create no objects besides the values. It covers the record
+// Ids up to the largest one in use when it is created; records inserted or deleted while
+// it moves may or may not be seen
+public class RecordCursor {
+
+	// The record Id returned once the cursor has passed the last record
+	public static final int END = -1;
+
+	// The file the records belong to, and the store they are read from
+	private DataFile fileObj;
+	private RecordStore recordStore;
+
+	// The record the cursor is on, or END before the first call to nextRecordId
+	private int recordId;
+
+	// The record Id the cursor looks at next, and the one it stops after
+	private int nextRecordId;
+	private int lastRecordId;
+
+	// Set once the current record has been removed
+	private boolean removed;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the RecordCursor class
+	// This constructor is called by DataFile.cursor
+
+	RecordCursor(DataFile fileObj, RecordStore recordStore) {
+		this.fileObj = fileObj;
+		this.recordStore = recordStore;
+		recordId = END;
+		lastRecordId = recordStore.getMaxRecId();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Moves the cursor to the next record and returns its record Id, or END if there are no
+	// more records
+
+	public int nextRecordId() {
+		removed = false;
+		recordId = nextRecordId > lastRecordId ? END : recordStore.nextRecordId(nextRecordId);
+		if(recordId == END || recordId > lastRecordId) {
+			nextRecordId = lastRecordId + 1;
+			recordId = END;
+			return END;
+		}
+		nextRecordId = recordId + 1;
+		return recordId;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for recordId
+
+	public int getRecordId() {
+		return recordId;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the value of one column of the current record, or null if the record has no
+	// value for it or has been deleted since the cursor reached it
+
+	public String getValue(String column) {
+		checkPosition();
+		return recordStore.getValue(recordId, column);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the current record, or null if it has been deleted since the cursor reached it
+
+	public Map<String, String> getRecord() {
+		checkPosition();
+		return recordStore.get(recordId);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Deletes the current record from the file and its indexes
+
+	public void remove() {
+		checkPosition();
+		if(removed) {
+			throw new IllegalStateException();
+		}
+		fileObj.deleteRecord(recordId);
+		removed = true;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Throws an IllegalStateException if the cursor is not on a record
+
+	private void checkPosition() {
+		if(recordId == END) {
+			throw new IllegalStateException("The cursor is not on a record");
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+
+// A scan of every record of a DataFile, run on several threads. The record Ids are split
+// into ranges by the file's spliterator, and each range is scanned by its own task of a
+// ForkJoinPool. Each task keeps its own count or values, which are merged as the tasks
+// finish, so the threads share nothing while they scan. Records inserted or deleted while
+// the scan runs may or may not be seen
+public class Scan {
+
+	// The file to scan, and the predicates its records have to match
+	private DataFile fileObj;
+	private List<Predicate> predicates;
+
+	// The pool the tasks run in
+	private ForkJoinPool pool;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the Scan class
+	// This constructor is called by DataFile.scan
+
+	Scan(DataFile fileObj) {
+		this.fileObj = fileObj;
+		predicates = new ArrayList<Predicate>();
+		pool = ForkJoinPool.commonPool();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Leaves out the records that do not match every one of the predicates
+
+	public Scan filter(Predicate... more) {
+		for(int i = 0; i < more.length; i++) {
+			fileObj.checkColumn(more[i].getColumn());
+			predicates.add(more[i]);
+		}
+		return this;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Runs the scan in the given pool instead of the common pool
+
+	public Scan using(ForkJoinPool pool) {
+		this.pool = pool;
+		return this;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of records that match
+
+	public long count() {
+		return ((Count) run(new Count())).count;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the smallest value of the column among the records that match, or null if
+	// none of them has a value for it
+
+	public String min(String column) {
+		fileObj.checkColumn(column);
+		return ((Extreme) run(new Extreme(column, false))).value;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the largest value of the column among the records that match, or null if none
+	// of them has a value for it
+
+	public String max(String column) {
+		fileObj.checkColumn(column);
+		return ((Extreme) run(new Extreme(column, true))).value;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of records that match for each value of the column. Records
+	// without a value for the column are left out
+
+	public Map<String, Long> groupByCount(String column) {
+		fileObj.checkColumn(column);
+		Map<String, long[]> counts = ((GroupCount) run(new GroupCount(column))).counts;
+		Map<String, Long> result = new HashMap<String, Long>();
+		Iterator<Map.Entry<String, long[]>> it = counts.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<String, long[]> entry = it.next();
+			result.put(entry.getKey(), entry.getValue()[0]);
+		}
+		return result;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the values of the columns of the records that match, in ascending order of
+	// record Id
+
+	public List<Projection> project(String... columns) {
+		for(int i = 0; i < columns.length; i++) {
+			fileObj.checkColumn(columns[i]);
+		}
+		List<String> columnList = new ArrayList<String>();
+		Collections.addAll(columnList, columns);
+		return ((Collect) run(new Collect(Collections.unmodifiableList(columnList)))).rows;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Scans the file in the pool, each task adding the records of its range to an
+	// accumulator of the same kind as the one given, and returns them merged
+
+	private Accumulator run(Accumulator accumulator) {
+		Spliterator.OfInt records = fileObj.spliterator();
+		// Enough tasks for every thread to take several, so that none is left idle
+		long splitSize = Math.max(DataFile.SPLIT_SIZE,
+				records.estimateSize() / (pool.getParallelism() * 4L));
+		return pool.invoke(new ScanTask(records, accumulator, splitSize));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class for the task that scans one range of record Ids. It splits off the
+	// lower half of its range for another task until the range is small enough, scans what
+	// is left, and merges the results of the tasks it split off in order of their ranges
+
+	private class ScanTask extends RecursiveTask<Accumulator> {
+
+		private static final long serialVersionUID = 1L;
+
+		private Spliterator.OfInt records;
+		private Accumulator accumulator;
+		private long splitSize;
+
+		public ScanTask(Spliterator.OfInt records, Accumulator accumulator, long splitSize) {
+			this.records = records;
+			this.accumulator = accumulator;
+			this.splitSize = splitSize;
+		}
+
+		protected Accumulator compute() {
+			List<ScanTask> forked = new ArrayList<ScanTask>();
+			Spliterator.OfInt lowerHalf;
+			while(records.estimateSize() > splitSize && (lowerHalf = records.trySplit()) != null) {
+				ScanTask task = new ScanTask(lowerHalf, accumulator.newAccumulator(), splitSize);
+				task.fork();
+				forked.add(task);
+			}
+
+			records.forEachRemaining(new IntConsumer() {
+				public void accept(int recordId) {
+					if(matches(recordId)) {
+						accumulator.add(recordId);
+					}
+				}
+			});
+
+			// The tasks were split off from the front of the range, so they come first
+			Accumulator result = accumulator.newAccumulator();
+			for(int i = 0; i < forked.size(); i++) {
+				result.merge(forked.get(i).join());
+			}
+			result.merge(accumulator);
+			return result;
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the record matches every predicate. A record deleted since it was
+	// found has no values, so it does not match
+
+	private boolean matches(int recordId) {
+		for(int i = 0; i < predicates.size(); i++) {
+			Predicate predicate = predicates.get(i);
+			if(predicate.matches(fileObj.getValue(recordId, predicate.getColumn())) == false) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class for what a task gathers from the records of its range
+
+	private abstract static class Accumulator {
+
+		// Returns an empty accumulator of the same kind
+		abstract Accumulator newAccumulator();
+
+		// Adds a record that matches
+		abstract void add(int recordId);
+
+		// Adds what another accumulator has gathered from a later range of record Ids
+		abstract void merge(Accumulator other);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class that counts the records
+
+	private static class Count extends Accumulator {
+
+		private long count;
+
+		Accumulator newAccumulator() {
+			return new Count();
+		}
+
+		void add(int recordId) {
+			count++;
+		}
+
+		void merge(Accumulator other) {
+			count += ((Count) other).count;
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class that keeps the smallest or the largest value of a column
+
+	private class Extreme extends Accumulator {
+
+		private String column;
+		private boolean largest;
+		private String value;
+
+		public Extreme(String column, boolean largest) {
+			this.column = column;
+			this.largest = largest;
+		}
+
+		Accumulator newAccumulator() {
+			return new Extreme(column, largest);
+		}
+
+		void add(int recordId) {
+			offer(fileObj.getValue(recordId, column));
+		}
+
+		void merge(Accumulator other) {
+			offer(((Extreme) other).value);
+		}
+
+		private void offer(String candidate) {
+			if(candidate != null && (value == null ||
+					(largest ? candidate.compareTo(value) > 0 : candidate.compareTo(value) < 0))) {
+				value = candidate;
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class that counts the records holding each value of a column. The counts
+	// are kept in arrays so that adding to one does not box a new number
+
+	private class GroupCount extends Accumulator {
+
+		private String column;
+		private Map<String, long[]> counts;
+
+		public GroupCount(String column) {
+			this.column = column;
+			counts = new HashMap<String, long[]>();
+		}
+
+		Accumulator newAccumulator() {
+			return new GroupCount(column);
+		}
+
+		void add(int recordId) {
+			String value = fileObj.getValue(recordId, column);
+			if(value != null) {
+				addCount(value, 1);
+			}
+		}
+
+		void merge(Accumulator other) {
+			Iterator<Map.Entry<String, long[]>> it =
+				((GroupCount) other).counts.entrySet().iterator();
+			while(it.hasNext()) {
+				Map.Entry<String, long[]> entry = it.next();
+				addCount(entry.getKey(), entry.getValue()[0]);
+			}
+		}
+
+		private void addCount(String value, long count) {
+			long[] total = counts.get(value);
+			if(total == null) {
+				total = new long[1];
+				counts.put(value, total);
+			}
+			total[0] += count;
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class that keeps the values of some columns of every record
+
+	private class Collect extends Accumulator {
+
+		private List<String> columns;
+		private List<Projection> rows;
+
+		public Collect(List<String> columns) {
+			this.columns = columns;
+			rows = new ArrayList<Projection>();
+		}
+
+		Accumulator newAccumulator() {
+			return new Collect(columns);
+		}
+
+		void add(int recordId) {
+			String[] values = new String[columns.size()];
+			for(int i = 0; i < values.length; i++) {
+				values[i] = fileObj.getValue(recordId, columns.get(i));
+			}
+			rows.add(new Projection(columns, values, recordId));
+		}
+
+		void merge(Accumulator other) {
+			rows.addAll(((Collect) other).rows);
+		}
+	}
+}
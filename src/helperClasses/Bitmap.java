@@ -0,0 +1,554 @@
+package database.helperClasses;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// A compressed set of record Ids. The Ids are split into their high and low 16 bits, and the
+// Ids sharing the high bits are kept together in a container. A container is a sorted array
+// of the low bits while it holds few Ids, and a bitset of 65536 bits once it holds many, so
+// a sparse set takes two bytes an Id and a dense one an eighth of a byte
+public class Bitmap {
+
+	// A container holding more Ids than this is kept as a bitset
+	private static final int ARRAY_MAX = 4096;
+
+	// A bitset container is turned back into an array once it holds this few Ids. It is lower
+	// than ARRAY_MAX so that adding and removing the same Id does not convert it every time
+	private static final int ARRAY_MIN = ARRAY_MAX / 2;
+
+	// The number of longs in a bitset container
+	private static final int BITSET_WORDS = 1 << 10;
+
+	// The kinds of combination done by combine
+	private static final int AND = 0;
+	private static final int OR = 1;
+	private static final int AND_NOT = 2;
+
+	// The high bits of each container, in ascending order
+	private char[] keys;
+
+	// The low bits of the Ids in each array container in ascending order, or null if the
+	// container is a bitset
+	private char[][] arrays;
+
+	// The bits of each bitset container, or null if the container is an array
+	private long[][] bitsets;
+
+	// The number of Ids in each container
+	private int[] counts;
+
+	// The number of containers
+	private int size;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the Bitmap class. Makes an empty bitmap
+
+	public Bitmap() {
+		keys = new char[4];
+		arrays = new char[4][];
+		bitsets = new long[4][];
+		counts = new int[4];
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Adds a record Id. Returns false if it was already in the bitmap
+
+	public boolean add(int recordId) {
+		if(recordId < 0) {
+			throw new IllegalArgumentException("Record Id " + recordId + " is negative");
+		}
+
+		char low = (char) recordId;
+		int position = find((char) (recordId >>> 16));
+		if(position < 0) {
+			position = -position - 1;
+			insertContainer(position, (char) (recordId >>> 16), new char[4], null, 0);
+		}
+
+		long[] bitset = bitsets[position];
+		if(bitset != null) {
+			long mask = 1L << low;
+			if((bitset[low >>> 6] & mask) != 0) {
+				return false;
+			}
+			bitset[low >>> 6] |= mask;
+			counts[position]++;
+			return true;
+		}
+
+		char[] array = arrays[position];
+		int count = counts[position];
+		int i = Arrays.binarySearch(array, 0, count, low);
+		if(i >= 0) {
+			return false;
+		}
+		i = -i - 1;
+
+		if(count == ARRAY_MAX) {
+			bitset = toBitset(array, count);
+			bitset[low >>> 6] |= 1L << low;
+			bitsets[position] = bitset;
+			arrays[position] = null;
+		}
+		else {
+			if(count == array.length) {
+				array = Arrays.copyOf(array, Math.min(count * 2, ARRAY_MAX));
+				arrays[position] = array;
+			}
+			System.arraycopy(array, i, array, i + 1, count - i);
+			array[i] = low;
+		}
+		counts[position]++;
+		return true;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Removes a record Id. Returns false if it was not in the bitmap
+
+	public boolean remove(int recordId) {
+		if(recordId < 0) {
+			return false;
+		}
+
+		char low = (char) recordId;
+		int position = find((char) (recordId >>> 16));
+		if(position < 0) {
+			return false;
+		}
+
+		long[] bitset = bitsets[position];
+		if(bitset != null) {
+			long mask = 1L << low;
+			if((bitset[low >>> 6] & mask) == 0) {
+				return false;
+			}
+			bitset[low >>> 6] &= ~mask;
+			counts[position]--;
+			if(counts[position] == ARRAY_MIN) {
+				arrays[position] = toArray(bitset, ARRAY_MIN);
+				bitsets[position] = null;
+			}
+		}
+		else {
+			char[] array = arrays[position];
+			int count = counts[position];
+			int i = Arrays.binarySearch(array, 0, count, low);
+			if(i < 0) {
+				return false;
+			}
+			System.arraycopy(array, i + 1, array, i, count - i - 1);
+			counts[position]--;
+		}
+
+		if(counts[position] == 0) {
+			removeContainer(position);
+		}
+		return true;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the record Id is in the bitmap
+
+	public boolean contains(int recordId) {
+		if(recordId < 0) {
+			return false;
+		}
+		int position = find((char) (recordId >>> 16));
+		return position >= 0 && containsLow(position, (char) recordId);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of record Ids in the bitmap
+
+	public int cardinality() {
+		int cardinality = 0;
+		for(int i = 0; i < size; i++) {
+			cardinality += counts[i];
+		}
+		return cardinality;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the bitmap holds no record Id
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a copy of the bitmap that can be changed without changing this one
+
+	public Bitmap copy() {
+		Bitmap result = new Bitmap();
+		for(int i = 0; i < size; i++) {
+			result.appendCopy(this, i);
+		}
+		return result;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a new bitmap with the record Ids that are in both bitmaps
+
+	public Bitmap and(Bitmap other) {
+		return combine(other, AND);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a new bitmap with the record Ids that are in either bitmap
+
+	public Bitmap or(Bitmap other) {
+		return combine(other, OR);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a new bitmap with the record Ids of this bitmap that are not in the other
+
+	public Bitmap andNot(Bitmap other) {
+		return combine(other, AND_NOT);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns an iterator over the record Ids in ascending order. The bitmap must not be
+	// changed while it is iterated
+
+	public Iterator<Integer> iterator() {
+		return new BitmapIterator();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the bitmap. Each container is written as an array or a bitset, whichever is
+	// smaller
+
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		for(int i = 0; i < size; i++) {
+			out.writeChar(keys[i]);
+			out.writeInt(counts[i]);
+			if(counts[i] > ARRAY_MAX) {
+				long[] bitset = bitsets[i] != null ? bitsets[i] : toBitset(arrays[i], counts[i]);
+				for(int j = 0; j < BITSET_WORDS; j++) {
+					out.writeLong(bitset[j]);
+				}
+			}
+			else {
+				char[] array = arrays[i] != null ? arrays[i] : toArray(bitsets[i], counts[i]);
+				for(int j = 0; j < counts[i]; j++) {
+					out.writeChar(array[j]);
+				}
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Reads a bitmap written by writeTo
+
+	public static Bitmap readFrom(DataInputStream in) throws IOException {
+		Bitmap result = new Bitmap();
+		int numOfContainers = in.readInt();
+		for(int i = 0; i < numOfContainers; i++) {
+			char key = in.readChar();
+			int count = in.readInt();
+			if(count > ARRAY_MAX) {
+				long[] bitset = new long[BITSET_WORDS];
+				for(int j = 0; j < BITSET_WORDS; j++) {
+					bitset[j] = in.readLong();
+				}
+				result.insertContainer(result.size, key, null, bitset, count);
+			}
+			else {
+				char[] array = new char[count];
+				for(int j = 0; j < count; j++) {
+					array[j] = in.readChar();
+				}
+				result.insertContainer(result.size, key, array, null, count);
+			}
+		}
+		return result;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the position of the container with the given high bits, or -(insertion point)
+	// - 1 if there is none
+
+	private int find(char key) {
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the container at position holds the given low bits
+
+	private boolean containsLow(int position, char low) {
+		if(bitsets[position] != null) {
+			return (bitsets[position][low >>> 6] & (1L << low)) != 0;
+		}
+		return Arrays.binarySearch(arrays[position], 0, counts[position], low) >= 0;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Puts a container at position, moving the ones after it up
+
+	private void insertContainer(int position, char key, char[] array, long[] bitset, int count) {
+		if(size == keys.length) {
+			int capacity = size * 2;
+			keys = Arrays.copyOf(keys, capacity);
+			arrays = Arrays.copyOf(arrays, capacity);
+			bitsets = Arrays.copyOf(bitsets, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+		}
+		int numMoved = size - position;
+		System.arraycopy(keys, position, keys, position + 1, numMoved);
+		System.arraycopy(arrays, position, arrays, position + 1, numMoved);
+		System.arraycopy(bitsets, position, bitsets, position + 1, numMoved);
+		System.arraycopy(counts, position, counts, position + 1, numMoved);
+		keys[position] = key;
+		arrays[position] = array;
+		bitsets[position] = bitset;
+		counts[position] = count;
+		size++;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Takes out the container at position, moving the ones after it down
+
+	private void removeContainer(int position) {
+		int numMoved = size - position - 1;
+		System.arraycopy(keys, position + 1, keys, position, numMoved);
+		System.arraycopy(arrays, position + 1, arrays, position, numMoved);
+		System.arraycopy(bitsets, position + 1, bitsets, position, numMoved);
+		System.arraycopy(counts, position + 1, counts, position, numMoved);
+		size--;
+		arrays[size] = null;
+		bitsets[size] = null;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Adds a container after the last one. A bitset holding few Ids is added as an array, and
+	// an empty container is not added at all
+
+	private void append(char key, char[] array, long[] bitset, int count) {
+		if(count == 0) {
+			return;
+		}
+		if(bitset != null && count <= ARRAY_MAX) {
+			insertContainer(size, key, toArray(bitset, count), null, count);
+		}
+		else {
+			insertContainer(size, key, array, bitset, count);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Adds a copy of the container of another bitmap after the last one
+
+	private void appendCopy(Bitmap other, int position) {
+		int count = other.counts[position];
+		if(other.bitsets[position] != null) {
+			append(other.keys[position], null, other.bitsets[position].clone(), count);
+		}
+		else {
+			append(other.keys[position], Arrays.copyOf(other.arrays[position], count), null, count);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Combines this bitmap with another a container at a time. Containers whose high bits
+	// are only in one of the bitmaps are copied or left out without looking inside them
+
+	private Bitmap combine(Bitmap other, int op) {
+		Bitmap result = new Bitmap();
+		int i = 0;
+		int j = 0;
+		while(i < size || j < other.size) {
+			int order = i == size ? 1 : j == other.size ? -1 : keys[i] - other.keys[j];
+			if(order < 0) {
+				if(op != AND) {
+					result.appendCopy(this, i);
+				}
+				i++;
+			}
+			else if(order > 0) {
+				if(op == OR) {
+					result.appendCopy(other, j);
+				}
+				j++;
+			}
+			else {
+				result.combineContainers(this, i, other, j, op);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Combines two containers with the same high bits and appends the result. When only the
+	// Ids of an array can be in the result, each of them is looked up in the other container.
+	// Otherwise the containers are combined as bitsets a word at a time
+
+	private void combineContainers(Bitmap a, int i, Bitmap b, int j, int op) {
+		if(op == AND && a.bitsets[i] != null && b.bitsets[j] == null) {
+			combineContainers(b, j, a, i, op);
+			return;
+		}
+
+		char key = a.keys[i];
+		if(op != OR && a.bitsets[i] == null) {
+			char[] array = a.arrays[i];
+			char[] kept = new char[a.counts[i]];
+			int count = 0;
+			for(int k = 0; k < a.counts[i]; k++) {
+				if(b.containsLow(j, array[k]) == (op == AND)) {
+					kept[count++] = array[k];
+				}
+			}
+			append(key, kept, null, count);
+			return;
+		}
+
+		if(op == OR && a.bitsets[i] == null && b.bitsets[j] == null &&
+				a.counts[i] + b.counts[j] <= ARRAY_MAX) {
+			char[] merged = mergeArrays(a.arrays[i], a.counts[i], b.arrays[j], b.counts[j]);
+			append(key, merged, null, merged.length);
+			return;
+		}
+
+		long[] bitset = a.bitsets[i] != null ? a.bitsets[i].clone() : toBitset(a.arrays[i], a.counts[i]);
+		long[] other = b.bitsets[j] != null ? b.bitsets[j] : toBitset(b.arrays[j], b.counts[j]);
+		int count = 0;
+		for(int k = 0; k < BITSET_WORDS; k++) {
+			if(op == AND) {
+				bitset[k] &= other[k];
+			}
+			else if(op == OR) {
+				bitset[k] |= other[k];
+			}
+			else {
+				bitset[k] &= ~other[k];
+			}
+			count += Long.bitCount(bitset[k]);
+		}
+		append(key, null, bitset, count);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the sorted union of two sorted arrays
+
+	private static char[] mergeArrays(char[] a, int aCount, char[] b, int bCount) {
+		char[] merged = new char[aCount + bCount];
+		int i = 0;
+		int j = 0;
+		int count = 0;
+		while(i < aCount && j < bCount) {
+			if(a[i] < b[j]) {
+				merged[count++] = a[i++];
+			}
+			else if(a[i] > b[j]) {
+				merged[count++] = b[j++];
+			}
+			else {
+				merged[count++] = a[i++];
+				j++;
+			}
+		}
+		while(i < aCount) {
+			merged[count++] = a[i++];
+		}
+		while(j < bCount) {
+			merged[count++] = b[j++];
+		}
+		return count == merged.length ? merged : Arrays.copyOf(merged, count);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Helpers that turn an array container into a bitset and back
+
+	private static long[] toBitset(char[] array, int count) {
+		long[] bitset = new long[BITSET_WORDS];
+		for(int i = 0; i < count; i++) {
+			bitset[array[i] >>> 6] |= 1L << array[i];
+		}
+		return bitset;
+	}
+
+	private static char[] toArray(long[] bitset, int count) {
+		char[] array = new char[count];
+		int position = 0;
+		for(int i = 0; i < BITSET_WORDS; i++) {
+			long word = bitset[i];
+			while(word != 0) {
+				array[position++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+		return array;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class that walks the containers in order, and the Ids of each container in
+	// order
+
+	private class BitmapIterator implements Iterator<Integer> {
+
+		// The container being walked, and the next position in it. For a bitset the position
+		// is the word, and word holds the bits of it not yet returned
+		private int container;
+		private int position;
+		private long word;
+
+		public BitmapIterator() {
+			container = 0;
+			position = 0;
+			if(size > 0 && bitsets[0] != null) {
+				word = bitsets[0][0];
+			}
+		}
+
+		public boolean hasNext() {
+			while(container < size) {
+				if(bitsets[container] == null) {
+					if(position < counts[container]) {
+						return true;
+					}
+				}
+				else {
+					while(word == 0 && position + 1 < BITSET_WORDS) {
+						position++;
+						word = bitsets[container][position];
+					}
+					if(word != 0) {
+						return true;
+					}
+				}
+
+				container++;
+				position = 0;
+				if(container < size && bitsets[container] != null) {
+					word = bitsets[container][0];
+				}
+			}
+			return false;
+		}
+
+		public Integer next() {
+			if(hasNext() == false) {
+				throw new NoSuchElementException();
+			}
+			int high = keys[container] << 16;
+			if(bitsets[container] == null) {
+				return high | arrays[container][position++];
+			}
+			int low = (position << 6) + Long.numberOfTrailingZeros(word);
+			word &= word - 1;
+			return high | low;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package database.helperClasses;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BufferPool {
+
+	// A node held in the pool, with what is needed to evict it
+	public static class Frame {
+
+		// The node and the page it was read from
+		public Node node;
+		public int pageId;
+
+		// The approximate number of bytes the node takes up
+		private int bytes;
+
+		// The table of the index that the frame belongs to, and the pages of that index that
+		// have changed since it was last dumped. Dirty frames are never evicted
+		private Map<Integer, Frame> table;
+		private Set<Integer> dirtyPages;
+
+		// The number of threads using the node. Set to -1 while the frame is being evicted
+		private AtomicInteger pins;
+
+		// Set on every use and cleared by the clock hand as it passes
+		private volatile boolean referenced;
+
+		// Set once the frame has left the pool
+		private boolean removed;
+
+		public Frame(Node node, int bytes, Map<Integer, Frame> table, Set<Integer> dirtyPages) {
+			this.node = node;
+			this.pageId = node.pageId;
+			this.bytes = bytes;
+			this.table = table;
+			this.dirtyPages = dirtyPages;
+			// A new frame is pinned by the thread that created it
+			pins = new AtomicInteger(1);
+			referenced = true;
+		}
+	}
+
+	// The most frames the clock hand passes for one admission, so that a pool full of dirty
+	// frames does not make every admission walk the whole ring
+	private static final int MAX_SWEEP = 256;
+
+	// The number of bytes of nodes the pool tries to stay within. When every frame is pinned
+	// or dirty, the pool goes over it until frames can be evicted again
+	private volatile long capacityBytes;
+
+	// The number of bytes of nodes in the pool
+	private AtomicLong usedBytes;
+
+	// The frames in the order the clock hand passes them, and the position of the hand
+	private ArrayList<Frame> ring;
+	private int hand;
+
+	// The frames pinned by each thread, so that they can be unpinned together once an index
+	// operation is over
+	private ThreadLocal<ArrayList<Frame>> pinned;
+
+	// Run when the pool stays over its capacity because of dirty frames, so that they are
+	// written out and can be evicted. May be null
+	private volatile Runnable dirtyHandler;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the BufferPool class
+
+	public BufferPool(long capacityBytes) {
+		setCapacity(capacityBytes);
+		usedBytes = new AtomicLong();
+		ring = new ArrayList<Frame>();
+		pinned = new ThreadLocal<ArrayList<Frame>>() {
+			protected ArrayList<Frame> initialValue() {
+				return new ArrayList<Frame>();
+			}
+		};
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Changes the number of bytes the pool tries to stay within, evicting frames if needed
+
+	public void setCapacity(long capacityBytes) {
+		if(capacityBytes <= 0) {
+			throw new IllegalArgumentException("The buffer pool size needs to be positive");
+		}
+		this.capacityBytes = capacityBytes;
+		if(usedBytes != null) {
+			boolean tooDirty;
+			synchronized(this) {
+				tooDirty = evict();
+			}
+			if(tooDirty) {
+				handleDirty();
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Sets what is run when the pool cannot get back within its capacity because too many
+	// of its frames are dirty. The handler is run by the thread that admitted a frame, so it
+	// should hand the writing off instead of doing it itself
+
+	public void setDirtyHandler(Runnable dirtyHandler) {
+		this.dirtyHandler = dirtyHandler;
+	}
+
+	private void handleDirty() {
+		Runnable handler = dirtyHandler;
+		if(handler != null) {
+			handler.run();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getters for the capacity and the bytes in use
+
+	public long getCapacity() {
+		return capacityBytes;
+	}
+
+	public long getUsedBytes() {
+		return usedBytes.get();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Pins the frame for the current thread. Returns false if the frame is being evicted, in
+	// which case the node has to be read again
+
+	public boolean pin(Frame frame) {
+		while(true) {
+			int pins = frame.pins.get();
+			if(pins < 0) {
+				return false;
+			}
+			if(frame.pins.compareAndSet(pins, pins + 1)) {
+				frame.referenced = true;
+				pinned.get().add(frame);
+				return true;
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Adds a frame that the current thread has just created and put into its table, and
+	// evicts frames until the pool is within its capacity again
+
+	public void admit(Frame frame) {
+		pinned.get().add(frame);
+		usedBytes.addAndGet(frame.bytes);
+		boolean tooDirty;
+		synchronized(this) {
+			ring.add(frame);
+			tooDirty = evict();
+		}
+		if(tooDirty) {
+			handleDirty();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of frames the current thread has pinned, to be passed to unpinTo
+
+	public int pinMark() {
+		return pinned.get().size();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Unpins the frames the current thread pinned since pinMark returned mark
+
+	public void unpinTo(int mark) {
+		ArrayList<Frame> frames = pinned.get();
+		for(int i = frames.size() - 1; i >= mark; i--) {
+			frames.remove(i).pins.decrementAndGet();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Takes a frame out of the pool and out of its table, when its page is freed or its index
+	// is closed
+
+	public void remove(Frame frame) {
+		synchronized(this) {
+			if(frame.removed == false) {
+				frame.removed = true;
+				frame.table.remove(frame.pageId, frame);
+				usedBytes.addAndGet(-frame.bytes);
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Moves the clock hand over the frames, evicting frames that are neither pinned, dirty
+	// nor used since the hand last passed them, until the pool is within its capacity. Gives
+	// up after two turns of the hand or MAX_SWEEP frames. Returns true if the pool is still
+	// over its capacity and the hand passed dirty frames it could not evict. The caller holds
+	// the lock of the pool
+
+	private boolean evict() {
+		boolean passedDirty = false;
+		int steps = Math.min(2 * ring.size(), MAX_SWEEP);
+		while(usedBytes.get() > capacityBytes && steps-- > 0 && ring.isEmpty() == false) {
+			if(hand >= ring.size()) {
+				hand = 0;
+			}
+			Frame frame = ring.get(hand);
+
+			if(frame.removed) {
+				dropFromRing();
+				continue;
+			}
+
+			if(frame.referenced) {
+				frame.referenced = false;
+				hand++;
+				continue;
+			}
+
+			if(frame.pins.compareAndSet(0, -1)) {
+				// A frame is marked dirty only while it is pinned, so it cannot become dirty
+				// once it has been claimed for eviction
+				if(frame.dirtyPages.contains(frame.pageId)) {
+					frame.pins.set(0);
+					passedDirty = true;
+					hand++;
+					continue;
+				}
+				frame.removed = true;
+				frame.table.remove(frame.pageId, frame);
+				usedBytes.addAndGet(-frame.bytes);
+				dropFromRing();
+				continue;
+			}
+			hand++;
+		}
+		return passedDirty && usedBytes.get() > capacityBytes;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Removes the frame under the clock hand from the ring by moving the last frame into
+	// its place
+
+	private void dropFromRing() {
+		Frame last = ring.remove(ring.size() - 1);
+		if(hand < ring.size()) {
+			ring.set(hand, last);
+		}
+	}
+}
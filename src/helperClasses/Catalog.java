@@ -0,0 +1,78 @@
+package database.helperClasses;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Catalog<T> {
+
+	// The open objects keyed by their name. Lookups do not take any lock, and walking the
+	// values sees every object that stays open while it runs
+	private ConcurrentHashMap<String, T> entries;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the Catalog class
+
+	public Catalog() {
+		entries = new ConcurrentHashMap<String, T>();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the object registered under name, or null if there is none
+
+	public T get(String name) {
+		return entries.get(name);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if an object is registered under name
+
+	public boolean contains(String name) {
+		return entries.containsKey(name);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Registers an object that has just been opened. Of two callers registering the same
+	// name at once, only one succeeds and the other gets an IllegalArgumentException
+
+	public void register(String name, T entry) {
+		if(entries.putIfAbsent(name, entry) != null) {
+			throw new IllegalArgumentException("\"" + name + "\" already exists in memory");
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Removes the object registered under name once it has been closed. Returns the object,
+	// or null if there was none
+
+	public T remove(String name) {
+		return entries.remove(name);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Removes the given object only if it is still the one registered under name
+
+	public boolean remove(String name, T entry) {
+		return entries.remove(name, entry);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a live view of the registered objects
+
+	public Collection<T> values() {
+		return entries.values();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of registered objects
+
+	public int size() {
+		return entries.size();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Removes every object, once they have all been closed
+
+	public void clear() {
+		entries.clear();
+	}
+}
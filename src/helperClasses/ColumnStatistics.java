@@ -0,0 +1,276 @@
+package database.helperClasses;
+
+import java.util.Arrays;
+
+// The distribution of the values of one column, used to estimate how many records a lookup
+// will find. The values are split into buckets holding about the same number of records.
+// A value is never split between buckets, so a value held by many records ends a bucket,
+// and the number of records holding the last value of each bucket is kept exactly
+public class ColumnStatistics {
+
+	// The number of buckets the values are split into, at most
+	public static final int MAX_BUCKETS = 64;
+
+	// The number of characters read when placing a value between the bounds of its bucket
+	private static final int SCALAR_DIGITS = 4;
+
+	// The number of records in the file, and the number of them with a value for the column
+	private int recordCount;
+	private int valueCount;
+
+	// The number of distinct values
+	private int distinctCount;
+
+	// The smallest value, or null if no record has a value
+	private String minValue;
+
+	// For each bucket, its last value, the number of records and distinct values in it, and
+	// the number of records holding its last value
+	private String[] upperValues;
+	private int[] bucketRows;
+	private int[] bucketDistinct;
+	private int[] upperRows;
+
+	// The number of records changed in the file when the statistics were gathered
+	private long changeCount;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the ColumnStatistics class
+
+	private ColumnStatistics() {
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Gathers the statistics of the first numOfValues values, which are sorted in place.
+	// recordCount is the number of records in the file, including those without a value
+
+	public static ColumnStatistics build(String[] values, int numOfValues, int recordCount,
+			long changeCount) {
+		Arrays.sort(values, 0, numOfValues);
+		ColumnStatistics statistics = new ColumnStatistics();
+		statistics.recordCount = recordCount;
+		statistics.valueCount = numOfValues;
+		statistics.changeCount = changeCount;
+		statistics.minValue = numOfValues > 0 ? values[0] : null;
+
+		int numOfBuckets = Math.min(MAX_BUCKETS, Math.max(numOfValues, 1));
+		statistics.upperValues = new String[numOfBuckets];
+		statistics.bucketRows = new int[numOfBuckets];
+		statistics.bucketDistinct = new int[numOfBuckets];
+		statistics.upperRows = new int[numOfBuckets];
+
+		int bucket = 0;
+		int i = 0;
+		while(i < numOfValues) {
+			// A run of records with the same value
+			int end = i + 1;
+			while(end < numOfValues && values[end].equals(values[i])) {
+				end++;
+			}
+			statistics.distinctCount++;
+			statistics.bucketRows[bucket] += end - i;
+			statistics.bucketDistinct[bucket]++;
+			statistics.upperValues[bucket] = values[i];
+			statistics.upperRows[bucket] = end - i;
+
+			// The bucket is closed once it holds its share of the records
+			if(end < numOfValues && end >= (long) numOfValues * (bucket + 1) / numOfBuckets) {
+				bucket++;
+			}
+			i = end;
+		}
+
+		int usedBuckets = numOfValues == 0 ? 0 : bucket + 1;
+		statistics.upperValues = Arrays.copyOf(statistics.upperValues, usedBuckets);
+		statistics.bucketRows = Arrays.copyOf(statistics.bucketRows, usedBuckets);
+		statistics.bucketDistinct = Arrays.copyOf(statistics.bucketDistinct, usedBuckets);
+		statistics.upperRows = Arrays.copyOf(statistics.upperRows, usedBuckets);
+		return statistics;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for recordCount
+
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for valueCount
+
+	public int getValueCount() {
+		return valueCount;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for distinctCount
+
+	public int getDistinctCount() {
+		return distinctCount;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for minValue
+
+	public String getMinValue() {
+		return minValue;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for changeCount
+
+	public long getChangeCount() {
+		return changeCount;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of buckets the values are split into
+
+	public int getBucketCount() {
+		return upperValues.length;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the last value of the bucket
+
+	public String getUpperValue(int bucket) {
+		return upperValues[bucket];
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of records in the bucket
+
+	public int getBucketRows(int bucket) {
+		return bucketRows[bucket];
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of distinct values in the bucket
+
+	public int getBucketDistinct(int bucket) {
+		return bucketDistinct[bucket];
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of records holding the last value of the bucket
+
+	public int getUpperRows(int bucket) {
+		return upperRows[bucket];
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the estimated number of records holding the value. A value that ends a bucket
+	// is known exactly, any other is taken to be as common as the other values of its bucket
+
+	public double equalRows(String value) {
+		int bucket = findBucket(value);
+		if(bucket < 0) {
+			return 0;
+		}
+		if(upperValues[bucket].equals(value)) {
+			return upperRows[bucket];
+		}
+		int otherDistinct = bucketDistinct[bucket] - 1;
+		return otherDistinct == 0 ? 0 : (double) (bucketRows[bucket] - upperRows[bucket]) / otherDistinct;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the estimated number of records whose value lies between 'from' and 'to'. A
+	// null bound leaves that end of the range open
+
+	public double rangeRows(String from, String to, boolean fromInclusive, boolean toInclusive) {
+		double upper = to == null ? valueCount : rowsBelow(to, toInclusive);
+		double lower = from == null ? 0 : rowsBelow(from, fromInclusive == false);
+		return Math.max(0, upper - lower);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the estimated number of records whose value is less than the given value, or
+	// less than or equal to it if inclusive is set. Within the bucket the value falls in,
+	// the values are taken to be spread evenly between the bucket's bounds
+
+	private double rowsBelow(String value, boolean inclusive) {
+		if(minValue == null || value.compareTo(minValue) < 0) {
+			return 0;
+		}
+		int bucket = Arrays.binarySearch(upperValues, value);
+		double rows = 0;
+		if(bucket >= 0) {
+			for(int i = 0; i < bucket; i++) {
+				rows += bucketRows[i];
+			}
+			return rows + bucketRows[bucket] - (inclusive ? 0 : upperRows[bucket]);
+		}
+
+		bucket = -bucket - 1;
+		for(int i = 0; i < bucket; i++) {
+			rows += bucketRows[i];
+		}
+		if(bucket == upperValues.length) {
+			return rows;
+		}
+		String lower = bucket == 0 ? minValue : upperValues[bucket - 1];
+		return rows + (bucketRows[bucket] - upperRows[bucket]) *
+				fraction(value, lower, upperValues[bucket]);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns how far the value lies from 'lower' towards 'upper', between 0 and 1. The few
+	// characters after the prefix the bounds share are read as the digits of a number, in a
+	// base just wide enough for the characters the three strings use
+
+	private static double fraction(String value, String lower, String upper) {
+		int common = 0;
+		while(common < lower.length() && common < upper.length() &&
+				lower.charAt(common) == upper.charAt(common)) {
+			common++;
+		}
+		String[] strings = {value, lower, upper};
+		int minChar = Character.MAX_VALUE;
+		int maxChar = 0;
+		for(int i = 0; i < strings.length; i++) {
+			for(int j = common; j < common + SCALAR_DIGITS && j < strings[i].length(); j++) {
+				minChar = Math.min(minChar, strings[i].charAt(j));
+				maxChar = Math.max(maxChar, strings[i].charAt(j));
+			}
+		}
+		// A missing character counts as a digit below every character used
+		int base = Math.max(maxChar - minChar + 2, 2);
+
+		double low = scalar(lower, common, minChar, base);
+		double high = scalar(upper, common, minChar, base);
+		if(high <= low) {
+			return 0.5;
+		}
+		return Math.max(0, Math.min(1, (scalar(value, common, minChar, base) - low) / (high - low)));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the characters of the string from 'start' as a number between 0 and 1
+
+	private static double scalar(String value, int start, int minChar, int base) {
+		double scalar = 0;
+		double scale = 1;
+		for(int i = start; i < start + SCALAR_DIGITS; i++) {
+			scale /= base;
+			if(i < value.length()) {
+				scalar += (value.charAt(i) - minChar + 1) * scale;
+			}
+		}
+		return scalar;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the bucket the value would fall in, or -1 if it is outside every bucket
+
+	private int findBucket(String value) {
+		if(minValue == null || value.compareTo(minValue) < 0) {
+			return -1;
+		}
+		int bucket = Arrays.binarySearch(upperValues, value);
+		if(bucket < 0) {
+			bucket = -bucket - 1;
+		}
+		return bucket == upperValues.length ? -1 : bucket;
+	}
+}
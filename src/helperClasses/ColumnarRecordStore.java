@@ -0,0 +1,1091 @@
+package database.helperClasses;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// The records are kept in memory, one column at a time. On disk every column is cut into
+// chunks of CHUNK_SIZE records, and a dictionary into chunks of CHUNK_SIZE values, which are
+// appended to a data file. The file named by fileName is a small manifest that says where
+// the current version of every chunk is in the data file. A flush appends only the chunks
+// changed since the last one and then replaces the manifest, so the space taken by the
+// records is never copied in full. The data file is rewritten with only the chunks in use
+// once most of it holds chunks that have been written again since
+public class ColumnarRecordStore implements RecordStore {
+
+	// A number written at the start of the manifest to recognise columnar record files
+	private static final int MAGIC = 0x434f4c53;
+
+	// The number of records room is first made for
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// A column stops being dictionary encoded once it has this many distinct values
+	private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+	// The number of bytes buffered when the manifest is read or written
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// The number of records in a chunk of a column, and of values in a chunk of a dictionary
+	private static final int CHUNK_SIZE = 4096;
+
+	// The data file is not rewritten before it reaches this size
+	private static final long MIN_COMPACT_BYTES = 4L * 1024 * 1024;
+
+	// Where the chunks of a column, or of its dictionary, were last written in the data
+	// file, by chunk number. A chunk that has not been written has an offset of -1
+	private static class Extents {
+		long[] offsets;
+		int[] lengths;
+
+		// Makes the extents of numOfChunks chunks that have not been written
+		Extents(int numOfChunks) {
+			offsets = new long[numOfChunks];
+			Arrays.fill(offsets, -1);
+			lengths = new int[numOfChunks];
+		}
+
+		// Returns a copy with room for at least numOfChunks chunks
+		Extents copy(int numOfChunks) {
+			Extents copy = new Extents(Math.max(numOfChunks, offsets.length));
+			System.arraycopy(offsets, 0, copy.offsets, 0, offsets.length);
+			System.arraycopy(lengths, 0, copy.lengths, 0, lengths.length);
+			return copy;
+		}
+
+		// Returns the number of bytes taken by the chunks that have been written
+		long bytes() {
+			long bytes = 0;
+			for(int i = 0; i < offsets.length; i++) {
+				if(offsets[i] >= 0) {
+					bytes += lengths[i];
+				}
+			}
+			return bytes;
+		}
+	}
+
+	// The values of one column, by record Id
+	private static class Column {
+		String name;
+		int width;
+
+		// While the column is dictionary encoded, its distinct values, the code of each value,
+		// and the code of the value of every record, or -1 if the record has none
+		List<String> dictionary;
+		Map<String, Integer> codes;
+		int[] values;
+
+		// The number of records that use every code, and the codes no record uses any more.
+		// A code no record uses has a null value and is given to the next new value, so the
+		// dictionary only grows with the number of distinct values in use
+		int[] refCounts;
+		List<Integer> freeCodes;
+
+		// Once the column has too many distinct values, the characters of every value packed
+		// width apart, and the length of every value, or -1 if the record has none
+		char[] chars;
+		short[] lengths;
+
+		// The chunks of records and of the dictionary that have changed since the last flush
+		BitSet dirtyChunks;
+		BitSet dirtyDictionary;
+
+		// Where the chunks of records and of the dictionary were last written. Only flush
+		// reads or replaces them
+		Extents chunkExtents;
+		Extents dictionaryExtents;
+
+		// Makes a dictionary encoded column with room for capacity records
+		Column(String name, int width, int capacity) {
+			this.name = name;
+			this.width = width;
+			dictionary = new ArrayList<String>();
+			codes = new HashMap<String, Integer>();
+			values = new int[capacity];
+			Arrays.fill(values, -1);
+			refCounts = new int[16];
+			freeCodes = new ArrayList<Integer>();
+			dirtyChunks = new BitSet();
+			dirtyDictionary = new BitSet();
+			chunkExtents = new Extents(0);
+			dictionaryExtents = new Extents(0);
+		}
+
+		// Returns the value of a record, or null if it has none
+		String get(int recordId) {
+			if(dictionary != null) {
+				int code = values[recordId];
+				return code < 0 ? null : dictionary.get(code);
+			}
+			int length = lengths[recordId];
+			return length < 0 ? null : new String(chars, recordId * width, length);
+		}
+
+		// Sets the value of a record. A null value means the record has none
+		void set(int recordId, String value) {
+			dirtyChunks.set(recordId / CHUNK_SIZE);
+			if(dictionary != null) {
+				int oldCode = values[recordId];
+				if(value == null) {
+					values[recordId] = -1;
+					release(oldCode);
+					return;
+				}
+				Integer code = codes.get(value);
+				if(code == null) {
+					code = newCode(value);
+				}
+				if(code != null) {
+					values[recordId] = code;
+					refCounts[code]++;
+					release(oldCode);
+					return;
+				}
+				pack();
+			}
+
+			if(value == null) {
+				lengths[recordId] = -1;
+				return;
+			}
+			value.getChars(0, value.length(), chars, recordId * width);
+			lengths[recordId] = (short) value.length();
+		}
+
+		// Adds a value to the dictionary, under a code no record uses if there is one, and
+		// returns its code. Returns null if the dictionary is full
+		Integer newCode(String value) {
+			int code;
+			if(freeCodes.isEmpty() == false) {
+				code = freeCodes.remove(freeCodes.size() - 1);
+				dictionary.set(code, value);
+			}
+			else if(dictionary.size() < MAX_DICTIONARY_SIZE) {
+				code = dictionary.size();
+				dictionary.add(value);
+				if(code == refCounts.length) {
+					refCounts = Arrays.copyOf(refCounts, code * 2);
+				}
+			}
+			else {
+				return null;
+			}
+			codes.put(value, code);
+			dirtyDictionary.set(code / CHUNK_SIZE);
+			return code;
+		}
+
+		// Drops a use of a code. The code is freed once no record uses it
+		void release(int code) {
+			if(code < 0 || --refCounts[code] > 0) {
+				return;
+			}
+			codes.remove(dictionary.get(code));
+			dictionary.set(code, null);
+			freeCodes.add(code);
+			dirtyDictionary.set(code / CHUNK_SIZE);
+		}
+
+		// Makes room for capacity records
+		void grow(int capacity) {
+			if(dictionary != null) {
+				int oldCapacity = values.length;
+				values = Arrays.copyOf(values, capacity);
+				Arrays.fill(values, oldCapacity, capacity, -1);
+			}
+			else {
+				int oldCapacity = lengths.length;
+				chars = Arrays.copyOf(chars, packedLength(capacity));
+				lengths = Arrays.copyOf(lengths, capacity);
+				Arrays.fill(lengths, oldCapacity, capacity, (short) -1);
+			}
+		}
+
+		// Replaces the dictionary with the packed characters of every value. Every chunk of
+		// records is written again by the next flush
+		void pack() {
+			int capacity = values.length;
+			chars = new char[packedLength(capacity)];
+			lengths = new short[capacity];
+			for(int i = 0; i < capacity; i++) {
+				int code = values[i];
+				if(code < 0) {
+					lengths[i] = -1;
+					continue;
+				}
+				String value = dictionary.get(code);
+				value.getChars(0, value.length(), chars, i * width);
+				lengths[i] = (short) value.length();
+			}
+			dictionary = null;
+			codes = null;
+			values = null;
+			refCounts = null;
+			freeCodes = null;
+			dirtyDictionary.clear();
+			dirtyChunks.set(0, (capacity + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		}
+
+		// Encodes the records of a chunk up to the highest record Id, as their number followed
+		// by the code or the string of every record
+		byte[] encodeChunk(int chunk, int maxRecId) {
+			int first = chunk * CHUNK_SIZE;
+			int numOfRecords = Math.min(CHUNK_SIZE, maxRecId + 1 - first);
+			int size = 4;
+			if(dictionary != null) {
+				size += 4 * numOfRecords;
+			}
+			else {
+				for(int i = 0; i < numOfRecords; i++) {
+					size += 2 + 2 * Math.max(lengths[first + i], 0);
+				}
+			}
+
+			ByteBuffer bytes = ByteBuffer.allocate(size);
+			bytes.putInt(numOfRecords);
+			for(int i = 0; i < numOfRecords; i++) {
+				if(dictionary != null) {
+					bytes.putInt(values[first + i]);
+					continue;
+				}
+				int length = lengths[first + i];
+				bytes.putShort((short) length);
+				for(int j = 0; j < length; j++) {
+					bytes.putChar(chars[(first + i) * width + j]);
+				}
+			}
+			return bytes.array();
+		}
+
+		// Reads the records of a chunk encoded by encodeChunk
+		void readChunk(int chunk, ByteBuffer bytes) {
+			int first = chunk * CHUNK_SIZE;
+			int numOfRecords = bytes.getInt();
+			for(int i = 0; i < numOfRecords; i++) {
+				if(dictionary != null) {
+					values[first + i] = bytes.getInt();
+					continue;
+				}
+				short length = bytes.getShort();
+				lengths[first + i] = length;
+				for(int j = 0; j < length; j++) {
+					chars[(first + i) * width + j] = bytes.getChar();
+				}
+			}
+		}
+
+		// Encodes the values of a chunk of the dictionary
+		byte[] encodeDictionaryChunk(int chunk) {
+			int first = chunk * CHUNK_SIZE;
+			int numOfValues = Math.min(CHUNK_SIZE, dictionary.size() - first);
+			int size = 4;
+			for(int i = 0; i < numOfValues; i++) {
+				String value = dictionary.get(first + i);
+				size += 2 + (value == null ? 0 : 2 * value.length());
+			}
+
+			ByteBuffer bytes = ByteBuffer.allocate(size);
+			bytes.putInt(numOfValues);
+			for(int i = 0; i < numOfValues; i++) {
+				putString(bytes, dictionary.get(first + i));
+			}
+			return bytes.array();
+		}
+
+		// Reads the values of a chunk of the dictionary encoded by encodeDictionaryChunk
+		void readDictionaryChunk(int chunk, ByteBuffer bytes) {
+			int first = chunk * CHUNK_SIZE;
+			int numOfValues = bytes.getInt();
+			for(int i = 0; i < numOfValues; i++) {
+				dictionary.set(first + i, getString(bytes));
+			}
+		}
+
+		// Counts the records that use every code of the dictionary, and frees the codes that
+		// no record uses
+		void countCodes(int maxRecId) {
+			refCounts = new int[Math.max(16, dictionary.size())];
+			for(int i = 0; i <= maxRecId; i++) {
+				if(values[i] >= 0) {
+					refCounts[values[i]]++;
+				}
+			}
+			for(int i = 0; i < dictionary.size(); i++) {
+				String value = dictionary.get(i);
+				if(value != null && refCounts[i] > 0) {
+					codes.put(value, i);
+					continue;
+				}
+				if(value != null) {
+					dictionary.set(i, null);
+					dirtyDictionary.set(i / CHUNK_SIZE);
+				}
+				freeCodes.add(i);
+			}
+		}
+
+		// Returns the number of characters needed to pack capacity values
+		int packedLength(int capacity) {
+			long length = (long) capacity * width;
+			if(length > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("The column \"" + name + "\" is too wide to hold " +
+						capacity + " records");
+			}
+			return (int) length;
+		}
+	}
+
+	// A chunk of a column, or of its dictionary, encoded when a flush began
+	private static class Chunk {
+		int column;
+		boolean isDictionary;
+		int number;
+		byte[] bytes;
+
+		Chunk(int column, boolean isDictionary, int number, byte[] bytes) {
+			this.column = column;
+			this.isDictionary = isDictionary;
+			this.number = number;
+			this.bytes = bytes;
+		}
+	}
+
+	// What a flush writes, taken under the latch so that it can be written while the
+	// records change: the live bits, the state of every dictionary and the changed chunks
+	private static class Snapshot {
+		int maxRecId;
+		int recordCount;
+		long[] live;
+		boolean[] isEncoded;
+		int[] dictionarySizes;
+		List<Chunk> chunks;
+	}
+
+	// The manifest, the file it is written to first, and the name the data files are
+	// numbered from
+	private Path path;
+	private Path tempPath;
+	private String fileName;
+
+	// The number of the data file in use, its channel and the number of bytes written to it
+	private int generation;
+	private FileChannel dataChannel;
+	private long dataLength;
+
+	// The columns in name order, and keyed by name
+	private Column[] columns;
+	private Map<String, Column> columnsByName;
+
+	// One bit for every record Id, set if the record is live
+	private long[] live;
+
+	// The number of records there is room for
+	private int capacity;
+
+	// The highest record Id that has been stored, and the number of live records
+	private volatile int maxRecId;
+	private volatile int recordCount;
+
+	// Set when a record changes, and cleared when the changes are written to the file
+	private volatile boolean dirty;
+
+	// Reads hold this latch shared and changes hold it exclusively
+	private ReentrantReadWriteLock latch;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the ColumnarRecordStore class
+
+	private ColumnarRecordStore(String fileName, Map<String, Integer> descriptor, int capacity) {
+		this.fileName = fileName;
+		path = Paths.get(fileName);
+		tempPath = Paths.get(fileName + ".tmp");
+		this.capacity = capacity;
+		live = new long[(capacity + 63) / 64];
+		maxRecId = -1;
+		latch = new ReentrantReadWriteLock();
+
+		TreeMap<String, Integer> sorted = new TreeMap<String, Integer>(descriptor);
+		columns = new Column[sorted.size()];
+		columnsByName = new HashMap<String, Column>();
+		int i = 0;
+		Iterator<Map.Entry<String, Integer>> it = sorted.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<String, Integer> entry = it.next();
+			columns[i] = new Column(entry.getKey(), entry.getValue(), capacity);
+			columnsByName.put(entry.getKey(), columns[i]);
+			i++;
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new columnar record file, overwriting any existing file with the same name
+
+	public static ColumnarRecordStore create(String fileName, Map<String, Integer> descriptor)
+	throws IOException {
+		if(Files.exists(Paths.get(fileName)) && isColumnarFile(fileName)) {
+			deleteFiles(fileName);
+		}
+		ColumnarRecordStore store = new ColumnarRecordStore(fileName, descriptor, INITIAL_CAPACITY);
+		store.dataChannel = openData(dataPath(fileName, 0));
+		store.dirty = true;
+		store.flush();
+		return store;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the file specified by fileName is a columnar record file
+
+	public static boolean isColumnarFile(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			return file.length() >= 4 && file.readInt() == MAGIC;
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Opens an existing columnar record file. Every chunk named by the manifest is read into
+	// memory. A data file left behind by a rewrite that a crash cut short is deleted
+
+	public static ColumnarRecordStore open(String fileName) throws IOException {
+		ColumnarRecordStore store;
+		int[] dictionarySizes;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(Paths.get(fileName)), BUFFER_SIZE));
+		try {
+			if(in.readInt() != MAGIC) {
+				throw new IllegalArgumentException("The file \"" + fileName +
+						"\" is not a columnar record file");
+			}
+
+			int generation = in.readInt();
+			int maxRecId = in.readInt();
+			int recordCount = in.readInt();
+			int numColumns = in.readInt();
+			Map<String, Integer> descriptor = new HashMap<String, Integer>();
+			for(int i = 0; i < numColumns; i++) {
+				descriptor.put(in.readUTF(), in.readInt());
+			}
+
+			store = new ColumnarRecordStore(fileName, descriptor,
+					Math.max(INITIAL_CAPACITY, maxRecId + 1));
+			store.generation = generation;
+			store.maxRecId = maxRecId;
+			store.recordCount = recordCount;
+			for(int i = 0; i < (maxRecId + 64) / 64; i++) {
+				store.live[i] = in.readLong();
+			}
+
+			dictionarySizes = new int[numColumns];
+			for(int i = 0; i < numColumns; i++) {
+				Column column = store.columns[i];
+				if(in.readBoolean()) {
+					dictionarySizes[i] = in.readInt();
+					column.dictionaryExtents = readExtents(in);
+				}
+				else {
+					column.pack();
+					column.dirtyChunks.clear();
+				}
+				column.chunkExtents = readExtents(in);
+			}
+		}
+		finally {
+			in.close();
+		}
+
+		Files.deleteIfExists(dataPath(fileName, store.generation - 1));
+		Files.deleteIfExists(dataPath(fileName, store.generation + 1));
+		store.dataChannel = FileChannel.open(dataPath(fileName, store.generation),
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			store.dataLength = store.dataChannel.size();
+			for(int i = 0; i < store.columns.length; i++) {
+				store.readColumn(store.columns[i], dictionarySizes[i]);
+			}
+		}
+		catch(IOException | RuntimeException ex) {
+			store.dataChannel.close();
+			throw ex;
+		}
+		return store;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Deletes the manifest of a columnar record file and its data file. The store must not
+	// be open
+
+	public static void deleteFiles(String fileName) throws IOException {
+		int generation;
+		DataInputStream in = new DataInputStream(Files.newInputStream(Paths.get(fileName)));
+		try {
+			in.readInt();
+			generation = in.readInt();
+		}
+		finally {
+			in.close();
+		}
+		Files.deleteIfExists(dataPath(fileName, generation));
+		Files.deleteIfExists(dataPath(fileName, generation + 1));
+		Files.deleteIfExists(Paths.get(fileName + ".tmp"));
+		Files.deleteIfExists(Paths.get(fileName));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the layout of the records
+
+	public Layout getLayout() {
+		return Layout.COLUMNAR;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the column names and their widths
+
+	public Map<String, Integer> getDescriptor() {
+		Map<String, Integer> descriptor = new HashMap<String, Integer>();
+		for(int i = 0; i < columns.length; i++) {
+			descriptor.put(columns[i].name, columns[i].width);
+		}
+		return descriptor;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for maxRecId
+
+	public int getMaxRecId() {
+		return maxRecId;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of live records
+
+	public int size() {
+		return recordCount;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if there is a live record with the given record Id
+
+	public boolean contains(int recordId) {
+		latch.readLock().lock();
+		try {
+			return isLive(recordId);
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the lowest record Id from the given one on that holds a live record, or -1 if
+	// there is none. The live bits are read a word at a time
+
+	public int nextRecordId(int recordId) {
+		latch.readLock().lock();
+		try {
+			int from = Math.max(recordId, 0);
+			if(from > maxRecId) {
+				return -1;
+			}
+			int word = from >>> 6;
+			int lastWord = maxRecId >>> 6;
+			long bits = live[word] & (-1L << from);
+			while(bits == 0) {
+				if(++word > lastWord) {
+					return -1;
+				}
+				bits = live[word];
+			}
+			int found = (word << 6) + Long.numberOfTrailingZeros(bits);
+			return found <= maxRecId ? found : -1;
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the record with the given record Id, or null if there is none. The record is
+	// put together from its columns
+
+	public Map<String, String> get(int recordId) {
+		latch.readLock().lock();
+		try {
+			if(isLive(recordId) == false) {
+				return null;
+			}
+			Map<String, String> record = new HashMap<String, String>();
+			for(int i = 0; i < columns.length; i++) {
+				String value = columns[i].get(recordId);
+				if(value != null) {
+					record.put(columns[i].name, value);
+				}
+			}
+			return record;
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the value of one column of a record. No other column is touched
+
+	public String getValue(int recordId, String column) {
+		Column columnObj = columnsByName.get(column);
+		if(columnObj == null) {
+			return null;
+		}
+		latch.readLock().lock();
+		try {
+			return isLive(recordId) ? columnObj.get(recordId) : null;
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Stores the record under the given record Id. The values must already have been checked
+	// against the column widths
+
+	public void put(int recordId, Map<String, String> record) {
+		latch.writeLock().lock();
+		try {
+			if(recordId >= capacity) {
+				grow(Math.max(capacity * 2, recordId + 1));
+			}
+			for(int i = 0; i < columns.length; i++) {
+				columns[i].set(recordId, record.get(columns[i].name));
+			}
+			if(isLive(recordId) == false) {
+				live[recordId >>> 6] |= 1L << recordId;
+				recordCount++;
+			}
+			if(recordId > maxRecId) {
+				maxRecId = recordId;
+			}
+			dirty = true;
+		}
+		finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Deletes the record with the given record Id. Returns false if there was no such record.
+	// The values of the record are cleared, so that the dictionary codes they used can be
+	// given to new values
+
+	public boolean remove(int recordId) {
+		latch.writeLock().lock();
+		try {
+			if(isLive(recordId) == false) {
+				return false;
+			}
+			live[recordId >>> 6] &= ~(1L << recordId);
+			for(int i = 0; i < columns.length; i++) {
+				columns[i].set(recordId, null);
+			}
+			recordCount--;
+			dirty = true;
+			return true;
+		}
+		finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the chunks changed since the last flush and then a new manifest. Nothing is
+	// written if no record has changed. The changed chunks are encoded under the latch and
+	// written from there, so records can be changed while the file is written. A record
+	// changed after that is written by the next flush
+
+	public synchronized void flush() throws IOException {
+		Snapshot snapshot;
+		latch.readLock().lock();
+		try {
+			if(dirty == false) {
+				return;
+			}
+			snapshot = snapshot();
+			dirty = false;
+		}
+		finally {
+			latch.readLock().unlock();
+		}
+
+		boolean written = false;
+		try {
+			write(snapshot);
+			written = true;
+		}
+		finally {
+			// The chunks in the snapshot have still to be written
+			if(written == false) {
+				latch.writeLock().lock();
+				try {
+					for(int i = 0; i < snapshot.chunks.size(); i++) {
+						Chunk chunk = snapshot.chunks.get(i);
+						Column column = columns[chunk.column];
+						if(chunk.isDictionary == false) {
+							column.dirtyChunks.set(chunk.number);
+						}
+						else if(column.dictionary != null) {
+							column.dirtyDictionary.set(chunk.number);
+						}
+					}
+					dirty = true;
+				}
+				finally {
+					latch.writeLock().unlock();
+				}
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Closes the data file. The records are held in memory and are not written
+
+	public void close() throws IOException {
+		dataChannel.close();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Closes the store and deletes the manifest and the data file
+
+	public synchronized void delete() throws IOException {
+		close();
+		Files.deleteIfExists(dataPath(fileName, generation));
+		Files.deleteIfExists(tempPath);
+		Files.deleteIfExists(path);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Copies the live bits and the size of every dictionary, and encodes the chunks changed
+	// since the last flush. The latch must be held
+
+	private Snapshot snapshot() {
+		Snapshot snapshot = new Snapshot();
+		snapshot.maxRecId = maxRecId;
+		snapshot.recordCount = recordCount;
+		snapshot.live = Arrays.copyOf(live, (maxRecId + 64) / 64);
+		snapshot.isEncoded = new boolean[columns.length];
+		snapshot.dictionarySizes = new int[columns.length];
+		snapshot.chunks = new ArrayList<Chunk>();
+
+		int numOfChunks = (maxRecId + CHUNK_SIZE) / CHUNK_SIZE;
+		for(int i = 0; i < columns.length; i++) {
+			Column column = columns[i];
+			if(column.dictionary != null) {
+				snapshot.isEncoded[i] = true;
+				snapshot.dictionarySizes[i] = column.dictionary.size();
+				BitSet dirtyDictionary = column.dirtyDictionary;
+				for(int j = dirtyDictionary.nextSetBit(0); j >= 0; j = dirtyDictionary.nextSetBit(j + 1)) {
+					snapshot.chunks.add(new Chunk(i, true, j, column.encodeDictionaryChunk(j)));
+				}
+			}
+			BitSet dirtyChunks = column.dirtyChunks;
+			for(int j = dirtyChunks.nextSetBit(0); j >= 0 && j < numOfChunks;
+					j = dirtyChunks.nextSetBit(j + 1)) {
+				snapshot.chunks.add(new Chunk(i, false, j, column.encodeChunk(j, maxRecId)));
+			}
+			column.dirtyChunks.clear();
+			column.dirtyDictionary.clear();
+		}
+		return snapshot;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Appends the chunks of a snapshot to the data file and replaces the manifest. If the
+	// chunks in use would take up less than half of the data file, they are written to a
+	// new data file instead, and the old one is deleted once the manifest no longer names it
+
+	private void write(Snapshot snapshot) throws IOException {
+		int numOfChunks = (snapshot.maxRecId + CHUNK_SIZE) / CHUNK_SIZE;
+		Extents[] chunkExtents = new Extents[columns.length];
+		Extents[] dictionaryExtents = new Extents[columns.length];
+		for(int i = 0; i < columns.length; i++) {
+			chunkExtents[i] = columns[i].chunkExtents.copy(numOfChunks);
+			dictionaryExtents[i] = snapshot.isEncoded[i] ? columns[i].dictionaryExtents.copy(
+					(snapshot.dictionarySizes[i] + CHUNK_SIZE - 1) / CHUNK_SIZE) : new Extents(0);
+		}
+
+		// The chunks being written replace the ones they were written as before
+		long newBytes = 0;
+		for(int i = 0; i < snapshot.chunks.size(); i++) {
+			Chunk chunk = snapshot.chunks.get(i);
+			Extents extents = chunk.isDictionary ? dictionaryExtents[chunk.column] :
+				chunkExtents[chunk.column];
+			extents.offsets[chunk.number] = -1;
+			newBytes += chunk.bytes.length;
+		}
+		long liveBytes = newBytes;
+		for(int i = 0; i < columns.length; i++) {
+			liveBytes += chunkExtents[i].bytes() + dictionaryExtents[i].bytes();
+		}
+
+		boolean compact = dataLength + newBytes > MIN_COMPACT_BYTES &&
+				dataLength + newBytes > 2 * liveBytes;
+		int newGeneration = compact ? generation + 1 : generation;
+		FileChannel channel = compact ? openData(dataPath(fileName, newGeneration)) : dataChannel;
+		long position = compact ? 0 : dataLength;
+		boolean written = false;
+		try {
+			if(compact) {
+				for(int i = 0; i < columns.length; i++) {
+					position = copyChunks(chunkExtents[i], channel, position);
+					position = copyChunks(dictionaryExtents[i], channel, position);
+				}
+			}
+			for(int i = 0; i < snapshot.chunks.size(); i++) {
+				Chunk chunk = snapshot.chunks.get(i);
+				Extents extents = chunk.isDictionary ? dictionaryExtents[chunk.column] :
+					chunkExtents[chunk.column];
+				extents.offsets[chunk.number] = position;
+				extents.lengths[chunk.number] = chunk.bytes.length;
+				position = writeFully(channel, ByteBuffer.wrap(chunk.bytes), position);
+			}
+			channel.force(true);
+			writeManifest(snapshot, newGeneration, chunkExtents, dictionaryExtents);
+			written = true;
+		}
+		finally {
+			if(compact && written == false) {
+				channel.close();
+				Files.deleteIfExists(dataPath(fileName, newGeneration));
+			}
+		}
+
+		for(int i = 0; i < columns.length; i++) {
+			columns[i].chunkExtents = chunkExtents[i];
+			columns[i].dictionaryExtents = dictionaryExtents[i];
+		}
+		if(compact) {
+			dataChannel.close();
+			Files.deleteIfExists(dataPath(fileName, generation));
+			dataChannel = channel;
+			generation = newGeneration;
+		}
+		dataLength = position;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the manifest to a new file, which then replaces the old one
+
+	private void writeManifest(Snapshot snapshot, int generation, Extents[] chunkExtents,
+			Extents[] dictionaryExtents) throws IOException {
+		FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Channels.newOutputStream(channel), BUFFER_SIZE));
+			out.writeInt(MAGIC);
+			out.writeInt(generation);
+			out.writeInt(snapshot.maxRecId);
+			out.writeInt(snapshot.recordCount);
+			out.writeInt(columns.length);
+			for(int i = 0; i < columns.length; i++) {
+				out.writeUTF(columns[i].name);
+				out.writeInt(columns[i].width);
+			}
+			for(int i = 0; i < snapshot.live.length; i++) {
+				out.writeLong(snapshot.live[i]);
+			}
+			for(int i = 0; i < columns.length; i++) {
+				out.writeBoolean(snapshot.isEncoded[i]);
+				if(snapshot.isEncoded[i]) {
+					out.writeInt(snapshot.dictionarySizes[i]);
+					writeExtents(out, dictionaryExtents[i]);
+				}
+				writeExtents(out, chunkExtents[i]);
+			}
+			out.flush();
+			channel.force(true);
+		}
+		finally {
+			channel.close();
+		}
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		PageFile.syncDirectory(path);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Copies the chunks that have been written from the data file to another one from the
+	// given position on, and points the extents at the copies. Returns the position after
+	// the last copy
+
+	private long copyChunks(Extents extents, FileChannel channel, long position)
+	throws IOException {
+		for(int i = 0; i < extents.offsets.length; i++) {
+			if(extents.offsets[i] < 0) {
+				continue;
+			}
+			position = writeFully(channel, readChunk(extents, i), position);
+			extents.offsets[i] = position - extents.lengths[i];
+		}
+		return position;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Reads the dictionary and the chunks of a column from the data file
+
+	private void readColumn(Column column, int dictionarySize) throws IOException {
+		if(column.dictionary != null) {
+			column.dictionary.addAll(Collections.<String>nCopies(dictionarySize, null));
+			for(int i = 0; i < column.dictionaryExtents.offsets.length; i++) {
+				if(column.dictionaryExtents.offsets[i] >= 0) {
+					column.readDictionaryChunk(i, readChunk(column.dictionaryExtents, i));
+				}
+			}
+		}
+		for(int i = 0; i < column.chunkExtents.offsets.length; i++) {
+			if(column.chunkExtents.offsets[i] >= 0) {
+				column.readChunk(i, readChunk(column.chunkExtents, i));
+			}
+		}
+		if(column.dictionary != null) {
+			column.countCodes(maxRecId);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Reads a chunk from the data file
+
+	private ByteBuffer readChunk(Extents extents, int chunk) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(extents.lengths[chunk]);
+		long offset = extents.offsets[chunk];
+		while(bytes.hasRemaining()) {
+			if(dataChannel.read(bytes, offset + bytes.position()) < 0) {
+				throw new IOException("The data file of \"" + fileName + "\" ends before chunk " +
+						chunk);
+			}
+		}
+		bytes.flip();
+		return bytes;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the path of the data file of fileName with the given number
+
+	private static Path dataPath(String fileName, int generation) {
+		return Paths.get(fileName + ".columns." + generation);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Makes room in every column for newCapacity records
+
+	private void grow(int newCapacity) {
+		live = Arrays.copyOf(live, (newCapacity + 63) / 64);
+		for(int i = 0; i < columns.length; i++) {
+			columns[i].grow(newCapacity);
+		}
+		capacity = newCapacity;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the record with the given record Id is live
+
+	private boolean isLive(int recordId) {
+		if(recordId < 0 || recordId > maxRecId) {
+			return false;
+		}
+		return (live[recordId >>> 6] & (1L << recordId)) != 0;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates an empty data file, overwriting any existing file with the same name
+
+	private static FileChannel openData(Path dataPath) throws IOException {
+		return FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the whole of a buffer at the given position and returns the position after it
+
+	private static long writeFully(FileChannel channel, ByteBuffer bytes, long position)
+	throws IOException {
+		while(bytes.hasRemaining()) {
+			position += channel.write(bytes, position);
+		}
+		return position;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the extents of the chunks of a column or a dictionary to the manifest
+
+	private static void writeExtents(DataOutputStream out, Extents extents) throws IOException {
+		out.writeInt(extents.offsets.length);
+		for(int i = 0; i < extents.offsets.length; i++) {
+			out.writeLong(extents.offsets[i]);
+			out.writeInt(extents.lengths[i]);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Reads extents written by writeExtents
+
+	private static Extents readExtents(DataInputStream in) throws IOException {
+		Extents extents = new Extents(in.readInt());
+		for(int i = 0; i < extents.offsets.length; i++) {
+			extents.offsets[i] = in.readLong();
+			extents.lengths[i] = in.readInt();
+		}
+		return extents;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Puts a string, or a null, as its length followed by its characters
+
+	private static void putString(ByteBuffer bytes, String value) {
+		if(value == null) {
+			bytes.putShort((short) -1);
+			return;
+		}
+		bytes.putShort((short) value.length());
+		for(int i = 0; i < value.length(); i++) {
+			bytes.putChar(value.charAt(i));
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Gets a string put by putString
+
+	private static String getString(ByteBuffer bytes) {
+		int length = bytes.getShort();
+		if(length < 0) {
+			return null;
+		}
+		char[] chars = new char[length];
+		for(int i = 0; i < length; i++) {
+			chars[i] = bytes.getChar();
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,157 @@
+package database.helperClasses;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DelimitedReader implements Closeable {
+
+	// The delimiters of comma and tab separated files
+	public static final char CSV = ',';
+	public static final char TSV = '\t';
+
+	// The number of bytes read from the file at a time, and of characters buffered
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	// The reader over the file, and the character that separates the fields of a row
+	private Reader reader;
+	private char delimiter;
+
+	// The number of the line the next row starts on, counting from 1
+	private long lineNumber;
+
+	// A character read ahead of the current row, or -2 if there is none
+	private int pushedBack;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the DelimitedReader class. The file is read as UTF-8
+
+	public DelimitedReader(String fileName, char delimiter) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		this.reader = new BufferedReader(Channels.newReader(channel,
+				StandardCharsets.UTF_8.newDecoder()
+						.onMalformedInput(CodingErrorAction.REPORT)
+						.onUnmappableCharacter(CodingErrorAction.REPORT), BUFFER_SIZE), BUFFER_SIZE);
+		this.delimiter = delimiter;
+		lineNumber = 1;
+		pushedBack = -2;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of the line the next row starts on
+
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Reads the next row, or returns null at the end of the file. Fields may be quoted with
+	// double quotes, in which case they may hold the delimiter, line breaks and doubled
+	// quotes. An empty field that is not quoted is returned as null, so that it can be told
+	// from a quoted empty string, and an empty line is returned as a row with no fields.
+	// Rows may end with a line feed, a carriage return or both
+
+	public List<String> readRow() throws IOException {
+		int c = read();
+		if(c == -1) {
+			return null;
+		}
+
+		long firstLine = lineNumber;
+		List<String> row = new ArrayList<String>();
+		if(c == '\n' || c == '\r') {
+			endLine(c);
+			return row;
+		}
+
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		while(true) {
+			if(c == '"' && field.length() == 0 && quoted == false) {
+				quoted = true;
+				// A quoted field runs to the next quote that is not doubled
+				while(true) {
+					c = read();
+					if(c == -1) {
+						throw new IllegalArgumentException("Line " + firstLine +
+								": a quoted field is not closed");
+					}
+					if(c == '"') {
+						c = read();
+						if(c != '"') {
+							break;
+						}
+					}
+					else if(c == '\n') {
+						lineNumber++;
+					}
+					field.append((char) c);
+				}
+				if(c != delimiter && c != '\n' && c != '\r' && c != -1) {
+					throw new IllegalArgumentException("Line " + lineNumber +
+							": a quoted field is followed by \"" + (char) c + "\"");
+				}
+				continue;
+			}
+
+			if(c == delimiter) {
+				row.add(field.length() == 0 && quoted == false ? null : field.toString());
+				field.setLength(0);
+				quoted = false;
+			}
+			else if(c == '\n' || c == '\r' || c == -1) {
+				row.add(field.length() == 0 && quoted == false ? null : field.toString());
+				if(c != -1) {
+					endLine(c);
+				}
+				return row;
+			}
+			else {
+				field.append((char) c);
+			}
+			c = read();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Closes the file
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Counts the line ended by the line feed or carriage return c, reading the line feed
+	// that may follow a carriage return
+
+	private void endLine(int c) throws IOException {
+		if(c == '\r') {
+			int next = read();
+			if(next != '\n') {
+				pushedBack = next;
+			}
+		}
+		lineNumber++;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the next character, or -1 at the end of the file
+
+	private int read() throws IOException {
+		if(pushedBack != -2) {
+			int c = pushedBack;
+			pushedBack = -2;
+			return c;
+		}
+		return reader.read();
+	}
+}
@@ -0,0 +1,90 @@
+package database.helperClasses;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+public class DelimitedWriter implements Closeable {
+
+	// The channel to the file, the writer over it, and the character that separates the
+	// fields of a row
+	private FileChannel channel;
+	private Writer writer;
+	private char delimiter;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the DelimitedWriter class. The file is created, or emptied if it
+	// exists, and written as UTF-8
+
+	public DelimitedWriter(String fileName, char delimiter) throws IOException {
+		channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(),
+				DelimitedReader.BUFFER_SIZE), DelimitedReader.BUFFER_SIZE);
+		this.delimiter = delimiter;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes one row. A field is quoted if it holds the delimiter, a quote or a line break.
+	// A null field is written as nothing and an empty one as two quotes, so that a reader
+	// can tell them apart
+
+	public void writeRow(List<String> row) throws IOException {
+		for(int i = 0; i < row.size(); i++) {
+			if(i > 0) {
+				writer.write(delimiter);
+			}
+			writeField(row.get(i));
+		}
+		writer.write('\n');
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the rows still buffered, forces the file to disk and closes it
+
+	public void close() throws IOException {
+		try {
+			writer.flush();
+			channel.force(true);
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes a field, quoting it if needed
+
+	private void writeField(String field) throws IOException {
+		if(field == null) {
+			return;
+		}
+		boolean quote = field.isEmpty();
+		for(int i = 0; i < field.length() && quote == false; i++) {
+			char c = field.charAt(i);
+			quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+		}
+
+		if(quote == false) {
+			writer.write(field);
+			return;
+		}
+
+		writer.write('"');
+		for(int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			if(c == '"') {
+				writer.write('"');
+			}
+			writer.write(c);
+		}
+		writer.write('"');
+	}
+}
@@ -0,0 +1,153 @@
+package database.helperClasses;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram {
+
+	// The counts and percentiles of a histogram at one moment. Times are in nanoseconds
+	public static class Snapshot {
+		public long count;
+		public long totalNanos;
+		public long p50;
+		public long p90;
+		public long p99;
+		public long p999;
+		public long max;
+
+		// Returns the mean time, or 0 if nothing was recorded
+		public double mean() {
+			return count == 0 ? 0 : (double) totalNanos / count;
+		}
+	}
+
+	// Every power of two is split into this many buckets, which keeps the error of a
+	// percentile under one in SUB_BUCKETS
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// Enough buckets for any positive long
+	private static final int NUM_OF_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	// The number of times recorded in each bucket
+	private AtomicLongArray buckets;
+
+	// The sum of the times recorded. Kept in an adder since every thread that records a
+	// time updates it
+	private LongAdder totalNanos;
+
+	// The longest time recorded
+	private AtomicLong max;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the LatencyHistogram class
+
+	public LatencyHistogram() {
+		buckets = new AtomicLongArray(NUM_OF_BUCKETS);
+		totalNanos = new LongAdder();
+		max = new AtomicLong();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Records one time in nanoseconds. Takes no lock, so it can be called on every operation
+
+	public void record(long nanos) {
+		if(nanos < 0) {
+			nanos = 0;
+		}
+		buckets.incrementAndGet(bucketOf(nanos));
+		totalNanos.add(nanos);
+
+		long longest = max.get();
+		while(nanos > longest && max.compareAndSet(longest, nanos) == false) {
+			longest = max.get();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Records the time since startNanos, a value returned by System.nanoTime
+
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the counts and percentiles recorded so far. Times recorded while the snapshot
+	// is taken may or may not be in it
+
+	public Snapshot snapshot() {
+		long[] counts = new long[NUM_OF_BUCKETS];
+		long total = 0;
+		for(int i = 0; i < NUM_OF_BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+
+		Snapshot snapshot = new Snapshot();
+		snapshot.count = total;
+		snapshot.totalNanos = totalNanos.sum();
+		snapshot.max = max.get();
+		snapshot.p50 = percentile(counts, total, 0.5, snapshot.max);
+		snapshot.p90 = percentile(counts, total, 0.9, snapshot.max);
+		snapshot.p99 = percentile(counts, total, 0.99, snapshot.max);
+		snapshot.p999 = percentile(counts, total, 0.999, snapshot.max);
+		return snapshot;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Clears everything recorded so far
+
+	public void reset() {
+		for(int i = 0; i < NUM_OF_BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		totalNanos.reset();
+		max.set(0);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the highest time in the bucket that holds the given fraction of the recorded
+	// times, but no more than the longest time recorded
+
+	private static long percentile(long[] counts, long total, double fraction, long max) {
+		if(total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * fraction);
+		long seen = 0;
+		for(int i = 0; i < NUM_OF_BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return Math.min(highestIn(i), max);
+			}
+		}
+		return max;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the bucket for a time. Times below SUB_BUCKETS get a bucket each. Above that,
+	// every power of two is split into SUB_BUCKETS equal buckets
+
+	private static int bucketOf(long nanos) {
+		if(nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+		int shift = magnitude - SUB_BUCKET_BITS;
+		int subBucket = (int) (nanos >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the highest time that falls into a bucket
+
+	private static long highestIn(int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,314 @@
+package database.helperClasses;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class LogRecord {
+
+	// The kinds of changes that are written to the log. A checkpoint record starts every log
+	// and names the files and indexes that were open when the log was last truncated
+	public static final byte CHECKPOINT = 1;
+	public static final byte CREATE_FILE = 2;
+	public static final byte RESTORE_FILE = 3;
+	public static final byte DROP_FILE = 4;
+	public static final byte INSERT = 5;
+	public static final byte DELETE = 6;
+	public static final byte CREATE_INDEX = 7;
+	public static final byte RESTORE_INDEX = 8;
+	public static final byte DROP_INDEX = 9;
+	public static final byte CREATE_BITMAP_INDEX = 10;
+	public static final byte CREATE_HASH_INDEX = 11;
+
+	// The kind of change
+	public byte type;
+
+	// The file that was changed. Not used by checkpoint records
+	public String fileName;
+
+	// The index that was created, restored or dropped
+	public String indexName;
+
+	// The column and the shape of a created index. A composite index has all of its columns
+	// in columns, the first of them also in column. includedColumns are the columns whose
+	// values its entries carry
+	public String column;
+	public List<String> columns;
+	public List<String> includedColumns;
+	public int fanout;
+	public double fillFactor;
+
+	// The record Id and the values of an inserted or deleted record
+	public int recordId;
+	public Map<String, String> record;
+
+	// The descriptor and the layout of a created file
+	public Map<String, Integer> descriptor;
+	public RecordStore.Layout layout;
+
+	// The open files, and the indexes open over each of them, at a checkpoint
+	public Map<String, List<String>> openIndexes;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the LogRecord class
+
+	private LogRecord(byte type, String fileName) {
+		this.type = type;
+		this.fileName = fileName;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Methods that build a record for each kind of change
+
+	public static LogRecord checkpoint(Map<String, List<String>> openIndexes) {
+		LogRecord logRecord = new LogRecord(CHECKPOINT, null);
+		logRecord.openIndexes = openIndexes;
+		return logRecord;
+	}
+
+	public static LogRecord createFile(String fileName, Map<String, Integer> descriptor,
+			RecordStore.Layout layout) {
+		LogRecord logRecord = new LogRecord(CREATE_FILE, fileName);
+		logRecord.descriptor = descriptor;
+		logRecord.layout = layout;
+		return logRecord;
+	}
+
+	public static LogRecord restoreFile(String fileName) {
+		return new LogRecord(RESTORE_FILE, fileName);
+	}
+
+	public static LogRecord dropFile(String fileName) {
+		return new LogRecord(DROP_FILE, fileName);
+	}
+
+	public static LogRecord insert(String fileName, int recordId, Map<String, String> record) {
+		LogRecord logRecord = new LogRecord(INSERT, fileName);
+		logRecord.recordId = recordId;
+		logRecord.record = record;
+		return logRecord;
+	}
+
+	public static LogRecord delete(String fileName, int recordId, Map<String, String> record) {
+		LogRecord logRecord = new LogRecord(DELETE, fileName);
+		logRecord.recordId = recordId;
+		logRecord.record = record;
+		return logRecord;
+	}
+
+	public static LogRecord createIndex(String fileName, String indexName, List<String> columns,
+			List<String> includedColumns, int fanout, double fillFactor) {
+		LogRecord logRecord = new LogRecord(CREATE_INDEX, fileName);
+		logRecord.indexName = indexName;
+		logRecord.column = columns.get(0);
+		logRecord.columns = columns;
+		logRecord.includedColumns = includedColumns;
+		logRecord.fanout = fanout;
+		logRecord.fillFactor = fillFactor;
+		return logRecord;
+	}
+
+	public static LogRecord createBitmapIndex(String fileName, String indexName, String column) {
+		LogRecord logRecord = new LogRecord(CREATE_BITMAP_INDEX, fileName);
+		logRecord.indexName = indexName;
+		logRecord.column = column;
+		return logRecord;
+	}
+
+	public static LogRecord createHashIndex(String fileName, String indexName, String column) {
+		LogRecord logRecord = new LogRecord(CREATE_HASH_INDEX, fileName);
+		logRecord.indexName = indexName;
+		logRecord.column = column;
+		return logRecord;
+	}
+
+	public static LogRecord restoreIndex(String fileName, String indexName) {
+		LogRecord logRecord = new LogRecord(RESTORE_INDEX, fileName);
+		logRecord.indexName = indexName;
+		return logRecord;
+	}
+
+	public static LogRecord dropIndex(String fileName, String indexName) {
+		LogRecord logRecord = new LogRecord(DROP_INDEX, fileName);
+		logRecord.indexName = indexName;
+		return logRecord;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the record into a byte array, without the length and checksum that frame it in
+	// the log
+
+	public byte[] encode() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(type);
+			switch(type) {
+			case CHECKPOINT:
+				out.writeInt(openIndexes.size());
+				Iterator<Map.Entry<String, List<String>>> fileIt = openIndexes.entrySet().iterator();
+				while(fileIt.hasNext()) {
+					Map.Entry<String, List<String>> entry = fileIt.next();
+					out.writeUTF(entry.getKey());
+					out.writeInt(entry.getValue().size());
+					for(int i = 0; i < entry.getValue().size(); i++) {
+						out.writeUTF(entry.getValue().get(i));
+					}
+				}
+				break;
+			case CREATE_FILE:
+				out.writeUTF(fileName);
+				out.writeInt(descriptor.size());
+				Iterator<Map.Entry<String, Integer>> columnIt = descriptor.entrySet().iterator();
+				while(columnIt.hasNext()) {
+					Map.Entry<String, Integer> entry = columnIt.next();
+					out.writeUTF(entry.getKey());
+					out.writeInt(entry.getValue());
+				}
+				out.writeByte(layout.ordinal());
+				break;
+			case INSERT:
+			case DELETE:
+				out.writeUTF(fileName);
+				out.writeInt(recordId);
+				out.writeInt(record.size());
+				Iterator<Map.Entry<String, String>> valueIt = record.entrySet().iterator();
+				while(valueIt.hasNext()) {
+					Map.Entry<String, String> entry = valueIt.next();
+					out.writeUTF(entry.getKey());
+					out.writeUTF(entry.getValue());
+				}
+				break;
+			case CREATE_INDEX:
+				out.writeUTF(fileName);
+				out.writeUTF(indexName);
+				out.writeUTF(column);
+				out.writeInt(fanout);
+				out.writeDouble(fillFactor);
+				out.writeInt(columns.size());
+				for(int i = 1; i < columns.size(); i++) {
+					out.writeUTF(columns.get(i));
+				}
+				out.writeInt(includedColumns.size());
+				for(int i = 0; i < includedColumns.size(); i++) {
+					out.writeUTF(includedColumns.get(i));
+				}
+				break;
+			case CREATE_BITMAP_INDEX:
+			case CREATE_HASH_INDEX:
+				out.writeUTF(fileName);
+				out.writeUTF(indexName);
+				out.writeUTF(column);
+				break;
+			case RESTORE_INDEX:
+			case DROP_INDEX:
+				out.writeUTF(fileName);
+				out.writeUTF(indexName);
+				break;
+			default:
+				out.writeUTF(fileName);
+			}
+			out.flush();
+		}
+		catch(IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return bytes.toByteArray();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Reads a record written by encode
+
+	public static LogRecord decode(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte type = in.readByte();
+		LogRecord logRecord = new LogRecord(type, null);
+		switch(type) {
+		case CHECKPOINT:
+			int numOfFiles = in.readInt();
+			logRecord.openIndexes = new LinkedHashMap<String, List<String>>();
+			for(int i = 0; i < numOfFiles; i++) {
+				String fileName = in.readUTF();
+				int numOfIndexes = in.readInt();
+				List<String> indexNames = new ArrayList<String>();
+				for(int j = 0; j < numOfIndexes; j++) {
+					indexNames.add(in.readUTF());
+				}
+				logRecord.openIndexes.put(fileName, indexNames);
+			}
+			break;
+		case CREATE_FILE:
+			logRecord.fileName = in.readUTF();
+			int numOfColumns = in.readInt();
+			logRecord.descriptor = new HashMap<String, Integer>();
+			for(int i = 0; i < numOfColumns; i++) {
+				logRecord.descriptor.put(in.readUTF(), in.readInt());
+			}
+			// Logs written before files had a layout end here
+			if(in.available() > 0) {
+				logRecord.layout = RecordStore.Layout.values()[in.readByte()];
+			}
+			else {
+				logRecord.layout = RecordStore.Layout.ROW;
+			}
+			break;
+		case INSERT:
+		case DELETE:
+			logRecord.fileName = in.readUTF();
+			logRecord.recordId = in.readInt();
+			int numOfValues = in.readInt();
+			logRecord.record = new HashMap<String, String>();
+			for(int i = 0; i < numOfValues; i++) {
+				logRecord.record.put(in.readUTF(), in.readUTF());
+			}
+			break;
+		case CREATE_INDEX:
+			logRecord.fileName = in.readUTF();
+			logRecord.indexName = in.readUTF();
+			logRecord.column = in.readUTF();
+			logRecord.fanout = in.readInt();
+			logRecord.fillFactor = in.readDouble();
+			logRecord.columns = new ArrayList<String>();
+			logRecord.columns.add(logRecord.column);
+			// Logs written before composite indexes end here
+			int numOfIndexColumns = in.available() > 0 ? in.readInt() : 1;
+			for(int i = 1; i < numOfIndexColumns; i++) {
+				logRecord.columns.add(in.readUTF());
+			}
+			// Logs written before included columns end here
+			logRecord.includedColumns = new ArrayList<String>();
+			int numOfIncluded = in.available() > 0 ? in.readInt() : 0;
+			for(int i = 0; i < numOfIncluded; i++) {
+				logRecord.includedColumns.add(in.readUTF());
+			}
+			break;
+		case CREATE_BITMAP_INDEX:
+		case CREATE_HASH_INDEX:
+			logRecord.fileName = in.readUTF();
+			logRecord.indexName = in.readUTF();
+			logRecord.column = in.readUTF();
+			break;
+		case RESTORE_INDEX:
+		case DROP_INDEX:
+			logRecord.fileName = in.readUTF();
+			logRecord.indexName = in.readUTF();
+			break;
+		case RESTORE_FILE:
+		case DROP_FILE:
+			logRecord.fileName = in.readUTF();
+			break;
+		default:
+			throw new IOException("Unknown log record type " + type);
+		}
+		return logRecord;
+	}
+}
@@ -0,0 +1,601 @@
+package database.helperClasses;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class MappedRecordStore implements RecordStore {
+
+	// A number written at the start of the header to recognise record files
+	private static final int MAGIC = 0x52454353;
+
+	// The header is padded to a multiple of this size so that the slots start on a page
+	private static final int HEADER_ALIGNMENT = 4096;
+
+	// The approximate number of bytes mapped at a time
+	private static final int SEGMENT_BYTES = 4 * 1024 * 1024;
+
+	// The status byte of a slot that holds a record
+	private static final byte LIVE = 1;
+
+	// The status byte of a slot that is empty or whose record has been deleted
+	private static final byte EMPTY = 0;
+
+	// The number of locks that the slots are spread over
+	private static final int NUM_SLOT_LOCKS = 64;
+
+	// The name of the file, the file and its channel through which the segments are mapped
+	private String fileName;
+	private RandomAccessFile file;
+	private FileChannel channel;
+
+	// The column names in the order they are laid out in a slot, and their widths
+	private String[] columns;
+	private int[] widths;
+
+	// The byte offset of every column within a slot
+	private int[] offsets;
+
+	// The position of every column in columns, keyed by column name
+	private Map<String, Integer> columnPositions;
+
+	// The size of the header, of a slot and of a segment in bytes
+	private int headerSize;
+	private int slotSize;
+	private int slotsPerSegment;
+
+	// The segments of the file that have been mapped so far. The array is replaced, never
+	// changed in place, when a new segment is mapped
+	private volatile Segment[] segments;
+
+	// Locks that keep a record from being read while it is half written. A slot uses the
+	// lock given by its record Id modulo NUM_SLOT_LOCKS
+	private ReentrantReadWriteLock[] slotLocks;
+
+	// The highest record Id that has been stored
+	private AtomicInteger maxRecId;
+
+	// The number of live records
+	private AtomicInteger recordCount;
+
+	// The record count written in the header while a flush is writing status bytes. A file
+	// left with it by a crash has its records counted again when it is opened
+	private static final int UNKNOWN_COUNT = -1;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the MappedRecordStore class
+
+	private MappedRecordStore(String fileName, RandomAccessFile file,
+			Map<String, Integer> descriptor) {
+		this.fileName = fileName;
+		this.file = file;
+		channel = file.getChannel();
+		segments = new Segment[0];
+		maxRecId = new AtomicInteger(-1);
+		recordCount = new AtomicInteger();
+		slotLocks = new ReentrantReadWriteLock[NUM_SLOT_LOCKS];
+		for(int i = 0; i < NUM_SLOT_LOCKS; i++) {
+			slotLocks[i] = new ReentrantReadWriteLock();
+		}
+
+		TreeMap<String, Integer> sorted = new TreeMap<String, Integer>(descriptor);
+		columns = new String[sorted.size()];
+		widths = new int[sorted.size()];
+		offsets = new int[sorted.size()];
+		columnPositions = new HashMap<String, Integer>();
+
+		int i = 0;
+		int headerBytes = 6 * 4;
+		slotSize = 1;
+		Iterator<Map.Entry<String, Integer>> it = sorted.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<String, Integer> entry = it.next();
+			columns[i] = entry.getKey();
+			widths[i] = entry.getValue();
+			offsets[i] = slotSize;
+			columnPositions.put(columns[i], i);
+			slotSize += 2 + 2 * widths[i];
+			headerBytes += 2 + 2 * columns[i].length() + 4;
+			i++;
+		}
+
+		headerSize = ((headerBytes + HEADER_ALIGNMENT - 1) / HEADER_ALIGNMENT) * HEADER_ALIGNMENT;
+		slotsPerSegment = Math.max(1, SEGMENT_BYTES / slotSize);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new record file laid out by the descriptor, overwriting any existing file
+	// with the same name
+
+	public static MappedRecordStore create(String fileName, Map<String, Integer> descriptor)
+	throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		file.setLength(0);
+		MappedRecordStore store = new MappedRecordStore(fileName, file, descriptor);
+		store.writeHeader(0);
+		return store;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Opens an existing record file. Only the header is read, the slots are mapped as they
+	// are reached, unless a crash cut a flush short. The records are then counted from the
+	// status bytes, since the count in the header may not match them
+
+	public static MappedRecordStore open(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		ByteBuffer header = ByteBuffer.allocate(HEADER_ALIGNMENT);
+		file.getChannel().read(header, 0);
+		header.flip();
+
+		if(header.remaining() < 24 || header.getInt() != MAGIC) {
+			file.close();
+			throw new IllegalArgumentException("The file \"" + fileName +
+					"\" is not a record file");
+		}
+
+		int headerSize = header.getInt();
+		if(headerSize > header.capacity()) {
+			header = ByteBuffer.allocate(headerSize);
+			file.getChannel().read(header, 0);
+			header.flip();
+			header.position(8);
+		}
+
+		int maxRecId = header.getInt();
+		int recordCount = header.getInt();
+		header.getInt();
+		int numColumns = header.getInt();
+
+		Map<String, Integer> descriptor = new HashMap<String, Integer>();
+		for(int i = 0; i < numColumns; i++) {
+			char[] name = new char[header.getShort()];
+			for(int j = 0; j < name.length; j++) {
+				name[j] = header.getChar();
+			}
+			descriptor.put(new String(name), header.getInt());
+		}
+
+		MappedRecordStore store = new MappedRecordStore(fileName, file, descriptor);
+		store.maxRecId.set(maxRecId);
+		store.recordCount.set(recordCount == UNKNOWN_COUNT ? store.countRecords() : recordCount);
+		return store;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the layout of the records
+
+	public Layout getLayout() {
+		return Layout.ROW;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the descriptor the slots are laid out by
+
+	public Map<String, Integer> getDescriptor() {
+		Map<String, Integer> descriptor = new HashMap<String, Integer>();
+		for(int i = 0; i < columns.length; i++) {
+			descriptor.put(columns[i], widths[i]);
+		}
+		return descriptor;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for maxRecId
+
+	public int getMaxRecId() {
+		return maxRecId.get();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of live records
+
+	public int size() {
+		return recordCount.get();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A private class for a mapped part of the file. It keeps one bit for every slot in it,
+	// set if the slot holds a live record, so that finding the live records does not read
+	// the slots themselves.
+	// The live bits are what the store goes by. The status bytes of the slots are written
+	// from them only by flush, which runs at a checkpoint together with the dump of every
+	// index. The kernel may write a mapped page back at any moment, so a status byte written
+	// with the change would reach disk ahead of the change's log record, and a crash could
+	// leave a record deleted, or an insert visible, that neither the log nor the checkpointed
+	// indexes know of. The values of an inserted record may reach disk early, but without a
+	// live status byte they are never read
+
+	private static class Segment {
+
+		MappedByteBuffer buffer;
+		AtomicLongArray live;
+
+		// One bit for every slot whose live bit has changed since its status byte was written
+		AtomicLongArray changed;
+
+		// Set once the segment has been written to since the last flush
+		volatile boolean dirty;
+
+		Segment(MappedByteBuffer buffer, long[] live) {
+			this.buffer = buffer;
+			this.live = new AtomicLongArray(live);
+			changed = new AtomicLongArray(live.length);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the segment holding the slot of recordId, mapping it if needed
+
+	private Segment segment(int recordId) {
+		int segmentNo = recordId / slotsPerSegment;
+		Segment[] mapped = segments;
+		if(segmentNo < mapped.length && mapped[segmentNo] != null) {
+			return mapped[segmentNo];
+		}
+		return mapSegment(segmentNo);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Maps the segment specified by segmentNo and publishes it in a new segments array. The
+	// live bits are read from the status bytes, unless the segment lies past the end of the
+	// file and so holds nothing yet. A slot past maxRecId has not been put since the file was
+	// opened, so a live status byte there is a leftover of an insert that was lost, and is
+	// left out
+
+	private synchronized Segment mapSegment(int segmentNo) {
+		Segment[] mapped = segments;
+		if(segmentNo < mapped.length && mapped[segmentNo] != null) {
+			return mapped[segmentNo];
+		}
+
+		long segmentBytes = (long) slotsPerSegment * slotSize;
+		long start = headerSize + segmentNo * segmentBytes;
+		MappedByteBuffer buffer;
+		boolean written;
+		try {
+			written = start < channel.size();
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, start, segmentBytes);
+		}
+		catch(IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+
+		long[] live = new long[(slotsPerSegment + 63) / 64];
+		if(written) {
+			long lastSlot = Math.min(slotsPerSegment - 1,
+					maxRecId.get() - (long) segmentNo * slotsPerSegment);
+			for(int i = 0; i <= lastSlot; i++) {
+				if(buffer.get(i * slotSize) == LIVE) {
+					live[i >>> 6] |= 1L << i;
+				}
+			}
+		}
+		Segment segment = new Segment(buffer, live);
+
+		Segment[] grown = new Segment[Math.max(mapped.length, segmentNo + 1)];
+		System.arraycopy(mapped, 0, grown, 0, mapped.length);
+		grown[segmentNo] = segment;
+		segments = grown;
+		return segment;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the offset of the slot of recordId within its segment
+
+	private int slotOffset(int recordId) {
+		return (recordId % slotsPerSegment) * slotSize;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Sets or clears the live bit of the slot of recordId, and marks its status byte to be
+	// written by the next flush. The caller holds the slot's write lock, but the other slots
+	// sharing the words may be changed at the same time
+
+	private void setLive(Segment segment, int recordId, boolean isLive) {
+		int index = recordId % slotsPerSegment;
+		setBit(segment.live, index, isLive);
+		setBit(segment.changed, index, true);
+		segment.dirty = true;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Sets or clears one bit of an array of bits that other threads may change at once
+
+	private static void setBit(AtomicLongArray bits, int index, boolean set) {
+		long bit = 1L << index;
+		long word;
+		do {
+			word = bits.get(index >>> 6);
+		} while(bits.compareAndSet(index >>> 6, word, set ? word | bit : word & ~bit) == false);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the live bit of the slot of recordId is set
+
+	private boolean isLive(Segment segment, int recordId) {
+		int index = recordId % slotsPerSegment;
+		return (segment.live.get(index >>> 6) & (1L << index)) != 0;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if there is a live record with the given record Id
+
+	public boolean contains(int recordId) {
+		if(recordId < 0 || recordId > maxRecId.get()) {
+			return false;
+		}
+		return isLive(segment(recordId), recordId);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the lowest record Id from the given one on that holds a live record, or -1 if
+	// there is none. The live bits are read a word at a time, a segment after another
+
+	public int nextRecordId(int recordId) {
+		int max = maxRecId.get();
+		int from = Math.max(recordId, 0);
+		while(from <= max) {
+			AtomicLongArray live = segment(from).live;
+			int index = from % slotsPerSegment;
+			int word = index >>> 6;
+			long bits = live.get(word) & (-1L << index);
+			while(bits == 0 && ++word < live.length()) {
+				bits = live.get(word);
+			}
+			if(bits != 0) {
+				int found = from - index + (word << 6) + Long.numberOfTrailingZeros(bits);
+				return found <= max ? found : -1;
+			}
+			// On to the first slot of the next segment
+			from += slotsPerSegment - index;
+		}
+		return -1;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the record with the given record Id, or null if there is none
+
+	public Map<String, String> get(int recordId) {
+		if(contains(recordId) == false) {
+			return null;
+		}
+
+		Segment segmentObj = segment(recordId);
+		MappedByteBuffer segment = segmentObj.buffer;
+		int slot = slotOffset(recordId);
+		Map<String, String> record = new HashMap<String, String>();
+		ReentrantReadWriteLock lock = slotLocks[recordId % NUM_SLOT_LOCKS];
+		lock.readLock().lock();
+		try {
+			if(isLive(segmentObj, recordId) == false) {
+				return null;
+			}
+			for(int i = 0; i < columns.length; i++) {
+				String value = readValue(segment, slot + offsets[i]);
+				if(value != null) {
+					record.put(columns[i], value);
+				}
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		return record;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the value of one column of a record. Only that column is read from the slot
+
+	public String getValue(int recordId, String column) {
+		Integer position = columnPositions.get(column);
+		if(position == null || contains(recordId) == false) {
+			return null;
+		}
+
+		Segment segmentObj = segment(recordId);
+		int slot = slotOffset(recordId);
+		ReentrantReadWriteLock lock = slotLocks[recordId % NUM_SLOT_LOCKS];
+		lock.readLock().lock();
+		try {
+			if(isLive(segmentObj, recordId) == false) {
+				return null;
+			}
+			return readValue(segmentObj.buffer, slot + offsets[position]);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Reads the value that starts at the given position of a segment, or returns null if the
+	// record has no value for the column
+
+	private static String readValue(MappedByteBuffer segment, int position) {
+		int length = segment.getShort(position);
+		if(length < 0) {
+			return null;
+		}
+		char[] chars = new char[length];
+		for(int j = 0; j < length; j++) {
+			chars[j] = segment.getChar(position + 2 + 2 * j);
+		}
+		return new String(chars);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Stores the record in the slot of the given record Id. The values must already have
+	// been checked against the column widths. The slot's status byte is left to flush
+
+	public void put(int recordId, Map<String, String> record) {
+		Segment segmentObj = segment(recordId);
+		MappedByteBuffer segment = segmentObj.buffer;
+		int slot = slotOffset(recordId);
+		ReentrantReadWriteLock lock = slotLocks[recordId % NUM_SLOT_LOCKS];
+		lock.writeLock().lock();
+		try {
+			for(int i = 0; i < columns.length; i++) {
+				int position = slot + offsets[i];
+				String value = record.get(columns[i]);
+				if(value == null) {
+					segment.putShort(position, (short) -1);
+					continue;
+				}
+				segment.putShort(position, (short) value.length());
+				for(int j = 0; j < value.length(); j++) {
+					segment.putChar(position + 2 + 2 * j, value.charAt(j));
+				}
+			}
+
+			int max = maxRecId.get();
+			if(isLive(segmentObj, recordId) == false) {
+				recordCount.incrementAndGet();
+			}
+			setLive(segmentObj, recordId, true);
+			while(recordId > max && maxRecId.compareAndSet(max, recordId) == false) {
+				max = maxRecId.get();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Deletes the record with the given record Id. Returns false if there was no such record.
+	// The slot's status byte is left to flush
+
+	public boolean remove(int recordId) {
+		if(recordId < 0 || recordId > maxRecId.get()) {
+			return false;
+		}
+
+		Segment segmentObj = segment(recordId);
+		ReentrantReadWriteLock lock = slotLocks[recordId % NUM_SLOT_LOCKS];
+		lock.writeLock().lock();
+		try {
+			if(isLive(segmentObj, recordId) == false) {
+				return false;
+			}
+			setLive(segmentObj, recordId, false);
+			recordCount.decrementAndGet();
+			return true;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the status bytes of the slots changed since the last flush, forces the mapped
+	// segments written to since then to disk, and writes the header. A segment written to
+	// while it is being flushed stays dirty for the next flush. Until the status bytes are
+	// on disk the header holds no record count, so that a crash in between does not leave
+	// a count that the status bytes disagree with
+
+	public void flush() throws IOException {
+		Segment[] mapped = segments;
+		boolean changed = false;
+		for(int i = 0; i < mapped.length && changed == false; i++) {
+			changed = mapped[i] != null && mapped[i].dirty;
+		}
+		if(changed) {
+			writeHeader(UNKNOWN_COUNT);
+			channel.force(true);
+		}
+
+		for(int i = 0; i < mapped.length; i++) {
+			if(mapped[i] != null && mapped[i].dirty) {
+				mapped[i].dirty = false;
+				writeStatus(mapped[i]);
+				mapped[i].buffer.force();
+			}
+		}
+		writeHeader(recordCount.get());
+		channel.force(true);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of live records up to maxRecId, mapping every segment that holds
+	// them
+
+	private int countRecords() {
+		int max = maxRecId.get();
+		int count = 0;
+		for(int segmentNo = 0; max >= 0 && segmentNo <= max / slotsPerSegment; segmentNo++) {
+			AtomicLongArray live = mapSegment(segmentNo).live;
+			for(int word = 0; word < live.length(); word++) {
+				count += Long.bitCount(live.get(word));
+			}
+		}
+		return count;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the status byte of every slot of the segment whose live bit has changed. A bit
+	// changed again meanwhile is marked anew, and is written by the next flush
+
+	private void writeStatus(Segment segment) {
+		for(int word = 0; word < segment.changed.length(); word++) {
+			long bits = segment.changed.getAndSet(word, 0);
+			while(bits != 0) {
+				int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				boolean isLive = (segment.live.get(word) & (1L << index)) != 0;
+				segment.buffer.put(index * slotSize, isLive ? LIVE : EMPTY);
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Closes the file. The mapped segments are released once they are garbage collected
+
+	public void close() throws IOException {
+		segments = new Segment[0];
+		file.close();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Closes the file and deletes it
+
+	public void delete() throws IOException {
+		close();
+		Files.deleteIfExists(Paths.get(fileName));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the header with the layout of the slots and the given record count
+
+	private void writeHeader(int count) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(headerSize);
+		header.putInt(MAGIC);
+		header.putInt(headerSize);
+		header.putInt(maxRecId.get());
+		header.putInt(count);
+		header.putInt(slotSize);
+		header.putInt(columns.length);
+		for(int i = 0; i < columns.length; i++) {
+			header.putShort((short) columns[i].length());
+			for(int j = 0; j < columns[i].length(); j++) {
+				header.putChar(columns[i].charAt(j));
+			}
+			header.putInt(widths[i]);
+		}
+		header.flip();
+		while(header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package database.helperClasses;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Metrics {
+
+	// The counters and latencies of every operation, and the gauges of the open files and
+	// indexes, at one moment
+	public static class Snapshot {
+		public Map<String, Long> counters;
+		public Map<String, LatencyHistogram.Snapshot> latencies;
+		public Map<String, Double> gauges;
+	}
+
+	// The time taken by record inserts and deletes, including the index updates
+	public static final LatencyHistogram INSERT = new LatencyHistogram();
+	public static final LatencyHistogram DELETE = new LatencyHistogram();
+
+	// The time taken by batch inserts, for the whole batch
+	public static final LatencyHistogram INSERT_BATCH = new LatencyHistogram();
+
+	// The time taken to fill an index iterator with the entries of one leaf node, for
+	// iterators over one key and over a range of keys
+	public static final LatencyHistogram LOOKUP = new LatencyHistogram();
+	public static final LatencyHistogram SCAN = new LatencyHistogram();
+
+	// The time taken to dump and to restore a file or an index
+	public static final LatencyHistogram DUMP = new LatencyHistogram();
+	public static final LatencyHistogram RESTORE = new LatencyHistogram();
+
+	// The number of iterators made over one key and over a range of keys
+	public static final LongAdder LOOKUPS = new LongAdder();
+	public static final LongAdder SCANS = new LongAdder();
+
+	// The number of index nodes split by inserts and merged by deletes
+	public static final LongAdder NODE_SPLITS = new LongAdder();
+	public static final LongAdder NODE_MERGES = new LongAdder();
+
+	private Metrics() {
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the counters and latencies recorded so far, together with the given gauges
+
+	public static Snapshot snapshot(Map<String, Double> gauges) {
+		Snapshot snapshot = new Snapshot();
+		snapshot.latencies = new LinkedHashMap<String, LatencyHistogram.Snapshot>();
+		snapshot.latencies.put("insert", INSERT.snapshot());
+		snapshot.latencies.put("delete", DELETE.snapshot());
+		snapshot.latencies.put("insertBatch", INSERT_BATCH.snapshot());
+		snapshot.latencies.put("lookup", LOOKUP.snapshot());
+		snapshot.latencies.put("scan", SCAN.snapshot());
+		snapshot.latencies.put("dump", DUMP.snapshot());
+		snapshot.latencies.put("restore", RESTORE.snapshot());
+
+		snapshot.counters = new LinkedHashMap<String, Long>();
+		snapshot.counters.put("inserts", snapshot.latencies.get("insert").count);
+		snapshot.counters.put("deletes", snapshot.latencies.get("delete").count);
+		snapshot.counters.put("insertBatches", snapshot.latencies.get("insertBatch").count);
+		snapshot.counters.put("lookups", LOOKUPS.sum());
+		snapshot.counters.put("scans", SCANS.sum());
+		snapshot.counters.put("nodeSplits", NODE_SPLITS.sum());
+		snapshot.counters.put("nodeMerges", NODE_MERGES.sum());
+		snapshot.counters.put("dumps", snapshot.latencies.get("dump").count);
+		snapshot.counters.put("restores", snapshot.latencies.get("restore").count);
+
+		snapshot.gauges = gauges;
+		return snapshot;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Clears every counter and latency
+
+	public static void reset() {
+		INSERT.reset();
+		DELETE.reset();
+		INSERT_BATCH.reset();
+		LOOKUP.reset();
+		SCAN.reset();
+		DUMP.reset();
+		RESTORE.reset();
+		LOOKUPS.reset();
+		SCANS.reset();
+		NODE_SPLITS.reset();
+		NODE_MERGES.reset();
+	}
+}
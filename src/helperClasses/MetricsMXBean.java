@@ -0,0 +1,20 @@
+package database.helperClasses;
+
+import java.util.Map;
+
+// The metrics of the record manager as seen through JMX, under the name
+// "database:type=Metrics"
+public interface MetricsMXBean {
+
+	// The number of each kind of operation done so far
+	Map<String, Long> getCounters();
+
+	// The latencies in microseconds, keyed by operation and statistic, such as "insert.p99"
+	Map<String, Double> getLatencyMicros();
+
+	// The gauges of the open files and indexes, such as "file.index.treeHeight"
+	Map<String, Double> getGauges();
+
+	// Clears every counter and latency
+	void reset();
+}
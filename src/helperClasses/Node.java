@@ -1,46 +1,537 @@
 package database.helperClasses;
 
-import java.io.Serializable;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class Node implements Serializable {
+public class Node {
 
-	private static final long serialVersionUID = 1L;
+	// The page number used when a node has no parent, sibling or child
+	public static final int NO_PAGE = -1;
+
+	// The marker byte of pages that have been freed and are waiting to be reused
+	public static final byte FREE_PAGE = 2;
+
+	// Set in the marker byte of a node page whose keys are written after the prefix they
+	// all share
+	private static final byte PREFIX_COMPRESSED = 4;
+
+	// Set in the marker byte of a leaf node page whose entries carry the values of the
+	// index's included columns
+	private static final byte INCLUDED_VALUES = 8;
+
+	// Written in place of a key's length when it is equal to the key before it
+	private static final short SAME_KEY = -1;
+
+	// The bytes written before the keys of a node: the marker byte, the number of keys and
+	// the parent and sibling pages
+	private static final int HEADER_BYTES = 17;
+
+	// The record Id of a separator whose key alone tells its two sides apart. It sorts
+	// before every real record Id, just as the highest int sorts after them
+	public static final int LOWEST_ID = Integer.MIN_VALUE;
+	public static final int HIGHEST_ID = Integer.MAX_VALUE;
+
+	// The number of the page in the index file that holds this node
+	public int pageId;
 
 	// A boolean variable that lets us know if it is a leaf node or not.
 	public boolean isLeafNode;
-	
-	// The maximum number of string keys that the node can contain. Set to 8 as asked in the document.
-	public ArrayList<String> key;
-
-	// The pointers corresponding to the keys in a given node. Relevant only for internal nodes
-	public ArrayList<Node> pointer;
-	
-	// The last pointer of leaf nodes to point to the next node
-	public Node nextNodePointer;
-	
-	// The pointer to the previous node
-	public Node prevNodePointer;
-
-	// The record Ids of leaf nodes. This would be relevant only if the node is a leaf node.
-	public ArrayList<Integer> recordId;
-
-	// The parent of this node. Will be null if this is a root node
-	public Node parent;
-	
+
+	// The keys of the node in sorted order. There is room for one key more than the fanout,
+	// since a node is split only after it overflows. Equal keys in a leaf node share one
+	// string, so a key repeated for many records is only held once
+	public String[] key;
+
+	// The page numbers of the children corresponding to the keys in a given node. Relevant only
+	// for internal nodes
+	public int[] pointer;
+
+	// The page number of the next leaf node
+	public int nextNodePointer;
+
+	// The page number of the previous leaf node
+	public int prevNodePointer;
+
+	// The record Ids of leaf nodes. Entries are ordered by key and then by record Id, so the
+	// record Ids of one key form a sorted run. In internal nodes, the record Id that goes
+	// with each separator key
+	public int[] recordId;
+
+	// The values of the included columns of each entry of a leaf node, encoded by the index
+	// as one string. Null if the index has no included columns
+	public String[] included;
+
+	// The page number of the parent of this node. Will be NO_PAGE if this is a root node
+	public int parent;
+
 	// A variable that records how many keys the node contains
 	public int numOfKeysPresent;
-	
+
+	// The latch that guards the entries of a leaf node while the index is shared between threads
+	public final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+
 	// --------------------------------------------------------------------------------------
 	// The constructor for the Node class
 
-	public Node() {
+	public Node(int pageId, int maxNumOfKeys) {
+		this(pageId, maxNumOfKeys, false);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a node whose leaf entries carry the values of included columns if hasIncluded
+	// is set
+
+	public Node(int pageId, int maxNumOfKeys, boolean hasIncluded) {
+		this.pageId = pageId;
 		isLeafNode = true;
-		key = new ArrayList<String>();
-		pointer = new ArrayList<Node>();
-		recordId = new ArrayList<Integer>();
-		parent = null;
-		nextNodePointer = null;
-		prevNodePointer = null;
+		key = new String[maxNumOfKeys + 1];
+		pointer = new int[maxNumOfKeys + 2];
+		recordId = new int[maxNumOfKeys + 1];
+		if(hasIncluded) {
+			included = new String[maxNumOfKeys + 1];
+		}
+		parent = NO_PAGE;
+		nextNodePointer = NO_PAGE;
+		prevNodePointer = NO_PAGE;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Compares the entry at the given position with the key and record Id
+
+	public int compare(int position, String k, int id) {
+		int result = key[position].compareTo(k);
+		if(result == 0) {
+			result = recordId[position] < id ? -1 : (recordId[position] == id ? 0 : 1);
+		}
+		return result;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the position of the first entry that is greater than or equal to the given key
+	// and record Id
+
+	public int lowerBound(String k, int id) {
+		int low = 0;
+		int high = numOfKeysPresent;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(compare(middle, k, id) < 0) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the position of the first entry that is greater than the given key and record
+	// Id. In an internal node this is the child whose subtree holds them
+
+	public int upperBound(String k, int id) {
+		int low = 0;
+		int high = numOfKeysPresent;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(compare(middle, k, id) <= 0) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the position of the child pointer holding the given page number, or -1
+
+	public int childIndex(int childPage) {
+		for(int i = 0; i <= numOfKeysPresent; i++) {
+			if(pointer[i] == childPage) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Inserts a key and record Id into a leaf node at the given position
+
+	public void insertEntry(int position, String k, int value) {
+		insertEntry(position, k, value, null);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Inserts a key and record Id, with the values of the included columns, into a leaf node
+	// at the given position. A key equal to a neighbour's is replaced by the neighbour's
+	// string
+
+	public void insertEntry(int position, String k, int value, String includedValues) {
+		if(position > 0 && key[position - 1].equals(k)) {
+			k = key[position - 1];
+		}
+		else if(position < numOfKeysPresent && key[position].equals(k)) {
+			k = key[position];
+		}
+		System.arraycopy(key, position, key, position + 1, numOfKeysPresent - position);
+		System.arraycopy(recordId, position, recordId, position + 1, numOfKeysPresent - position);
+		key[position] = k;
+		recordId[position] = value;
+		if(included != null) {
+			System.arraycopy(included, position, included, position + 1, numOfKeysPresent - position);
+			included[position] = includedValues;
+		}
+		numOfKeysPresent++;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the values of the included columns of the entry at the given position, or null
+	// if the index has none
+
+	public String includedAt(int position) {
+		return included == null ? null : included[position];
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Copies numOfEntries entries of a leaf node, starting at the given position, into
+	// another leaf node
+
+	public void copyEntries(int position, Node target, int targetPosition, int numOfEntries) {
+		System.arraycopy(key, position, target.key, targetPosition, numOfEntries);
+		System.arraycopy(recordId, position, target.recordId, targetPosition, numOfEntries);
+		if(included != null) {
+			System.arraycopy(included, position, target.included, targetPosition, numOfEntries);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Keeps only the first numOfEntries entries of a leaf node
+
+	public void truncateEntries(int numOfEntries) {
+		if(numOfEntries < numOfKeysPresent) {
+			Arrays.fill(key, numOfEntries, numOfKeysPresent, null);
+			if(included != null) {
+				Arrays.fill(included, numOfEntries, numOfKeysPresent, null);
+			}
+		}
+		numOfKeysPresent = numOfEntries;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Removes the key and record Id at the given position from a leaf node
+
+	public void removeEntry(int position) {
+		System.arraycopy(key, position + 1, key, position, numOfKeysPresent - position - 1);
+		System.arraycopy(recordId, position + 1, recordId, position, numOfKeysPresent - position - 1);
+		numOfKeysPresent--;
+		key[numOfKeysPresent] = null;
+		if(included != null) {
+			System.arraycopy(included, position + 1, included, position, numOfKeysPresent - position);
+			included[numOfKeysPresent] = null;
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Inserts a separator at the given position of an internal node, with the child that
+	// follows it
+
+	public void insertChild(int position, String k, int id, int childPage) {
+		System.arraycopy(key, position, key, position + 1, numOfKeysPresent - position);
+		System.arraycopy(recordId, position, recordId, position + 1, numOfKeysPresent - position);
+		System.arraycopy(pointer, position + 1, pointer, position + 2, numOfKeysPresent - position);
+		key[position] = k;
+		recordId[position] = id;
+		pointer[position + 1] = childPage;
+		numOfKeysPresent++;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Removes the separator at the given position of an internal node, with the child that
+	// follows it
+
+	public void removeChild(int position) {
+		System.arraycopy(key, position + 1, key, position, numOfKeysPresent - position - 1);
+		System.arraycopy(recordId, position + 1, recordId, position, numOfKeysPresent - position - 1);
+		System.arraycopy(pointer, position + 2, pointer, position + 1, numOfKeysPresent - position - 1);
+		numOfKeysPresent--;
+		key[numOfKeysPresent] = null;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the shortest key that is greater than left and no greater than right. It
+	// separates two neighbouring nodes whose last and first keys are left and right as well
+	// as right does, but keeps only the characters needed to tell them apart
+
+	public static String separator(String left, String right) {
+		int common = commonPrefix(left, right);
+		if(common == right.length()) {
+			return right;
+		}
+		return right.substring(0, common + 1);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the record Id that goes with the separator of two neighbouring nodes whose last
+	// and first entries are given. Only when their keys are equal does the record Id of the
+	// first entry on the right have to tell them apart
+
+	public static int separatorId(String left, String right, int rightId) {
+		return left.equals(right) ? rightId : LOWEST_ID;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of leading characters that two keys share
+
+	public static int commonPrefix(String a, String b) {
+		int length = Math.min(a.length(), b.length());
+		int i = 0;
+		while(i < length && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the page size needed to hold a node with maxNumOfKeys keys of at most keyWidth
+	// characters
+
+	public static int pageSize(int maxNumOfKeys, int keyWidth) {
+		return pageSize(maxNumOfKeys, keyWidth, 0);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the page size needed to hold a node whose leaf entries also carry the values of
+	// included columns, encoded in at most includedWidth characters
+
+	public static int pageSize(int maxNumOfKeys, int keyWidth, int includedWidth) {
+		int keyBytes = maxNumOfKeys * (2 + 2 * keyWidth);
+		int leafBytes = keyBytes + maxNumOfKeys * 4;
+		if(includedWidth > 0) {
+			leafBytes += maxNumOfKeys * (2 + 2 * includedWidth);
+		}
+		int internalBytes = keyBytes + maxNumOfKeys * 4 + (maxNumOfKeys + 1) * 4;
+		return HEADER_BYTES + Math.max(leafBytes, internalBytes);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of leaf entries whose keys take up keyChars characters each that
+	// fit in a page of pageSize bytes. Given the widest keys, no number of entries up to it
+	// can outgrow the page, however little the keys share
+
+	public static int leafCapacity(int pageSize, double keyChars, int includedWidth) {
+		double entryBytes = 2 + 2 * keyChars + 4;
+		if(includedWidth > 0) {
+			entryBytes += 2 + 2 * includedWidth;
+		}
+		return (int) ((pageSize - HEADER_BYTES) / entryBytes);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of separators of at most keyWidth characters, with their children,
+	// that an internal node can hold in a page of pageSize bytes
+
+	public static int internalCapacity(int pageSize, int keyWidth) {
+		return (pageSize - HEADER_BYTES - 4) / (2 + 2 * keyWidth + 4 + 4);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of bytes writeTo would take for a node holding the entries from
+	// position from up to to. Equal neighbouring keys or included values are counted as one
+	// only when they share a string, so this may be a little more than writeTo takes, but
+	// never less
+
+	public int encodedSize(int from, int to) {
+		int numOfEntries = to - from;
+		int prefix = 0;
+		if(numOfEntries > 1) {
+			prefix = commonPrefix(key[from], key[to - 1]);
+		}
+
+		int bytes = HEADER_BYTES + (prefix > 0 ? 2 + 2 * prefix : 0) + numOfEntries * (2 + 4);
+		for(int i = from; i < to; i++) {
+			if(i == from || key[i] != key[i - 1]) {
+				bytes += 2 * (key[i].length() - prefix);
+			}
+		}
+		if(isLeafNode && included != null) {
+			bytes += numOfEntries * 2;
+			for(int i = from; i < to; i++) {
+				if(i == from || included[i] != included[i - 1]) {
+					bytes += 2 * included[i].length();
+				}
+			}
+		}
+		if(isLeafNode == false) {
+			bytes += (numOfEntries + 1) * 4;
+		}
+		return bytes;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of bytes writeTo takes for a leaf node of numOfEntries entries whose
+	// keys share prefix characters. keyChars is the number of characters of the keys, with
+	// equal neighbouring keys counted once as distinctKeys are, and includedChars that of the
+	// included values, if the index has any
+
+	public static int leafSize(int numOfEntries, int prefix, int distinctKeys, long keyChars,
+			long includedChars, boolean hasIncluded) {
+		long bytes = HEADER_BYTES + (prefix > 0 ? 2 + 2 * prefix : 0) + numOfEntries * (2 + 4) +
+				2 * (keyChars - (long) prefix * distinctKeys);
+		if(hasIncluded) {
+			bytes += numOfEntries * 2 + 2 * includedChars;
+		}
+		return (int) Math.min(bytes, Integer.MAX_VALUE);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the position, between low and high, at which the entries of a leaf node are
+	// split into two nodes whose larger encoding is as small as possible. The left part only
+	// grows and the right part only shrinks as the position moves right, so it is found by a
+	// binary search
+
+	public int balancedSplit(int low, int high) {
+		int first = low;
+		int last = high;
+		while(first < last) {
+			int middle = (first + last) >>> 1;
+			if(encodedSize(0, middle) < encodedSize(middle, numOfKeysPresent)) {
+				first = middle + 1;
+			}
+			else {
+				last = middle;
+			}
+		}
+		// first is the first position at which the left part is at least as large as the
+		// right one, so the best split is there or just before it
+		if(first > low && Math.max(encodedSize(0, first - 1), encodedSize(first - 1, numOfKeysPresent)) <
+				Math.max(encodedSize(0, first), encodedSize(first, numOfKeysPresent))) {
+			return first - 1;
+		}
+		return first;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the node into the page buffer. The prefix shared by all the keys is written
+	// once, followed by what is left of each key. A key equal to the one before it is
+	// written as SAME_KEY alone. The values of the included columns of a leaf node follow
+	// the record Ids
+
+	public void writeTo(ByteBuffer page) {
+		// The keys are sorted, so the prefix of the first and last keys is shared by them all.
+		// Without a shared prefix the keys are written whole. A leaf node can hold more
+		// entries than fit in its page written whole, so the index splits it before its
+		// encodedSize outgrows the page
+		int prefix = 0;
+		if(numOfKeysPresent > 1) {
+			prefix = commonPrefix(key[0], key[numOfKeysPresent - 1]);
+		}
+
+		boolean hasIncluded = isLeafNode && included != null;
+		page.put((byte) ((isLeafNode ? 1 : 0) | (prefix > 0 ? PREFIX_COMPRESSED : 0) |
+				(hasIncluded ? INCLUDED_VALUES : 0)));
+		page.putInt(numOfKeysPresent);
+		page.putInt(parent);
+		page.putInt(nextNodePointer);
+		page.putInt(prevNodePointer);
+
+		if(prefix > 0) {
+			page.putShort((short) prefix);
+			for(int j = 0; j < prefix; j++) {
+				page.putChar(key[0].charAt(j));
+			}
+		}
+
+		for(int i = 0; i < numOfKeysPresent; i++) {
+			String k = key[i];
+			if(i > 0 && k.equals(key[i - 1])) {
+				page.putShort(SAME_KEY);
+				continue;
+			}
+			page.putShort((short) (k.length() - prefix));
+			for(int j = prefix; j < k.length(); j++) {
+				page.putChar(k.charAt(j));
+			}
+		}
+
+		for(int i = 0; i < numOfKeysPresent; i++) {
+			page.putInt(recordId[i]);
+		}
+		if(hasIncluded) {
+			for(int i = 0; i < numOfKeysPresent; i++) {
+				String values = included[i];
+				if(i > 0 && values.equals(included[i - 1])) {
+					page.putShort(SAME_KEY);
+					continue;
+				}
+				page.putShort((short) values.length());
+				for(int j = 0; j < values.length(); j++) {
+					page.putChar(values.charAt(j));
+				}
+			}
+		}
+		if(isLeafNode == false) {
+			for(int i = 0; i <= numOfKeysPresent; i++) {
+				page.putInt(pointer[i]);
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Reads the node stored in the page buffer
+
+	public static Node readFrom(int pageId, int maxNumOfKeys, ByteBuffer page) {
+		byte marker = page.get();
+		Node node = new Node(pageId, maxNumOfKeys, (marker & INCLUDED_VALUES) != 0);
+		node.isLeafNode = (marker & 1) == 1;
+		node.numOfKeysPresent = page.getInt();
+		node.parent = page.getInt();
+		node.nextNodePointer = page.getInt();
+		node.prevNodePointer = page.getInt();
+
+		char[] prefix = new char[(marker & PREFIX_COMPRESSED) != 0 ? page.getShort() : 0];
+		for(int j = 0; j < prefix.length; j++) {
+			prefix[j] = page.getChar();
+		}
+
+		for(int i = 0; i < node.numOfKeysPresent; i++) {
+			short length = page.getShort();
+			if(length == SAME_KEY) {
+				node.key[i] = node.key[i - 1];
+				continue;
+			}
+			char[] chars = new char[prefix.length + length];
+			System.arraycopy(prefix, 0, chars, 0, prefix.length);
+			for(int j = prefix.length; j < chars.length; j++) {
+				chars[j] = page.getChar();
+			}
+			node.key[i] = new String(chars);
+		}
+
+		for(int i = 0; i < node.numOfKeysPresent; i++) {
+			node.recordId[i] = page.getInt();
+		}
+		if(node.included != null) {
+			for(int i = 0; i < node.numOfKeysPresent; i++) {
+				short length = page.getShort();
+				if(length == SAME_KEY) {
+					node.included[i] = node.included[i - 1];
+					continue;
+				}
+				char[] chars = new char[length];
+				for(int j = 0; j < chars.length; j++) {
+					chars[j] = page.getChar();
+				}
+				node.included[i] = new String(chars);
+			}
+		}
+		if(node.isLeafNode == false) {
+			for(int i = 0; i <= node.numOfKeysPresent; i++) {
+				node.pointer[i] = page.getInt();
+			}
+		}
+		return node;
 	}
 }
@@ -0,0 +1,374 @@
+package database.helperClasses;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public class PageFile {
+
+	// A number written at the start of the header page to recognise index files
+	private static final int MAGIC = 0x42504c55;
+
+	// The header page is always the first page of the file
+	public static final int HEADER_PAGE = 0;
+
+	// The smallest page size used, so that the header page always fits
+	private static final int MIN_PAGE_SIZE = 512;
+
+	// The layout of the node pages written by this version. Files written before entries
+	// with equal keys were kept in record Id order have version 0
+	public static final int FORMAT_VERSION = 1;
+
+	// A number written at the start of a journal to recognise it
+	private static final int JOURNAL_MAGIC = 0x4a524e4c;
+
+	// Pages written together are first saved in a journal named after the file with this
+	// suffix. The journal is written under a temporary name and then renamed, so it is
+	// either complete or missing
+	private static final String JOURNAL_SUFFIX = ".journal";
+
+	// The name of the file
+	private String fileName;
+
+	// The file and its channel through which the pages are read and written
+	private RandomAccessFile file;
+	private FileChannel channel;
+
+	// The size in bytes of every page in the file
+	private int pageSize;
+
+	// The page number of the root node of the index
+	public int rootPage;
+
+	// The number of pages in the file, including the header page
+	public int pageCount;
+
+	// The page number of the first page in the chain of freed pages
+	public int freeListHead;
+
+	// The maximum number of keys in a node
+	public int maxNumOfKeys;
+
+	// The maximum number of characters in a key
+	public int keyWidth;
+
+	// The columns over which the index is built, in key order. Most indexes have one
+	public List<String> columns;
+
+	// The columns whose values the leaf entries carry, and the maximum number of characters
+	// those values are encoded in. Most indexes have none
+	public List<String> includedColumns;
+	public int includedWidth;
+
+	// The layout of the node pages in the file
+	public int formatVersion;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the PageFile class
+
+	private PageFile(String fileName, RandomAccessFile file, int pageSize) {
+		this.fileName = fileName;
+		this.file = file;
+		this.channel = file.getChannel();
+		this.pageSize = pageSize;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Forces the directory holding a file to disk, so that a rename into it survives a
+	// crash. Errors are ignored, since some platforms cannot open or force a directory
+
+	public static void syncDirectory(Path path) {
+		Path directory = path.toAbsolutePath().getParent();
+		if(directory == null) {
+			return;
+		}
+		try {
+			FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ);
+			try {
+				channel.force(true);
+			}
+			finally {
+				channel.close();
+			}
+		}
+		catch(IOException ex) {
+			// The rename has been made, it is only not known to be on disk yet
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the size of the pages of a file created for pages of at least pageSize bytes
+
+	public static int roundPageSize(int pageSize) {
+		return ((Math.max(pageSize, MIN_PAGE_SIZE) + MIN_PAGE_SIZE - 1) / MIN_PAGE_SIZE) * MIN_PAGE_SIZE;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a new page file, overwriting any existing file with the same name
+
+	public static PageFile create(String fileName, int pageSize) throws IOException {
+		new File(fileName + JOURNAL_SUFFIX).delete();
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		file.setLength(0);
+		PageFile pageFile = new PageFile(fileName, file, roundPageSize(pageSize));
+		pageFile.rootPage = Node.NO_PAGE;
+		pageFile.pageCount = 1;
+		pageFile.freeListHead = Node.NO_PAGE;
+		pageFile.formatVersion = FORMAT_VERSION;
+		return pageFile;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Opens an existing page file. Only the header page is read. If the file was being
+	// written when the system stopped, the pages in its journal are written first
+
+	public static PageFile open(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		replayJournal(fileName, file);
+		ByteBuffer header = ByteBuffer.allocate(MIN_PAGE_SIZE);
+		file.getChannel().read(header, 0);
+		header.flip();
+
+		if(header.remaining() < 8 || header.getInt() != MAGIC) {
+			file.close();
+			throw new IllegalArgumentException("The file \"" + fileName +
+					"\" is not an index file");
+		}
+
+		PageFile pageFile = new PageFile(fileName, file, header.getInt());
+		pageFile.rootPage = header.getInt();
+		pageFile.pageCount = header.getInt();
+		pageFile.freeListHead = header.getInt();
+		pageFile.maxNumOfKeys = header.getInt();
+		pageFile.keyWidth = header.getInt();
+		pageFile.columns = new ArrayList<String>();
+		pageFile.columns.add(readString(header));
+		pageFile.formatVersion = header.remaining() >= 4 ? header.getInt() : 0;
+		// Files written before composite indexes end here, and are padded with zeros
+		int numOfColumns = header.remaining() >= 4 ? header.getInt() : 0;
+		for(int i = 1; i < numOfColumns; i++) {
+			pageFile.columns.add(readString(header));
+		}
+		// Files written before included columns end here
+		pageFile.includedColumns = new ArrayList<String>();
+		pageFile.includedWidth = header.remaining() >= 4 ? header.getInt() : 0;
+		int numOfIncluded = header.remaining() >= 4 ? header.getInt() : 0;
+		for(int i = 0; i < numOfIncluded; i++) {
+			pageFile.includedColumns.add(readString(header));
+		}
+		return pageFile;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Getter for pageSize
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Reads the page specified by pageNo into a new buffer
+
+	public ByteBuffer readPage(int pageNo) throws IOException {
+		ByteBuffer page = ByteBuffer.allocate(pageSize);
+		long position = (long) pageNo * pageSize;
+		while(page.hasRemaining()) {
+			if(channel.read(page, position + page.position()) < 0) {
+				throw new IOException("Page " + pageNo + " is beyond the end of the file");
+			}
+		}
+		page.flip();
+		return page;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the buffer to the page specified by pageNo
+
+	public void writePage(int pageNo, ByteBuffer page) throws IOException {
+		if(page.remaining() > pageSize) {
+			throw new IllegalArgumentException("Page " + pageNo + " needs " +
+					page.remaining() + " bytes but pages are " + pageSize + " bytes");
+		}
+		long position = (long) pageNo * pageSize;
+		while(page.hasRemaining()) {
+			channel.write(page, position + page.position());
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the given pages and the header page as one change. They are saved in the journal
+	// first, so that if the system stops part way, open writes them all again. The file is
+	// extended to pageCount pages, since the last pages may not have been written in full
+
+	public void writePages(Map<Integer, ByteBuffer> pages) throws IOException {
+		ByteBuffer header = headerPage();
+
+		int journalBytes = 8 + 8 + header.remaining() + 8;
+		Iterator<ByteBuffer> pageIt = pages.values().iterator();
+		while(pageIt.hasNext()) {
+			journalBytes += 8 + pageIt.next().remaining();
+		}
+
+		ByteBuffer journal = ByteBuffer.allocate(journalBytes);
+		journal.putInt(JOURNAL_MAGIC);
+		journal.putInt(pages.size() + 1);
+		journal.putInt(HEADER_PAGE);
+		journal.putInt(header.remaining());
+		journal.put(header.duplicate());
+		Iterator<Map.Entry<Integer, ByteBuffer>> entryIt = pages.entrySet().iterator();
+		while(entryIt.hasNext()) {
+			Map.Entry<Integer, ByteBuffer> entry = entryIt.next();
+			journal.putInt(entry.getKey());
+			journal.putInt(entry.getValue().remaining());
+			journal.put(entry.getValue().duplicate());
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(journal.array(), 0, journal.position());
+		journal.putLong(crc.getValue());
+		journal.flip();
+
+		File tempFile = new File(fileName + JOURNAL_SUFFIX + ".tmp");
+		RandomAccessFile temp = new RandomAccessFile(tempFile, "rw");
+		try {
+			temp.setLength(0);
+			while(journal.hasRemaining()) {
+				temp.getChannel().write(journal);
+			}
+			temp.getChannel().force(true);
+		}
+		finally {
+			temp.close();
+		}
+		File journalFile = new File(fileName + JOURNAL_SUFFIX);
+		Files.move(tempFile.toPath(), journalFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory(journalFile.toPath());
+
+		entryIt = pages.entrySet().iterator();
+		while(entryIt.hasNext()) {
+			Map.Entry<Integer, ByteBuffer> entry = entryIt.next();
+			writePage(entry.getKey(), entry.getValue());
+		}
+		writePage(HEADER_PAGE, header);
+		if(file.length() < (long) pageCount * pageSize) {
+			file.setLength((long) pageCount * pageSize);
+		}
+		channel.force(true);
+		journalFile.delete();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the pages saved in a complete journal into the file and deletes the journal. A
+	// journal that was not completed is only deleted, since none of its pages were written
+
+	private static void replayJournal(String fileName, RandomAccessFile file) throws IOException {
+		new File(fileName + JOURNAL_SUFFIX + ".tmp").delete();
+		File journalFile = new File(fileName + JOURNAL_SUFFIX);
+		if(journalFile.exists() == false) {
+			return;
+		}
+
+		byte[] bytes = Files.readAllBytes(journalFile.toPath());
+		ByteBuffer journal = ByteBuffer.wrap(bytes);
+		CRC32 crc = new CRC32();
+		if(bytes.length >= 16) {
+			crc.update(bytes, 0, bytes.length - 8);
+		}
+		if(bytes.length < 16 || journal.getInt() != JOURNAL_MAGIC ||
+				journal.getLong(bytes.length - 8) != crc.getValue()) {
+			journalFile.delete();
+			return;
+		}
+
+		FileChannel channel = file.getChannel();
+		int numOfPages = journal.getInt();
+		int pageSize = 0;
+		long end = file.length();
+		for(int i = 0; i < numOfPages; i++) {
+			// The header page comes first, so the page size is known for the other pages
+			int pageNo = journal.getInt();
+			int length = journal.getInt();
+			ByteBuffer page = journal.slice();
+			page.limit(length);
+			journal.position(journal.position() + length);
+
+			if(pageNo == HEADER_PAGE) {
+				pageSize = page.getInt(4);
+				end = Math.max(end, (long) page.getInt(12) * pageSize);
+			}
+			long position = (long) pageNo * pageSize;
+			while(page.hasRemaining()) {
+				channel.write(page, position + page.position());
+			}
+		}
+		if(file.length() < end) {
+			file.setLength(end);
+		}
+		channel.force(true);
+		journalFile.delete();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Builds the header page from the header fields
+
+	private ByteBuffer headerPage() {
+		ByteBuffer header = ByteBuffer.allocate(MIN_PAGE_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(pageSize);
+		header.putInt(rootPage);
+		header.putInt(pageCount);
+		header.putInt(freeListHead);
+		header.putInt(maxNumOfKeys);
+		header.putInt(keyWidth);
+		writeString(header, columns.get(0));
+		header.putInt(formatVersion);
+		header.putInt(columns.size());
+		for(int i = 1; i < columns.size(); i++) {
+			writeString(header, columns.get(i));
+		}
+		header.putInt(includedWidth);
+		header.putInt(includedColumns.size());
+		for(int i = 0; i < includedColumns.size(); i++) {
+			writeString(header, includedColumns.get(i));
+		}
+		header.flip();
+		return header;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Closes the file
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Helpers to write and read a length prefixed string
+
+	private static void writeString(ByteBuffer buffer, String value) {
+		buffer.putShort((short) value.length());
+		for(int i = 0; i < value.length(); i++) {
+			buffer.putChar(value.charAt(i));
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		char[] chars = new char[buffer.getShort()];
+		for(int i = 0; i < chars.length; i++) {
+			chars[i] = buffer.getChar();
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,61 @@
+package database.helperClasses;
+
+import java.io.IOException;
+import java.util.Map;
+
+// The records of a data file, kept by record Id. Every method may be called by several
+// threads at once
+public interface RecordStore {
+
+	// How the records are laid out
+	public enum Layout {
+		// Every record is kept whole in a fixed width slot of a memory mapped file
+		ROW,
+
+		// Every column is kept apart in memory, dictionary encoded while it has few distinct
+		// values. Records are put together when they are read
+		COLUMNAR
+	}
+
+	// Returns the layout of the records
+	Layout getLayout();
+
+	// Returns the column names and their widths
+	Map<String, Integer> getDescriptor();
+
+	// Returns the highest record Id that has been stored, or -1 if there is none
+	int getMaxRecId();
+
+	// Returns the number of live records
+	int size();
+
+	// Returns true if there is a live record with the given record Id
+	boolean contains(int recordId);
+
+	// Returns the lowest record Id from the given one on that holds a live record, or -1 if
+	// there is none. Lets the records be walked in order without asking for every record Id
+	int nextRecordId(int recordId);
+
+	// Returns the record with the given record Id, or null if there is none
+	Map<String, String> get(int recordId);
+
+	// Returns the value of one column of a record, or null if the record does not exist or
+	// has no value for the column
+	String getValue(int recordId, String column);
+
+	// Stores the record under the given record Id, replacing any record already there. The
+	// values must already have been checked against the column widths
+	void put(int recordId, Map<String, String> record);
+
+	// Deletes the record with the given record Id. Returns false if there was no such record
+	boolean remove(int recordId);
+
+	// Writes the records changed since the last flush to disk
+	void flush() throws IOException;
+
+	// Closes the store. It cannot be used afterwards
+	void close() throws IOException;
+
+	// Closes the store and deletes its files
+	void delete() throws IOException;
+}
@@ -0,0 +1,340 @@
+package database.helperClasses;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+public class WriteAheadLog {
+
+	// When a change is forced to disk before the call that made it returns
+	public enum SyncPolicy {
+		// Every change is forced before it returns. Changes made at the same time by several
+		// threads share one force
+		ALWAYS,
+
+		// Changes are written to the file before they return, and forced by a background
+		// thread every sync interval
+		PERIODIC,
+
+		// Changes are written to the file before they return, and forced only at a checkpoint
+		NEVER
+	}
+
+	// A number written at the start of the log to recognise log files
+	private static final int MAGIC = 0x57414c31;
+
+	// The size of the length and checksum written before every record
+	private static final int FRAME_BYTES = 8;
+
+	// The name of the log file, and the file and channel through which it is written
+	private String fileName;
+	private RandomAccessFile file;
+	private FileChannel channel;
+
+	// When changes are forced to disk
+	private SyncPolicy policy;
+
+	// The size the log may grow to before a checkpoint truncates it
+	private long checkpointBytes;
+
+	// Changes hold this latch shared from the moment they are logged until they have been
+	// made in memory. A checkpoint holds it exclusively, so it never truncates a change that
+	// its dump does not contain
+	public final ReentrantReadWriteLock checkpointLatch = new ReentrantReadWriteLock();
+
+	// Records that have been appended but not yet written to the file
+	private ByteArrayOutputStream pending;
+
+	// Log sequence numbers grow with every byte appended and are never reused, also across
+	// checkpoints. startLsn is the number of the first byte of the file, appendedLsn the end
+	// of the last record appended, writtenLsn and syncedLsn how far the file has been
+	// written and forced
+	private long startLsn;
+	private long appendedLsn;
+	private volatile long writtenLsn;
+	private volatile long syncedLsn;
+
+	// Held while writing the pending records to the file, so that a single thread writes and
+	// forces the records of everyone waiting on it
+	private final Object syncLock = new Object();
+
+	// Forces the log every sync interval when the policy is PERIODIC
+	private ScheduledExecutorService syncTimer;
+
+	// The error met by the background sync, reported to the next change
+	private volatile IOException syncFailure;
+
+	// --------------------------------------------------------------------------------------
+	// The constructor for the WriteAheadLog class
+
+	private WriteAheadLog(String fileName, RandomAccessFile file, SyncPolicy policy,
+			long checkpointBytes) {
+		this.fileName = fileName;
+		this.file = file;
+		this.channel = file.getChannel();
+		this.policy = policy;
+		this.checkpointBytes = checkpointBytes;
+		pending = new ByteArrayOutputStream();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Opens the log file, creating it if there is none. The records already in it are read
+	// with readAll before anything new is appended
+
+	public static WriteAheadLog open(String fileName, SyncPolicy policy, long syncIntervalMillis,
+			long checkpointBytes) throws IOException {
+		if(syncIntervalMillis <= 0 || checkpointBytes <= 0) {
+			throw new IllegalArgumentException("The sync interval and checkpoint size of a " +
+					"log need to be positive");
+		}
+
+		final WriteAheadLog log = new WriteAheadLog(fileName, new RandomAccessFile(fileName, "rw"),
+				policy, checkpointBytes);
+		if(policy == SyncPolicy.PERIODIC) {
+			log.syncTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "log-sync");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			log.syncTimer.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					try {
+						log.flush(Long.MAX_VALUE, true);
+					}
+					catch(IOException ex) {
+						log.syncFailure = ex;
+					}
+				}
+			}, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+		return log;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Reads every complete record in the log. A record cut short by a crash, and anything
+	// after it, is truncated from the file
+
+	public List<LogRecord> readAll() throws IOException {
+		List<LogRecord> records = new ArrayList<LogRecord>();
+		long size = channel.size();
+		long position = 0;
+
+		if(size >= 4) {
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			readFully(magic, 0);
+			if(magic.getInt() != MAGIC) {
+				throw new IllegalArgumentException("The file \"" + fileName +
+						"\" is not a log file");
+			}
+			position = 4;
+		}
+
+		CRC32 crc = new CRC32();
+		while(position + FRAME_BYTES <= size) {
+			ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES);
+			readFully(frame, position);
+			int length = frame.getInt();
+			int checksum = frame.getInt();
+			if(length <= 0 || position + FRAME_BYTES + length > size) {
+				break;
+			}
+
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			readFully(payload, position + FRAME_BYTES);
+			crc.reset();
+			crc.update(payload.array(), 0, length);
+			if((int) crc.getValue() != checksum) {
+				break;
+			}
+			records.add(LogRecord.decode(payload.array()));
+			position += FRAME_BYTES + length;
+		}
+
+		if(position == 0) {
+			ByteBuffer header = ByteBuffer.allocate(4);
+			header.putInt(MAGIC);
+			header.flip();
+			channel.write(header, 0);
+			position = 4;
+		}
+		channel.truncate(position);
+		channel.position(position);
+		channel.force(true);
+
+		appendedLsn = startLsn + position;
+		writtenLsn = appendedLsn;
+		syncedLsn = appendedLsn;
+		return records;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Appends a record and returns its log sequence number. The record is only kept in
+	// memory until commit is called with that number
+
+	public long append(LogRecord logRecord) {
+		byte[] payload = logRecord.encode();
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES);
+		frame.putInt(payload.length);
+		frame.putInt((int) crc.getValue());
+
+		synchronized(this) {
+			pending.write(frame.array(), 0, FRAME_BYTES);
+			pending.write(payload, 0, payload.length);
+			appendedLsn += FRAME_BYTES + payload.length;
+			return appendedLsn;
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns once the record with the given log sequence number is as safe as the sync
+	// policy asks for
+
+	public void commit(long lsn) throws IOException {
+		if(syncFailure != null) {
+			throw syncFailure;
+		}
+		flush(lsn, policy == SyncPolicy.ALWAYS);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes the pending records to the file, and forces it if asked, unless that has already
+	// been done up to lsn. The first thread to get here writes the records of everyone else
+	// that is waiting, which makes them a group commit
+
+	private void flush(long lsn, boolean force) throws IOException {
+		if((force ? syncedLsn : writtenLsn) >= lsn) {
+			return;
+		}
+
+		synchronized(syncLock) {
+			if((force ? syncedLsn : writtenLsn) >= lsn) {
+				return;
+			}
+
+			byte[] data;
+			long target;
+			synchronized(this) {
+				data = pending.toByteArray();
+				pending.reset();
+				target = appendedLsn;
+			}
+
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			writtenLsn = target;
+
+			if(force) {
+				channel.force(false);
+				syncedLsn = target;
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes every record appended so far to the file and forces it, whatever the sync policy
+
+	public void force() throws IOException {
+		flush(Long.MAX_VALUE, true);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true once the log has grown past the checkpoint size
+
+	public boolean needsCheckpoint() {
+		synchronized(this) {
+			return appendedLsn - startLsn >= checkpointBytes;
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Replaces the log with one that holds only the given checkpoint record. The new log is
+	// written beside the old one and moved over it, so a crash leaves one or the other. The
+	// caller holds checkpointLatch exclusively and has saved every change logged so far
+
+	public void truncate(LogRecord checkpoint) throws IOException {
+		synchronized(syncLock) {
+			synchronized(this) {
+				byte[] payload = checkpoint.encode();
+				CRC32 crc = new CRC32();
+				crc.update(payload, 0, payload.length);
+
+				ByteBuffer log = ByteBuffer.allocate(4 + FRAME_BYTES + payload.length);
+				log.putInt(MAGIC);
+				log.putInt(payload.length);
+				log.putInt((int) crc.getValue());
+				log.put(payload);
+				log.flip();
+
+				File tempFile = new File(fileName + ".tmp");
+				RandomAccessFile temp = new RandomAccessFile(tempFile, "rw");
+				try {
+					temp.setLength(0);
+					while(log.hasRemaining()) {
+						temp.getChannel().write(log);
+					}
+					temp.getChannel().force(true);
+				}
+				finally {
+					temp.close();
+				}
+
+				file.close();
+				Files.move(tempFile.toPath(), new File(fileName).toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				PageFile.syncDirectory(tempFile.toPath());
+				file = new RandomAccessFile(fileName, "rw");
+				channel = file.getChannel();
+				channel.position(channel.size());
+
+				pending.reset();
+				startLsn = appendedLsn;
+				appendedLsn = startLsn + log.limit();
+				writtenLsn = appendedLsn;
+				syncedLsn = appendedLsn;
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Forces the pending records to disk and closes the log
+
+	public void close() throws IOException {
+		if(syncTimer != null) {
+			syncTimer.shutdown();
+		}
+		flush(Long.MAX_VALUE, true);
+		file.close();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Reads from the file until the buffer is full
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of the log file \"" + fileName + "\"");
+			}
+		}
+		buffer.flip();
+	}
+}
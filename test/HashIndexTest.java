@@ -0,0 +1,123 @@
+package database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Checks that the hash table splits its buckets one at a time through whole rounds, and that
+// the entries of dropped keys are given to new keys
+public class HashIndexTest {
+
+	// The number of buckets the table starts with and the keys allowed for every bucket
+	private static final int INITIAL_BUCKETS = 16;
+	private static final int MAX_LOAD = 2;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// --------------------------------------------------------------------------------------
+	// Adds keys until two rounds of splits are done, checking the number of buckets after
+	// every key and that every key is still found once a round ends
+
+	@Test
+	public void splitsBucketsThroughWholeRounds() throws Exception {
+		HashIndex indexObj = newIndex();
+		int numOfKeys = INITIAL_BUCKETS * MAX_LOAD * 4 + 1;
+		for(int i = 0; i < numOfKeys; i++) {
+			indexObj.insertIntoIndex(key(i), i);
+			int numOfBuckets = Math.max(INITIAL_BUCKETS, (i + 2) / MAX_LOAD);
+			assertEquals(i + 1, indexObj.getValueCount());
+			assertEquals(numOfBuckets, indexObj.getBucketCount());
+			if(numOfBuckets == INITIAL_BUCKETS * 2 || numOfBuckets == INITIAL_BUCKETS * 4) {
+				for(int j = 0; j <= i; j++) {
+					assertArrayEquals(new int[] {j}, indexObj.lookup(key(j)));
+				}
+			}
+		}
+		assertEquals(INITIAL_BUCKETS * 4 + 1, indexObj.getBucketCount());
+		assertEquals(0, indexObj.lookup(key(numOfKeys)).length);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Drops half the keys by deleting their records one at a time, adds as many new keys,
+	// and checks that they take the freed entries rather than growing the table, and that
+	// the index reads back the same
+
+	@Test
+	public void reusesEntriesOfDroppedKeys() throws Exception {
+		HashIndex indexObj = newIndex();
+		int numOfKeys = 100;
+		for(int i = 0; i < numOfKeys; i++) {
+			indexObj.insertIntoIndex(key(i), 2 * i);
+			indexObj.insertIntoIndex(key(i), 2 * i + 1);
+		}
+		int entryCapacity = getEntryCapacity(indexObj);
+		int numOfBuckets = indexObj.getBucketCount();
+
+		for(int i = 0; i < numOfKeys; i += 2) {
+			indexObj.deleteFromIndex(key(i), 2 * i);
+			assertArrayEquals(new int[] {2 * i + 1}, indexObj.lookup(key(i)));
+			indexObj.deleteFromIndex(key(i), 2 * i);
+			indexObj.deleteFromIndex(key(i), 2 * i + 1);
+			assertEquals(0, indexObj.lookup(key(i)).length);
+		}
+		indexObj.deleteFromIndex(key(numOfKeys), 0);
+		assertEquals(numOfKeys / 2, indexObj.getValueCount());
+
+		for(int i = numOfKeys; i < numOfKeys * 3 / 2; i++) {
+			indexObj.insertIntoIndex(key(i), 2 * i);
+		}
+		assertEquals(numOfKeys, indexObj.getValueCount());
+		assertEquals(entryCapacity, getEntryCapacity(indexObj));
+		assertEquals(numOfBuckets, indexObj.getBucketCount());
+		checkKeys(indexObj, numOfKeys);
+
+		indexObj.dumpIndex();
+		HashIndex restored = HashIndex.open(indexObj.getIndexName(), indexObj.getFileName());
+		assertEquals(numOfKeys, restored.getValueCount());
+		checkKeys(restored, numOfKeys);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Checks the record Ids of every key after the odd keys below numOfKeys were kept and
+	// the keys from numOfKeys on were added
+
+	private static void checkKeys(HashIndex indexObj, int numOfKeys) {
+		for(int i = 0; i < numOfKeys * 3 / 2; i++) {
+			if(i >= numOfKeys) {
+				assertArrayEquals(new int[] {2 * i}, indexObj.lookup(key(i)));
+			}
+			else if(i % 2 == 1) {
+				assertArrayEquals(new int[] {2 * i, 2 * i + 1}, indexObj.lookup(key(i)));
+			}
+			else {
+				assertEquals(0, indexObj.lookup(key(i)).length);
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Makes an empty index over a file in the temporary folder
+
+	private HashIndex newIndex() {
+		return new HashIndex("hashIndex", "code", new File(folder.getRoot(), "records").getPath());
+	}
+
+	private static String key(int i) {
+		return "key" + i;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the number of entries there is room for in the index
+
+	private static int getEntryCapacity(HashIndex indexObj) throws Exception {
+		Field field = HashIndex.class.getDeclaredField("entryCapacity");
+		field.setAccessible(true);
+		return field.getInt(indexObj);
+	}
+}
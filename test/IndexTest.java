@@ -0,0 +1,132 @@
+package database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Checks that leaf nodes are sized by the bytes their keys take up once compressed, so that
+// keys sharing a long prefix give a shallower tree than keys of the same length that share
+// nothing
+public class IndexTest {
+
+	// The number of records, the width of the key columns and the fanout of the indexes
+	private static final int NUM_RECORDS = 20000;
+	private static final int KEY_WIDTH = 64;
+	private static final int FANOUT = 8;
+
+	// The prefix shared by every key of the url column
+	private static final String URL_PREFIX = "https://www.example.com/catalog/products/items/";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void closeFiles() throws Exception {
+		DataManager.exit();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Bulk loads an index over keys sharing a long prefix and one over random keys of the
+	// same length, and checks that the first is shallower and that both find every key
+
+	@Test
+	public void sharedPrefixesLowerBulkLoadedTrees() throws Exception {
+		DataFile fileObj = newFile();
+		insertRecords(fileObj);
+		Index urlIndex = fileObj.createIndex("urlIndex", "url", FANOUT);
+		Index codeIndex = fileObj.createIndex("codeIndex", "code", FANOUT);
+
+		assertTrue("The tree over shared prefixes is " + urlIndex.getHeight() +
+				" levels high, the one over random keys " + codeIndex.getHeight(),
+				urlIndex.getHeight() < codeIndex.getHeight());
+		assertEquals(NUM_RECORDS, countEntries(urlIndex));
+		assertEquals(NUM_RECORDS, countEntries(codeIndex));
+		assertEquals(1, countEntries(urlIndex.iterator(url(NUM_RECORDS / 2))));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Inserts the same keys one at a time into empty indexes, so that leaf nodes are split
+	// by the bytes they take up rather than bulk loaded, and checks that every node still
+	// fits in its page once written and read back
+
+	@Test
+	public void splitLeavesFitTheirPages() throws Exception {
+		DataFile fileObj = newFile();
+		Index urlIndex = fileObj.createIndex("urlIndex", "url", FANOUT);
+		Index codeIndex = fileObj.createIndex("codeIndex", "code", FANOUT);
+		insertRecords(fileObj);
+		assertEquals(NUM_RECORDS, countEntries(urlIndex));
+		assertEquals(NUM_RECORDS, countEntries(codeIndex));
+
+		String fileName = fileObj.getFileName();
+		DataManager.exit();
+		DataFile restored = DataManager.restoreFile(fileName);
+		assertEquals(NUM_RECORDS, countEntries(restored.restoreIndex("urlIndex")));
+		assertEquals(NUM_RECORDS, countEntries(restored.restoreIndex("codeIndex")));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a file with a url column and a code column, both KEY_WIDTH characters wide
+
+	private DataFile newFile() throws Exception {
+		Map<String, Integer> descriptor = new HashMap<String, Integer>();
+		descriptor.put("url", KEY_WIDTH);
+		descriptor.put("code", KEY_WIDTH);
+		return DataManager.createFile(new File(folder.getRoot(), "records").getPath(), descriptor);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Inserts records whose urls share URL_PREFIX and whose codes are random characters of
+	// the same length, in random order
+
+	private static void insertRecords(DataFile fileObj) {
+		Random random = new Random(42);
+		int[] order = new int[NUM_RECORDS];
+		for(int i = 0; i < NUM_RECORDS; i++) {
+			int j = random.nextInt(i + 1);
+			order[i] = order[j];
+			order[j] = i;
+		}
+
+		for(int i = 0; i < NUM_RECORDS; i++) {
+			String url = url(order[i]);
+			StringBuilder code = new StringBuilder();
+			while(code.length() < url.length()) {
+				code.append((char) ('a' + random.nextInt(26)));
+			}
+			Map<String, String> record = new HashMap<String, String>();
+			record.put("url", url);
+			record.put("code", code.toString());
+			fileObj.insertRecord(record);
+		}
+	}
+
+	private static String url(int i) {
+		return URL_PREFIX + String.format("%08d", i);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Counts the entries of the whole index, or those returned by an iterator
+
+	private static int countEntries(Index indexObj) {
+		return countEntries(indexObj.iterator(null, null, true, true));
+	}
+
+	private static int countEntries(Iterator<Integer> entryIt) {
+		int numOfEntries = 0;
+		while(entryIt.hasNext()) {
+			entryIt.next();
+			numOfEntries++;
+		}
+		return numOfEntries;
+	}
+}
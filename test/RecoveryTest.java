@@ -0,0 +1,200 @@
+package database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import database.helperClasses.WriteAheadLog;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Kills a process in the middle of inserting and deleting records, then replays its log and
+// checks that the record store and every index over it still agree. The process is halted
+// without any shutdown, so whatever the kernel holds of the mapped record file survives
+// while the log records that were only buffered are lost
+public class RecoveryTest {
+
+	// The number of crashes, and the threads changing records until each crash
+	private static final int ROUNDS = 8;
+	private static final int THREADS = 4;
+
+	// The records start out as this many, with a key column of this many distinct values
+	private static final int INITIAL_RECORDS = 5000;
+	private static final int NUM_KEYS = 40;
+
+	// The log is checkpointed whenever it grows past this size, so that some crashes land
+	// in the middle of a checkpoint
+	private static final long CHECKPOINT_BYTES = 256 * 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// --------------------------------------------------------------------------------------
+	// Crashes a process several times, each at a different moment, and checks the files it
+	// leaves behind after the log is replayed
+
+	@Test
+	public void replayKeepsIndexesInStepWithRecords() throws Exception {
+		for(int round = 0; round < ROUNDS; round++) {
+			File dir = folder.newFolder();
+			String fileName = new File(dir, "records").getPath();
+			String logName = new File(dir, "records.log").getPath();
+			crash(fileName, logName, round);
+
+			DataManager.openLog(logName, WriteAheadLog.SyncPolicy.PERIODIC);
+			try {
+				DataFile fileObj = DataManager.getDataFile(fileName);
+				assertNotNull("The file was not restored from the log", fileObj);
+				verify(fileObj);
+			}
+			finally {
+				DataManager.exit();
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Runs the workload in another process and waits for it to halt
+
+	private static void crash(String fileName, String logName, int seed) throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator +
+				"java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+				System.getProperty("java.class.path"), RecoveryTest.class.getName(), fileName,
+				logName, String.valueOf(seed));
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(new File(logName + ".out"));
+		Process process = builder.start();
+		assertTrue("The workload did not halt", process.waitFor(60, TimeUnit.SECONDS));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Checks that every index finds exactly the records holding each key, and that the
+	// record count matches the records there are
+
+	private static void verify(DataFile fileObj) {
+		Map<String, List<Integer>> expected = new HashMap<String, List<Integer>>();
+		int numOfRecords = 0;
+		RecordCursor cursor = fileObj.cursor();
+		while(cursor.nextRecordId() != RecordCursor.END) {
+			numOfRecords++;
+			String key = cursor.getValue("k");
+			List<Integer> recordIds = expected.get(key);
+			if(recordIds == null) {
+				recordIds = new ArrayList<Integer>();
+				expected.put(key, recordIds);
+			}
+			recordIds.add(cursor.getRecordId());
+		}
+		assertEquals("Record count", numOfRecords, fileObj.getRecordCount());
+
+		Index tree = fileObj.getIndexCollection().iterator().next();
+		HashIndex hash = fileObj.getHashIndexCollection().iterator().next();
+		BitmapIndex bitmap = fileObj.getBitmapIndexCollection().iterator().next();
+		for(int i = 0; i < NUM_KEYS; i++) {
+			String key = key(i);
+			List<Integer> recordIds = expected.get(key);
+			if(recordIds == null) {
+				recordIds = Collections.emptyList();
+			}
+			assertEquals("B+ tree index for " + key, recordIds, sorted(tree.iterator(key)));
+			assertEquals("Bitmap index for " + key, recordIds, sorted(bitmap.iterator(key)));
+
+			int[] found = hash.lookup(key);
+			Arrays.sort(found);
+			List<Integer> hashIds = new ArrayList<Integer>();
+			for(int j = 0; j < found.length; j++) {
+				hashIds.add(found[j]);
+			}
+			assertEquals("Hash index for " + key, recordIds, hashIds);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the record Ids of the iterator in ascending order
+
+	private static List<Integer> sorted(Iterator<Integer> it) {
+		List<Integer> recordIds = new ArrayList<Integer>();
+		while(it.hasNext()) {
+			recordIds.add(it.next());
+		}
+		Collections.sort(recordIds);
+		return recordIds;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the value of the key column numbered i
+
+	private static String key(int i) {
+		return String.format("%02d", i);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a new record with a random key
+
+	private static Map<String, String> record(Random random) {
+		Map<String, String> record = new HashMap<String, String>();
+		record.put("k", key(random.nextInt(NUM_KEYS)));
+		record.put("v", Integer.toString(random.nextInt(1000000)));
+		return record;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// The workload run by the process that crashes. It creates a file with a B+ tree, a
+	// bitmap and a hash index over the key column, checkpoints it, and halts while several
+	// threads insert and delete records
+
+	public static void main(String[] args) throws Exception {
+		final Random random = new Random(Long.parseLong(args[2]));
+		DataManager.openLog(args[1], WriteAheadLog.SyncPolicy.PERIODIC, 60 * 1000,
+				CHECKPOINT_BYTES);
+
+		Map<String, Integer> descriptor = new HashMap<String, Integer>();
+		descriptor.put("k", 2);
+		descriptor.put("v", 8);
+		final DataFile fileObj = DataManager.createFile(args[0], descriptor);
+		fileObj.createIndex("_tree", "k");
+		fileObj.createBitmapIndex("_bitmap", "k");
+		fileObj.createHashIndex("_hash", "k");
+
+		List<Map<String, String>> records = new ArrayList<Map<String, String>>();
+		for(int i = 0; i < INITIAL_RECORDS; i++) {
+			records.add(record(random));
+		}
+		fileObj.insertRecords(records);
+		DataManager.checkpoint();
+
+		for(int i = 0; i < THREADS; i++) {
+			final Random threadRandom = new Random(random.nextLong());
+			Thread thread = new Thread() {
+				public void run() {
+					while(true) {
+						if(threadRandom.nextInt(3) == 0) {
+							fileObj.insertRecord(record(threadRandom));
+						}
+						else {
+							fileObj.deleteRecord(threadRandom.nextInt(fileObj.getRecordCount() +
+									INITIAL_RECORDS));
+						}
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		Thread.sleep(100 + random.nextInt(400));
+		Runtime.getRuntime().halt(0);
+	}
+}
@@ -0,0 +1,207 @@
+package database.helperClasses;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.reflect.Field;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Random;
+import org.junit.Test;
+
+// Checks bitmaps against java.util.BitSet while their containers turn from arrays into
+// bitsets and back, when they are combined and when they are written and read back
+public class BitmapTest {
+
+	// The thresholds of Bitmap at which a container turns into a bitset and back
+	private static final int ARRAY_MAX = 4096;
+	private static final int ARRAY_MIN = ARRAY_MAX / 2;
+
+	// The number of Ids covered by a container
+	private static final int CONTAINER_IDS = 1 << 16;
+
+	// The highest Id the reference set can hold and look past
+	private static final int HIGHEST_ID = Integer.MAX_VALUE - 1;
+
+	// --------------------------------------------------------------------------------------
+	// An array container turns into a bitset when it passes ARRAY_MAX Ids, and back into an
+	// array once it is down to ARRAY_MIN
+
+	@Test
+	public void convertsContainersAtThresholds() throws Exception {
+		Bitmap bitmap = new Bitmap();
+		BitSet expected = new BitSet();
+		for(int i = 0; i < ARRAY_MAX; i++) {
+			add(bitmap, expected, CONTAINER_IDS + 3 * i);
+		}
+		assertFalse(isBitset(bitmap, 0));
+		assertFalse(bitmap.add(CONTAINER_IDS));
+		assertHolds(expected, bitmap);
+
+		add(bitmap, expected, CONTAINER_IDS + 1);
+		assertTrue(isBitset(bitmap, 0));
+		assertHolds(expected, bitmap);
+
+		int recordId = expected.nextSetBit(0);
+		while(expected.cardinality() > ARRAY_MIN + 1) {
+			remove(bitmap, expected, recordId);
+			recordId = expected.nextSetBit(recordId);
+		}
+		assertTrue(isBitset(bitmap, 0));
+		assertHolds(expected, bitmap);
+
+		remove(bitmap, expected, recordId);
+		assertFalse(isBitset(bitmap, 0));
+		assertFalse(bitmap.remove(recordId));
+		assertHolds(expected, bitmap);
+
+		while(expected.isEmpty() == false) {
+			remove(bitmap, expected, expected.nextSetBit(0));
+		}
+		assertTrue(bitmap.isEmpty());
+		assertHolds(expected, bitmap);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Combines bitmaps whose containers are arrays, bitsets or missing in every pairing, and
+	// checks and, or and andNot against the same operations on BitSets
+
+	@Test
+	public void combinesEveryKindOfContainer() throws Exception {
+		// The number of Ids in each of the five containers of each bitmap. The arrays of the
+		// third container together pass ARRAY_MAX, and the bitsets of the fourth share fewer
+		// than ARRAY_MAX Ids
+		int[][] densities = {
+			{ 100, ARRAY_MAX + 500, 3000, 12000, 0 },
+			{ 20000, 50, 3000, 12000, 700 },
+			{ 0, ARRAY_MAX + 1, 0, ARRAY_MIN, 1 }
+		};
+		Random random = new Random(42);
+		Bitmap[] bitmaps = new Bitmap[densities.length];
+		BitSet[] expected = new BitSet[densities.length];
+		for(int i = 0; i < densities.length; i++) {
+			bitmaps[i] = new Bitmap();
+			expected[i] = new BitSet();
+			for(int j = 0; j < densities[i].length; j++) {
+				int count = 0;
+				while(count < densities[i][j]) {
+					int recordId = j * CONTAINER_IDS + random.nextInt(CONTAINER_IDS);
+					if(expected[i].get(recordId) == false) {
+						add(bitmaps[i], expected[i], recordId);
+						count++;
+					}
+				}
+			}
+		}
+
+		for(int i = 0; i < bitmaps.length; i++) {
+			for(int j = 0; j < bitmaps.length; j++) {
+				BitSet and = (BitSet) expected[i].clone();
+				and.and(expected[j]);
+				assertHolds(and, bitmaps[i].and(bitmaps[j]));
+
+				BitSet or = (BitSet) expected[i].clone();
+				or.or(expected[j]);
+				assertHolds(or, bitmaps[i].or(bitmaps[j]));
+
+				BitSet andNot = (BitSet) expected[i].clone();
+				andNot.andNot(expected[j]);
+				assertHolds(andNot, bitmaps[i].andNot(bitmaps[j]));
+			}
+			assertHolds(expected[i], bitmaps[i]);
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes bitmaps and reads them back, including a bitset container holding few enough
+	// Ids to be written as an array, and checks that they can still be changed afterwards
+
+	@Test
+	public void readsBackWhatIsWritten() throws Exception {
+		Bitmap bitmap = new Bitmap();
+		BitSet expected = new BitSet();
+		assertHolds(expected, roundTrip(bitmap));
+
+		for(int i = 0; i <= ARRAY_MAX; i++) {
+			add(bitmap, expected, 2 * i);
+		}
+		for(int i = 0; i < 100; i++) {
+			remove(bitmap, expected, 2 * i);
+		}
+		assertTrue(isBitset(bitmap, 0));
+		Random random = new Random(7);
+		for(int i = 0; i < 30000; i++) {
+			add(bitmap, expected, 5 * CONTAINER_IDS + random.nextInt(CONTAINER_IDS));
+		}
+		add(bitmap, expected, HIGHEST_ID);
+
+		Bitmap read = roundTrip(bitmap);
+		assertHolds(expected, read);
+		assertFalse(isBitset(read, 0));
+		assertTrue(isBitset(read, 1));
+
+		for(int i = 0; i < ARRAY_MAX; i++) {
+			add(read, expected, 2 * i + 1);
+		}
+		remove(read, expected, HIGHEST_ID);
+		assertHolds(expected, read);
+		assertHolds(expected, roundTrip(read));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Adds or removes an Id in both the bitmap and the reference set
+
+	private static void add(Bitmap bitmap, BitSet expected, int recordId) {
+		assertEquals(expected.get(recordId) == false, bitmap.add(recordId));
+		expected.set(recordId);
+	}
+
+	private static void remove(Bitmap bitmap, BitSet expected, int recordId) {
+		assertEquals(expected.get(recordId), bitmap.remove(recordId));
+		expected.clear(recordId);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Checks that a bitmap holds exactly the Ids of the reference set, in ascending order
+
+	private static void assertHolds(BitSet expected, Bitmap actual) {
+		assertEquals(expected.cardinality(), actual.cardinality());
+		assertEquals(expected.isEmpty(), actual.isEmpty());
+		Iterator<Integer> it = actual.iterator();
+		for(int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+			assertTrue(it.hasNext());
+			assertEquals(i, it.next().intValue());
+			assertTrue(actual.contains(i));
+			assertEquals(expected.get(i + 1), actual.contains(i + 1));
+		}
+		assertFalse(it.hasNext());
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Writes a bitmap and reads it back
+
+	private static Bitmap roundTrip(Bitmap bitmap) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		bitmap.writeTo(out);
+		out.flush();
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Bitmap read = Bitmap.readFrom(in);
+		assertEquals(-1, in.read());
+		return read;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns true if the container at the given position of a bitmap is a bitset
+
+	private static boolean isBitset(Bitmap bitmap, int position) throws Exception {
+		Field bitsets = Bitmap.class.getDeclaredField("bitsets");
+		bitsets.setAccessible(true);
+		return ((long[][]) bitsets.get(bitmap))[position] != null;
+	}
+}
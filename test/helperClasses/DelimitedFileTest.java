@@ -0,0 +1,262 @@
+package database.helperClasses;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import database.DataFile;
+import database.DataManager;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Checks the quoting rules of delimited files, how a missing value is told from an empty
+// one, line endings, and that records exported from a file import back the same
+public class DelimitedFileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void closeFiles() throws Exception {
+		DataManager.exit();
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A quoted field may hold the delimiter, line breaks and doubled quotes, and the line
+	// breaks inside it are counted
+
+	@Test
+	public void readsQuotedFields() throws Exception {
+		DelimitedReader reader = newReader("a,\"b,c\",\"one\ntwo\",\"say \"\"hi\"\"\",\"x\r\ny\"\nlast\n",
+				DelimitedReader.CSV);
+		try {
+			assertEquals(Arrays.asList("a", "b,c", "one\ntwo", "say \"hi\"", "x\r\ny"), reader.readRow());
+			assertEquals(4, reader.getLineNumber());
+			assertEquals(Arrays.asList("last"), reader.readRow());
+			assertNull(reader.readRow());
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// An empty field is null unless it is quoted, in which case it is an empty string
+
+	@Test
+	public void tellsMissingFromEmpty() throws Exception {
+		DelimitedReader reader = newReader(",\"\",x,\n\"\"\n", DelimitedReader.CSV);
+		try {
+			assertEquals(Arrays.asList(null, "", "x", null), reader.readRow());
+			assertEquals(Arrays.asList(""), reader.readRow());
+			assertNull(reader.readRow());
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Rows may end with a line feed, a carriage return or both, and the last row needs no
+	// line break. An empty line is a row with no fields
+
+	@Test
+	public void endsRowsAtAnyLineBreak() throws Exception {
+		DelimitedReader reader = newReader("a,b\r\nc,d\re,f\n\r\ng,h", DelimitedReader.CSV);
+		try {
+			assertEquals(Arrays.asList("a", "b"), reader.readRow());
+			assertEquals(2, reader.getLineNumber());
+			assertEquals(Arrays.asList("c", "d"), reader.readRow());
+			assertEquals(3, reader.getLineNumber());
+			assertEquals(Arrays.asList("e", "f"), reader.readRow());
+			assertEquals(new ArrayList<String>(), reader.readRow());
+			assertEquals(5, reader.getLineNumber());
+			assertEquals(Arrays.asList("g", "h"), reader.readRow());
+			assertNull(reader.readRow());
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// A quoted field that is not closed, or is followed by anything but a delimiter or a line
+	// break, is rejected with the line it is on
+
+	@Test
+	public void rejectsBrokenQuotes() throws Exception {
+		String[] contents = { "a,\"b\nc\n", "a,\"b\"c\n" };
+		for(int i = 0; i < contents.length; i++) {
+			DelimitedReader reader = newReader(contents[i], DelimitedReader.CSV);
+			try {
+				reader.readRow();
+				fail("Read \"" + contents[i] + "\"");
+			}
+			catch(IllegalArgumentException ex) {
+				assertTrue(ex.getMessage(), ex.getMessage().startsWith("Line 1: a quoted field"));
+			}
+			finally {
+				reader.close();
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// The writer quotes only the fields that need it, writes a missing field as nothing and
+	// an empty one as two quotes, and the reader reads back every row it writes
+
+	@Test
+	public void readsBackWhatIsWritten() throws Exception {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		rows.add(Arrays.asList("plain", "with,comma", "with\ttab", "", null, "q\"uote"));
+		rows.add(Arrays.asList("one\ntwo", "cr\r", "crlf\r\n", "\"", null, null));
+		rows.add(Arrays.asList(null, null, "", "", "end", " spaced "));
+
+		char[] delimiters = { DelimitedReader.CSV, DelimitedReader.TSV };
+		for(int i = 0; i < delimiters.length; i++) {
+			String fileName = folder.newFile().getPath();
+			DelimitedWriter writer = new DelimitedWriter(fileName, delimiters[i]);
+			for(int j = 0; j < rows.size(); j++) {
+				writer.writeRow(rows.get(j));
+			}
+			writer.close();
+
+			DelimitedReader reader = new DelimitedReader(fileName, delimiters[i]);
+			try {
+				for(int j = 0; j < rows.size(); j++) {
+					assertEquals(rows.get(j), reader.readRow());
+				}
+				assertNull(reader.readRow());
+			}
+			finally {
+				reader.close();
+			}
+		}
+
+		String fileName = folder.newFile().getPath();
+		DelimitedWriter writer = new DelimitedWriter(fileName, DelimitedReader.CSV);
+		writer.writeRow(rows.get(0));
+		writer.close();
+		assertEquals("plain,\"with,comma\",with\ttab,\"\",,\"q\"\"uote\"\n", read(fileName));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Empty lines are skipped in a file of several columns, but in a file of one column an
+	// empty line is a record without a value
+
+	@Test
+	public void importsEmptyLinesOfOneColumn() throws Exception {
+		DataFile oneColumn = newFile("single", "name");
+		String path = write("name\nalice\n\n\"\"\nbob\n");
+		assertEquals(4, oneColumn.importFile(path, DelimitedReader.CSV));
+		assertEquals(Arrays.asList(record("name", "alice"), record(), record("name", ""),
+				record("name", "bob")), records(oneColumn));
+
+		DataFile twoColumns = newFile("double", "name", "code");
+		path = write("\nname,code\nalice,1\n\n,2\r\n\r\nbob,\n");
+		assertEquals(3, twoColumns.importFile(path, DelimitedReader.CSV));
+		assertEquals(Arrays.asList(record("name", "alice", "code", "1"), record("code", "2"),
+				record("name", "bob")), records(twoColumns));
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Records with missing values, empty values and values that need quoting are exported
+	// and imported into a new file, which then holds the same records in the same order
+
+	@Test
+	public void importsWhatIsExported() throws Exception {
+		DataFile fileObj = newFile("source", "name", "note");
+		fileObj.insertRecord(record("name", "alice", "note", "likes \"quotes\", commas"));
+		fileObj.insertRecord(record("name", "", "note", "two\nlines\r\n"));
+		fileObj.insertRecord(record("note", "no name"));
+		fileObj.insertRecord(record());
+		fileObj.insertRecord(record("name", "bob", "note", ""));
+		int deleted = fileObj.insertRecord(record("name", "gone"));
+		fileObj.deleteRecord(deleted);
+
+		DataFile oneColumn = newFile("names", "name");
+		oneColumn.insertRecord(record("name", "carol"));
+		oneColumn.insertRecord(record());
+		oneColumn.insertRecord(record("name", ""));
+
+		DataFile[] sources = { fileObj, oneColumn };
+		String[][] columns = { { "name", "note" }, { "name" } };
+		char[] delimiters = { DelimitedReader.CSV, DelimitedReader.TSV };
+		for(int i = 0; i < sources.length; i++) {
+			for(int j = 0; j < delimiters.length; j++) {
+				String path = folder.newFile().getPath();
+				List<Map<String, String>> expected = records(sources[i]);
+				assertEquals(expected.size(), sources[i].exportFile(path, delimiters[j]));
+
+				DataFile copy = newFile("copy" + i + j, columns[i]);
+				assertEquals(expected.size(), copy.importFile(path, delimiters[j]));
+				assertEquals(expected, records(copy));
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Makes a file in the temporary folder with the given columns, 40 characters wide
+
+	private DataFile newFile(String name, String... columns) throws Exception {
+		Map<String, Integer> descriptor = new HashMap<String, Integer>();
+		for(int i = 0; i < columns.length; i++) {
+			descriptor.put(columns[i], 40);
+		}
+		return DataManager.createFile(new File(folder.getRoot(), name).getPath(), descriptor);
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns the records of a file in ascending order of record Id
+
+	private static List<Map<String, String>> records(DataFile fileObj) {
+		List<Map<String, String>> records = new ArrayList<Map<String, String>>();
+		Iterator<Integer> it = fileObj.iterator();
+		while(it.hasNext()) {
+			records.add(fileObj.getRecord(it.next()));
+		}
+		return records;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Makes a record from column names each followed by its value
+
+	private static Map<String, String> record(String... namesAndValues) {
+		Map<String, String> record = new HashMap<String, String>();
+		for(int i = 0; i < namesAndValues.length; i += 2) {
+			record.put(namesAndValues[i], namesAndValues[i + 1]);
+		}
+		return record;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Helpers that write a file in the temporary folder, read one back, or open a reader over
+	// the given contents
+
+	private String write(String contents) throws Exception {
+		File file = folder.newFile();
+		Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+		return file.getPath();
+	}
+
+	private static String read(String fileName) throws Exception {
+		return new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8);
+	}
+
+	private DelimitedReader newReader(String contents, char delimiter) throws Exception {
+		return new DelimitedReader(write(contents), delimiter);
+	}
+}
@@ -0,0 +1,112 @@
+package database.helperClasses;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Opens record files left behind the way a crash leaves them, by writing their header by hand
+public class MappedRecordStoreTest {
+
+	// The positions of the highest record Id and the record count in the header
+	private static final int MAX_REC_ID_OFFSET = 8;
+	private static final int RECORD_COUNT_OFFSET = 12;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// --------------------------------------------------------------------------------------
+	// A file whose flush was cut short has its records counted from the status bytes
+
+	@Test
+	public void countsRecordsAfterInterruptedFlush() throws Exception {
+		String fileName = createFile(10, 3);
+		writeHeaderInt(fileName, RECORD_COUNT_OFFSET, -1);
+
+		MappedRecordStore store = MappedRecordStore.open(fileName);
+		try {
+			assertEquals(7, store.size());
+			assertFalse(store.remove(4));
+			assertEquals(7, store.size());
+		}
+		finally {
+			store.close();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Slots past the highest record Id in the header belong to inserts that were lost, and
+	// are neither counted nor found
+
+	@Test
+	public void ignoresSlotsPastMaxRecId() throws Exception {
+		String fileName = createFile(10, 0);
+		writeHeaderInt(fileName, MAX_REC_ID_OFFSET, 5);
+		writeHeaderInt(fileName, RECORD_COUNT_OFFSET, -1);
+
+		MappedRecordStore store = MappedRecordStore.open(fileName);
+		try {
+			assertEquals(6, store.size());
+			assertFalse(store.contains(8));
+			assertEquals(-1, store.nextRecordId(6));
+
+			store.put(8, record(8));
+			assertEquals(7, store.size());
+			assertTrue(store.contains(8));
+			assertFalse(store.contains(7));
+		}
+		finally {
+			store.close();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Creates a record file holding the given number of records, deletes every third one up
+	// to numOfDeletes of them, and flushes it
+
+	private String createFile(int numOfRecords, int numOfDeletes) throws Exception {
+		String fileName = new File(folder.getRoot(), "records").getPath();
+		Map<String, Integer> descriptor = new HashMap<String, Integer>();
+		descriptor.put("v", 4);
+		MappedRecordStore store = MappedRecordStore.create(fileName, descriptor);
+		for(int i = 0; i < numOfRecords; i++) {
+			store.put(i, record(i));
+		}
+		for(int i = 0; i < numOfDeletes; i++) {
+			assertTrue(store.remove(1 + 3 * i));
+		}
+		store.flush();
+		store.close();
+		return fileName;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Returns a record with one value
+
+	private static Map<String, String> record(int i) {
+		Map<String, String> record = new HashMap<String, String>();
+		record.put("v", Integer.toString(i));
+		return record;
+	}
+
+	// --------------------------------------------------------------------------------------
+	// Overwrites an int of the header
+
+	private static void writeHeaderInt(String fileName, int offset, int value) throws Exception {
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		try {
+			file.seek(offset);
+			file.writeInt(value);
+		}
+		finally {
+			file.close();
+		}
+	}
+}